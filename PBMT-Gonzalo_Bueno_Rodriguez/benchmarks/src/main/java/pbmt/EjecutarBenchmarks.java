@@ -0,0 +1,29 @@
+package pbmt;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * punto de entrada de benchmarks.jar, acepta las mismas opciones que el Main de JMH (-p imagen=500dpi, -f, -wi ...)
+ * y añade siempre el perfilador gc, asi cada resultado trae tambien gc.alloc.rate.norm (bytes reservados por operacion)
+ * uso: java -jar benchmarks/target/benchmarks.jar [opciones JMH] [expresion de benchmarks]
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class EjecutarBenchmarks {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions opciones = new CommandLineOptions(args);
+        ChainedOptionsBuilder constructor = new OptionsBuilder().parent(opciones);
+        if (opciones.getProfilers().stream().noneMatch(p -> p.getKlass().equals(GCProfiler.class.getName()))) {
+            constructor.addProfiler(GCProfiler.class);
+        }
+        if (opciones.shouldHelp() || opciones.shouldList()) {//la ayuda y la lista las atiende el Main de JMH
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        new Runner(constructor.build()).run();
+    }
+}
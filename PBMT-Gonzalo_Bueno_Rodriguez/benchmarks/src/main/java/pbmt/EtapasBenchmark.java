@@ -0,0 +1,259 @@
+package pbmt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * benchmarks JMH de cada etapa de FingerPrintImage, del proceso automatico completo (opcion 7) y de la extraccion de minucias
+ * cada etapa se mide con la salida de la etapa anterior ya calculada, asi solo se mide esa etapa
+ * imagenes: imagen.jpg (o la indicada con -Dpbmt.imagen) y huellas sinteticas equivalentes a 300, 500 y 1000 dpi
+ * con EjecutarBenchmarks se añade siempre el perfilador gc para ver la memoria reservada por operacion
+ * el fork usa NucleosFila vectoriales, con -jvmArgsAppend -Dpbmt.vector=no se miden las mismas etapas con los escalares
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class EtapasBenchmark {
+    @Param({"imagen.jpg", "300dpi", "500dpi", "1000dpi"})
+    public String imagen;
+
+    @Param({"50"})
+    public int umbral;
+
+    private FingerPrintImage etapas;
+    private BufferedImage original;
+    private FingerprintRaster grises;
+    private FingerprintRaster ecualizada;
+    private FingerprintRaster byN;
+    private FingerprintRaster filtrada1;
+    private FingerprintRaster filtrada2;
+    private FingerprintRaster adelgazada;
+    private Path salida;//sin extension, cada escritor pone la suya
+    private ImagenBinaria esqueleto;
+    private final ExtractorMinucias extractor = new ExtractorMinucias();
+    private final MascaraSegmentacion mascara = new MascaraSegmentacion();
+    private final EscritorImagen escritorJpeg = new EscritorJpeg();
+    private final EscritorImagen escritorPng = new EscritorPng();
+    private final EscritorImagen escritorNetpbm = new EscritorNetpbm();
+    private final Binarizador otsu = Binarizador.otsu();
+    private final Binarizador media = Binarizador.porNombre("media");
+    private final Binarizador sauvola = Binarizador.porNombre("sauvola");
+    private final ProcesadorFlujo flujo = new ProcesadorFlujo(Binarizador.otsu());
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        original = cargarImagen(imagen);
+        etapas = new FingerPrintImage(original, umbral);
+        grises = etapas.convertirImagenAGrises(original);
+        ecualizada = etapas.calcularHistograma(grises);
+        byN = etapas.convertirImagenAByN(ecualizada, umbral);
+        filtrada1 = etapas.filtroBinario1(byN);
+        filtrada2 = etapas.filtroBinario2(filtrada1);
+        adelgazada = etapas.adelgazamientoZhangSuen(filtrada2);
+        esqueleto = ImagenBinaria.desdeRaster(adelgazada);
+        salida = Files.createTempFile("pbmt-benchmark", "");
+        escritorNetpbm.escribir(grises, 1, Paths.get(salida + ".pgm"));
+    }
+
+    @TearDown(Level.Trial)
+    public void terminar() throws IOException {
+        for (String extension : new String[]{"", ".png", ".jpg", ".pbm", ".pgm"}) {
+            Files.deleteIfExists(Paths.get(salida + extension));
+        }
+    }
+
+    /**
+     * imagen de un archivo o huella sintetica si el nombre es del tipo 500dpi
+     */
+    static BufferedImage cargarImagen(String nombre) throws IOException {
+        if (nombre.endsWith("dpi")) {
+            return HuellaSintetica.aResolucion(Integer.parseInt(nombre.substring(0, nombre.length() - 3)));
+        }
+        File archivo = new File(System.getProperty("pbmt.imagen", nombre));
+        BufferedImage leida = ImageIO.read(archivo);
+        if (leida == null) {
+            throw new IOException("no se puede leer " + archivo.getAbsolutePath());
+        }
+        return leida;
+    }
+
+    @Benchmark
+    public FingerprintRaster convertirImagenAGrises() {
+        return etapas.convertirImagenAGrises(original);
+    }
+
+    @Benchmark
+    public FingerprintRaster calcularHistograma() {
+        return etapas.calcularHistograma(grises);
+    }
+
+    @Benchmark
+    public FingerprintRaster convertirImagenAByN() {
+        return etapas.convertirImagenAByN(ecualizada, umbral);
+    }
+
+    @Benchmark
+    public FingerprintRaster binarizarOtsu() {
+        return etapas.convertirImagenAByN(ecualizada, otsu);
+    }
+
+    @Benchmark
+    public FingerprintRaster binarizarMediaLocal() {
+        return etapas.convertirImagenAByN(ecualizada, media);
+    }
+
+    @Benchmark
+    public FingerprintRaster binarizarSauvola() {
+        return etapas.convertirImagenAByN(ecualizada, sauvola);
+    }
+
+    @Benchmark
+    public FingerprintRaster filtroBinario1() {
+        return etapas.filtroBinario1(byN);
+    }
+
+    @Benchmark
+    public FingerprintRaster filtroBinario2() {
+        return etapas.filtroBinario2(filtrada1);
+    }
+
+    @Benchmark
+    public FingerprintRaster adelgazamientoZhangSuen() {
+        return etapas.adelgazamientoZhangSuen(filtrada2);
+    }
+
+    /**
+     * guardar el esqueleto como el menu, con el escritor por defecto (PNG)
+     */
+    @Benchmark
+    public String pasarImagenAArchivo() throws IOException {
+        return etapas.pasarImagenAArchivo(adelgazada, salida.toString(), 0);
+    }
+
+    /**
+     * guardar el esqueleto en JPEG con ImageIO, la salida original
+     */
+    @Benchmark
+    public Path escribirJpeg() throws IOException {
+        Path archivo = Paths.get(salida + ".jpg");
+        escritorJpeg.escribir(adelgazada, 0, archivo);
+        return archivo;
+    }
+
+    @Benchmark
+    public Path escribirPng() throws IOException {
+        Path archivo = Paths.get(salida + ".png");
+        escritorPng.escribir(adelgazada, 0, archivo);
+        return archivo;
+    }
+
+    @Benchmark
+    public Path escribirPbm() throws IOException {
+        Path archivo = Paths.get(salida + ".pbm");
+        escritorNetpbm.escribir(adelgazada, 0, archivo);
+        return archivo;
+    }
+
+    /**
+     * extraccion de minucias como la opcion 8 del menu, con un extractor nuevo por imagen
+     */
+    @Benchmark
+    public PlantillaHuella extraerMinucias() {
+        return etapas.extraerMinucias(adelgazada);
+    }
+
+    /**
+     * extraccion de minucias reutilizando los buffers del extractor
+     */
+    @Benchmark
+    public PlantillaHuella extraerMinuciasReutilizando() {
+        return extractor.extraer(esqueleto);
+    }
+
+    /**
+     * de la imagen original a la plantilla de minucias con el pipeline fusionado
+     */
+    @Benchmark
+    public PlantillaHuella procesoHastaPlantilla() {
+        return PipelineFusionado.delHilo().procesarPlantilla(original, umbral);
+    }
+
+    /**
+     * de la imagen original a la plantilla de minucias con el pipeline fusionado recorriendo solo la caja de la huella
+     */
+    @Benchmark
+    public PlantillaHuella procesoHastaPlantillaSegmentado() {
+        return PipelineFusionado.delHilo().procesarPlantilla(original, Binarizador.fijo(umbral), true);
+    }
+
+    /**
+     * mascara de primer plano por bloques de 16x16 sobre los grises
+     */
+    @Benchmark
+    public MascaraSegmentacion segmentarFondo() {
+        mascara.calcular(grises);
+        return mascara;
+    }
+
+    /**
+     * de los grises en PGM al esqueleto en PBM en modo flujo, leyendo el archivo dos veces fila a fila
+     */
+    @Benchmark
+    public Path procesoEnFlujo() throws IOException {
+        Path archivo = Paths.get(salida + ".pbm");
+        flujo.procesar(Paths.get(salida + ".pgm"), archivo);
+        return archivo;
+    }
+
+    /**
+     * opcion 7 completa tal como la ejecuta el menu
+     */
+    @Benchmark
+    public FingerprintRaster procesoAutomatico() {
+        return etapas.procesoAutomatico();
+    }
+
+    /**
+     * opcion 7 encadenando las etapas una a una, cada una con su propio raster de salida
+     */
+    @Benchmark
+    public FingerprintRaster procesoPorEtapas() {
+        return etapas.adelgazamientoZhangSuen(etapas.filtroBinario2(etapas.filtroBinario1(
+                etapas.convertirImagenAByN(etapas.calcularHistograma(etapas.convertirImagenAGrises(original)), umbral))));
+    }
+
+    /**
+     * opcion 7 con la implementacion original con int[][], como referencia
+     */
+    @Benchmark
+    public int[][] procesoReferencia() {
+        return ImplementacionReferencia.adelgazamientoZhangSuen(ImplementacionReferencia.filtroBinario2(
+                ImplementacionReferencia.filtroBinario1(ImplementacionReferencia.convertirImagenAByN(ImplementacionReferencia.calcularHistograma(
+                        ImplementacionReferencia.convertirImagenAGrises(original)), umbral))));
+    }
+}
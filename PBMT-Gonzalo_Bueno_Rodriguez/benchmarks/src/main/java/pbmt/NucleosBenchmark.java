@@ -0,0 +1,135 @@
+package pbmt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * benchmarks JMH de NucleosFila escalares frente a los de la Vector API sobre imagenes completas, fila a fila como en las etapas
+ * el fork arranca con --add-modules jdk.incubator.vector; en una maquina con AVX-512 se pueden medir los vectores de AVX2
+ * con -jvmArgsAppend -XX:MaxVectorSize=32
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class NucleosBenchmark {
+    @Param({"imagen.jpg", "500dpi", "1000dpi"})
+    public String imagen;
+
+    @Param({"escalar", "vector"})
+    public String nucleos;
+
+    private NucleosFila version;
+    private int ancho;
+    private int alto;
+    private int[] rgb;
+    private FingerprintRaster grises;
+    private FingerprintRaster byN;
+    private FingerprintRaster salida;
+    private ImagenBinaria binaria;
+    private ImagenBinaria salidaBinaria;
+    private int nivelBlanco;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        version = nucleos.equals("vector") ? NucleosFila.vectorial() : NucleosFila.escalar();
+        if (version == null) {
+            throw new IllegalStateException("la JVM del fork no tiene jdk.incubator.vector");
+        }
+        BufferedImage original = EtapasBenchmark.cargarImagen(imagen);
+        FingerPrintImage etapas = new FingerPrintImage(original, Binarizador.UMBRAL_DEFECTO);
+        ancho = original.getWidth();
+        alto = original.getHeight();
+        rgb = original.getRGB(0, 0, ancho, alto, null, 0, ancho);
+        grises = etapas.convertirImagenAGrises(original);
+        byN = etapas.convertirImagenAByN(etapas.calcularHistograma(grises), Binarizador.UMBRAL_DEFECTO);
+        salida = new FingerprintRaster(ancho, alto);
+        binaria = ImagenBinaria.desdeRaster(byN);
+        salidaBinaria = new ImagenBinaria(ancho, alto);
+        int[] histograma = new int[256];
+        for (int y = 0; y < alto; y++) {
+            for (int x = 0; x < ancho; x++) {
+                histograma[grises.get(x, y)]++;
+            }
+        }
+        int[] lut = new int[256];
+        PipelineFusionado.calcularLUT(histograma, (long) ancho * alto, lut);
+        nivelBlanco = PipelineFusionado.nivelBlanco(lut, Binarizador.UMBRAL_DEFECTO);
+    }
+
+    @Benchmark
+    public FingerprintRaster grisesRGB() {
+        for (int y = 0; y < alto; y++) {
+            version.grisesRGB(rgb, y * ancho, salida.datos, salida.fila(y), ancho);
+        }
+        return salida;
+    }
+
+    @Benchmark
+    public FingerprintRaster binarizar() {
+        for (int y = 0; y < alto; y++) {
+            version.binarizar(grises.datos, grises.fila(y), salida.datos, salida.fila(y), ancho, nivelBlanco);
+        }
+        return salida;
+    }
+
+    @Benchmark
+    public ImagenBinaria empaquetar() {
+        for (int y = 0; y < alto; y++) {
+            version.empaquetar(grises.datos, grises.fila(y), ancho, nivelBlanco, salidaBinaria.bits, y * salidaBinaria.palabrasFila);
+        }
+        return salidaBinaria;
+    }
+
+    @Benchmark
+    public FingerprintRaster filtroBinario1() {
+        for (int y = 1; y < alto - 1; y++) {
+            version.filtroBinario1(byN.datos, byN.fila(y) + 1, byN.salto, salida.datos, salida.fila(y) + 1, ancho - 2);
+        }
+        return salida;
+    }
+
+    @Benchmark
+    public FingerprintRaster filtroBinario2() {
+        for (int y = 1; y < alto - 1; y++) {
+            version.filtroBinario2(byN.datos, byN.fila(y) + 1, byN.salto, salida.datos, salida.fila(y) + 1, ancho - 2);
+        }
+        return salida;
+    }
+
+    @Benchmark
+    public ImagenBinaria filtroBinario1Empaquetado() {
+        int palabras = binaria.palabrasFila;
+        for (int y = 1; y < alto - 1; y++) {
+            version.filtroBinario1(binaria.bits, y * palabras + 1, palabras, salidaBinaria.bits, palabras - 2);
+        }
+        return salidaBinaria;
+    }
+
+    @Benchmark
+    public ImagenBinaria filtroBinario2Empaquetado() {
+        int palabras = binaria.palabrasFila;
+        for (int y = 1; y < alto - 1; y++) {
+            version.filtroBinario2(binaria.bits, y * palabras + 1, palabras, salidaBinaria.bits, palabras - 2);
+        }
+        return salidaBinaria;
+    }
+}
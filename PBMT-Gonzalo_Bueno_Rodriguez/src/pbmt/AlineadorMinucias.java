@@ -0,0 +1,146 @@
+package pbmt;
+
+import java.util.Arrays;
+
+/**
+ * puntuacion completa entre dos plantillas con alineamiento
+ * primero se busca la rotacion y traslacion con una transformada de Hough: cada pareja de minucias (una de cada plantilla)
+ * vota por la transformacion que lleva una sobre la otra, y se queda la celda con mas votos
+ * despues se emparejan las minucias ya alineadas, cada una como mucho con una, por distancia y diferencia de angulo
+ * puntuacion = emparejadas^2 / (minucias de la consulta * minucias del candidato), de 0 a 1
+ * los buffers se reutilizan, una instancia no debe usarse desde varios hilos a la vez
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class AlineadorMinucias {
+    private static final double[] COSENO = new double[256];//por angulo codificado de PlantillaHuella
+    private static final double[] SENO = new double[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            COSENO[i] = Math.cos(i * Math.PI / 128);
+            SENO[i] = Math.sin(i * Math.PI / 128);
+        }
+    }
+
+    private static final int CELDAS_ANGULO = 16;//celdas de 22.5 grados
+    private static final int CELDA_TRASLACION = 16;//pixeles por celda
+    private static final int CELDAS_TRASLACION = 64;//de -512 a 511 pixeles
+    private static final int DISTANCIA_MAXIMA = 12;//pixeles entre minucias emparejadas
+    private static final int ANGULO_MAXIMO = 24;//diferencia de angulo codificado entre minucias emparejadas, unos 34 grados
+
+    private final int[] votos = new int[CELDAS_ANGULO * CELDAS_TRASLACION * CELDAS_TRASLACION];
+    private final int[] tocadas = new int[votos.length];
+    private int numTocadas;
+    private boolean[] emparejada = new boolean[64];
+    private double[] xAlineada = new double[64];
+    private double[] yAlineada = new double[64];
+
+    /**
+     * puntuacion entre la consulta y un candidato
+     *
+     * @param consulta  con la plantilla a identificar
+     * @param candidato con la plantilla de la galeria
+     * @return puntuacion de 0 a 1
+     */
+    public double puntuar(PlantillaHuella consulta, PlantillaHuella candidato) {
+        int n = consulta.getNumero(), m = candidato.getNumero();
+        if (n == 0 || m == 0) {
+            return 0;
+        }
+        //votacion de la transformacion
+        int mejorCelda = -1, mejorVotos = 0;
+        for (int i = 0; i < n; i++) {
+            int xq = consulta.getX(i), yq = consulta.getY(i), aq = consulta.getAngulo(i);
+            for (int j = 0; j < m; j++) {
+                int rotacion = (candidato.getAngulo(j) - aq) & 0xFF;
+                double tx = candidato.getX(j) - (xq * COSENO[rotacion] - yq * SENO[rotacion]);
+                double ty = candidato.getY(j) - (xq * SENO[rotacion] + yq * COSENO[rotacion]);
+                int celdaX = (int) Math.floor(tx / CELDA_TRASLACION) + CELDAS_TRASLACION / 2;
+                int celdaY = (int) Math.floor(ty / CELDA_TRASLACION) + CELDAS_TRASLACION / 2;
+                if (celdaX < 0 || celdaX >= CELDAS_TRASLACION || celdaY < 0 || celdaY >= CELDAS_TRASLACION) {
+                    continue;
+                }
+                int celda = ((rotacion * CELDAS_ANGULO >>> 8) * CELDAS_TRASLACION + celdaX) * CELDAS_TRASLACION + celdaY;
+                if (votos[celda]++ == 0) {
+                    tocadas[numTocadas++] = celda;
+                }
+                if (votos[celda] > mejorVotos) {
+                    mejorVotos = votos[celda];
+                    mejorCelda = celda;
+                }
+            }
+        }
+        for (int k = 0; k < numTocadas; k++) {
+            votos[tocadas[k]] = 0;
+        }
+        numTocadas = 0;
+        if (mejorCelda < 0) {
+            return 0;
+        }
+        //transformacion media de las parejas de la celda ganadora
+        int celdaAngulo = mejorCelda / (CELDAS_TRASLACION * CELDAS_TRASLACION);
+        int celdaX = mejorCelda / CELDAS_TRASLACION % CELDAS_TRASLACION, celdaY = mejorCelda % CELDAS_TRASLACION;
+        double sumaSeno = 0, sumaCoseno = 0, sumaX = 0, sumaY = 0;
+        int parejas = 0;
+        for (int i = 0; i < n; i++) {
+            int xq = consulta.getX(i), yq = consulta.getY(i), aq = consulta.getAngulo(i);
+            for (int j = 0; j < m; j++) {
+                int rotacion = (candidato.getAngulo(j) - aq) & 0xFF;
+                if ((rotacion * CELDAS_ANGULO >>> 8) != celdaAngulo) {
+                    continue;
+                }
+                double tx = candidato.getX(j) - (xq * COSENO[rotacion] - yq * SENO[rotacion]);
+                double ty = candidato.getY(j) - (xq * SENO[rotacion] + yq * COSENO[rotacion]);
+                if ((int) Math.floor(tx / CELDA_TRASLACION) + CELDAS_TRASLACION / 2 == celdaX
+                        && (int) Math.floor(ty / CELDA_TRASLACION) + CELDAS_TRASLACION / 2 == celdaY) {
+                    sumaSeno += SENO[rotacion];
+                    sumaCoseno += COSENO[rotacion];
+                    sumaX += tx;
+                    sumaY += ty;
+                    parejas++;
+                }
+            }
+        }
+        double angulo = Math.atan2(sumaSeno, sumaCoseno);
+        int rotacion = PlantillaHuella.codificarAngulo(angulo);
+        double coseno = Math.cos(angulo), seno = Math.sin(angulo);
+        double tx = sumaX / parejas, ty = sumaY / parejas;
+        //emparejamiento voraz de las minucias alineadas
+        if (emparejada.length < m) {
+            emparejada = new boolean[m];
+        }
+        if (xAlineada.length < n) {
+            xAlineada = new double[n];
+            yAlineada = new double[n];
+        }
+        Arrays.fill(emparejada, 0, m, false);
+        for (int i = 0; i < n; i++) {
+            xAlineada[i] = consulta.getX(i) * coseno - consulta.getY(i) * seno + tx;
+            yAlineada[i] = consulta.getX(i) * seno + consulta.getY(i) * coseno + ty;
+        }
+        int emparejadas = 0;
+        for (int i = 0; i < n; i++) {
+            int anguloAlineado = (consulta.getAngulo(i) + rotacion) & 0xFF;
+            int mejor = -1;
+            double mejorDistancia = DISTANCIA_MAXIMA * DISTANCIA_MAXIMA;
+            for (int j = 0; j < m; j++) {
+                if (emparejada[j]) {
+                    continue;
+                }
+                double dx = candidato.getX(j) - xAlineada[i], dy = candidato.getY(j) - yAlineada[i];
+                double distancia = dx * dx + dy * dy;
+                int diferenciaAngulo = Math.abs((byte) (candidato.getAngulo(j) - anguloAlineado));
+                if (distancia <= mejorDistancia && diferenciaAngulo <= ANGULO_MAXIMO) {
+                    mejorDistancia = distancia;
+                    mejor = j;
+                }
+            }
+            if (mejor >= 0) {
+                emparejada[mejor] = true;
+                emparejadas++;
+            }
+        }
+        return (double) emparejadas * emparejadas / ((double) n * m);
+    }
+}
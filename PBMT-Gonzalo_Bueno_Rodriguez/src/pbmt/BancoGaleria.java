@@ -0,0 +1,122 @@
+package pbmt;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * medida del arranque y la memoria de una galeria grande en archivo mapeado frente a cargarla entera en memoria
+ * crea el archivo con plantillas sinteticas, lo abre de nuevo y mide el tiempo de apertura, la memoria de la JVM
+ * despues de abrir y de recorrerlo, el acceso aleatorio, la carga de todas las plantillas en una GaleriaMemoria,
+ * el arranque de un MotorIdentificacion con las claves guardadas en el archivo frente a calcularlas
+ * y la compactacion a traves del motor, que tambien reconstruye su indice
+ * uso: java pbmt.BancoGaleria [plantillas] [archivo], por defecto 1000000 y un archivo temporal que se borra al terminar
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class BancoGaleria {
+    public static void main(String[] args) throws IOException {
+        int plantillas = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Path archivo = args.length > 1 ? Paths.get(args[1]) : Files.createTempFile("galeria", ".gal");
+        System.out.println("********** Galeria mapeada con " + plantillas + " plantillas sinteticas en " + archivo + " *********");
+        try {
+            long inicio = System.nanoTime();
+            long bytes;
+            try (GaleriaMapeada galeria = GaleriaMapeada.crear(archivo, plantillas)) {
+                for (int i = 0; i < plantillas; i++) {
+                    galeria.agregar(GaleriaSintetica.dedo(i));
+                }
+                bytes = galeria.getBytes();
+            }
+            System.out.printf("%-40s %10.2f s, %d MB ocupados, archivo de %d MB%n", "crear", (System.nanoTime() - inicio) / 1e9,
+                    bytes >> 20, Files.size(archivo) >> 20);
+
+            long memoriaInicial = memoriaUsada();
+            inicio = System.nanoTime();
+            GaleriaMapeada galeria = GaleriaMapeada.abrir(archivo);
+            System.out.printf("%-40s %10.3f ms%n", "abrir", (System.nanoTime() - inicio) / 1e6);
+            System.out.printf("%-40s %10.1f MB%n", "memoria despues de abrir", (memoriaUsada() - memoriaInicial) / 1e6);
+
+            inicio = System.nanoTime();
+            long minucias = 0;
+            for (int i = 0; i < galeria.getNumero(); i++) {
+                minucias += galeria.getPlantilla(i).getNumero();
+            }
+            System.out.printf("%-40s %10.1f ms, %d minucias%n", "recorrer todas", (System.nanoTime() - inicio) / 1e6, minucias);
+            System.out.printf("%-40s %10.1f MB%n", "memoria despues de recorrer", (memoriaUsada() - memoriaInicial) / 1e6);
+
+            Random aleatorio = new Random(1);
+            int accesos = 1000000;
+            inicio = System.nanoTime();
+            long suma = 0;
+            for (int k = 0; k < accesos; k++) {
+                PlantillaHuella plantilla = galeria.getPlantilla(aleatorio.nextInt(galeria.getNumero()));
+                suma += plantilla.getX(plantilla.getNumero() - 1);
+            }
+            System.out.printf("%-40s %10.1f ns/acceso (%d)%n", "acceso aleatorio", (System.nanoTime() - inicio) / (double) accesos, suma & 1);
+
+            inicio = System.nanoTime();
+            GaleriaMemoria memoria = new GaleriaMemoria();
+            for (int i = 0; i < galeria.getNumero(); i++) {
+                memoria.agregar(PlantillaHuella.desdeBytes(galeria.getPlantilla(i).aBytes()));
+            }
+            System.out.printf("%-40s %10.1f ms%n", "cargar todas en GaleriaMemoria", (System.nanoTime() - inicio) / 1e6);
+            System.out.printf("%-40s %10.1f MB%n", "memoria con GaleriaMemoria", (memoriaUsada() - memoriaInicial) / 1e6);
+            System.out.println("  (" + memoria.getNumero() + " plantillas en memoria)");
+            memoria = null;
+
+            memoriaInicial = memoriaUsada();
+            inicio = System.nanoTime();
+            MotorIdentificacion motor = new MotorIdentificacion(galeria);
+            System.out.printf("%-40s %10.1f ms, indice de %d MB%n", "arrancar motor con las claves guardadas", (System.nanoTime() - inicio) / 1e6,
+                    motor.getIndice().getBytes() >> 20);
+            System.out.printf("%-40s %10.1f MB%n", "memoria con el motor", (memoriaUsada() - memoriaInicial) / 1e6);
+            GaleriaPlantillas sinClaves = new GaleriaPlantillas() {//la misma galeria sin getClaves, como una que no las guarda
+                @Override
+                public int getNumero() {
+                    return galeria.getNumero();
+                }
+
+                @Override
+                public PlantillaHuella getPlantilla(int identificador) {
+                    return galeria.getPlantilla(identificador);
+                }
+
+                @Override
+                public int agregar(PlantillaHuella plantilla) {
+                    throw new UnsupportedOperationException();
+                }
+            };
+            inicio = System.nanoTime();
+            new MotorIdentificacion(sinClaves).close();
+            System.out.printf("%-40s %10.1f ms%n", "arrancar motor calculando las claves", (System.nanoTime() - inicio) / 1e6);
+
+            for (int i = 0; i < galeria.getNumero(); i += 10) {
+                galeria.eliminar(i);
+            }
+            inicio = System.nanoTime();
+            motor.compactar();
+            System.out.printf("%-40s %10.1f ms, %d plantillas, %d MB%n", "compactar quitando el 10% con el motor", (System.nanoTime() - inicio) / 1e6,
+                    galeria.getNumero(), galeria.getBytes() >> 20);
+            motor.close();
+            galeria.close();
+        } finally {
+            if (args.length < 2) {
+                Files.deleteIfExists(archivo);
+            }
+        }
+    }
+
+    /**
+     * memoria ocupada de la JVM despues de recoger la basura
+     */
+    private static long memoriaUsada() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
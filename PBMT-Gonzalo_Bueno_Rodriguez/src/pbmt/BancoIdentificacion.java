@@ -0,0 +1,84 @@
+package pbmt;
+
+import java.util.Random;
+
+/**
+ * medida de la identificacion 1:N con galerias sinteticas de distintos tamaños
+ * para cada tamaño inscribe la galeria, lanza consultas que son otra captura de dedos inscritos y muestra
+ * tiempo de inscripcion, tamaño del indice, consultas por segundo y tasa de acierto en la primera posicion y entre las 10 primeras
+ * con la galeria mas pequeña compara tambien con la busqueda exhaustiva (puntuar todas las plantillas)
+ * uso: java pbmt.BancoIdentificacion [tamaños separados por comas] [consultas], por defecto 1000,10000,100000 y 200
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class BancoIdentificacion {
+    public static void main(String[] args) {
+        String[] galerias = (args.length > 0 ? args[0] : "1000,10000,100000").split(",");
+        int consultas = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        System.out.println("********** Identificacion 1:N con galeria sintetica, " + Runtime.getRuntime().availableProcessors() + " nucleos *********");
+        System.out.printf("%10s %12s %12s %12s %10s %10s%n", "galeria", "inscribir s", "indice MB", "consultas/s", "acierto@1", "acierto@10");
+        boolean primera = true;
+        for (String texto : galerias) {
+            int plantillas = Integer.parseInt(texto.trim());
+            MotorIdentificacion motor = new MotorIdentificacion();
+            long inicio = System.nanoTime();
+            for (int i = 0; i < plantillas; i++) {
+                motor.inscribir(GaleriaSintetica.dedo(i));
+            }
+            double segundosInscripcion = (System.nanoTime() - inicio) / 1e9;
+            PlantillaHuella[] lote = new PlantillaHuella[consultas];
+            int[] esperados = new int[consultas];
+            Random aleatorio = new Random(plantillas);
+            for (int q = 0; q < consultas; q++) {
+                esperados[q] = aleatorio.nextInt(plantillas);
+                lote[q] = GaleriaSintetica.captura(GaleriaSintetica.dedo(esperados[q]), aleatorio);
+            }
+            for (int q = 0; q < Math.min(consultas, 50); q++) {//calentamiento
+                motor.identificar(lote[q], 10);
+            }
+            int aciertos1 = 0, aciertos10 = 0;
+            inicio = System.nanoTime();
+            for (int q = 0; q < consultas; q++) {
+                MotorIdentificacion.Coincidencia[] resultado = motor.identificar(lote[q], 10);
+                for (int k = 0; k < resultado.length; k++) {
+                    if (resultado[k].getIdentificador() == esperados[q]) {
+                        aciertos1 += k == 0 ? 1 : 0;
+                        aciertos10++;
+                    }
+                }
+            }
+            double segundos = (System.nanoTime() - inicio) / 1e9;
+            System.out.printf("%10d %12.2f %12.1f %12.1f %9.1f%% %9.1f%%%n", plantillas, segundosInscripcion,
+                    motor.getIndice().getBytes() / 1e6, consultas / segundos, 100.0 * aciertos1 / consultas, 100.0 * aciertos10 / consultas);
+            if (primera) {
+                exhaustiva(motor, lote, esperados);
+                primera = false;
+            }
+        }
+    }
+
+    /**
+     * busqueda puntuando todas las plantillas de la galeria, como referencia de velocidad y acierto
+     */
+    static void exhaustiva(MotorIdentificacion motor, PlantillaHuella[] lote, int[] esperados) {
+        AlineadorMinucias alineador = new AlineadorMinucias();
+        int consultas = Math.min(lote.length, 20);
+        int aciertos = 0;
+        long inicio = System.nanoTime();
+        for (int q = 0; q < consultas; q++) {
+            int mejor = -1;
+            double mejorPuntuacion = -1;
+            for (int i = 0; i < motor.getNumero(); i++) {
+                double puntuacion = alineador.puntuar(lote[q], motor.getPlantilla(i));
+                if (puntuacion > mejorPuntuacion) {
+                    mejorPuntuacion = puntuacion;
+                    mejor = i;
+                }
+            }
+            aciertos += mejor == esperados[q] ? 1 : 0;
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.out.printf("%10s %12s %12s %12.1f %9.1f%%  (exhaustiva con %d plantillas)%n", "", "", "", consultas / segundos,
+                100.0 * aciertos / consultas, motor.getNumero());
+    }
+}
@@ -0,0 +1,1718 @@
+package pbmt;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * comprobaciones de equivalencia y medidas de tiempo de las implementaciones optimizadas frente a las originales con int[][]
+ * de ImplementacionReferencia
+ * uso: java pbmt.BancoPruebas [imagen], por defecto imagen.jpg, termina con codigo 1 si alguna comprobacion falla
+ * las comprobaciones solas, sin medidas y parando en el primer fallo, se ejecutan con Comprobaciones
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class BancoPruebas {
+    private static final int REPETICIONES = 100;
+    private static int fallos = 0;
+    private static boolean medidas = true;//sin medidas medir, medirPocas y medirMemoria no hacen nada
+    private static boolean pararEnFallo = false;
+
+    /**
+     * anota el resultado de una comprobacion y lo muestra, y si hay que parar en el primer fallo termina con codigo 1
+     */
+    private static void anotar(String nombre, boolean correcto) {
+        System.out.println((correcto ? "OK    " : "ERROR ") + nombre);
+        if (!correcto) {
+            fallos++;
+            if (pararEnFallo) {
+                System.out.println("comprobacion fallida, no se sigue");
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * comprueba que dos matrices son iguales pixel a pixel y lo muestra
+     */
+    static void comprobar(String nombre, int[][] esperada, int[][] obtenida) {
+        anotar(nombre, Arrays.deepEquals(esperada, obtenida));
+    }
+
+    /**
+     * matriz binaria [x][y] aleatoria con la densidad de unos indicada
+     */
+    static int[][] matrizAleatoria(Random aleatorio, int ancho, int alto, double densidad) {
+        int[][] matriz = new int[ancho][alto];
+        for (int x = 0; x < ancho; x++) {
+            for (int y = 0; y < alto; y++) {
+                matriz[x][y] = aleatorio.nextDouble() < densidad ? 1 : 0;
+            }
+        }
+        return matriz;
+    }
+
+    /**
+     * filtros y adelgazamiento con FingerprintRaster y empaquetados frente a la implementacion de referencia
+     * con matrices aleatorias, anchos alrededor de 64 para probar los cambios de palabra y los bits de relleno
+     */
+    static void comprobarImagenBinaria(FingerPrintImage etapas) {
+        Random aleatorio = new Random(2020);
+        int[][] dimensiones = {{1, 1}, {3, 3}, {63, 20}, {64, 17}, {65, 33}, {130, 70}, {200, 129}};
+        double[] densidades = {0.2, 0.5, 0.8};
+        for (int[] dimension : dimensiones) {
+            for (double densidad : densidades) {
+                int[][] matriz = matrizAleatoria(aleatorio, dimension[0], dimension[1], densidad);
+                ImagenBinaria binaria = ImagenBinaria.desdeMatriz(matriz);
+                FingerprintRaster raster = FingerprintRaster.desdeMatriz(matriz);
+                String caso = " " + dimension[0] + "x" + dimension[1] + " densidad " + densidad;
+                int[][] filtrada1 = ImplementacionReferencia.filtroBinario1(matriz);
+                int[][] filtrada2 = ImplementacionReferencia.filtroBinario2(matriz);
+                int[][] adelgazada = ImplementacionReferencia.adelgazamientoZhangSuen(matriz);
+                comprobar("ImagenBinaria conversion" + caso, matriz, binaria.aMatriz());
+                comprobar("ImagenBinaria filtroBinario1" + caso, filtrada1, binaria.filtroBinario1().aMatriz());
+                comprobar("ImagenBinaria filtroBinario2" + caso, filtrada2, binaria.filtroBinario2().aMatriz());
+                comprobar("ImagenBinaria adelgazamientoZhangSuen" + caso, adelgazada, binaria.adelgazamientoZhangSuen().aMatriz());
+                comprobar("FingerprintRaster filtroBinario1" + caso, filtrada1, etapas.filtroBinario1(raster).aMatriz());
+                comprobar("FingerprintRaster filtroBinario2" + caso, filtrada2, etapas.filtroBinario2(raster).aMatriz());
+                comprobar("FingerprintRaster adelgazamientoZhangSuen" + caso, adelgazada, etapas.adelgazamientoZhangSuen(raster).aMatriz());
+            }
+        }
+    }
+
+    /**
+     * todas las etapas frente a las de referencia sobre una imagen real, y sus tiempos
+     */
+    static void comprobarImagenReal(FingerPrintImage etapas) {
+        BufferedImage original = etapas.imagenOriginal;
+        int umbral = etapas.umbral;
+        int[][] grises = ImplementacionReferencia.convertirImagenAGrises(original);
+        int[][] ecualizada = ImplementacionReferencia.calcularHistograma(grises);
+        int[][] byN = ImplementacionReferencia.convertirImagenAByN(ecualizada, umbral);
+        int[][] filtrada1 = ImplementacionReferencia.filtroBinario1(byN);
+        int[][] filtrada2 = ImplementacionReferencia.filtroBinario2(filtrada1);
+        int[][] adelgazada = ImplementacionReferencia.adelgazamientoZhangSuen(filtrada2);
+
+        FingerprintRaster raster = etapas.convertirImagenAGrises(original);
+        comprobar("FingerprintRaster convertirImagenAGrises imagen real", grises, raster.aMatriz());
+        raster = etapas.calcularHistograma(raster);
+        comprobar("FingerprintRaster calcularHistograma imagen real", ecualizada, raster.aMatriz());
+        FingerprintRaster rasterEcualizado = raster;
+        raster = etapas.convertirImagenAByN(raster, umbral);
+        comprobar("FingerprintRaster convertirImagenAByN imagen real", byN, raster.aMatriz());
+        raster = etapas.filtroBinario1(raster);
+        comprobar("FingerprintRaster filtroBinario1 imagen real", filtrada1, raster.aMatriz());
+        raster = etapas.filtroBinario2(raster);
+        comprobar("FingerprintRaster filtroBinario2 imagen real", filtrada2, raster.aMatriz());
+        raster = etapas.adelgazamientoZhangSuen(raster);
+        comprobar("FingerprintRaster adelgazamientoZhangSuen imagen real", adelgazada, raster.aMatriz());
+
+        ImagenBinaria binaria = ImagenBinaria.binarizar(rasterEcualizado, umbral);
+        comprobar("ImagenBinaria binarizar imagen real", byN, binaria.aMatriz());
+        binaria = binaria.filtroBinario1();
+        comprobar("ImagenBinaria filtroBinario1 imagen real", filtrada1, binaria.aMatriz());
+        binaria = binaria.filtroBinario2();
+        comprobar("ImagenBinaria filtroBinario2 imagen real", filtrada2, binaria.aMatriz());
+        binaria = binaria.adelgazamientoZhangSuen();
+        comprobar("ImagenBinaria adelgazamientoZhangSuen imagen real", adelgazada, binaria.aMatriz());
+        comprobar("procesoAutomatico imagen real", adelgazada, etapas.procesoAutomatico().aMatriz());
+
+        comprobar("PipelineFusionado imagen real", adelgazada, PipelineFusionado.delHilo().procesar(original, umbral).aMatriz());
+        comprobar("PipelineFusionado umbral 128", ImplementacionReferencia.adelgazamientoZhangSuen(ImplementacionReferencia.filtroBinario2(
+                ImplementacionReferencia.filtroBinario1(ImplementacionReferencia.convertirImagenAByN(ecualizada, 128)))),
+                PipelineFusionado.delHilo().procesar(original, 128).aMatriz());
+
+        ImagenBinaria entrada = ImagenBinaria.desdeMatriz(byN);
+        ImagenBinaria entradaZS = ImagenBinaria.desdeMatriz(filtrada2);
+        FingerprintRaster rasterByN = FingerprintRaster.desdeMatriz(byN);
+        FingerprintRaster rasterFiltrado1 = FingerprintRaster.desdeMatriz(filtrada1);
+        FingerprintRaster rasterFiltrado2 = FingerprintRaster.desdeMatriz(filtrada2);
+        System.out.println();
+        medir("calcularHistograma int[][]", () -> ImplementacionReferencia.calcularHistograma(grises));
+        FingerprintRaster rasterGrises = etapas.convertirImagenAGrises(original);
+        medir("calcularHistograma FingerprintRaster", () -> etapas.calcularHistograma(rasterGrises));
+        medir("filtroBinario1 int[][]", () -> ImplementacionReferencia.filtroBinario1(byN));
+        medir("filtroBinario1 FingerprintRaster", () -> etapas.filtroBinario1(rasterByN));
+        medir("filtroBinario1 ImagenBinaria", entrada::filtroBinario1);
+        medir("filtroBinario2 int[][]", () -> ImplementacionReferencia.filtroBinario2(filtrada1));
+        medir("filtroBinario2 FingerprintRaster", () -> etapas.filtroBinario2(rasterFiltrado1));
+        medir("filtroBinario2 ImagenBinaria", entrada::filtroBinario2);
+        medir("adelgazamientoZhangSuen int[][]", () -> ImplementacionReferencia.adelgazamientoZhangSuen(filtrada2));
+        medir("adelgazamientoZhangSuen ImagenBinaria", entradaZS::adelgazamientoZhangSuen);
+        Runnable procesoReferencia = () -> ImplementacionReferencia.adelgazamientoZhangSuen(ImplementacionReferencia.filtroBinario2(
+                ImplementacionReferencia.filtroBinario1(ImplementacionReferencia.convertirImagenAByN(ImplementacionReferencia.calcularHistograma(
+                        ImplementacionReferencia.convertirImagenAGrises(original)), umbral))));
+        Runnable procesoRaster = () -> etapas.adelgazamientoZhangSuen(etapas.filtroBinario2(etapas.filtroBinario1(
+                etapas.convertirImagenAByN(etapas.calcularHistograma(etapas.convertirImagenAGrises(original)), umbral))));
+        medir("opcion 7 original int[][]", procesoReferencia);
+        medir("opcion 7 etapas FingerprintRaster", procesoRaster);
+        medir("PipelineFusionado", () -> PipelineFusionado.delHilo().procesar(original, umbral));
+
+        System.out.println();
+        medirMemoria("opcion 7 original int[][]", procesoReferencia);
+        medirMemoria("opcion 7 etapas FingerprintRaster", procesoRaster);
+        medirMemoria("PipelineFusionado", () -> PipelineFusionado.delHilo().procesar(original, umbral));
+    }
+
+    /**
+     * copia la imagen en otro tipo de BufferedImage, para probar cada camino de ConversorRaster
+     */
+    static BufferedImage convertirTipo(BufferedImage imagen, int tipo) {
+        BufferedImage copia = new BufferedImage(imagen.getWidth(), imagen.getHeight(), tipo);
+        copia.getGraphics().drawImage(imagen, 0, 0, null);
+        return copia;
+    }
+
+    /**
+     * imagen en color aleatoria, para que R, G y B sean distintos
+     */
+    static BufferedImage imagenColorAleatoria(int ancho, int alto, int tipo) {
+        Random aleatorio = new Random(ancho * 31 + alto);
+        BufferedImage imagen = new BufferedImage(ancho, alto, tipo);
+        for (int x = 0; x < ancho; x++) {
+            for (int y = 0; y < alto; y++) {
+                imagen.setRGB(x, y, aleatorio.nextInt());
+            }
+        }
+        return imagen;
+    }
+
+    /**
+     * lectura directa del raster frente a getRGB por pixel para cada tipo de imagen, y escritura frente a setRGB por pixel
+     */
+    static void comprobarConversorRaster(FingerPrintImage etapas) {
+        BufferedImage original = etapas.imagenOriginal;
+        int[] tipos = {BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB,
+                BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_USHORT_GRAY};
+        String[] nombres = {"BYTE_GRAY", "3BYTE_BGR", "INT_RGB", "INT_ARGB", "INT_BGR (general)", "USHORT_GRAY (general)"};
+        for (int i = 0; i < tipos.length; i++) {
+            BufferedImage imagen = convertirTipo(original, tipos[i]);
+            comprobar("ConversorRaster " + nombres[i], ImplementacionReferencia.convertirImagenAGrises(imagen), ConversorRaster.aRaster(imagen).aMatriz());
+            if (tipos[i] != BufferedImage.TYPE_BYTE_GRAY && tipos[i] != BufferedImage.TYPE_USHORT_GRAY) {
+                BufferedImage color = imagenColorAleatoria(67, 45, tipos[i]);
+                comprobar("ConversorRaster " + nombres[i] + " color aleatorio", ImplementacionReferencia.convertirImagenAGrises(color), ConversorRaster.aRaster(color).aMatriz());
+            }
+        }
+        BufferedImage subimagen = convertirTipo(original, BufferedImage.TYPE_3BYTE_BGR).getSubimage(10, 20, 100, 80);
+        comprobar("ConversorRaster subimagen", ImplementacionReferencia.convertirImagenAGrises(subimagen), ConversorRaster.aRaster(subimagen).aMatriz());
+
+        int[][] binaria = matrizAleatoria(new Random(7), 131, 40, 0.5);
+        BufferedImage imagenBinaria = ConversorRaster.imagenBinaria(ImagenBinaria.desdeMatriz(binaria));
+        comprobar("ConversorRaster imagenBinaria", binaria, aCerosYUnos(ImplementacionReferencia.convertirImagenAGrises(imagenBinaria)));
+        int[][] grises = ImplementacionReferencia.convertirImagenAGrises(original);
+        FingerprintRaster rasterGrises = FingerprintRaster.desdeMatriz(grises);
+        BufferedImage escrita = ConversorRaster.imagenGrises(rasterGrises, 1);
+        int[][] leida = new int[grises.length][grises[0].length];
+        for (int x = 0; x < leida.length; x++) {
+            for (int y = 0; y < leida[0].length; y++) {
+                leida[x][y] = escrita.getRaster().getSample(x, y, 0);
+            }
+        }
+        comprobar("ConversorRaster imagenGrises", grises, leida);
+
+        System.out.println();
+        BufferedImage bgr = convertirTipo(original, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage rgb = convertirTipo(original, BufferedImage.TYPE_INT_RGB);
+        FingerprintRaster destino = new FingerprintRaster(original.getWidth(), original.getHeight());
+        medir("lectura getRGB por pixel BYTE_GRAY", () -> ImplementacionReferencia.convertirImagenAGrises(original));
+        medir("lectura ConversorRaster BYTE_GRAY", () -> ConversorRaster.aGrises(original, destino, null));
+        medir("lectura getRGB por pixel 3BYTE_BGR", () -> ImplementacionReferencia.convertirImagenAGrises(bgr));
+        medir("lectura ConversorRaster 3BYTE_BGR", () -> ConversorRaster.aGrises(bgr, destino, null));
+        medir("lectura getRGB por pixel INT_RGB", () -> ImplementacionReferencia.convertirImagenAGrises(rgb));
+        medir("lectura ConversorRaster INT_RGB", () -> ConversorRaster.aGrises(rgb, destino, null));
+        medir("escritura setRGB por pixel", () -> ImplementacionReferencia.convertirImagenARGB(grises, 1));
+        medir("escritura ConversorRaster imagenGrises", () -> ConversorRaster.imagenGrises(rasterGrises, 1));
+    }
+
+    /**
+     * pasa una matriz de 0 y 255 a 0 y 1
+     */
+    static int[][] aCerosYUnos(int[][] matriz) {
+        for (int[] columna : matriz) {
+            for (int y = 0; y < columna.length; y++) {
+                columna[y] = columna[y] == 0 ? 0 : 1;
+            }
+        }
+        return matriz;
+    }
+
+    /**
+     * mide el tiempo medio de una operacion tras unas cuantas ejecuciones de calentamiento
+     */
+    static void medir(String nombre, Runnable operacion) {
+        if (!medidas) {
+            return;
+        }
+        for (int i = 0; i < REPETICIONES; i++) {//calentamiento del JIT
+            operacion.run();
+        }
+        long inicio = System.nanoTime();
+        for (int i = 0; i < REPETICIONES; i++) {
+            operacion.run();
+        }
+        double ms = (System.nanoTime() - inicio) / 1e6 / REPETICIONES;
+        System.out.printf("%-45s %9.3f ms%n", nombre, ms);
+    }
+
+    /**
+     * mide los bytes reservados en el hilo por cada ejecucion de la operacion, tras el calentamiento
+     * usa el contador de memoria reservada por hilo de la JVM (com.sun.management.ThreadMXBean)
+     */
+    static void medirMemoria(String nombre, Runnable operacion) {
+        if (!medidas) {
+            return;
+        }
+        com.sun.management.ThreadMXBean hilos = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long hilo = Thread.currentThread().getId();
+        for (int i = 0; i < REPETICIONES; i++) {//calentamiento
+            operacion.run();
+        }
+        long antes = hilos.getThreadAllocatedBytes(hilo);
+        for (int i = 0; i < REPETICIONES; i++) {
+            operacion.run();
+        }
+        long bytes = (hilos.getThreadAllocatedBytes(hilo) - antes) / REPETICIONES;
+        System.out.printf("%-45s %12d bytes/imagen%n", nombre, bytes);
+    }
+
+    /**
+     * filtros y adelgazamiento por franjas frente a los de un solo hilo, con distintos numeros de franjas,
+     * y tiempos de una huella sintetica grande con 1, 2, 4 y 8 hilos
+     */
+    static void comprobarFranjas(FingerPrintImage etapas) {
+        ExecutorService ejecutor = Executors.newFixedThreadPool(8);
+        Random aleatorio = new Random(2021);
+        int[][] dimensiones = {{1, 1}, {3, 3}, {65, 33}, {130, 70}, {200, 129}};
+        int[] numerosFranjas = {2, 3, 8, 200};
+        for (int[] dimension : dimensiones) {
+            int[][] matriz = matrizAleatoria(aleatorio, dimension[0], dimension[1], 0.6);
+            ImagenBinaria binaria = ImagenBinaria.desdeMatriz(matriz);
+            int[][] filtrada1 = binaria.filtroBinario1().aMatriz();
+            int[][] filtrada2 = binaria.filtroBinario2().aMatriz();
+            int[][] adelgazada = binaria.adelgazamientoZhangSuen().aMatriz();
+            for (int numero : numerosFranjas) {
+                ProcesadorFranjas franjas = new ProcesadorFranjas(ejecutor, numero, 1);
+                String caso = " " + dimension[0] + "x" + dimension[1] + " " + numero + " franjas";
+                ImagenBinaria salida = new ImagenBinaria(binaria.ancho, binaria.alto);
+                salida.bits[salida.bits.length - 1] = -1L;//basura que tiene que quedar sobrescrita
+                franjas.filtroBinario1(binaria, salida);
+                comprobar("ProcesadorFranjas filtroBinario1" + caso, filtrada1, salida.aMatriz());
+                franjas.filtroBinario2(binaria, salida);
+                comprobar("ProcesadorFranjas filtroBinario2" + caso, filtrada2, salida.aMatriz());
+                franjas.adelgazamientoZhangSuen(binaria, salida, new ImagenBinaria(binaria.ancho, binaria.alto));
+                comprobar("ProcesadorFranjas adelgazamientoZhangSuen" + caso, adelgazada, salida.aMatriz());
+            }
+        }
+        int[][] adelgazada = PipelineFusionado.delHilo().procesar(etapas.imagenOriginal, etapas.umbral).aMatriz();
+        PipelineFusionado pipelineFranjas = new PipelineFusionado(new ProcesadorFranjas(ejecutor, 4, 1));
+        comprobar("PipelineFusionado por franjas imagen real", adelgazada, pipelineFranjas.procesar(etapas.imagenOriginal, etapas.umbral).aMatriz());
+        try {
+            comprobarIgual("ProcesadorFranjas -franjas con el mismo esqueleto en 1 a 3 franjas termina con codigo 0",
+                    ProcesadorFranjas.ejecutar(new String[]{"-franjas", "3", "300dpi", "otsu", "2", "-segmentar"}) == 0);
+            comprobarIgual("ProcesadorFranjas -franjas con argumentos no validos termina con codigo 2",
+                    ProcesadorFranjas.ejecutar(new String[]{"-franjas", "0"}) == 2
+                            && ProcesadorFranjas.ejecutar(new String[]{"-franjas", "2", "no-existe.jpg"}) == 2);
+        } catch (java.io.IOException e) {
+            comprobarIgual("ProcesadorFranjas -franjas sin excepciones: " + e.getMessage(), false);
+        }
+
+        BufferedImage grande = HuellaSintetica.generar(2000, 2000, 9);
+        adelgazada = PipelineFusionado.delHilo().procesar(grande, etapas.umbral).aMatriz();
+        System.out.println();
+        System.out.println("huella sintetica 2000x2000, " + Runtime.getRuntime().availableProcessors() + " nucleos disponibles");
+        medirPocas("PipelineFusionado un hilo", () -> PipelineFusionado.delHilo().procesar(grande, etapas.umbral));
+        for (int hilos : new int[]{1, 2, 4, 8}) {
+            PipelineFusionado pipeline = new PipelineFusionado(new ProcesadorFranjas(ejecutor, hilos));
+            comprobar("PipelineFusionado " + hilos + " franjas 2000x2000", adelgazada, pipeline.procesar(grande, etapas.umbral).aMatriz());
+            medirPocas("PipelineFusionado " + hilos + " franjas", () -> pipeline.procesar(grande, etapas.umbral));
+        }
+        ejecutor.shutdown();
+    }
+
+    /**
+     * como medir pero con menos repeticiones, para imagenes grandes
+     */
+    static void medirPocas(String nombre, Runnable operacion) {
+        if (!medidas) {
+            return;
+        }
+        for (int i = 0; i < 5; i++) {
+            operacion.run();
+        }
+        long inicio = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            operacion.run();
+        }
+        System.out.printf("%-45s %9.3f ms%n", nombre, (System.nanoTime() - inicio) / 1e6 / 10);
+    }
+
+    /**
+     * esqueleto de prueba de 100x60 con fondo a 1 y un marco de cresta, para que las minucias de dentro no esten en el borde
+     */
+    static FingerprintRaster esqueletoConMarco() {
+        FingerprintRaster esqueleto = new FingerprintRaster(100, 60);
+        Arrays.fill(esqueleto.datos, (byte) 1);
+        dibujarLinea(esqueleto, 2, 2, 97, 2);
+        dibujarLinea(esqueleto, 97, 2, 97, 57);
+        dibujarLinea(esqueleto, 97, 57, 2, 57);
+        dibujarLinea(esqueleto, 2, 57, 2, 2);
+        return esqueleto;
+    }
+
+    /**
+     * linea de cresta (0) de un pixel de grosor con el algoritmo de Bresenham
+     */
+    static void dibujarLinea(FingerprintRaster raster, int x0, int y0, int x1, int y1) {
+        int dx = Math.abs(x1 - x0), dy = -Math.abs(y1 - y0);
+        int sx = x0 < x1 ? 1 : -1, sy = y0 < y1 ? 1 : -1;
+        int error = dx + dy;
+        while (true) {
+            raster.set(x0, y0, 0);
+            if (x0 == x1 && y0 == y1) {
+                return;
+            }
+            int doble = 2 * error;
+            if (doble >= dy) {
+                error += dy;
+                x0 += sx;
+            }
+            if (doble <= dx) {
+                error += dx;
+                y0 += sy;
+            }
+        }
+    }
+
+    /**
+     * comprueba que la plantilla tiene exactamente las minucias esperadas {x, y, tipo, grados}, con 2 pixeles y 8 grados de tolerancia
+     */
+    static void comprobarMinucias(String nombre, PlantillaHuella plantilla, int[][] esperadas) {
+        boolean iguales = plantilla.getNumero() == esperadas.length;
+        for (int[] esperada : esperadas) {
+            boolean encontrada = false;
+            for (int i = 0; i < plantilla.getNumero() && !encontrada; i++) {
+                double grados = Math.toDegrees(plantilla.getAnguloRadianes(i));
+                double diferencia = Math.abs(((grados - esperada[3]) % 360 + 540) % 360 - 180);
+                encontrada = Math.abs(plantilla.getX(i) - esperada[0]) <= 2 && Math.abs(plantilla.getY(i) - esperada[1]) <= 2
+                        && plantilla.getTipo(i) == esperada[2] && diferencia <= 8;
+            }
+            iguales &= encontrada;
+        }
+        if (!iguales) {
+            fallos++;
+        }
+        System.out.println((iguales ? "OK    " : "ERROR ") + nombre + " (" + plantilla.getNumero() + " minucias)");
+    }
+
+    /**
+     * minucias de esqueletos dibujados a mano y de la imagen real, y tiempo de la extraccion
+     */
+    static void comprobarMinucias(FingerPrintImage etapas) {
+        int T = PlantillaHuella.TERMINACION, B = PlantillaHuella.BIFURCACION;
+        FingerprintRaster linea = esqueletoConMarco();
+        dibujarLinea(linea, 20, 30, 80, 30);
+        comprobarMinucias("ExtractorMinucias linea", etapas.extraerMinucias(linea), new int[][]{{20, 30, T, 180}, {80, 30, T, 0}});
+        FingerprintRaster bifurcacion = esqueletoConMarco();
+        dibujarLinea(bifurcacion, 20, 30, 60, 30);
+        dibujarLinea(bifurcacion, 61, 29, 80, 20);
+        dibujarLinea(bifurcacion, 61, 31, 80, 40);
+        comprobarMinucias("ExtractorMinucias bifurcacion", etapas.extraerMinucias(bifurcacion),
+                new int[][]{{20, 30, T, 180}, {60, 30, B, 0}, {80, 20, T, -27}, {80, 40, T, 27}});
+        FingerprintRaster espolon = esqueletoConMarco();
+        dibujarLinea(espolon, 20, 30, 80, 30);
+        dibujarLinea(espolon, 50, 31, 50, 35);
+        comprobarMinucias("ExtractorMinucias espolon", etapas.extraerMinucias(espolon), new int[][]{{20, 30, T, 180}, {80, 30, T, 0}});
+        FingerprintRaster corto = esqueletoConMarco();
+        dibujarLinea(corto, 20, 30, 80, 30);
+        dibujarLinea(corto, 40, 45, 45, 45);
+        comprobarMinucias("ExtractorMinucias trozo corto", etapas.extraerMinucias(corto), new int[][]{{20, 30, T, 180}, {80, 30, T, 0}});
+        FingerprintRaster puente = esqueletoConMarco();
+        dibujarLinea(puente, 20, 25, 80, 25);
+        dibujarLinea(puente, 20, 35, 80, 35);
+        dibujarLinea(puente, 50, 26, 50, 34);
+        comprobarMinucias("ExtractorMinucias puente", etapas.extraerMinucias(puente),
+                new int[][]{{20, 25, T, 180}, {80, 25, T, 0}, {20, 35, T, 180}, {80, 35, T, 0}});
+        FingerprintRaster borde = esqueletoConMarco();
+        dibujarLinea(borde, 5, 30, 50, 30);
+        comprobarMinucias("ExtractorMinucias borde", etapas.extraerMinucias(borde), new int[][]{{50, 30, T, 0}});
+
+        FingerprintRaster esqueleto = etapas.procesoAutomatico();
+        PlantillaHuella plantilla = etapas.extraerMinucias(esqueleto);
+        PlantillaHuella leida = PlantillaHuella.desdeBytes(plantilla.aBytes());
+        comprobarIgual("PlantillaHuella aBytes y desdeBytes", plantilla.mismasMinucias(leida));
+        comprobarIgual("PipelineFusionado procesarPlantilla imagen real",
+                plantilla.mismasMinucias(PipelineFusionado.delHilo().procesarPlantilla(etapas.imagenOriginal, etapas.umbral)));
+        FingerprintRaster conMarco = new FingerprintRaster(esqueleto.ancho, esqueleto.alto);
+        FingerprintRaster sinMarco = new FingerprintRaster(esqueleto.ancho, esqueleto.alto);
+        for (int y = 0; y < esqueleto.alto; y++) {
+            for (int x = 0; x < esqueleto.ancho; x++) {
+                boolean enMarco = x == 0 || y == 0 || x == esqueleto.ancho - 1 || y == esqueleto.alto - 1;
+                conMarco.set(x, y, enMarco ? 0 : esqueleto.get(x, y));
+                sinMarco.set(x, y, enMarco ? 1 : esqueleto.get(x, y));
+            }
+        }
+        comprobarIgual("ExtractorMinucias ignora el marco de la imagen",
+                etapas.extraerMinucias(conMarco).mismasMinucias(etapas.extraerMinucias(sinMarco)));
+        int terminaciones = 0;
+        for (int i = 0; i < plantilla.getNumero(); i++) {
+            terminaciones += plantilla.getTipo(i) == T ? 1 : 0;
+        }
+        System.out.println("  " + plantilla.getNumero() + " minucias (" + terminaciones + " terminaciones, " + (plantilla.getNumero() - terminaciones)
+                + " bifurcaciones), plantilla de " + plantilla.aBytes().length + " bytes");
+        ExtractorMinucias extractor = new ExtractorMinucias();
+        ImagenBinaria esqueletoBinario = ImagenBinaria.desdeRaster(esqueleto);
+        medir("ExtractorMinucias", () -> extractor.extraer(esqueletoBinario));
+        medir("PipelineFusionado procesarPlantilla", () -> PipelineFusionado.delHilo().procesarPlantilla(etapas.imagenOriginal, etapas.umbral));
+        medirMemoria("ExtractorMinucias", () -> extractor.extraer(esqueletoBinario));
+    }
+
+    /**
+     * muestra el resultado de una comprobacion que no es de matrices
+     */
+    static void comprobarIgual(String nombre, boolean correcto) {
+        anotar(nombre, correcto);
+    }
+
+    /**
+     * tabla hash de largos frente a un HashMap, y la identificacion de la imagen real y de capturas sinteticas
+     */
+    static void comprobarIdentificacion(FingerPrintImage etapas) {
+        Random aleatorio = new Random(99);
+        TablaHashLargos tabla = new TablaHashLargos(4);
+        java.util.Map<Long, java.util.List<Integer>> mapa = new java.util.HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            long clave = aleatorio.nextInt(3000) * 0x9E3779B97F4A7C15L;//claves repetidas y con bits altos
+            tabla.agregar(clave, i);
+            mapa.computeIfAbsent(clave, c -> new java.util.ArrayList<>()).add(0, i);
+        }
+        boolean iguales = tabla.getNumClaves() == mapa.size() && tabla.primera(12345L) < 0;
+        for (java.util.Map.Entry<Long, java.util.List<Integer>> entrada : mapa.entrySet()) {
+            int k = 0;
+            for (int e = tabla.primera(entrada.getKey()); e >= 0; e = tabla.siguiente(e), k++) {
+                iguales &= k < entrada.getValue().size() && tabla.valor(e) == entrada.getValue().get(k);
+            }
+            iguales &= k == entrada.getValue().size();
+        }
+        comprobarIgual("TablaHashLargos frente a HashMap", iguales);
+
+        MotorIdentificacion motor = new MotorIdentificacion();
+        for (int i = 0; i < 500; i++) {
+            motor.inscribir(GaleriaSintetica.dedo(i));
+        }
+        int real = motor.inscribir(etapas.imagenOriginal, etapas.umbral);
+        PlantillaHuella plantillaReal = etapas.extraerMinucias(etapas.procesoAutomatico());
+        comprobarIgual("MotorIdentificacion imagen real", motor.identificar(plantillaReal, 1)[0].getIdentificador() == real);
+        int aciertos = 0;
+        for (int q = 0; q < 50; q++) {
+            int dedo = aleatorio.nextInt(500);
+            MotorIdentificacion.Coincidencia[] resultado = motor.identificar(GaleriaSintetica.captura(GaleriaSintetica.dedo(dedo), aleatorio), 1);
+            aciertos += resultado.length > 0 && resultado[0].getIdentificador() == dedo ? 1 : 0;
+        }
+        comprobarIgual("MotorIdentificacion capturas sinteticas, " + aciertos + " de 50 aciertos", aciertos >= 48);
+    }
+
+    /**
+     * galeria en archivo mapeado: ida y vuelta, crecimiento de la tabla y del archivo, eliminar, compactar y reabrir
+     */
+    static void comprobarGaleriaMapeada() throws java.io.IOException {
+        java.nio.file.Path archivo = java.nio.file.Files.createTempFile("galeria", ".gal");
+        try {
+            int numero = 3000;
+            boolean iguales = true;
+            try (GaleriaMapeada galeria = GaleriaMapeada.crear(archivo, 16)) {//la tabla tiene que crecer varias veces
+                for (int i = 0; i < numero; i++) {
+                    iguales &= galeria.agregar(GaleriaSintetica.dedo(i)) == i;
+                }
+                for (int i = 0; i < numero; i++) {
+                    iguales &= galeria.getPlantilla(i).mismasMinucias(GaleriaSintetica.dedo(i));
+                }
+            }
+            comprobarIgual("GaleriaMapeada agregar y leer", iguales);
+            iguales = true;
+            try (GaleriaMapeada galeria = GaleriaMapeada.abrir(archivo)) {
+                iguales &= galeria.getNumero() == numero;
+                for (int i = 0; i < numero; i++) {
+                    iguales &= galeria.getPlantilla(i).mismasMinucias(GaleriaSintetica.dedo(i));
+                }
+                for (int i = 0; i < numero; i += 3) {
+                    galeria.eliminar(i);
+                }
+                iguales &= galeria.getPlantilla(0) == null && galeria.getPlantilla(1) != null;
+                long antes = galeria.getBytes();
+                int[] nuevos = galeria.compactar();
+                iguales &= galeria.getNumero() == numero - (numero + 2) / 3 && galeria.getBytes() < antes;
+                for (int i = 0; i < numero; i++) {
+                    iguales &= i % 3 == 0 ? nuevos[i] == GaleriaMapeada.BORRADA
+                            : galeria.getPlantilla(nuevos[i]).mismasMinucias(GaleriaSintetica.dedo(i));
+                }
+                iguales &= galeria.agregar(GaleriaSintetica.dedo(numero)) == galeria.getNumero() - 1;
+            }
+            try (GaleriaMapeada galeria = GaleriaMapeada.abrir(archivo)) {
+                iguales &= galeria.getNumero() == numero - (numero + 2) / 3 + 1
+                        && galeria.getPlantilla(galeria.getNumero() - 1).mismasMinucias(GaleriaSintetica.dedo(numero));
+                MotorIdentificacion motor = new MotorIdentificacion(galeria);
+                Random aleatorio = new Random(5);
+                int aciertos = 0;
+                for (int q = 0; q < 20; q++) {
+                    int dedo = 1 + 3 * aleatorio.nextInt(numero / 3 - 1);//de las que no se han eliminado
+                    MotorIdentificacion.Coincidencia[] resultado = motor.identificar(GaleriaSintetica.captura(GaleriaSintetica.dedo(dedo), aleatorio), 1);
+                    aciertos += resultado.length > 0 && resultado[0].getIdentificador() == dedo - dedo / 3 - 1 ? 1 : 0;
+                }
+                iguales &= aciertos >= 19;
+
+                MotorIdentificacion calculado = new MotorIdentificacion(new GaleriaMemoria());
+                for (int i = 0; i < galeria.getNumero(); i++) {
+                    calculado.inscribir(galeria.getPlantilla(i));
+                }
+                comprobarIgual("MotorIdentificacion sobre GaleriaMapeada indexa las claves guardadas como las calculadas",
+                        motor.getIndice().getNumEntradas() == calculado.getIndice().getNumEntradas()
+                                && motor.getIndice().getNumClaves() == calculado.getIndice().getNumClaves());
+                boolean compactarRechazado = false, otroMotorRechazado = false;
+                try {
+                    galeria.compactar();
+                } catch (IllegalStateException e) {
+                    compactarRechazado = true;
+                }
+                try {
+                    new MotorIdentificacion(galeria);
+                } catch (IllegalStateException e) {
+                    otroMotorRechazado = true;
+                }
+                comprobarIgual("GaleriaMapeada no se compacta ni admite otro motor con un MotorIdentificacion abierto",
+                        compactarRechazado && otroMotorRechazado);
+                int numeroAntes = galeria.getNumero();
+                galeria.eliminar(0);
+                int[] nuevos = motor.compactar();
+                boolean compactada = galeria.getNumero() == numeroAntes - 1 && nuevos[0] == GaleriaMapeada.BORRADA;
+                aciertos = 0;
+                for (int q = 0; q < 10; q++) {
+                    int dedo = 4 + 3 * aleatorio.nextInt(numero / 3 - 2);//ni eliminadas ni la primera que queda
+                    MotorIdentificacion.Coincidencia[] resultado = motor.identificar(GaleriaSintetica.captura(GaleriaSintetica.dedo(dedo), aleatorio), 1);
+                    aciertos += resultado.length > 0 && resultado[0].getIdentificador() == nuevos[dedo - dedo / 3 - 1] ? 1 : 0;
+                }
+                compactada &= aciertos >= 9;
+                motor.close();
+                galeria.eliminar(0);
+                compactada &= galeria.compactar().length == numeroAntes - 1;
+                comprobarIgual("MotorIdentificacion compactar renumera su indice y al cerrarlo la galeria se compacta sola", compactada);
+            }
+            comprobarIgual("GaleriaMapeada eliminar, compactar, reabrir e identificar", iguales);
+
+            //corte entre el fin de los datos y el numero: la ultima plantilla no cuenta y la siguiente no pisa nada
+            try (GaleriaMapeada galeria = GaleriaMapeada.crear(archivo, 16)) {
+                galeria.agregar(GaleriaSintetica.dedo(0));
+                galeria.agregar(GaleriaSintetica.dedo(1));
+            }
+            try (java.nio.channels.FileChannel canal = java.nio.channels.FileChannel.open(archivo, java.nio.file.StandardOpenOption.WRITE)) {
+                canal.write(java.nio.ByteBuffer.allocate(4).putInt(0, 1), 16);//numero de la cabecera
+            }
+            try (GaleriaMapeada galeria = GaleriaMapeada.abrir(archivo)) {
+                boolean recuperada = galeria.getNumero() == 1 && galeria.agregar(GaleriaSintetica.dedo(2)) == 1;
+                comprobarIgual("GaleriaMapeada se abre sin la plantilla a medias y no pisa las anteriores", recuperada
+                        && galeria.getPlantilla(0).mismasMinucias(GaleriaSintetica.dedo(0))
+                        && galeria.getPlantilla(1).mismasMinucias(GaleriaSintetica.dedo(2)));
+            }
+            boolean rechazada = false;
+            java.nio.file.Files.write(archivo, new byte[100]);
+            try {
+                GaleriaMapeada.abrir(archivo).close();
+            } catch (java.io.IOException e) {
+                rechazada = true;
+            }
+            comprobarIgual("GaleriaMapeada rechaza un archivo que no es galeria", rechazada);
+        } finally {
+            java.nio.file.Files.deleteIfExists(archivo);
+        }
+    }
+
+    /**
+     * escritores de imagen: PNG y PGM/PBM se leen igual que se escribieron, el asincrono escribe lo mismo que el sincrono
+     * y tiempos de cada formato con el esqueleto de la imagen real
+     */
+    static void comprobarEscritores(FingerPrintImage etapas) throws Exception {
+        java.nio.file.Path directorio = java.nio.file.Files.createTempDirectory("escritores");
+        try {
+            FingerprintRaster grises = etapas.convertirImagenAGrises(etapas.imagenOriginal);
+            FingerprintRaster esqueleto = etapas.procesoAutomatico();
+            FingerprintRaster[] imagenes = {grises, esqueleto, matrizRaster(new Random(3), 13, 7), matrizRaster(new Random(4), 1, 1)};
+            int[] modos = {1, 0, 0, 0};
+            EscritorImagen png = new EscritorPng(), netpbm = new EscritorNetpbm(), jpeg = new EscritorJpeg();
+            for (int i = 0; i < imagenes.length; i++) {
+                FingerprintRaster imagen = imagenes[i];
+                String nombre = imagen.getAncho() + "x" + imagen.getAlto() + (modos[i] == 0 ? " blanco y negro" : " grises");
+                java.nio.file.Path archivo = directorio.resolve(i + "." + png.extension(modos[i]));
+                png.escribir(imagen, modos[i], archivo);
+                comprobarIgual("EscritorPng " + nombre, mismasMuestras(imagen, ImageIO.read(archivo.toFile())));
+                archivo = directorio.resolve(i + "." + netpbm.extension(modos[i]));
+                netpbm.escribir(imagen, modos[i], archivo);
+                comprobarIgual("EscritorNetpbm " + nombre, imagen.mismosPixeles(EscritorNetpbm.leer(archivo)));
+            }
+            java.nio.file.Path archivoJpeg = directorio.resolve("esqueleto.jpg");
+            jpeg.escribir(esqueleto, 0, archivoJpeg);
+            FingerprintRaster leida = ConversorRaster.aRaster(ImageIO.read(archivoJpeg.toFile()));
+            int distintos = 0;
+            for (int y = 0; y < esqueleto.getAlto(); y++) {
+                for (int x = 0; x < esqueleto.getAncho(); x++) {
+                    distintos += leida.get(x, y) != esqueleto.get(x, y) * 255 ? 1 : 0;
+                }
+            }
+            System.out.println("  EscritorJpeg: " + distintos + " pixeles del esqueleto cambiados por la compresion");
+
+            boolean iguales = true;
+            try (EscritorAsincrono asincrono = new EscritorAsincrono(netpbm, 2)) {
+                for (int i = 0; i < 20; i++) {
+                    asincrono.escribir(esqueleto, 0, directorio.resolve("asincrono" + i + ".pbm"));
+                }
+            }
+            for (int i = 0; i < 20; i++) {
+                iguales &= esqueleto.mismosPixeles(EscritorNetpbm.leer(directorio.resolve("asincrono" + i + ".pbm")));
+            }
+            comprobarIgual("EscritorAsincrono escribe todas las imagenes de la cola", iguales);
+            boolean error = false;
+            EscritorAsincrono fallido = new EscritorAsincrono(netpbm, 2);
+            fallido.escribir(esqueleto, 0, directorio.resolve("no-existe").resolve("imagen.pbm"));
+            try {
+                fallido.close();
+            } catch (java.io.IOException e) {
+                error = fallido.getFallos() == 1;
+            }
+            comprobarIgual("EscritorAsincrono informa de los errores al cerrar", error);
+            comprobarIgual("EscritorAsincrono escribe todo lo aceptado aunque se cierre desde otro hilo", comprobarCierreConcurrente());
+
+            java.nio.file.Path destino = directorio.resolve("medida");
+            medir("escribir esqueleto EscritorJpeg", () -> escribirSinExcepcion(jpeg, esqueleto, 0, destino));
+            medir("escribir esqueleto EscritorPng", () -> escribirSinExcepcion(png, esqueleto, 0, destino));
+            medir("escribir esqueleto EscritorNetpbm", () -> escribirSinExcepcion(netpbm, esqueleto, 0, destino));
+            medir("escribir grises EscritorJpeg", () -> escribirSinExcepcion(jpeg, grises, 1, destino));
+            medir("escribir grises EscritorPng", () -> escribirSinExcepcion(png, grises, 1, destino));
+            medir("escribir grises EscritorNetpbm", () -> escribirSinExcepcion(netpbm, grises, 1, destino));
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> archivos = java.nio.file.Files.list(directorio)) {
+                for (java.nio.file.Path archivo : (Iterable<java.nio.file.Path>) archivos::iterator) {
+                    java.nio.file.Files.delete(archivo);
+                }
+            }
+            java.nio.file.Files.delete(directorio);
+        }
+    }
+
+    /**
+     * ProcesadorLotes con imagenes del mismo nombre y distinta extension o carpeta, que no deben pisarse,
+     * y una imagen que no se puede leer, que debe dar codigo de salida 1
+     */
+    static void comprobarLotes(FingerPrintImage etapas) throws Exception {
+        java.nio.file.Path directorio = java.nio.file.Files.createTempDirectory("lotes");
+        try {
+            java.nio.file.Path subcarpeta = java.nio.file.Files.createDirectories(directorio.resolve("sub"));
+            ImageIO.write(etapas.imagenOriginal, "jpg", directorio.resolve("a.jpg").toFile());
+            ImageIO.write(etapas.imagenOriginal, "png", directorio.resolve("a.png").toFile());
+            ImageIO.write(etapas.imagenOriginal, "jpg", subcarpeta.resolve("a.jpg").toFile());
+            java.nio.file.Files.write(directorio.resolve("roto.jpg"), new byte[]{1, 2, 3});
+            java.nio.file.Path lista = java.nio.file.Files.write(directorio.resolve("lista.txt"),
+                    Arrays.asList("a.jpg", "a.png", "sub/a.jpg", "roto.jpg").stream()
+                            .map(nombre -> directorio.resolve(nombre).toString()).collect(java.util.stream.Collectors.toList()));
+            java.nio.file.Path salida = directorio.resolve("salida");
+            int codigo = ProcesadorLotes.ejecutar(new String[]{"-lote", lista.toString(), salida.toString(), "2", "50", "pnm"});
+            comprobarIgual("ProcesadorLotes termina con codigo 1 si falla una imagen", codigo == 1);
+            boolean todas = true;
+            for (String nombre : new String[]{"a.jpg", "a.png", "sub/a.jpg"}) {
+                todas &= java.nio.file.Files.isRegularFile(salida.resolve(nombre + ".min"))
+                        && java.nio.file.Files.isRegularFile(salida.resolve(nombre + "_AUTO.pbm"));
+            }
+            comprobarIgual("ProcesadorLotes no pisa las salidas de imagenes con el mismo nombre", todas);
+            comprobarIgual("ProcesadorLotes sin fallos termina con codigo 0", ProcesadorLotes.ejecutar(
+                    new String[]{"-lote", subcarpeta.toString(), salida.resolve("otra").toString(), "1", "50", "no"}) == 0);
+            comprobarIgual("ProcesadorLotes hilos no validos termina con codigo 2", ProcesadorLotes.ejecutar(
+                    new String[]{"-lote", subcarpeta.toString(), salida.toString(), "dos"}) == 2
+                    && ProcesadorLotes.ejecutar(new String[]{"-lote", subcarpeta.toString(), salida.toString(), "0"}) == 2);
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> archivos = java.nio.file.Files.walk(directorio)) {
+                for (java.nio.file.Path archivo : (Iterable<java.nio.file.Path>) archivos.sorted(java.util.Comparator.reverseOrder())::iterator) {
+                    java.nio.file.Files.delete(archivo);
+                }
+            }
+        }
+    }
+
+    /**
+     * comprueba los percentiles de HistogramaMetricas frente a los valores exactos, el registro concurrente,
+     * que las etapas quedan registradas en MetricasEtapas, la exportacion en JSON, Prometheus y HTTP,
+     * y mide el coste de registrar una etapa
+     */
+    static void comprobarMetricas(FingerPrintImage etapas) throws Exception {
+        Random aleatorio = new Random(13);
+        HistogramaMetricas histograma = new HistogramaMetricas();
+        long[] valores = new long[100000];
+        for (int i = 0; i < valores.length; i++) {
+            valores[i] = (long) Math.exp(aleatorio.nextDouble() * 20);//de 1 a 5e8, como nanosegundos de una etapa
+            histograma.registrar(valores[i]);
+        }
+        Arrays.sort(valores);
+        boolean aproximados = true;
+        for (double q : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            long exacto = valores[(int) Math.ceil(q * valores.length) - 1];
+            long estimado = histograma.percentil(q);
+            aproximados &= estimado >= exacto && estimado <= exacto + exacto / 8 + 1;
+        }
+        comprobarIgual("HistogramaMetricas percentiles con error de una cubeta", aproximados);
+        comprobarIgual("HistogramaMetricas maximo y cuenta", histograma.getMaximo() == valores[valores.length - 1]
+                && histograma.getCuenta() == valores.length);
+
+        HistogramaMetricas concurrente = new HistogramaMetricas();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int hilo = 0; hilo < 4; hilo++) {
+            long base = hilo;
+            pool.execute(() -> {
+                for (int i = 0; i < 250000; i++) {
+                    concurrente.registrar(base * 1000 + i % 1000);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, java.util.concurrent.TimeUnit.MINUTES);
+        comprobarIgual("HistogramaMetricas registrar desde 4 hilos", concurrente.getCuenta() == 1000000 && concurrente.getMaximo() == 3999);
+
+        MetricasEtapas metricas = MetricasEtapas.global();
+        metricas.reiniciar();
+        FingerprintRaster esqueleto = etapas.procesoAutomatico();
+        etapas.adelgazamientoZhangSuen(etapas.filtroBinario2(etapas.filtroBinario1(etapas.convertirImagenAByN(
+                etapas.calcularHistograma(etapas.convertirImagenAGrises(etapas.imagenOriginal)), etapas.umbral))));
+        etapas.extraerMinucias(esqueleto);
+        boolean registradas = true;
+        for (MetricasEtapas.Etapa etapa : MetricasEtapas.Etapa.values()) {
+            long esperadas = etapa == MetricasEtapas.Etapa.DECODIFICAR || etapa == MetricasEtapas.Etapa.CODIFICAR
+                    || etapa == MetricasEtapas.Etapa.SEGMENTAR ? 0
+                    : etapa == MetricasEtapas.Etapa.HISTOGRAMA || etapa == MetricasEtapas.Etapa.MINUCIAS ? 1 : 2;
+            registradas &= metricas.getTiempos(etapa).getCuenta() == esperadas;
+        }
+        comprobarIgual("MetricasEtapas registra cada etapa del proceso", registradas);
+        long pixeles = (long) etapas.anchuraOriginal * etapas.alturaOriginal;
+        comprobarIgual("MetricasEtapas pixeles recorridos sin segmentar", metricas.getPixelesVisitados(MetricasEtapas.Etapa.FILTRO1) == 2 * pixeles
+                && metricas.getPixelesTotales(MetricasEtapas.Etapa.ZHANG_SUEN) == 2 * pixeles);
+        HistogramaMetricas pasadas = metricas.getPasadasZhangSuen();
+        HistogramaMetricas borrados = metricas.getBorradosZhangSuen();
+        comprobarIgual("MetricasEtapas mismas pasadas y pixeles borrados en PipelineFusionado y por etapas", pasadas.getCuenta() == 2
+                && pasadas.getMaximo() > 0 && pasadas.percentil(0) == pasadas.getMaximo() && borrados.getMaximo() > 0
+                && borrados.getSuma() == 2 * borrados.getMaximo());
+        System.out.print(ExportadorMetricas.aTabla(metricas));
+
+        String json = ExportadorMetricas.aJson(metricas);
+        comprobarIgual("ExportadorMetricas JSON", json.startsWith("{\"etapas\":{\"grises\":{\"cuenta\":2,") && json.contains("\"p99_ns\":")
+                && json.contains("\"bytes_por_operacion\":") && json.contains("\"zhang_suen\":{\"pasadas\":{\"cuenta\":2,")
+                && !json.contains("decodificar"));
+        String prometheus = ExportadorMetricas.aPrometheus(metricas);
+        comprobarIgual("ExportadorMetricas Prometheus", prometheus.contains("pbmt_etapa_segundos{etapa=\"zhang_suen\",quantile=\"0.99\"} ")
+                && prometheus.contains("pbmt_etapa_segundos_count{etapa=\"filtro1\"} 2\n")
+                && prometheus.contains("pbmt_zhang_suen_pasadas_count 2\n"));
+        java.nio.file.Path archivo = java.nio.file.Files.createTempFile("pbmt", ".json");
+        ExportadorMetricas.escribir(metricas, archivo);
+        comprobarIgual("ExportadorMetricas escribir JSON", new String(java.nio.file.Files.readAllBytes(archivo),
+                java.nio.charset.StandardCharsets.UTF_8).equals(json));
+        java.nio.file.Files.delete(archivo);
+        com.sun.net.httpserver.HttpServer servidor = ExportadorMetricas.servir(metricas, 0);
+        try {
+            java.net.URL url = new java.net.URL("http://localhost:" + servidor.getAddress().getPort() + "/metricas");
+            try (java.io.InputStream entrada = url.openStream()) {
+                String recibido = new String(entrada.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8);
+                comprobarIgual("ExportadorMetricas servir /metricas", recibido.equals(prometheus));
+            }
+        } finally {
+            servidor.stop(0);
+        }
+
+        MetricasEtapas medida = new MetricasEtapas();
+        medir("registrar 1000 etapas MetricasEtapas", () -> {
+            for (int i = 0; i < 1000; i++) {
+                medida.registrar(MetricasEtapas.Etapa.FILTRO1, medida.inicio(), medida.bytesHilo());
+            }
+        });
+        metricas.reiniciar();
+    }
+
+    /**
+     * comprueba Otsu frente a probar todos los cortes, la media local y Sauvola con tabla integral frente a sumar cada ventana,
+     * y PipelineFusionado con cada metodo frente a las etapas sueltas, y mide el coste de cada metodo y tamaño de ventana
+     */
+    static void comprobarBinarizacion(FingerPrintImage etapas) {
+        int[] bimodal = new int[256];
+        for (int i = 0; i < 256; i++) {
+            bimodal[i] = (int) (1000 * Math.exp(-(i - 40) * (i - 40) / 200.0) + 3000 * Math.exp(-(i - 200) * (i - 200) / 800.0));
+        }
+        int corte = Binarizador.umbralOtsu(bimodal);
+        comprobarIgual("Binarizador Otsu histograma bimodal (umbral " + corte + ")", corte > 60 && corte < 180);
+        FingerprintRaster ecualizada = etapas.calcularHistograma(etapas.convertirImagenAGrises(etapas.imagenOriginal));
+        int[] histograma = new int[256];
+        for (int y = 0; y < ecualizada.alto; y++) {
+            for (int x = 0; x < ecualizada.ancho; x++) {
+                histograma[ecualizada.get(x, y)]++;
+            }
+        }
+        double mejor = 0;
+        for (int t = 1; t < 256; t++) {
+            mejor = Math.max(mejor, varianzaEntreClases(histograma, t));
+        }
+        corte = Binarizador.umbralOtsu(histograma);
+        comprobarIgual("Binarizador Otsu imagen real (umbral " + corte + ") maximiza la varianza entre clases",
+                varianzaEntreClases(histograma, corte) >= mejor * (1 - 1e-12));
+
+        Random aleatorio = new Random(14);
+        int[][] dimensiones = {{1, 1}, {5, 3}, {17, 40}, {70, 65}};
+        int[] radios = {1, 3, 8, 40};
+        for (int[] dimension : dimensiones) {
+            FingerprintRaster grises = new FingerprintRaster(dimension[0], dimension[1]);
+            for (int y = 0; y < grises.alto; y++) {
+                for (int x = 0; x < grises.ancho; x++) {
+                    grises.set(x, y, Math.min(255, Math.max(0, 128 + (int) (100 * Math.sin(x * 0.7 + y * 0.3)) + aleatorio.nextInt(41) - 20)));
+                }
+            }
+            for (int radio : radios) {
+                String caso = " " + dimension[0] + "x" + dimension[1] + " radio " + radio;
+                Binarizador[] binarizadores = {Binarizador.mediaLocal(radio, 5), Binarizador.sauvola(radio, 0.3)};
+                for (Binarizador binarizador : binarizadores) {
+                    int[][] esperada = binarizarVentanaDirecta(grises, binarizador.getMetodo(), radio, 5, 0.3);
+                    FingerprintRaster salida = new FingerprintRaster(grises.ancho, grises.alto);
+                    binarizador.binarizarLocal(grises, null, salida);
+                    comprobar("Binarizador " + binarizador.getMetodo().getNombre() + caso, esperada, salida.aMatriz());
+                    ImagenBinaria bits = new ImagenBinaria(grises.ancho, grises.alto);
+                    binarizador.binarizarLocal(grises, null, bits);
+                    comprobar("Binarizador " + binarizador.getMetodo().getNombre() + " empaquetada" + caso, esperada, bits.aMatriz());
+                }
+            }
+        }
+
+        ExecutorService ejecutor = Executors.newFixedThreadPool(4);
+        PipelineFusionado pipelineFranjas = new PipelineFusionado(new ProcesadorFranjas(ejecutor, 4));
+        for (String nombre : new String[]{"fijo", "otsu", "media", "sauvola"}) {
+            Binarizador binarizador = Binarizador.porNombre(nombre);
+            FingerprintRaster binaria = etapas.convertirImagenAByN(ecualizada, binarizador);
+            int[][] adelgazada = etapas.adelgazamientoZhangSuen(etapas.filtroBinario2(etapas.filtroBinario1(binaria))).aMatriz();
+            comprobar("PipelineFusionado " + binarizador, adelgazada, PipelineFusionado.delHilo().procesar(etapas.imagenOriginal, binarizador).aMatriz());
+            comprobar("PipelineFusionado por franjas " + binarizador, adelgazada, pipelineFranjas.procesar(etapas.imagenOriginal, binarizador).aMatriz());
+            long negros = 0;
+            for (int y = 0; y < binaria.alto; y++) {
+                for (int x = 0; x < binaria.ancho; x++) {
+                    negros += 1 - binaria.get(x, y);
+                }
+            }
+            System.out.printf("  %-30s %5.1f%% de pixeles negros%n", binarizador, 100.0 * negros / binaria.ancho / binaria.alto);
+        }
+        ejecutor.shutdown();
+
+        medir("convertirImagenAByN umbral fijo", () -> etapas.convertirImagenAByN(ecualizada, Binarizador.fijo(50)));
+        medir("convertirImagenAByN Otsu", () -> etapas.convertirImagenAByN(ecualizada, Binarizador.otsu()));
+        for (int radio : new int[]{4, 8, 32}) {
+            Binarizador media = Binarizador.mediaLocal(radio, Binarizador.DESPLAZAMIENTO_DEFECTO);
+            Binarizador sauvola = Binarizador.sauvola(radio, Binarizador.K_DEFECTO);
+            medir("convertirImagenAByN " + media, () -> etapas.convertirImagenAByN(ecualizada, media));
+            medir("convertirImagenAByN " + sauvola, () -> etapas.convertirImagenAByN(ecualizada, sauvola));
+        }
+    }
+
+    /**
+     * comprueba la mascara de primer plano, PipelineFusionado con segmentacion frente a las etapas sueltas con la misma mascara,
+     * los filtros y el adelgazamiento limitados a la caja frente a procesar toda la imagen con el fondo en blanco,
+     * y mide el proceso con y sin segmentacion sobre la huella en un lienzo blanco mucho mayor
+     */
+    static void comprobarSegmentacion(FingerPrintImage etapas) {
+        FingerprintRaster grises = etapas.convertirImagenAGrises(etapas.imagenOriginal);
+        MascaraSegmentacion mascara = etapas.segmentarFondo(grises);
+        int bloques = mascara.getBloquesX() * mascara.getBloquesY();
+        System.out.printf("  huella en %d de %d bloques (%.1f%%), caja (%d,%d)-(%d,%d) con el %.1f%% de los pixeles%n",
+                mascara.getBloquesPrimerPlano(), bloques, 100.0 * mascara.getBloquesPrimerPlano() / bloques, mascara.getX0(), mascara.getY0(),
+                mascara.getX1(), mascara.getY1(), 100.0 * mascara.getPixelesCaja() / grises.ancho / grises.alto);
+        comprobarIgual("MascaraSegmentacion imagen real con huella", mascara.getBloquesPrimerPlano() > 0 && mascara.getPixelesCaja() > 0);
+        comprobarIgual("MascaraSegmentacion caja alineada a palabras de 64", mascara.getX0() % 64 == 0
+                && (mascara.getX1() % 64 == 0 || mascara.getX1() == grises.ancho) && mascara.getY1() <= grises.alto);
+        FingerprintRaster liso = new FingerprintRaster(100, 70);
+        for (int y = 0; y < liso.alto; y++) {
+            for (int x = 0; x < liso.ancho; x++) {
+                liso.set(x, y, 180);
+            }
+        }
+        MascaraSegmentacion vacia = MascaraSegmentacion.de(liso);
+        comprobarIgual("MascaraSegmentacion imagen lisa sin huella", vacia.getBloquesPrimerPlano() == 0 && vacia.getPixelesCaja() == 0);
+
+        ExecutorService ejecutor = Executors.newFixedThreadPool(4);
+        PipelineFusionado pipelineFranjas = new PipelineFusionado(new ProcesadorFranjas(ejecutor, 4, 1));
+        ImagenBinaria binariaCaja = null;
+        for (String nombre : new String[]{"fijo", "otsu", "media", "sauvola"}) {
+            Binarizador binarizador = Binarizador.porNombre(nombre);
+            etapas.segmentarFondo(etapas.convertirImagenAGrises(etapas.imagenOriginal));
+            FingerprintRaster binaria = etapas.convertirImagenAByN(etapas.calcularHistograma(grises), binarizador);
+            int[][] adelgazada = etapas.adelgazamientoZhangSuen(etapas.filtroBinario2(etapas.filtroBinario1(binaria))).aMatriz();
+            comprobar("PipelineFusionado segmentado " + binarizador, adelgazada,
+                    PipelineFusionado.delHilo().procesar(etapas.imagenOriginal, binarizador, true).aMatriz());
+            comprobar("PipelineFusionado segmentado por franjas " + binarizador, adelgazada,
+                    pipelineFranjas.procesar(etapas.imagenOriginal, binarizador, true).aMatriz());
+            binariaCaja = binarizador.esLocal() ? ImagenBinaria.desdeRaster(binaria) : binariaCaja;
+        }
+        etapas.convertirImagenAGrises(etapas.imagenOriginal);//sin mascara para las comprobaciones siguientes
+        BufferedImage lisa = new BufferedImage(100, 70, BufferedImage.TYPE_BYTE_GRAY);
+        comprobar("PipelineFusionado segmentado imagen sin huella", new PipelineFusionado().procesar(lisa, Binarizador.fijo(50)).aMatriz(),
+                new PipelineFusionado().procesar(lisa, Binarizador.fijo(50), true).aMatriz());
+
+        //la caja frente a toda la imagen sobre la misma binaria con el fondo en blanco
+        int y0 = mascara.getY0(), y1 = mascara.getY1(), iDesde = mascara.getPalabraDesde(), iHasta = mascara.getPalabraHasta();
+        ImagenBinaria filtrada1 = binariaCaja.filtroBinario1();
+        ImagenBinaria filtrada2 = filtrada1.filtroBinario2();
+        ImagenBinaria adelgazada = filtrada2.adelgazamientoZhangSuen();
+        ImagenBinaria salida = new ImagenBinaria(binariaCaja.ancho, binariaCaja.alto);
+        binariaCaja.filtroBinario1(salida, y0, y1, iDesde, iHasta);
+        salida.rellenarFuera(y0, y1, iDesde, iHasta, true);
+        comprobar("ImagenBinaria filtroBinario1 caja", filtrada1.aMatriz(), salida.aMatriz());
+        filtrada1.filtroBinario2(salida, y0, y1, iDesde, iHasta);
+        salida.rellenarFuera(y0, y1, iDesde, iHasta, true);
+        comprobar("ImagenBinaria filtroBinario2 caja", filtrada2.aMatriz(), salida.aMatriz());
+        filtrada2.adelgazamientoZhangSuen(salida, new ImagenBinaria(salida.ancho, salida.alto), y0, y1, iDesde, iHasta);
+        salida.rellenarFuera(y0, y1, iDesde, iHasta, true);
+        comprobar("ImagenBinaria adelgazamientoZhangSuen caja", adelgazada.aMatriz(), salida.aMatriz());
+        ProcesadorFranjas franjas = new ProcesadorFranjas(ejecutor, 3, 1);
+        franjas.adelgazamientoZhangSuen(filtrada2, salida, new ImagenBinaria(salida.ancho, salida.alto), mascara);
+        salida.rellenarFuera(y0, y1, iDesde, iHasta, true);
+        comprobar("ProcesadorFranjas adelgazamientoZhangSuen caja", adelgazada.aMatriz(), salida.aMatriz());
+        ejecutor.shutdown();
+
+        //huella centrada en un lienzo blanco de 3x3 veces su tamaño, como una captura con mucho fondo
+        BufferedImage lienzo = new BufferedImage(3 * etapas.anchuraOriginal, 3 * etapas.alturaOriginal, BufferedImage.TYPE_BYTE_GRAY);
+        java.awt.Graphics2D grafico = lienzo.createGraphics();
+        grafico.setColor(java.awt.Color.WHITE);
+        grafico.fillRect(0, 0, lienzo.getWidth(), lienzo.getHeight());
+        grafico.drawImage(etapas.imagenOriginal, etapas.anchuraOriginal, etapas.alturaOriginal, null);
+        grafico.dispose();
+        PipelineFusionado pipeline = PipelineFusionado.delHilo();
+        pipeline.procesar(lienzo, Binarizador.otsu(), true);
+        MascaraSegmentacion mascaraLienzo = pipeline.getMascara();
+        System.out.printf("  lienzo %dx%d, caja con el %.1f%% de los pixeles%n", lienzo.getWidth(), lienzo.getHeight(),
+                100.0 * mascaraLienzo.getPixelesCaja() / lienzo.getWidth() / lienzo.getHeight());
+        comprobarIgual("MascaraSegmentacion lienzo blanco caja dentro de la huella", mascaraLienzo.getX0() >= etapas.anchuraOriginal - 64
+                && mascaraLienzo.getX1() <= 2 * etapas.anchuraOriginal + 64 && mascaraLienzo.getY0() >= etapas.alturaOriginal - 16
+                && mascaraLienzo.getY1() <= 2 * etapas.alturaOriginal + 16);
+        medir("PipelineFusionado lienzo sin segmentar", () -> pipeline.procesar(lienzo, Binarizador.otsu()));
+        medir("PipelineFusionado lienzo segmentado", () -> pipeline.procesar(lienzo, Binarizador.otsu(), true));
+        medir("PipelineFusionado imagen real sin segmentar", () -> pipeline.procesar(etapas.imagenOriginal, Binarizador.otsu()));
+        medir("PipelineFusionado imagen real segmentado", () -> pipeline.procesar(etapas.imagenOriginal, Binarizador.otsu(), true));
+    }
+
+    /**
+     * modo en flujo frente a PipelineFusionado: la imagen real en JPEG con bloques de decodificacion pequeños que no dividen el alto,
+     * el PBM escrito fila a fila, imagenes de pocas filas y una huella sintetica de 2000x2000 en PGM y en JPEG,
+     * con la memoria de los buffers del flujo frente a la de la imagen completa
+     */
+    static void comprobarFlujo(FingerPrintImage etapas) throws Exception {
+        java.nio.file.Path directorio = java.nio.file.Files.createTempDirectory("flujo");
+        try {
+            java.nio.file.Path jpeg = directorio.resolve("imagen.jpg");
+            ImageIO.write(etapas.imagenOriginal, "jpg", jpeg.toFile());
+            BufferedImage original = ImageIO.read(jpeg.toFile());
+            for (String nombre : new String[]{"fijo", "otsu"}) {
+                Binarizador binarizador = Binarizador.porNombre(nombre);
+                PipelineFusionado pipeline = PipelineFusionado.delHilo();
+                int[][] esperada = pipeline.procesar(original, binarizador).aMatriz();
+                ProcesadorFlujo flujo = new ProcesadorFlujo(binarizador, 37);
+                comprobar("ProcesadorFlujo imagen real " + binarizador, esperada, flujo.procesar(jpeg).aMatriz());
+                comprobarIgual("ProcesadorFlujo pasadas y pixeles borrados como en memoria " + binarizador,
+                        flujo.getPasadas() == pipeline.getPasadas()
+                                && flujo.getPixelesBorrados() == pipeline.getPixelesBorrados());
+                java.nio.file.Path pbm = directorio.resolve(nombre + ".pbm");
+                flujo.procesar(jpeg, pbm);
+                comprobarIgual("ProcesadorFlujo PBM fila a fila " + binarizador,
+                        PipelineFusionado.delHilo().procesar(original, binarizador).aRaster().mismosPixeles(EscritorNetpbm.leer(pbm)));
+            }
+            boolean iguales = true;
+            for (int[] tamaño : new int[][]{{70, 1}, {70, 2}, {130, 3}, {65, 40}}) {
+                BufferedImage pequeña = HuellaSintetica.generar(tamaño[0], tamaño[1], 5);
+                java.nio.file.Path pgm = directorio.resolve(tamaño[0] + "x" + tamaño[1] + ".pgm");
+                new EscritorNetpbm().escribir(ConversorRaster.aRaster(pequeña), 1, pgm);
+                iguales &= Arrays.deepEquals(PipelineFusionado.delHilo().procesar(pequeña, Binarizador.otsu()).aMatriz(),
+                        new ProcesadorFlujo(Binarizador.otsu()).procesar(pgm).aMatriz());
+            }
+            comprobarIgual("ProcesadorFlujo imagenes de 1, 2, 3 y 40 filas", iguales);
+            boolean rechazada = false;
+            try {
+                new ProcesadorFlujo(Binarizador.porNombre("sauvola"));
+            } catch (IllegalArgumentException e) {
+                rechazada = true;
+            }
+            comprobarIgual("ProcesadorFlujo rechaza la binarizacion local", rechazada);
+            java.nio.file.Path corrupta = directorio.resolve("corrupta.jpg");
+            java.nio.file.Files.write(corrupta, Arrays.copyOf(java.nio.file.Files.readAllBytes(jpeg), 20));//firma JPEG sin el resto de la cabecera
+            comprobarIgual("ProcesadorFlujo ejecutar con la entrada corrupta o sin salida devuelve el codigo de uso",
+                    ProcesadorFlujo.ejecutar(new String[]{"-flujo", corrupta.toString(), directorio.resolve("corrupta.pbm").toString()}) == 2
+                            && ProcesadorFlujo.ejecutar(new String[]{"-flujo", jpeg.toString(), directorio.resolve("no-existe").resolve("imagen.pbm").toString()}) == 2
+                            && ProcesadorFlujo.ejecutar(new String[]{"-flujo", "no-existe.jpg", "imagen.pbm"}) == 2);
+            java.nio.file.Path descriptores = java.nio.file.Paths.get("/proc/self/fd");
+            if (java.nio.file.Files.isDirectory(descriptores)) {//solo en linux
+                long abiertos = contarArchivos(descriptores);
+                int leidas = 0;
+                for (int i = 0; i < 20; i++) {
+                    try (LectorFilas lector = LectorFilas.abrir(corrupta, 37)) {
+                        leidas++;
+                    } catch (java.io.IOException e) {
+                        //se espera, el lector tiene que haber cerrado el archivo antes de lanzar
+                    }
+                }
+                comprobarIgual("LectorFilas cierra el archivo si la cabecera esta corrupta",
+                        leidas == 0 && contarArchivos(descriptores) < abiertos + 20);
+            }
+
+            BufferedImage grande = HuellaSintetica.generar(2000, 2000, 9);
+            java.nio.file.Path pgm = directorio.resolve("grande.pgm");
+            new EscritorNetpbm().escribir(ConversorRaster.aRaster(grande), 1, pgm);
+            java.nio.file.Path jpegGrande = directorio.resolve("grande.jpg");
+            ImageIO.write(grande, "jpg", jpegGrande.toFile());
+            BufferedImage grandeJpeg = ImageIO.read(jpegGrande.toFile());
+            ProcesadorFlujo flujo = new ProcesadorFlujo(Binarizador.otsu());
+            comprobar("ProcesadorFlujo 2000x2000 PGM", PipelineFusionado.delHilo().procesar(grande, Binarizador.otsu()).aMatriz(),
+                    flujo.procesar(pgm).aMatriz());
+            long bytesPgm = flujo.getBytesMemoria();
+            comprobar("ProcesadorFlujo 2000x2000 JPEG", PipelineFusionado.delHilo().procesar(grandeJpeg, Binarizador.otsu()).aMatriz(),
+                    flujo.procesar(jpegGrande).aMatriz());
+            long completa = 2000L * 2000 * 4 + 2000L * 2000 + 3 * 8L * ((2000 + 63) / 64) * 2000;//ARGB, grises y tres binarias
+            System.out.printf("  buffers del flujo: %.1f KB con PGM, %.1f KB con JPEG por bloques de %d filas; imagen completa unos %.1f MB%n",
+                    bytesPgm / 1024.0, flujo.getBytesMemoria() / 1024.0, ProcesadorFlujo.FILAS_BLOQUE, completa / 1048576.0);
+            comprobarIgual("ProcesadorFlujo memoria acotada", flujo.getBytesMemoria() < completa / 8 && bytesPgm < completa / 100);
+            medirPocas("PipelineFusionado 2000x2000 en memoria", () -> PipelineFusionado.delHilo().procesar(grande, Binarizador.otsu()));
+            java.nio.file.Path salida = directorio.resolve("grande.pbm");
+            medirPocas("ProcesadorFlujo 2000x2000 PGM a PBM", () -> {
+                try {
+                    flujo.procesar(pgm, salida);
+                } catch (java.io.IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+            });
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> archivos = java.nio.file.Files.list(directorio)) {
+                for (java.nio.file.Path archivo : (Iterable<java.nio.file.Path>) archivos::iterator) {
+                    java.nio.file.Files.delete(archivo);
+                }
+            }
+            java.nio.file.Files.delete(directorio);
+        }
+    }
+
+    private static long contarArchivos(java.nio.file.Path directorio) throws java.io.IOException {
+        try (java.util.stream.Stream<java.nio.file.Path> archivos = java.nio.file.Files.list(directorio)) {
+            return archivos.count();
+        }
+    }
+
+    /**
+     * CacheEtapas: las etapas sueltas con cache dan lo mismo que sin ella, cambiar solo el umbral reutiliza grises y ecualizacion,
+     * y en el proceso automatico los grises,
+     * la clave de la imagen no depende del objeto sino de los pixeles, el desalojo LRU respeta los bytes maximos,
+     * el disco sirve a otra instancia y se recorta, y tiempos de cambiar el umbral con y sin cache
+     */
+    static void comprobarCache(FingerPrintImage etapas, String nombreImagen) throws Exception {
+        FingerPrintImage sinCache = new FingerPrintImage(etapas.imagenOriginal, 50);
+        FingerPrintImage conCache = new FingerPrintImage(etapas.imagenOriginal, 50);
+        conCache.cache = new CacheEtapas(CacheEtapas.BYTES_DEFECTO);
+        boolean iguales = true;
+        for (String nombre : new String[]{"50", "80", "otsu", "sauvola", "80"}) {
+            Binarizador binarizador = Binarizador.porNombre(nombre);
+            for (FingerPrintImage fpi : new FingerPrintImage[]{sinCache, conCache}) {
+                fpi.binarizador = binarizador;
+            }
+            iguales &= procesoPorEtapas(sinCache).mismosPixeles(procesoPorEtapas(conCache));
+        }
+        CacheEtapas cache = conCache.cache;
+        comprobarIgual("CacheEtapas etapas sueltas igual que sin cache", iguales);
+        //5 vueltas de 6 etapas: grises y ecualizacion solo se calculan la primera vez, y la ultima vuelta repite la segunda
+        comprobarIgual("CacheEtapas cambiar el umbral reutiliza grises y ecualizacion", cache.getAciertos() == 8 + 4 && cache.getFallos() == 6 + 3 * 4);
+        BufferedImage releida = ImageIO.read(new File(nombreImagen));
+        conCache.imagenOriginal = releida;
+        long aciertos = cache.getAciertos();
+        procesoPorEtapas(conCache);
+        comprobarIgual("CacheEtapas clave por contenido con la imagen leida otra vez", cache.getAciertos() == aciertos + 6);
+        //los grises de las etapas sueltas sirven al proceso automatico, y la segunda vez es el esqueleto
+        comprobarIgual("CacheEtapas proceso automatico", conCache.procesoAutomatico().mismosPixeles(sinCache.procesoAutomatico())
+                && conCache.procesoAutomatico().mismosPixeles(sinCache.procesoAutomatico()) && cache.getAciertos() == aciertos + 8);
+        iguales = true;
+        Binarizador anterior = conCache.binarizador;
+        long fallos = cache.getFallos();
+        aciertos = cache.getAciertos();
+        for (String nombre : new String[]{"60", "otsu", "sauvola"}) {
+            for (boolean segmentar : new boolean[]{false, true}) {
+                for (FingerPrintImage fpi : new FingerPrintImage[]{sinCache, conCache}) {
+                    fpi.binarizador = Binarizador.porNombre(nombre);
+                    fpi.segmentar = segmentar;
+                }
+                iguales &= conCache.procesoAutomatico().mismosPixeles(sinCache.procesoAutomatico());
+            }
+        }
+        sinCache.segmentar = conCache.segmentar = false;
+        sinCache.binarizador = conCache.binarizador = anterior;
+        //6 esqueletos nuevos, todos desde los grises guardados
+        comprobarIgual("CacheEtapas proceso automatico con otro umbral reutiliza los grises", iguales
+                && cache.getFallos() == fallos + 6 && cache.getAciertos() == aciertos + 6);
+        conCache.imagenOriginal = sinCache.imagenOriginal;
+
+        iguales = true;
+        for (int i = 0; i < 2; i++) {
+            FingerprintRaster[] esqueletos = new FingerprintRaster[2];
+            FingerPrintImage[] instancias = {sinCache, conCache};
+            for (int j = 0; j < 2; j++) {
+                FingerPrintImage fpi = instancias[j];
+                FingerprintRaster grises = fpi.convertirImagenAGrises(fpi.imagenOriginal);
+                fpi.segmentarFondo(grises);
+                esqueletos[j] = fpi.adelgazamientoZhangSuen(fpi.filtroBinario2(fpi.filtroBinario1(
+                        fpi.convertirImagenAByN(fpi.calcularHistograma(grises), Binarizador.otsu()))));
+                fpi.mascara = null;
+            }
+            iguales &= esqueletos[0].mismosPixeles(esqueletos[1]);
+        }
+        comprobarIgual("CacheEtapas con segmentacion igual que sin cache", iguales);
+
+        CacheEtapas pequeña = new CacheEtapas(300);
+        FingerprintRaster[] rasters = new FingerprintRaster[4];
+        for (int i = 0; i < rasters.length; i++) {
+            rasters[i] = matrizRaster(new Random(i), 10, 10);
+        }
+        for (int i = 0; i < 3; i++) {
+            FingerprintRaster raster = rasters[i];
+            pequeña.calcular("prueba", "etapa" + i, "", 0, () -> raster);
+        }
+        pequeña.calcular("prueba", "etapa0", "", 0, () -> null);//la primera pasa a ser la mas reciente
+        pequeña.calcular("prueba", "etapa3", "", 0, () -> rasters[3]);
+        comprobarIgual("CacheEtapas desalojo LRU dentro de los bytes maximos", pequeña.getBytes() == 300 && pequeña.getEntradas() == 3
+                && pequeña.getDesalojos() == 1);
+        comprobarIgual("CacheEtapas desalojo LRU del menos usado", pequeña.calcular("prueba", "etapa0", "", 0, () -> null) == rasters[0]
+                && pequeña.calcular("prueba", "etapa1", "", 0, () -> rasters[1]) == rasters[1] && pequeña.getFallos() == 5);
+
+        long tamaño = (long) etapas.anchuraOriginal * etapas.alturaOriginal;
+        conCache.binarizador = Binarizador.otsu();
+        java.nio.file.Path directorio = java.nio.file.Files.createTempDirectory("cache");
+        try {
+            conCache.cache = new CacheEtapas(CacheEtapas.BYTES_DEFECTO, directorio, CacheEtapas.BYTES_DISCO_DEFECTO);
+            FingerprintRaster esqueleto = procesoPorEtapas(conCache);
+            CacheEtapas otra = new CacheEtapas(CacheEtapas.BYTES_DEFECTO, directorio, CacheEtapas.BYTES_DISCO_DEFECTO);
+            conCache.cache = otra;
+            comprobarIgual("CacheEtapas disco entre instancias", esqueleto.mismosPixeles(procesoPorEtapas(conCache))
+                    && otra.getAciertosDisco() == 6 && otra.getFallos() == 0);
+            CacheEtapas limitada = new CacheEtapas(tamaño, directorio, 2 * tamaño);
+            conCache.cache = limitada;
+            conCache.binarizador = Binarizador.fijo(120);
+            procesoPorEtapas(conCache);
+            comprobarIgual("CacheEtapas disco dentro de los bytes maximos", limitada.getBytesDisco() <= 2 * tamaño);
+            //en memoria cabe un resultado y en disco dos: A vuelve del disco, asi que al llegar C se borra B aunque A sea mas antiguo
+            java.nio.file.Path lru = java.nio.file.Files.createDirectory(directorio.resolve("lru"));
+            FingerprintRaster[] abc = {matrizRaster(new Random(1), 10, 10), matrizRaster(new Random(2), 10, 10), matrizRaster(new Random(3), 10, 10)};
+            CacheEtapas disco = new CacheEtapas(100, lru, 2L * EscritorNetpbm.codificar(abc[0], 0).length);
+            disco.calcular("lru", "A", "", 0, () -> abc[0]);
+            disco.calcular("lru", "B", "", 0, () -> abc[1]);
+            boolean aDelDisco = disco.calcular("lru", "A", "", 0, () -> null).mismosPixeles(abc[0]) && disco.getAciertosDisco() == 1;
+            disco.calcular("lru", "C", "", 0, () -> abc[2]);
+            comprobarIgual("CacheEtapas disco borra el menos usado, no el mas antiguo", aDelDisco
+                    && java.nio.file.Files.exists(lru.resolve(CacheEtapas.derivar("lru", "A", "") + ".pbm"))
+                    && !java.nio.file.Files.exists(lru.resolve(CacheEtapas.derivar("lru", "B", "") + ".pbm")));
+            //un archivo con la clave de otra version no se sirve aunque tenga la misma entrada, etapa y parametros
+            new EscritorNetpbm().escribir(abc[1], 0, lru.resolve(CacheEtapas.derivar("lru", "D", "", CacheEtapas.VERSION - 1) + ".pbm"));
+            CacheEtapas nueva = new CacheEtapas(100, lru, CacheEtapas.BYTES_DISCO_DEFECTO);
+            comprobarIgual("CacheEtapas no sirve resultados de otra version", nueva.calcular("lru", "D", "", 0, () -> abc[2]) == abc[2]
+                    && nueva.getAciertosDisco() == 0);
+            try (java.util.stream.Stream<java.nio.file.Path> archivos = java.nio.file.Files.list(lru)) {
+                for (java.nio.file.Path archivo : (Iterable<java.nio.file.Path>) archivos::iterator) {
+                    java.nio.file.Files.delete(archivo);
+                }
+            }
+            java.nio.file.Files.delete(lru);
+            System.out.println("  " + otra);
+            System.out.println("  " + limitada);
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> archivos = java.nio.file.Files.list(directorio)) {
+                for (java.nio.file.Path archivo : (Iterable<java.nio.file.Path>) archivos::iterator) {
+                    java.nio.file.Files.delete(archivo);
+                }
+            }
+            java.nio.file.Files.delete(directorio);
+        }
+
+        conCache.cache = new CacheEtapas(CacheEtapas.BYTES_DEFECTO);
+        medir("grises y ecualizacion, lo que ahorra la cache", () -> sinCache.calcularHistograma(sinCache.convertirImagenAGrises(sinCache.imagenOriginal)));
+        int[] vuelta = {0, 0};//un umbral distinto en cada ejecucion, como quien prueba umbrales en el menu
+        medir("etapas sueltas cambiando el umbral sin cache", () -> {
+            sinCache.binarizador = Binarizador.fijo(vuelta[0]++ % 256);
+            procesoPorEtapas(sinCache);
+        });
+        medir("etapas sueltas cambiando el umbral con cache", () -> {
+            conCache.binarizador = Binarizador.fijo(vuelta[1]++ % 256);
+            procesoPorEtapas(conCache);
+        });
+        System.out.println("  " + conCache.cache);
+        medir("etapas sueltas repitiendo el umbral con cache", () -> procesoPorEtapas(conCache));
+        medir("CacheEtapas clave de la imagen original", () -> new CacheEtapas(0).clave(etapas.imagenOriginal));
+    }
+
+    /**
+     * opciones 2 a 6 del menu encadenadas con el binarizador de la instancia
+     */
+    private static FingerprintRaster procesoPorEtapas(FingerPrintImage fpi) {
+        return fpi.adelgazamientoZhangSuen(fpi.filtroBinario2(fpi.filtroBinario1(
+                fpi.convertirImagenAByN(fpi.calcularHistograma(fpi.convertirImagenAGrises(fpi.imagenOriginal)), fpi.binarizador))));
+    }
+
+    /**
+     * varianza entre las clases [0, t) y [t, 256) sumando el histograma de cada clase por separado
+     */
+    private static double varianzaEntreClases(int[] histograma, int t) {
+        double peso0 = 0, peso1 = 0, suma0 = 0, suma1 = 0;
+        for (int i = 0; i < 256; i++) {
+            if (i < t) {
+                peso0 += histograma[i];
+                suma0 += (double) i * histograma[i];
+            } else {
+                peso1 += histograma[i];
+                suma1 += (double) i * histograma[i];
+            }
+        }
+        if (peso0 == 0 || peso1 == 0) {
+            return 0;
+        }
+        double diferencia = suma0 / peso0 - suma1 / peso1;
+        return peso0 * peso1 * diferencia * diferencia;
+    }
+
+    /**
+     * media local o Sauvola sumando cada ventana pixel a pixel, sin tabla integral, matriz [x][y] de 0 y 1
+     */
+    private static int[][] binarizarVentanaDirecta(FingerprintRaster grises, Binarizador.Metodo metodo, int radio, int desplazamiento, double k) {
+        int[][] salida = new int[grises.ancho][grises.alto];
+        for (int y = 0; y < grises.alto; y++) {
+            for (int x = 0; x < grises.ancho; x++) {
+                long n = 0, suma = 0, sumaCuadrados = 0;
+                for (int v = Math.max(0, y - radio); v <= Math.min(grises.alto - 1, y + radio); v++) {
+                    for (int u = Math.max(0, x - radio); u <= Math.min(grises.ancho - 1, x + radio); u++) {
+                        int valor = grises.get(u, v);
+                        n++;
+                        suma += valor;
+                        sumaCuadrados += valor * valor;
+                    }
+                }
+                int valor = grises.get(x, y);
+                boolean negro;
+                if (metodo == Binarizador.Metodo.MEDIA) {
+                    negro = valor < (double) suma / n - desplazamiento;
+                } else {
+                    negro = Binarizador.sauvola(radio, k).negroSauvola(valor, n, suma, sumaCuadrados);//misma aritmetica, la comprobacion es la de las sumas
+                }
+                salida[x][y] = negro ? 0 : 1;
+            }
+        }
+        return salida;
+    }
+
+    /**
+     * raster aleatorio de 0 y 1
+     */
+    private static FingerprintRaster matrizRaster(Random aleatorio, int ancho, int alto) {
+        return FingerprintRaster.desdeMatriz(matrizAleatoria(aleatorio, ancho, alto, 0.5));
+    }
+
+    /**
+     * compara un raster con las muestras de la imagen leida de vuelta, sin pasar por getRGB que corrige el gris
+     * un PNG de 1 bit se lee con muestras 0 y 1, igual que el raster de blanco y negro
+     */
+    private static boolean mismasMuestras(FingerprintRaster escrita, BufferedImage leida) {
+        boolean iguales = escrita.getAncho() == leida.getWidth() && escrita.getAlto() == leida.getHeight();
+        for (int y = 0; y < escrita.getAlto() && iguales; y++) {
+            for (int x = 0; x < escrita.getAncho() && iguales; x++) {
+                iguales = leida.getRaster().getSample(x, y, 0) == escrita.get(x, y);
+            }
+        }
+        return iguales;
+    }
+
+    private static void escribirSinExcepcion(EscritorImagen escritor, FingerprintRaster imagen, int modo, java.nio.file.Path archivo) {
+        try {
+            escritor.escribir(imagen, modo, archivo);
+        } catch (java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * metodo para comprobar que los nucleos vectoriales dan lo mismo que los escalares con tramos de todas las longitudes
+     * alrededor del tamaño de los vectores y de la palabra, y para medir los dos sobre la imagen
+     * los vectoriales solo estan con --add-modules jdk.incubator.vector, si no se comprueba solo el nivel de blanco
+     */
+    static void comprobarNucleos(FingerPrintImage etapas) {
+        System.out.println("NucleosFila activos: " + NucleosFila.activos());
+        FingerprintRaster grises = etapas.convertirImagenAGrises(etapas.imagenOriginal);
+        int[] histograma = new int[256];
+        for (int y = 0; y < grises.alto; y++) {
+            for (int x = 0; x < grises.ancho; x++) {
+                histograma[grises.get(x, y)]++;
+            }
+        }
+        int[] lut = new int[256];
+        PipelineFusionado.calcularLUT(histograma, (long) grises.ancho * grises.alto, lut);
+        boolean iguales = true;
+        for (int umbral = 0; umbral <= 256; umbral++) {
+            int nivel = PipelineFusionado.nivelBlanco(lut, umbral);
+            for (int i = 0; i < 256; i++) {
+                iguales &= (lut[i] >= umbral) == (i >= nivel);
+            }
+        }
+        comprobarIgual("PipelineFusionado nivel de blanco igual que la LUT con el umbral", iguales);
+
+        Random aleatorioBinario = new Random(6);
+        boolean empaquetadoIgual = true, vueltaIgual = true;
+        for (int n : new int[]{0, 1, 8, 63, 64, 65, 127, 200, 1000}) {
+            for (int origen = 0; origen < 9; origen += 4) {
+                byte[] unos = new byte[origen + n];
+                for (int i = 0; i < unos.length; i++) {
+                    unos[i] = (byte) aleatorioBinario.nextInt(2);
+                }
+                long[] esperados = new long[(n + 63) / 64 + 1], obtenidos = new long[esperados.length];
+                NucleosFila.escalar().empaquetar(unos, origen, n, 1, esperados, 1);
+                NucleosFila.activos().empaquetarBinario(unos, origen, n, obtenidos, 1);
+                empaquetadoIgual &= Arrays.equals(esperados, obtenidos);
+                byte[] vuelta = new byte[origen + n];
+                NucleosFila.activos().desempaquetar(obtenidos, 1, n, vuelta, origen);
+                vueltaIgual &= Arrays.equals(Arrays.copyOfRange(unos, origen, origen + n), Arrays.copyOfRange(vuelta, origen, origen + n));
+            }
+        }
+        comprobarIgual("NucleosFila empaquetarBinario igual que empaquetar con umbral 1", empaquetadoIgual);
+        comprobarIgual("NucleosFila desempaquetar devuelve los bytes empaquetados", vueltaIgual);
+
+        NucleosFila escalar = NucleosFila.escalar(), vectorial = NucleosFila.vectorial();
+        if (vectorial == null) {
+            System.out.println("  NucleosFila vectoriales no disponibles, hay que arrancar con --add-modules jdk.incubator.vector");
+            return;
+        }
+        Random aleatorio = new Random(19);
+        int[] longitudes = {0, 1, 7, 15, 16, 17, 31, 32, 33, 63, 64, 65, 100, 127, 128, 129, 200, 1000};
+        int[] umbrales = {0, 1, 2, 50, 127, 128, 200, 255, 256};
+        boolean grisesIguales = true, binarizarIguales = true, empaquetarIguales = true, filtrosIguales = true, filtrosEmpaquetadosIguales = true;
+        for (int n : longitudes) {
+            for (int desplazamiento = 0; desplazamiento < 3; desplazamiento++) {
+                int salto = n + 2 + desplazamiento;
+                int origen = salto + 1 + desplazamiento;
+                int[] rgb = aleatorio.ints(3 * salto).toArray();
+                byte[] niveles = new byte[3 * salto];
+                aleatorio.nextBytes(niveles);
+                byte[][] salidas = new byte[2][3 * salto];
+                NucleosFila[] versiones = {escalar, vectorial};
+                for (int v = 0; v < 2; v++) {
+                    versiones[v].grisesRGB(rgb, origen, salidas[v], origen, n);
+                }
+                grisesIguales &= Arrays.equals(salidas[0], salidas[1]);
+                for (int umbral : umbrales) {
+                    long[][] bits = {new long[3], new long[3]};
+                    for (int v = 0; v < 2; v++) {
+                        versiones[v].binarizar(niveles, origen, salidas[v], origen, n, umbral);
+                        versiones[v].empaquetar(niveles, origen, Math.min(n, 192), umbral, bits[v], 0);
+                    }
+                    binarizarIguales &= Arrays.equals(salidas[0], salidas[1]);
+                    empaquetarIguales &= Arrays.equals(bits[0], bits[1]);
+                }
+                byte[] unos = new byte[3 * salto];
+                for (int i = 0; i < unos.length; i++) {
+                    unos[i] = (byte) (aleatorio.nextInt(3) == 0 ? 0 : 1);
+                }
+                for (int v = 0; v < 2; v++) {
+                    versiones[v].filtroBinario1(unos, origen, salto, salidas[v], origen, n);
+                }
+                filtrosIguales &= Arrays.equals(salidas[0], salidas[1]);
+                for (int v = 0; v < 2; v++) {
+                    versiones[v].filtroBinario2(unos, origen, salto, salidas[v], origen, n);
+                }
+                filtrosIguales &= Arrays.equals(salidas[0], salidas[1]);
+                long[] palabras = aleatorio.longs(3 * salto).toArray();
+                long[][] salidasPalabras = {new long[3 * salto], new long[3 * salto]};
+                for (int v = 0; v < 2; v++) {
+                    versiones[v].filtroBinario1(palabras, origen, salto, salidasPalabras[v], n);
+                }
+                filtrosEmpaquetadosIguales &= Arrays.equals(salidasPalabras[0], salidasPalabras[1]);
+                for (int v = 0; v < 2; v++) {
+                    versiones[v].filtroBinario2(palabras, origen, salto, salidasPalabras[v], n);
+                }
+                filtrosEmpaquetadosIguales &= Arrays.equals(salidasPalabras[0], salidasPalabras[1]);
+            }
+        }
+        comprobarIgual("NucleosFila " + vectorial + " grisesRGB igual que escalar", grisesIguales);
+        comprobarIgual("NucleosFila " + vectorial + " binarizar igual que escalar", binarizarIguales);
+        comprobarIgual("NucleosFila " + vectorial + " empaquetar igual que escalar", empaquetarIguales);
+        comprobarIgual("NucleosFila " + vectorial + " filtros en bytes igual que escalar", filtrosIguales);
+        comprobarIgual("NucleosFila " + vectorial + " filtros empaquetados igual que escalar", filtrosEmpaquetadosIguales);
+
+        //sobre la imagen, fila a fila como en las etapas
+        int ancho = grises.ancho, alto = grises.alto;
+        int[] rgb = new int[ancho * alto];
+        for (int i = 0; i < rgb.length; i++) {
+            int nivel = grises.datos[grises.fila(i / ancho) + i % ancho] & 0xFF;
+            rgb[i] = nivel << 16 | nivel << 8 | nivel;
+        }
+        FingerprintRaster byN = etapas.convertirImagenAByN(etapas.calcularHistograma(grises), Binarizador.UMBRAL_DEFECTO);
+        ImagenBinaria binaria = ImagenBinaria.binarizar(byN, 1);
+        FingerprintRaster salida = new FingerprintRaster(ancho, alto);
+        ImagenBinaria salidaBinaria = new ImagenBinaria(ancho, alto);
+        int nivel = PipelineFusionado.nivelBlanco(lut, Binarizador.UMBRAL_DEFECTO);
+        System.out.println();
+        for (NucleosFila nucleos : new NucleosFila[]{escalar, vectorial}) {
+            medir("NucleosFila grisesRGB " + nucleos, () -> {
+                for (int y = 0; y < alto; y++) {
+                    nucleos.grisesRGB(rgb, y * ancho, salida.datos, salida.fila(y), ancho);
+                }
+            });
+            medir("NucleosFila binarizar " + nucleos, () -> {
+                for (int y = 0; y < alto; y++) {
+                    nucleos.binarizar(grises.datos, grises.fila(y), salida.datos, salida.fila(y), ancho, nivel);
+                }
+            });
+            medir("NucleosFila empaquetar " + nucleos, () -> {
+                for (int y = 0; y < alto; y++) {
+                    nucleos.empaquetar(grises.datos, grises.fila(y), ancho, nivel, salidaBinaria.bits, y * salidaBinaria.palabrasFila);
+                }
+            });
+            medir("NucleosFila filtro1 bytes " + nucleos, () -> {
+                for (int y = 1; y < alto - 1; y++) {
+                    nucleos.filtroBinario1(byN.datos, byN.fila(y) + 1, byN.salto, salida.datos, salida.fila(y) + 1, ancho - 2);
+                }
+            });
+            medir("NucleosFila filtro2 bytes " + nucleos, () -> {
+                for (int y = 1; y < alto - 1; y++) {
+                    nucleos.filtroBinario2(byN.datos, byN.fila(y) + 1, byN.salto, salida.datos, salida.fila(y) + 1, ancho - 2);
+                }
+            });
+            int palabras = binaria.palabrasFila;
+            medir("NucleosFila filtro1 bits " + nucleos, () -> {
+                for (int y = 1; y < alto - 1; y++) {
+                    nucleos.filtroBinario1(binaria.bits, y * palabras + 1, palabras, salidaBinaria.bits, palabras - 2);
+                }
+            });
+            medir("NucleosFila filtro2 bits " + nucleos, () -> {
+                for (int y = 1; y < alto - 1; y++) {
+                    nucleos.filtroBinario2(binaria.bits, y * palabras + 1, palabras, salidaBinaria.bits, palabras - 2);
+                }
+            });
+        }
+    }
+
+    /**
+     * metodo para comprobar el servidor HTTP contra el pipeline en el mismo proceso, el rechazo con 503 cuando no quedan
+     * trabajadores y una prueba de carga corta
+     */
+    static void comprobarServidor(String nombreImagen) throws Exception {
+        byte[] datos = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(nombreImagen));
+        BufferedImage imagen = ImageIO.read(new File(nombreImagen));
+        PipelineFusionado pipeline = new PipelineFusionado();
+        ImagenBinaria esqueleto = pipeline.procesar(imagen, Binarizador.fijo(Binarizador.UMBRAL_DEFECTO), false);
+        comprobarIgual("EscritorNetpbm codificar ImagenBinaria igual que el raster",
+                Arrays.equals(EscritorNetpbm.codificar(esqueleto), EscritorNetpbm.codificar(esqueleto.aRaster(), 0)));
+        byte[] pbm = EscritorNetpbm.codificar(esqueleto);
+        byte[] plantilla = pipeline.procesarPlantilla(imagen, Binarizador.fijo(Binarizador.UMBRAL_DEFECTO), false).aBytes();
+        byte[] plantillaOtsu = pipeline.procesarPlantilla(imagen, Binarizador.otsu(), true).aBytes();
+
+        java.net.http.HttpClient cliente = java.net.http.HttpClient.newBuilder().version(java.net.http.HttpClient.Version.HTTP_1_1).build();
+        try (ServidorProceso servidor = new ServidorProceso(0, 2, 100, 20)) {
+            comprobarIgual("ServidorProceso calentado antes de abrir, sin metricas del calentamiento",
+                    servidor.getMsCalentamiento() > 0 && MetricasEtapas.global().getTiempos(MetricasEtapas.Etapa.DECODIFICAR).getCuenta() == 0);
+            String base = "http://localhost:" + servidor.getPuerto();
+            java.net.http.HttpResponse<byte[]> respuesta = enviar(cliente, base + "/procesar", datos);
+            comprobarIgual("ServidorProceso plantilla igual que el pipeline", respuesta.statusCode() == 200
+                    && Arrays.equals(respuesta.body(), plantilla));
+            respuesta = enviar(cliente, base + "/procesar?salida=esqueleto", datos);
+            comprobarIgual("ServidorProceso esqueleto en PBM igual que el pipeline", respuesta.statusCode() == 200
+                    && Arrays.equals(respuesta.body(), pbm));
+            respuesta = enviar(cliente, base + "/procesar?salida=ambos", datos);
+            int bytesPlantilla = Integer.parseInt(respuesta.headers().firstValue("X-Bytes-Plantilla").orElse("-1"));
+            comprobarIgual("ServidorProceso plantilla y esqueleto", respuesta.statusCode() == 200 && bytesPlantilla == plantilla.length
+                    && Arrays.equals(Arrays.copyOf(respuesta.body(), bytesPlantilla), plantilla)
+                    && Arrays.equals(Arrays.copyOfRange(respuesta.body(), bytesPlantilla, respuesta.body().length), pbm));
+            respuesta = enviar(cliente, base + "/procesar?binarizacion=otsu&segmentar", datos);
+            comprobarIgual("ServidorProceso otsu con segmentacion", respuesta.statusCode() == 200
+                    && Arrays.equals(respuesta.body(), plantillaOtsu));
+            comprobarIgual("ServidorProceso errores", enviar(cliente, base + "/procesar?salida=otra", datos).statusCode() == 400
+                    && enviar(cliente, base + "/procesar", new byte[]{1, 2, 3}).statusCode() == 400
+                    && cliente.send(java.net.http.HttpRequest.newBuilder(java.net.URI.create(base + "/procesar")).build(),
+                    java.net.http.HttpResponse.BodyHandlers.discarding()).statusCode() == 405);
+            respuesta = cliente.send(java.net.http.HttpRequest.newBuilder(java.net.URI.create(base + "/salud")).build(),
+                    java.net.http.HttpResponse.BodyHandlers.ofByteArray());
+            comprobarIgual("ServidorProceso salud", respuesta.statusCode() == 200 && servidor.getCorrectas() == 4 && servidor.getErroneas() == 3);
+            //cabecera de JPEG sin datos detras: ImageIO lanza IIOException en lugar de devolver null
+            try (java.net.Socket corrupta = new java.net.Socket("localhost", servidor.getPuerto())) {
+                byte[] basura = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDB, 0, 0x43, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+                enviarCabecera(corrupta, basura.length);
+                corrupta.getOutputStream().write(basura);
+                comprobarIgual("ServidorProceso imagen corrupta", leerEstado(corrupta).startsWith("HTTP/1.1 400") && servidor.getErroneas() == 4);
+            }
+
+            PruebaCarga carga = new PruebaCarga(java.net.URI.create(base + "/procesar"), datos)
+                    .ejecutar(4, java.time.Duration.ofMillis(500), java.time.Duration.ofSeconds(2));
+            System.out.println("  " + carga);
+            comprobarIgual("PruebaCarga peticiones correctas", carga.getCorrectas() > 0 && carga.getErroneas() == 0);
+        }
+
+        //un solo trabajador sin espera y ocho peticiones grandes a la vez: alguna tiene que esperar turno y se rechaza
+        byte[] grande;
+        try (java.io.ByteArrayOutputStream salida = new java.io.ByteArrayOutputStream()) {
+            ImageIO.write(HuellaSintetica.generar(2000, 2000, 9), "png", salida);
+            grande = salida.toByteArray();
+        }
+        try (ServidorProceso servidor = new ServidorProceso(0, 1, 0)) {
+            String url = "http://localhost:" + servidor.getPuerto() + "/procesar";
+            ExecutorService hilos = Executors.newFixedThreadPool(8);
+            java.util.List<java.util.concurrent.Future<java.net.http.HttpResponse<byte[]>>> respuestas = new java.util.ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                respuestas.add(hilos.submit(() -> enviar(cliente, url, grande)));
+            }
+            int correctas = 0, rechazadas = 0;
+            for (java.util.concurrent.Future<java.net.http.HttpResponse<byte[]>> futura : respuestas) {
+                java.net.http.HttpResponse<byte[]> respuesta = futura.get();
+                if (respuesta.statusCode() == 200) {
+                    correctas++;
+                } else if (respuesta.statusCode() == 503 && respuesta.headers().firstValue("Retry-After").isPresent()) {
+                    rechazadas++;
+                }
+            }
+            hilos.shutdown();
+            comprobarIgual("ServidorProceso rechaza con 503 al llegar al limite", correctas >= 1 && rechazadas >= 1
+                    && correctas + rechazadas == 8 && servidor.getRechazadas() == rechazadas);
+
+            //una peticion que no termina de mandar el cuerpo ocupa el trabajador, la siguiente se rechaza sin mandar el suyo
+            //y la que anuncia mas de BYTES_MAXIMOS recibe 413 sin mandarlo tampoco
+            try (java.net.Socket ocupada = new java.net.Socket("localhost", servidor.getPuerto());
+                 java.net.Socket rechazada = new java.net.Socket("localhost", servidor.getPuerto());
+                 java.net.Socket enorme = new java.net.Socket("localhost", servidor.getPuerto())) {
+                enviarCabecera(ocupada, 3);
+                long limite = System.currentTimeMillis() + 5000;
+                while (!servidor.estado().contains("\"libres\":0") && System.currentTimeMillis() < limite) {
+                    Thread.sleep(5);
+                }
+                enviarCabecera(rechazada, grande.length);
+                enviarCabecera(enorme, ServidorProceso.BYTES_MAXIMOS + 1L);
+                boolean sinCuerpo = leerEstado(rechazada).startsWith("HTTP/1.1 503") && leerEstado(enorme).startsWith("HTTP/1.1 413");
+                ocupada.getOutputStream().write(new byte[]{1, 2, 3});
+                comprobarIgual("ServidorProceso rechaza antes de leer el cuerpo", sinCuerpo && leerEstado(ocupada).startsWith("HTTP/1.1 400"));
+            }
+        }
+    }
+
+    private static void enviarCabecera(java.net.Socket socket, long bytesCuerpo) throws java.io.IOException {
+        socket.setSoTimeout(5000);//si el servidor esperase el cuerpo, la lectura de la respuesta fallaria por tiempo
+        socket.getOutputStream().write(("POST /procesar HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + bytesCuerpo + "\r\n\r\n")
+                .getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+    }
+
+    private static String leerEstado(java.net.Socket socket) throws java.io.IOException {
+        try {
+            String linea = new java.io.BufferedReader(new java.io.InputStreamReader(socket.getInputStream(),
+                    java.nio.charset.StandardCharsets.US_ASCII)).readLine();
+            return linea != null ? linea : "";
+        } catch (java.net.SocketTimeoutException e) {
+            return "sin respuesta";
+        }
+    }
+
+    /**
+     * varios hilos escriben sin parar mientras otro cierra, cada imagen que escribir acepta tiene que llegar al destino
+     */
+    private static boolean comprobarCierreConcurrente() throws Exception {
+        FingerprintRaster pequena = new FingerprintRaster(8, 8);
+        for (int vuelta = 0; vuelta < 20; vuelta++) {
+            java.util.concurrent.atomic.AtomicInteger escritas = new java.util.concurrent.atomic.AtomicInteger();
+            java.util.concurrent.atomic.AtomicInteger aceptadas = new java.util.concurrent.atomic.AtomicInteger();
+            EscritorAsincrono asincrono = new EscritorAsincrono(new EscritorImagen() {
+                @Override
+                public String extension(int modo) {
+                    return "pbm";
+                }
+
+                @Override
+                public void escribir(FingerprintRaster imagen, int modo, java.nio.file.Path archivo) {
+                    escritas.incrementAndGet();
+                }
+            }, 4);
+            ExecutorService hilos = Executors.newFixedThreadPool(4);
+            for (int h = 0; h < 4; h++) {
+                hilos.execute(() -> {
+                    try {
+                        while (true) {
+                            asincrono.escribir(pequena, 0, null);
+                            aceptadas.incrementAndGet();
+                        }
+                    } catch (java.io.IOException e) {//cerrado
+                    }
+                });
+            }
+            Thread.sleep(2);
+            asincrono.close();
+            hilos.shutdown();
+            hilos.awaitTermination(10, java.util.concurrent.TimeUnit.SECONDS);
+            if (escritas.get() != aceptadas.get() || asincrono.getFallos() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static java.net.http.HttpResponse<byte[]> enviar(java.net.http.HttpClient cliente, String url, byte[] cuerpo) throws Exception {
+        return cliente.send(java.net.http.HttpRequest.newBuilder(java.net.URI.create(url)).POST(java.net.http.HttpRequest.BodyPublishers.ofByteArray(cuerpo)).build(),
+                java.net.http.HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * main
+     */
+    public static void main(String[] args) throws Exception {
+        int codigo = ejecutar(args.length > 0 ? args[0] : "imagen.jpg", true, false);
+        if (codigo != 0) {
+            System.exit(codigo);
+        }
+    }
+
+    /**
+     * ejecuta todas las comprobaciones con la imagen indicada
+     *
+     * @param nombreImagen con la imagen real de las comprobaciones
+     * @param conMedidas   si ademas se miden los tiempos y la memoria de cada implementacion
+     * @param parar        si se termina con codigo 1 en la primera comprobacion que falla
+     * @return 0 si todas las comprobaciones son correctas, 1 si alguna falla
+     */
+    static int ejecutar(String nombreImagen, boolean conMedidas, boolean parar) throws Exception {
+        medidas = conMedidas;
+        pararEnFallo = parar;
+        BufferedImage imagen = ImageIO.read(new File(nombreImagen));
+        FingerPrintImage etapas = new FingerPrintImage(imagen, 50);
+        System.out.println("********** Comprobaciones con " + nombreImagen + " (" + imagen.getWidth() + "x" + imagen.getHeight() + ") *********");
+        comprobarImagenBinaria(etapas);
+        comprobarImagenReal(etapas);
+        System.out.println();
+        comprobarConversorRaster(etapas);
+        System.out.println();
+        comprobarFranjas(etapas);
+        System.out.println();
+        comprobarMinucias(etapas);
+        System.out.println();
+        comprobarIdentificacion(etapas);
+        System.out.println();
+        comprobarGaleriaMapeada();
+        System.out.println();
+        comprobarEscritores(etapas);
+        System.out.println();
+        comprobarLotes(etapas);
+        System.out.println();
+        comprobarMetricas(etapas);
+        System.out.println();
+        comprobarBinarizacion(etapas);
+        System.out.println();
+        comprobarSegmentacion(etapas);
+        System.out.println();
+        comprobarFlujo(etapas);
+        System.out.println();
+        comprobarCache(etapas, nombreImagen);
+        System.out.println();
+        comprobarServidor(nombreImagen);
+        System.out.println();
+        comprobarNucleos(etapas);
+        System.out.println();
+        System.out.println(fallos == 0 ? "Todas las comprobaciones correctas" : fallos + " comprobaciones fallidas");
+        return fallos == 0 ? 0 : 1;
+    }
+}
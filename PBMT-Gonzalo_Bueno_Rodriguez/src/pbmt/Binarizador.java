@@ -0,0 +1,395 @@
+package pbmt;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * metodo de binarizacion de la imagen de grises (ya ecualizada), negro si el nivel queda por debajo del umbral y blanco si no
+ * FIJO usa un unico umbral para toda la imagen, como hasta ahora, y OTSU elige ese umbral global a partir del histograma
+ * MEDIA y SAUVOLA calculan un umbral para cada pixel con la media (y en SAUVOLA la desviacion) de una ventana centrada en el,
+ * asi una huella con zonas de mas o menos presion se binariza bien sin buscar un umbral a mano
+ * las sumas de la ventana salen de una tabla de sumas acumuladas (imagen integral) de niveles y de cuadrados,
+ * cualquier tamaño de ventana cuesta 4 lecturas por pixel, y la tabla se va calculando en la misma pasada que se binariza:
+ * solo se guardan las 2*radio+2 filas de la tabla que abarca la ventana, en buffers de cada hilo que se reutilizan
+ * las instancias no cambian y se pueden compartir entre hilos
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class Binarizador {
+    /**
+     * metodos de binarizacion
+     */
+    public enum Metodo {
+        FIJO("fijo"),
+        OTSU("otsu"),
+        MEDIA("media"),
+        SAUVOLA("sauvola");
+
+        private final String nombre;
+
+        Metodo(String nombre) {
+            this.nombre = nombre;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+    }
+
+    public static final int UMBRAL_DEFECTO = 50;//el del menu
+    public static final int RADIO_DEFECTO = 8;//ventana de 17x17, algo mas de una cresta y un valle a 500 dpi
+    public static final int DESPLAZAMIENTO_DEFECTO = 8;//para que las zonas lisas de fondo no salgan con ruido
+    public static final double K_DEFECTO = 0.2;
+    private static final double RANGO_DESVIACION = 128;//R de Sauvola, maxima desviacion en 8 bits
+
+    private static final Binarizador[] FIJOS = new Binarizador[257];//uno por umbral, procesar con un int no reserva memoria
+
+    static {
+        for (int i = 0; i < FIJOS.length; i++) {
+            FIJOS[i] = new Binarizador(Metodo.FIJO, i, 0, 0, 0);
+        }
+    }
+
+    /**
+     * filas de la tabla integral y fila de salida de cada hilo
+     */
+    private static class Buffers {
+        long[] sumas = new long[0];
+        long[] cuadrados = new long[0];
+        byte[] blancos = new byte[0];
+    }
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private final Metodo metodo;
+    private final int umbral;
+    private final int radio;
+    private final int desplazamiento;
+    private final double k;
+
+    private Binarizador(Metodo metodo, int umbral, int radio, int desplazamiento, double k) {
+        this.metodo = metodo;
+        this.umbral = umbral;
+        this.radio = radio;
+        this.desplazamiento = desplazamiento;
+        this.k = k;
+    }
+
+    /**
+     * umbral fijo para toda la imagen
+     *
+     * @param umbral con el umbral, de 0 a 256
+     */
+    public static Binarizador fijo(int umbral) {
+        return umbral >= 0 && umbral < FIJOS.length ? FIJOS[umbral] : new Binarizador(Metodo.FIJO, umbral, 0, 0, 0);
+    }
+
+    /**
+     * umbral global de Otsu, el que maximiza la varianza entre las clases de negro y blanco
+     */
+    public static Binarizador otsu() {
+        return new Binarizador(Metodo.OTSU, UMBRAL_DEFECTO, 0, 0, 0);
+    }
+
+    /**
+     * media local: negro si el nivel es menor que la media de la ventana menos el desplazamiento
+     *
+     * @param radio          con el radio de la ventana, que mide 2*radio+1 de lado
+     * @param desplazamiento con lo que se resta a la media
+     */
+    public static Binarizador mediaLocal(int radio, int desplazamiento) {
+        return new Binarizador(Metodo.MEDIA, UMBRAL_DEFECTO, radio, desplazamiento, 0);
+    }
+
+    /**
+     * Sauvola: negro si el nivel es menor que media*(1+k*(desviacion/128-1)) en la ventana
+     * donde hay poco contraste el umbral baja por debajo de la media y el fondo liso queda blanco
+     *
+     * @param radio con el radio de la ventana, que mide 2*radio+1 de lado
+     * @param k     con el peso de la desviacion, entre 0.2 y 0.5 normalmente
+     */
+    public static Binarizador sauvola(int radio, double k) {
+        return new Binarizador(Metodo.SAUVOLA, UMBRAL_DEFECTO, radio, 0, k);
+    }
+
+    /**
+     * binarizador a partir de su nombre: un numero para umbral fijo, fijo (umbral 50), otsu, media o sauvola
+     * con los parametros por defecto
+     *
+     * @param nombre con el nombre
+     * @return binarizador
+     * @throws IllegalArgumentException si no es ninguno de ellos
+     */
+    public static Binarizador porNombre(String nombre) {
+        switch (nombre.toLowerCase(Locale.ROOT)) {
+            case "fijo":
+                return fijo(UMBRAL_DEFECTO);
+            case "otsu":
+                return otsu();
+            case "media":
+                return mediaLocal(RADIO_DEFECTO, DESPLAZAMIENTO_DEFECTO);
+            case "sauvola":
+                return sauvola(RADIO_DEFECTO, K_DEFECTO);
+            default:
+                try {
+                    return fijo(Integer.parseInt(nombre));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("binarizacion desconocida: " + nombre + " (un umbral, fijo, otsu, media o sauvola)");
+                }
+        }
+    }
+
+    public Metodo getMetodo() {
+        return metodo;
+    }
+
+    /**
+     * umbral de FIJO, UMBRAL_DEFECTO en los demas metodos
+     */
+    public int getUmbral() {
+        return umbral;
+    }
+
+    public int getRadio() {
+        return radio;
+    }
+
+    /**
+     * indica si el umbral cambia de un pixel a otro, MEDIA y SAUVOLA
+     */
+    public boolean esLocal() {
+        return metodo == Metodo.MEDIA || metodo == Metodo.SAUVOLA;
+    }
+
+    /**
+     * todos los parametros sin redondear, para CacheEtapas
+     */
+    String getClave() {
+        return metodo.getNombre() + ":" + umbral + ":" + radio + ":" + desplazamiento + ":" + k;
+    }
+
+    @Override
+    public String toString() {
+        switch (metodo) {
+            case FIJO:
+                return "umbral fijo " + umbral;
+            case OTSU:
+                return "umbral global de Otsu";
+            case MEDIA:
+                return "media local " + (2 * radio + 1) + "x" + (2 * radio + 1) + " menos " + desplazamiento;
+            default:
+                return String.format(Locale.ROOT, "Sauvola %dx%d k=%.2f", 2 * radio + 1, 2 * radio + 1, k);
+        }
+    }
+
+    /**
+     * umbral unico para toda la imagen de FIJO u OTSU
+     *
+     * @param histograma con la frecuencia de cada nivel de gris de la imagen a binarizar
+     * @return umbral, negro por debajo
+     */
+    public int umbralGlobal(int[] histograma) {
+        return metodo == Metodo.OTSU ? umbralOtsu(histograma) : umbral;
+    }
+
+    /**
+     * umbral unico para toda la imagen de FIJO u OTSU, con OTSU se recorre la imagen para su histograma
+     *
+     * @param grises con la imagen a binarizar
+     * @return umbral, negro por debajo
+     */
+    public int umbralGlobal(FingerprintRaster grises) {
+        if (metodo != Metodo.OTSU) {
+            return umbral;
+        }
+        int[] histograma = new int[256];
+        for (int y = 0; y < grises.alto; y++) {
+            int origen = grises.fila(y);
+            for (int x = 0; x < grises.ancho; x++) {
+                histograma[grises.datos[origen + x] & 0xFF]++;
+            }
+        }
+        return umbralOtsu(histograma);
+    }
+
+    /**
+     * umbral de Otsu: se prueba cada corte del histograma y se queda el de mayor varianza entre clases,
+     * con los pesos y sumas acumulados es una sola pasada por los 256 niveles
+     *
+     * @param histograma con la frecuencia de cada nivel
+     * @return primer nivel de la clase blanca, los niveles menores son negros
+     */
+    static int umbralOtsu(int[] histograma) {
+        long total = 0;
+        long sumaTotal = 0;
+        for (int i = 0; i < histograma.length; i++) {
+            total += histograma[i];
+            sumaTotal += (long) i * histograma[i];
+        }
+        long peso0 = 0;
+        long suma0 = 0;
+        double mejor = -1;
+        int corte = 0;
+        for (int t = 0; t < histograma.length; t++) {
+            peso0 += histograma[t];
+            suma0 += (long) t * histograma[t];
+            long peso1 = total - peso0;
+            if (peso0 == 0) {
+                continue;
+            }
+            if (peso1 == 0) {
+                break;
+            }
+            double diferencia = (double) suma0 / peso0 - (double) (sumaTotal - suma0) / peso1;
+            double entreClases = (double) peso0 * peso1 * diferencia * diferencia;
+            if (entreClases > mejor) {
+                mejor = entreClases;
+                corte = t + 1;
+            }
+        }
+        return corte;
+    }
+
+    /**
+     * binarizacion con umbral local de MEDIA o SAUVOLA a un raster de 0 y 1
+     *
+     * @param grises con la imagen de grises
+     * @param lut    con la tabla de 256 niveles que se aplica antes (la ecualizacion), o null para usar los niveles tal cual
+     * @param salida con el raster de salida del mismo tamaño
+     */
+    public void binarizarLocal(FingerprintRaster grises, int[] lut, FingerprintRaster salida) {
+        Buffers buffers = prepararBuffers(grises.ancho);
+        for (int y = 0, calculadas = 0; y < grises.alto; y++) {
+            calculadas = binarizarFila(grises, lut, y, calculadas, buffers);
+            System.arraycopy(buffers.blancos, 0, salida.datos, salida.fila(y), grises.ancho);
+        }
+    }
+
+    /**
+     * binarizacion con umbral local de MEDIA o SAUVOLA a una imagen empaquetada
+     *
+     * @param grises con la imagen de grises
+     * @param lut    con la tabla de 256 niveles que se aplica antes (la ecualizacion), o null para usar los niveles tal cual
+     * @param salida con la imagen binaria de salida del mismo tamaño
+     */
+    public void binarizarLocal(FingerprintRaster grises, int[] lut, ImagenBinaria salida) {
+        binarizarLocal(grises, lut, salida, 0, 0);
+    }
+
+    /**
+     * binarizacion con umbral local de una parte de la imagen, para la caja de una MascaraSegmentacion
+     * la ventana no sale de la parte, los pixeles de fuera no cuentan en la media
+     *
+     * @param grises con la vista de grises de la parte
+     * @param lut    con la tabla de 256 niveles que se aplica antes, o null
+     * @param salida con la imagen binaria de toda la imagen, solo se escriben las palabras de la parte
+     * @param x0     con la columna de la esquina de la parte en la salida, multiplo de 64
+     * @param y0     con la fila de la esquina de la parte en la salida
+     */
+    void binarizarLocal(FingerprintRaster grises, int[] lut, ImagenBinaria salida, int x0, int y0) {
+        Buffers buffers = prepararBuffers(grises.ancho);
+        NucleosFila nucleos = NucleosFila.activos();
+        for (int y = 0, calculadas = 0; y < grises.alto; y++) {
+            calculadas = binarizarFila(grises, lut, y, calculadas, buffers);
+            //la fila de 0 y 1 se empaqueta con umbral 1
+            nucleos.empaquetar(buffers.blancos, 0, grises.ancho, 1, salida.bits, (y0 + y) * salida.palabrasFila + (x0 >>> 6));
+        }
+    }
+
+    private Buffers prepararBuffers(int ancho) {
+        if (!esLocal()) {
+            throw new IllegalStateException("binarizarLocal solo con MEDIA o SAUVOLA");
+        }
+        Buffers buffers = BUFFERS.get();
+        int necesarios = (2 * radio + 2) * (ancho + 1);
+        if (buffers.sumas.length < necesarios) {
+            buffers.sumas = new long[necesarios];
+            buffers.cuadrados = new long[necesarios];
+        }
+        if (buffers.blancos.length < ancho) {
+            buffers.blancos = new byte[ancho];
+        }
+        return buffers;
+    }
+
+    /**
+     * calcula en buffers.blancos la fila y, antes añade a la tabla integral las filas que necesita la ventana
+     * la fila k de la tabla tiene las sumas del rectangulo de las filas 0 a k-1 y columnas 0 a x-1 en la posicion x,
+     * y se guarda en el hueco k modulo 2*radio+2
+     *
+     * @param calculadas con el numero de filas de la tabla ya calculadas
+     * @return filas de la tabla calculadas tras esta fila
+     */
+    private int binarizarFila(FingerprintRaster grises, int[] lut, int y, int calculadas, Buffers buffers) {
+        int ancho = grises.ancho;
+        int huecos = 2 * radio + 2;
+        int filaTabla = ancho + 1;
+        long[] sumas = buffers.sumas;
+        long[] cuadrados = buffers.cuadrados;
+        int y0 = Math.max(0, y - radio);
+        int y1 = Math.min(grises.alto, y + radio + 1);
+        for (; calculadas <= y1; calculadas++) {
+            int actual = (calculadas % huecos) * filaTabla;
+            if (calculadas == 0) {
+                Arrays.fill(sumas, actual, actual + filaTabla, 0);
+                Arrays.fill(cuadrados, actual, actual + filaTabla, 0);
+                continue;
+            }
+            int anterior = ((calculadas - 1) % huecos) * filaTabla;
+            int origen = grises.fila(calculadas - 1);
+            long fila = 0;
+            long filaCuadrados = 0;
+            sumas[actual] = 0;
+            cuadrados[actual] = 0;
+            for (int x = 0; x < ancho; x++) {
+                int valor = nivel(grises.datos[origen + x], lut);
+                fila += valor;
+                filaCuadrados += valor * valor;
+                sumas[actual + x + 1] = sumas[anterior + x + 1] + fila;
+                cuadrados[actual + x + 1] = cuadrados[anterior + x + 1] + filaCuadrados;
+            }
+        }
+        int arriba = (y0 % huecos) * filaTabla;
+        int abajo = (y1 % huecos) * filaTabla;
+        int origen = grises.fila(y);
+        long filasVentana = y1 - y0;
+        byte[] blancos = buffers.blancos;
+        for (int x = 0; x < ancho; x++) {
+            int x0 = Math.max(0, x - radio);
+            int x1 = Math.min(ancho, x + radio + 1);
+            long n = filasVentana * (x1 - x0);
+            long suma = sumas[abajo + x1] - sumas[abajo + x0] - sumas[arriba + x1] + sumas[arriba + x0];
+            int valor = nivel(grises.datos[origen + x], lut);
+            boolean negro;
+            if (metodo == Metodo.MEDIA) {
+                negro = valor * n < suma - desplazamiento * n;//valor < media - desplazamiento sin dividir
+            } else {
+                long sumaCuadrados = cuadrados[abajo + x1] - cuadrados[abajo + x0] - cuadrados[arriba + x1] + cuadrados[arriba + x0];
+                negro = negroSauvola(valor, n, suma, sumaCuadrados);
+            }
+            blancos[x] = (byte) (negro ? 0 : 1);
+        }
+        return calculadas;
+    }
+
+    /**
+     * valor < media*(1+k*(desviacion/R-1)) sin raiz ni divisiones, multiplicando por n y elevando al cuadrado:
+     * con d = valor*n - suma*(1-k) es negro si d < 0 o si d^2*n^2*R^2 < k^2*suma^2*(n*sumaCuadrados - suma^2)
+     * n*sumaCuadrados - suma^2 se calcula exacto en long (ventanas de hasta unos 3400x3400), pero k no es entero
+     * y los productos de los dos lados pasan de 2^53 (d^2*n^2*R^2 llega a unos 7e18 con la ventana de 17x17 por defecto),
+     * asi que la comparacion es en double y solo es aproximada cuando los dos lados coinciden en unas 15 cifras,
+     * es decir en pixeles practicamente sobre el umbral, donde tambien la formula con raiz podria dar cualquiera de los dos
+     */
+    boolean negroSauvola(int valor, long n, long suma, long sumaCuadrados) {
+        double diferencia = (double) valor * n - suma * (1 - k);
+        if (diferencia < 0) {
+            return true;
+        }
+        double varianzaN2 = n * sumaCuadrados - suma * suma;//n^2 por la varianza de la ventana
+        return diferencia * diferencia * n * n * (RANGO_DESVIACION * RANGO_DESVIACION) < k * k * suma * suma * varianzaN2;
+    }
+
+    private static int nivel(byte pixel, int[] lut) {
+        return lut == null ? pixel & 0xFF : lut[pixel & 0xFF];
+    }
+}
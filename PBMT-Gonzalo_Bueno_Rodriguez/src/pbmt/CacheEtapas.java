@@ -0,0 +1,438 @@
+package pbmt;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+
+/**
+ * cache de resultados de etapas direccionada por contenido: la clave de un resultado es el SHA-256 de la clave de su entrada,
+ * el nombre de la etapa, sus parametros y VERSION, y la clave de la imagen original es el SHA-256 de sus pixeles
+ * VERSION se sube cada vez que cambia lo que calcula alguna etapa o el formato de los archivos, asi los archivos del disco
+ * de una version anterior dejan de encontrarse y acaban desalojados en lugar de servir resultados viejos
+ * asi volver a procesar la misma imagen cambiando solo un parametro posterior (p. ej. el umbral) reutiliza los grises
+ * y la ecualizacion, aunque la imagen se vuelva a leer del archivo
+ * las claves de los raster que ha devuelto la cache se recuerdan por identidad, solo se recorren los pixeles de
+ * una imagen la primera vez que se ve
+ * en memoria se desaloja el menos usado recientemente cuando se pasa de los bytes maximos; con un directorio, cada resultado
+ * se escribe tambien en PGM (grises) o PBM (blanco y negro) con la clave como nombre, lo que se desaloja de memoria se
+ * recupera de ahi y sirve entre ejecuciones, y cuando se pasa de los bytes de disco se borran los archivos usados hace mas tiempo
+ * el orden de uso del disco se lleva en memoria y cada acierto actualiza tambien la fecha del archivo, que es el orden
+ * con el que empieza la siguiente ejecucion; leer, escribir y borrar archivos se hace fuera del cerrojo de la cache
+ * los raster devueltos se comparten entre llamadas y no deben modificarse, ninguna etapa modifica su entrada
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class CacheEtapas {
+    public static final long BYTES_DEFECTO = 64L << 20;
+    public static final long BYTES_DISCO_DEFECTO = 1L << 30;
+    static final int VERSION = 1;//las claves de antes no llevaban version
+
+    /**
+     * resultado guardado en memoria
+     */
+    private static class Entrada {
+        final FingerprintRaster raster;
+        final int modo;//1 grises, 0 blanco y negro, como en EscritorImagen
+
+        Entrada(FingerprintRaster raster, int modo) {
+            this.raster = raster;
+            this.modo = modo;
+        }
+
+        long getBytes() {
+            return raster.datos.length;
+        }
+    }
+
+    private final long bytesMaximos;
+    private final Path directorio;//null sin disco
+    private final long bytesDiscoMaximos;
+    private final LinkedHashMap<String, Entrada> entradas = new LinkedHashMap<>(16, 0.75f, true);//en orden de uso
+    private final LinkedHashMap<Path, Long> archivosPorUso = new LinkedHashMap<>(16, 0.75f, true);//bytes de cada archivo, en orden de uso
+    private final Map<Object, String> claves = new WeakHashMap<>();//clave de cada raster o imagen ya vistos, por identidad
+    private long bytes;
+    private long bytesDisco;
+    private long aciertos;
+    private long aciertosDisco;
+    private long fallos;
+    private long desalojos;
+
+    /**
+     * constructor solo en memoria
+     *
+     * @param bytesMaximos con los bytes de pixeles que se guardan como mucho
+     */
+    public CacheEtapas(long bytesMaximos) {
+        this.bytesMaximos = bytesMaximos;
+        this.directorio = null;
+        this.bytesDiscoMaximos = 0;
+    }
+
+    /**
+     * constructor con copia en disco, lo que ya haya en el directorio se puede recuperar
+     *
+     * @param bytesMaximos      con los bytes de pixeles que se guardan en memoria como mucho
+     * @param directorio        con el directorio de los archivos, se crea si no existe
+     * @param bytesDiscoMaximos con los bytes de archivos que se guardan como mucho
+     * @throws IOException si no se puede crear o leer el directorio
+     */
+    public CacheEtapas(long bytesMaximos, Path directorio, long bytesDiscoMaximos) throws IOException {
+        this.bytesMaximos = bytesMaximos;
+        this.directorio = directorio;
+        this.bytesDiscoMaximos = bytesDiscoMaximos;
+        Files.createDirectories(directorio);
+        List<Path> archivos = archivosDisco();
+        List<long[]> fechas = new ArrayList<>();//fecha e indice
+        for (int i = 0; i < archivos.size(); i++) {
+            fechas.add(new long[]{Files.getLastModifiedTime(archivos.get(i)).toMillis(), i});
+        }
+        fechas.sort((a, b) -> Long.compare(a[0], b[0]));
+        for (long[] fecha : fechas) {//del usado hace mas tiempo al mas reciente
+            Path archivo = archivos.get((int) fecha[1]);
+            long tamaño = Files.size(archivo);
+            archivosPorUso.put(archivo, tamaño);
+            bytesDisco += tamaño;
+        }
+    }
+
+    /**
+     * resultado de una etapa, de la cache si ya se calculo con la misma entrada y parametros
+     *
+     * @param claveEntrada con la clave de la entrada, de clave(...) o de un resultado anterior
+     * @param etapa        con el nombre de la etapa
+     * @param parametros   con todo lo que, ademas de la entrada, cambia el resultado
+     * @param modo         con el modo del resultado, 1 grises, 0 blanco y negro
+     * @param calculo      con el calculo de la etapa si no esta en la cache
+     * @return resultado, que no debe modificarse
+     */
+    public FingerprintRaster calcular(String claveEntrada, String etapa, String parametros, int modo, Supplier<FingerprintRaster> calculo) {
+        String clave = derivar(claveEntrada, etapa, parametros);
+        FingerprintRaster resultado = obtener(clave);
+        if (resultado == null) {
+            resultado = calculo.get();
+            guardar(clave, resultado, modo);
+        }
+        return resultado;
+    }
+
+    /**
+     * clave de contenido de una imagen original, se calcula una vez por objeto
+     */
+    public String clave(BufferedImage imagen) {
+        synchronized (this) {
+            String clave = claves.get(imagen);
+            if (clave != null) {
+                return clave;
+            }
+        }
+        String clave = hex(resumenPixeles(imagen));
+        synchronized (this) {
+            claves.put(imagen, clave);
+        }
+        return clave;
+    }
+
+    /**
+     * clave de un raster, la de la cache si es un resultado suyo o la de sus pixeles si no
+     */
+    public String clave(FingerprintRaster raster) {
+        synchronized (this) {
+            String clave = claves.get(raster);
+            if (clave != null) {
+                return clave;
+            }
+        }
+        MessageDigest resumen = sha256();
+        resumen.update(ByteBuffer.allocate(8).putInt(raster.ancho).putInt(raster.alto).array());
+        for (int y = 0; y < raster.alto; y++) {
+            resumen.update(raster.datos, raster.fila(y), raster.ancho);
+        }
+        String clave = hex(resumen.digest());
+        synchronized (this) {
+            claves.put(raster, clave);
+        }
+        return clave;
+    }
+
+    /**
+     * clave de un resultado a partir de la de su entrada, sin recorrer ningun pixel
+     */
+    static String derivar(String claveEntrada, String etapa, String parametros) {
+        return derivar(claveEntrada, etapa, parametros, VERSION);
+    }
+
+    /**
+     * clave de un resultado calculado con la version indicada
+     */
+    static String derivar(String claveEntrada, String etapa, String parametros, int version) {
+        MessageDigest resumen = sha256();
+        resumen.update((claveEntrada + '/' + etapa + '/' + parametros + "/v" + version).getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        return hex(resumen.digest());
+    }
+
+    /**
+     * busca en memoria y despues en disco, lo que se encuentra en disco vuelve a memoria
+     *
+     * @return raster o null si no esta
+     */
+    FingerprintRaster obtener(String clave) {
+        Entrada entrada;
+        synchronized (this) {
+            entrada = entradas.get(clave);
+            if (entrada != null) {
+                aciertos++;
+                if (directorio != null) {
+                    archivosPorUso.get(archivo(clave, entrada.modo));//tambien es el mas reciente del disco
+                }
+            } else if (directorio == null) {
+                fallos++;
+                return null;
+            }
+        }
+        if (entrada != null) {
+            if (directorio != null) {
+                usado(archivo(clave, entrada.modo));
+            }
+            return entrada.raster;
+        }
+        for (int modo = 0; modo < 2; modo++) {
+            Path archivo = archivo(clave, modo);
+            if (Files.exists(archivo)) {
+                try {
+                    FingerprintRaster raster = EscritorNetpbm.leer(archivo);
+                    usado(archivo);
+                    synchronized (this) {
+                        aciertosDisco++;
+                        archivosPorUso.get(archivo);
+                        meterEnMemoria(clave, new Entrada(raster, modo));
+                    }
+                    return raster;
+                } catch (IOException e) {//archivo a medias o de otro programa, se trata como un fallo
+                    if (borrar(archivo)) {
+                        synchronized (this) {
+                            Long tamaño = archivosPorUso.remove(archivo);
+                            bytesDisco -= tamaño != null ? tamaño : 0;
+                        }
+                    }
+                }
+            }
+        }
+        synchronized (this) {
+            fallos++;
+        }
+        return null;
+    }
+
+    /**
+     * guarda un resultado en memoria y en disco si hay directorio, el archivo se escribe fuera del cerrojo
+     */
+    void guardar(String clave, FingerprintRaster raster, int modo) {
+        synchronized (this) {
+            meterEnMemoria(clave, new Entrada(raster, modo));
+        }
+        Path archivo = directorio != null ? archivo(clave, modo) : null;
+        if (archivo == null || Files.exists(archivo)) {
+            return;
+        }
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            byte[] datos = EscritorNetpbm.codificar(raster, modo);
+            Files.write(temporal, datos);
+            Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            List<Path> sobrantes;
+            synchronized (this) {
+                Long anterior = archivosPorUso.put(archivo, (long) datos.length);//otro hilo puede haberlo escrito a la vez
+                bytesDisco += datos.length - (anterior != null ? anterior : 0);
+                sobrantes = sobrantesDisco();
+            }
+            for (Path sobrante : sobrantes) {
+                borrar(sobrante);
+            }
+        } catch (IOException e) {//sin disco la cache sigue funcionando en memoria
+            System.out.println("ERROR! no se puede guardar en la cache " + archivo + ": " + e.getMessage());
+            borrar(temporal);
+        }
+    }
+
+    /**
+     * pone la fecha del archivo a ahora, para que la siguiente ejecucion empiece con el mismo orden de uso
+     */
+    private static void usado(Path archivo) {
+        try {
+            Files.setLastModifiedTime(archivo, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {//borrado entre medias por otro hilo o instancia, no importa
+        }
+    }
+
+    private void meterEnMemoria(String clave, Entrada entrada) {
+        Entrada anterior = entradas.put(clave, entrada);
+        bytes += entrada.getBytes() - (anterior != null ? anterior.getBytes() : 0);
+        claves.put(entrada.raster, clave);
+        Iterator<Entrada> menosUsadas = entradas.values().iterator();
+        while (bytes > bytesMaximos && menosUsadas.hasNext()) {
+            Entrada desalojada = menosUsadas.next();
+            if (desalojada == entrada) {//la recien metida se queda aunque no quepa, la usa quien la ha pedido
+                continue;
+            }
+            menosUsadas.remove();
+            bytes -= desalojada.getBytes();
+            desalojos++;
+        }
+    }
+
+    /**
+     * saca del indice los archivos usados hace mas tiempo hasta quedar por debajo de los bytes de disco,
+     * con el cerrojo cogido, y los devuelve para borrarlos fuera de el
+     */
+    private List<Path> sobrantesDisco() {
+        List<Path> sobrantes = new ArrayList<>();
+        Iterator<Map.Entry<Path, Long>> menosUsados = archivosPorUso.entrySet().iterator();
+        while (bytesDisco > bytesDiscoMaximos && menosUsados.hasNext()) {
+            Map.Entry<Path, Long> archivo = menosUsados.next();
+            menosUsados.remove();
+            bytesDisco -= archivo.getValue();
+            sobrantes.add(archivo.getKey());
+        }
+        return sobrantes;
+    }
+
+    private List<Path> archivosDisco() throws IOException {
+        List<Path> archivos = new ArrayList<>();
+        try (DirectoryStream<Path> lista = Files.newDirectoryStream(directorio, "*.{pbm,pgm}")) {
+            for (Path archivo : lista) {
+                archivos.add(archivo);
+            }
+        }
+        return archivos;
+    }
+
+    private Path archivo(String clave, int modo) {
+        return directorio.resolve(clave + (modo == 0 ? ".pbm" : ".pgm"));
+    }
+
+    private static boolean borrar(Path archivo) {
+        try {
+            return Files.deleteIfExists(archivo);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * vacia la memoria, los archivos del disco se quedan
+     */
+    public synchronized void vaciar() {
+        entradas.clear();
+        claves.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getAciertos() {
+        return aciertos;
+    }
+
+    public synchronized long getAciertosDisco() {
+        return aciertosDisco;
+    }
+
+    public synchronized long getFallos() {
+        return fallos;
+    }
+
+    public synchronized long getDesalojos() {
+        return desalojos;
+    }
+
+    public synchronized int getEntradas() {
+        return entradas.size();
+    }
+
+    /**
+     * bytes de pixeles en memoria
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * bytes de archivos en el directorio, 0 sin disco
+     */
+    public synchronized long getBytesDisco() {
+        return bytesDisco;
+    }
+
+    /**
+     * fraccion de busquedas resueltas en memoria o en disco
+     */
+    public synchronized double getTasaAciertos() {
+        long busquedas = aciertos + aciertosDisco + fallos;
+        return busquedas == 0 ? 0 : (double) (aciertos + aciertosDisco) / busquedas;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "cache de etapas: %.1f%% de aciertos (%d en memoria, %d en disco, %d fallos), %d resultados en %.1f KB de %.1f KB, %d desalojados%s",
+                100 * getTasaAciertos(), aciertos, aciertosDisco, fallos, entradas.size(), bytes / 1024.0, bytesMaximos / 1024.0, desalojos,
+                directorio != null ? String.format(Locale.ROOT, ", %.1f KB en %s", bytesDisco / 1024.0, directorio) : "");
+    }
+
+    /**
+     * SHA-256 del tamaño, el tipo y los pixeles de la imagen, del DataBuffer directamente cuando es de bytes sin desplazamiento
+     */
+    private static byte[] resumenPixeles(BufferedImage imagen) {
+        MessageDigest resumen = sha256();
+        resumen.update(ByteBuffer.allocate(12).putInt(imagen.getWidth()).putInt(imagen.getHeight()).putInt(imagen.getType()).array());
+        WritableRaster raster = imagen.getRaster();
+        DataBuffer datos = raster.getDataBuffer();
+        if (datos instanceof DataBufferByte && raster.getParent() == null && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0 && imagen.getType() != BufferedImage.TYPE_CUSTOM) {
+            for (byte[] banco : ((DataBufferByte) datos).getBankData()) {
+                resumen.update(banco);
+            }
+        } else {
+            int[] fila = new int[imagen.getWidth()];
+            ByteBuffer bytesFila = ByteBuffer.allocate(4 * fila.length);
+            for (int y = 0; y < imagen.getHeight(); y++) {
+                imagen.getRGB(0, y, fila.length, 1, fila, 0, fila.length);
+                bytesFila.clear();
+                bytesFila.asIntBuffer().put(fila);
+                resumen.update(bytesFila.array());
+            }
+        }
+        return resumen.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {//todas las JVM tienen SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder texto = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            texto.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return texto.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package pbmt;
+
+/**
+ * solo las comprobaciones de BancoPruebas, sin las medidas de tiempo ni de memoria, como prueba de regresion
+ * termina con codigo 1 en la primera comprobacion que falla, con su nombre como ultima linea ERROR, y con 0 si todas son correctas
+ * uso: java pbmt.Comprobaciones [imagen], por defecto imagen.jpg
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class Comprobaciones {
+    /**
+     * main
+     */
+    public static void main(String[] args) throws Exception {
+        int codigo = BancoPruebas.ejecutar(args.length > 0 ? args[0] : "imagen.jpg", false, true);
+        if (codigo != 0) {
+            System.exit(codigo);
+        }
+    }
+}
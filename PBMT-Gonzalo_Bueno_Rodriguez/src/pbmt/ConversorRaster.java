@@ -0,0 +1,229 @@
+package pbmt;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * conversion rapida entre BufferedImage y nuestras matrices leyendo y escribiendo directamente el DataBuffer del raster
+ * en lugar de getRGB/setRGB por pixel, que pasan por el modelo de color en cada llamada
+ * lectura con caminos especificos para grises de 8 bits, BGR de 3 bytes y RGB en enteros, el resto usa getRGB por filas
+ * las filas de RGB en enteros pasan por NucleosFila, con la Vector API si esta disponible
+ * los niveles de gris son exactamente los mismos que da convertirImagenAGrises: (R+G+B)/3 del valor de getRGB
+ * la escritura crea imagenes TYPE_BYTE_GRAY o TYPE_BYTE_BINARY sobre nuestros propios arrays, sin copiar pixel a pixel
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class ConversorRaster {
+    /**
+     * nivel de gris (R+G+B)/3 que da getRGB para cada muestra de una imagen TYPE_BYTE_GRAY
+     * getRGB pasa la muestra del espacio de grises lineal a sRGB, asi que no es la muestra tal cual
+     */
+    private static final byte[] GRIS_BYTE_GRAY = construirTablaGris();
+
+    private ConversorRaster() {
+    }
+
+    private static byte[] construirTablaGris() {
+        BufferedImage muestras = new BufferedImage(256, 1, BufferedImage.TYPE_BYTE_GRAY);
+        for (int i = 0; i < 256; i++) {
+            muestras.getRaster().setSample(i, 0, 0, i);
+        }
+        byte[] tabla = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            int rgb = muestras.getRGB(i, 0);
+            tabla[i] = (byte) ((((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3);
+        }
+        return tabla;
+    }
+
+    /**
+     * pasa la imagen a niveles de gris en un raster del mismo tamaño y opcionalmente acumula su histograma
+     *
+     * @param imagen     con la imagen de entrada
+     * @param destino    con el raster de salida
+     * @param histograma con el histograma donde se suman las frecuencias, o null si no se quiere
+     */
+    public static void aGrises(BufferedImage imagen, FingerprintRaster destino, int[] histograma) {
+        int ancho = imagen.getWidth();
+        int alto = imagen.getHeight();
+        byte[] grises = destino.datos;
+        int inicio = destino.fila(0);
+        int saltoDestino = destino.salto;
+        WritableRaster raster = imagen.getRaster();
+        boolean rasterPropio = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getParent() == null;//las subimagenes tienen desplazamientos, van por el camino general
+        DataBuffer datos = raster.getDataBuffer();
+        switch (rasterPropio ? imagen.getType() : BufferedImage.TYPE_CUSTOM) {
+            case BufferedImage.TYPE_BYTE_GRAY:
+                grisesDeByteGray(raster, (DataBufferByte) datos, ancho, alto, grises, inicio, saltoDestino, histograma);
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                grisesDe3ByteBGR(raster, (DataBufferByte) datos, ancho, alto, grises, inicio, saltoDestino, histograma);
+                break;
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                grisesDeIntRGB(raster, (DataBufferInt) datos, ancho, alto, grises, inicio, saltoDestino, histograma);
+                break;
+            default:
+                grisesGeneral(imagen, ancho, alto, grises, inicio, saltoDestino, histograma);
+        }
+    }
+
+    private static void grisesDeByteGray(Raster raster, DataBufferByte datos, int ancho, int alto, byte[] grises, int inicioDestino, int saltoDestino, int[] histograma) {
+        ComponentSampleModel modelo = (ComponentSampleModel) raster.getSampleModel();
+        byte[] muestras = datos.getData();
+        int salto = modelo.getScanlineStride();
+        int inicio = datos.getOffset() + modelo.getOffset(0, 0, 0);//getBandOffsets() devuelve una copia, esto no reserva memoria
+        int pasoPixel = modelo.getPixelStride();
+        for (int y = 0; y < alto; y++) {
+            int origen = inicio + y * salto;
+            int destino = inicioDestino + y * saltoDestino;
+            for (int x = 0; x < ancho; x++) {
+                byte nivelGris = GRIS_BYTE_GRAY[muestras[origen + x * pasoPixel] & 0xFF];
+                grises[destino + x] = nivelGris;
+                if (histograma != null) {
+                    histograma[nivelGris & 0xFF]++;
+                }
+            }
+        }
+    }
+
+    private static void grisesDe3ByteBGR(Raster raster, DataBufferByte datos, int ancho, int alto, byte[] grises, int inicioDestino, int saltoDestino, int[] histograma) {
+        ComponentSampleModel modelo = (ComponentSampleModel) raster.getSampleModel();
+        byte[] muestras = datos.getData();
+        int salto = modelo.getScanlineStride();
+        int pasoPixel = modelo.getPixelStride();
+        int base = datos.getOffset();
+        int rojo = modelo.getOffset(0, 0, 0), verde = modelo.getOffset(0, 0, 1), azul = modelo.getOffset(0, 0, 2);//banda 0 rojo, 1 verde, 2 azul
+        for (int y = 0; y < alto; y++) {
+            int origen = base + y * salto;
+            int destino = inicioDestino + y * saltoDestino;
+            for (int x = 0; x < ancho; x++, origen += pasoPixel) {
+                int nivelGris = ((muestras[origen + rojo] & 0xFF) + (muestras[origen + verde] & 0xFF) + (muestras[origen + azul] & 0xFF)) / 3;
+                grises[destino + x] = (byte) nivelGris;
+                if (histograma != null) {
+                    histograma[nivelGris]++;
+                }
+            }
+        }
+    }
+
+    private static void grisesDeIntRGB(Raster raster, DataBufferInt datos, int ancho, int alto, byte[] grises, int inicioDestino, int saltoDestino, int[] histograma) {
+        SinglePixelPackedSampleModel modelo = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        int[] pixeles = datos.getData();
+        int salto = modelo.getScanlineStride();
+        int base = datos.getOffset();
+        NucleosFila nucleos = NucleosFila.activos();
+        for (int y = 0; y < alto; y++) {
+            int destino = inicioDestino + y * saltoDestino;
+            nucleos.grisesRGB(pixeles, base + y * salto, grises, destino, ancho);
+            if (histograma != null) {//aparte, la fila recien escrita sigue en la cache
+                for (int x = 0; x < ancho; x++) {
+                    histograma[grises[destino + x] & 0xFF]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * camino general para cualquier otro tipo de imagen, getRGB de una fila entera de una vez
+     */
+    private static void grisesGeneral(BufferedImage imagen, int ancho, int alto, byte[] grises, int inicioDestino, int saltoDestino, int[] histograma) {
+        int[] filaRGB = new int[ancho];
+        for (int y = 0; y < alto; y++) {
+            imagen.getRGB(0, y, ancho, 1, filaRGB, 0, ancho);
+            int destino = inicioDestino + y * saltoDestino;
+            for (int x = 0; x < ancho; x++) {
+                int rgb = filaRGB[x];
+                int nivelGris = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3;
+                grises[destino + x] = (byte) nivelGris;
+                if (histograma != null) {
+                    histograma[nivelGris]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * igual que convertirImagenAGrises de la implementacion original pero leyendo el raster directamente
+     *
+     * @param imagen con la imagen de entrada
+     * @return raster de grises de 0 a 255
+     */
+    public static FingerprintRaster aRaster(BufferedImage imagen) {
+        FingerprintRaster grises = new FingerprintRaster(imagen.getWidth(), imagen.getHeight());
+        aGrises(imagen, grises, null);
+        return grises;
+    }
+
+    /**
+     * imagen TYPE_BYTE_GRAY que usa directamente el array de grises como DataBuffer, sin copiarlo
+     *
+     * @param grises con los niveles de gris fila a fila
+     * @param ancho  con la anchura
+     * @param alto   con la altura
+     * @return imagen en escala de grises
+     */
+    public static BufferedImage imagenGrises(byte[] grises, int ancho, int alto) {
+        BufferedImage imagen = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);//solo para obtener su modelo de color
+        DataBufferByte datos = new DataBufferByte(grises, ancho * alto);
+        WritableRaster raster = Raster.createInterleavedRaster(datos, ancho, alto, ancho, 1, new int[]{0}, null);
+        return new BufferedImage(imagen.getColorModel(), raster, false, null);
+    }
+
+    /**
+     * imagen TYPE_BYTE_BINARY de 1 bit por pixel con el contenido de una ImagenBinaria
+     * TYPE_BYTE_BINARY guarda el primer pixel en el bit mas alto de cada byte, al reves que ImagenBinaria,
+     * asi que se invierte el orden de los bits de cada byte al copiar las palabras
+     *
+     * @param binaria con la imagen binaria, 1 blanco y 0 negro
+     * @return imagen de 1 bit
+     */
+    public static BufferedImage imagenBinaria(ImagenBinaria binaria) {
+        int ancho = binaria.ancho;
+        int alto = binaria.alto;
+        int bytesFila = (ancho + 7) >>> 3;
+        byte[] empaquetado = new byte[bytesFila * alto];
+        for (int y = 0; y < alto; y++) {
+            int fila = y * binaria.palabrasFila;
+            for (int k = 0; k < bytesFila; k++) {
+                int octeto = (int) (binaria.bits[fila + (k >>> 3)] >>> ((k & 7) << 3)) & 0xFF;
+                empaquetado[y * bytesFila + k] = (byte) (Integer.reverse(octeto) >>> 24);
+            }
+        }
+        BufferedImage imagen = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_BINARY);
+        DataBufferByte datos = new DataBufferByte(empaquetado, empaquetado.length);
+        WritableRaster raster = Raster.createPackedRaster(datos, ancho, alto, 1, null);
+        return new BufferedImage(imagen.getColorModel(), raster, false, null);
+    }
+
+    /**
+     * imagen TYPE_BYTE_GRAY a partir de un raster, sin copiar si es de grises y no es una vista
+     *
+     * @param raster con el raster de entrada
+     * @param modo   1 grises, 0 blanco y negro (0 y 1 pasan a 0 y 255)
+     * @return imagen en escala de grises
+     */
+    public static BufferedImage imagenGrises(FingerprintRaster raster, int modo) {
+        int ancho = raster.ancho;
+        int alto = raster.alto;
+        if (modo == 1 && raster.salto == ancho && raster.fila(0) == 0) {
+            return imagenGrises(raster.datos, ancho, alto);
+        }
+        byte[] grises = new byte[ancho * alto];
+        int factor = modo == 0 ? 255 : 1;
+        for (int y = 0; y < alto; y++) {
+            int origen = raster.fila(y);
+            for (int x = 0; x < ancho; x++) {
+                grises[y * ancho + x] = (byte) (raster.datos[origen + x] * factor);
+            }
+        }
+        return imagenGrises(grises, ancho, alto);
+    }
+}
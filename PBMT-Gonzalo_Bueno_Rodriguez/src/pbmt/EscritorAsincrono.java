@@ -0,0 +1,160 @@
+package pbmt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * escritor que codifica y guarda las imagenes en un hilo propio, escribir solo copia la imagen y la deja en una cola
+ * asi el tiempo de codificar y de disco no se suma al de procesar cada imagen
+ * la cola es limitada: si el disco no da abasto escribir espera a que haya sitio, y la memoria no crece sin limite
+ * los errores de escritura no pueden llegar a quien llamo a escribir, se cuentan y close lanza el primero
+ * se puede usar desde varios hilos a la vez: cada escribir encola con el cerrojo de lectura y close marca el cierre con el de escritura,
+ * asi una imagen aceptada nunca queda detras del fin de la cola, o se escribe o escribir lanza la excepcion
+ * el tiempo de codificar se registra en MetricasEtapas desde el hilo escritor
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class EscritorAsincrono implements EscritorImagen, Closeable {
+    /**
+     * imagen pendiente de escribir
+     */
+    private static class Pendiente {
+        final FingerprintRaster imagen;
+        final int modo;
+        final Path archivo;
+
+        Pendiente(FingerprintRaster imagen, int modo, Path archivo) {
+            this.imagen = imagen;
+            this.modo = modo;
+            this.archivo = archivo;
+        }
+    }
+
+    private static final Pendiente FIN = new Pendiente(null, 0, null);
+
+    private final EscritorImagen destino;
+    private final BlockingQueue<Pendiente> cola;
+    private final Thread hilo;
+    private final MetricasEtapas metricas = MetricasEtapas.global();
+    private final AtomicInteger fallos = new AtomicInteger();
+    private volatile IOException primerError;
+    private volatile boolean cerrado;
+    private final ReentrantReadWriteLock cierre = new ReentrantReadWriteLock();//lectura para encolar, escritura para cerrar
+
+    /**
+     * constructor, arranca el hilo escritor
+     *
+     * @param destino   con el escritor que codifica y guarda cada imagen
+     * @param capacidad con el maximo de imagenes esperando en la cola
+     */
+    public EscritorAsincrono(EscritorImagen destino, int capacidad) {
+        this.destino = destino;
+        this.cola = new ArrayBlockingQueue<>(capacidad);
+        this.hilo = new Thread(this::escribirPendientes, "pbmt-escritor");
+        this.hilo.setDaemon(true);
+        this.hilo.start();
+    }
+
+    @Override
+    public String extension(int modo) {
+        return destino.extension(modo);
+    }
+
+    @Override
+    public boolean escribe() {
+        return destino.escribe();
+    }
+
+    /**
+     * copia la imagen y la deja en la cola, espera solo si la cola esta llena
+     *
+     * @throws IOException si el escritor esta cerrado o se interrumpe la espera
+     */
+    @Override
+    public void escribir(FingerprintRaster imagen, int modo, Path archivo) throws IOException {
+        Pendiente pendiente = new Pendiente(imagen.copia(), modo, archivo);//copia para que quien llama pueda reutilizar su raster
+        cierre.readLock().lock();
+        try {
+            if (cerrado) {
+                throw new IOException("escritor cerrado");
+            }
+            cola.put(pendiente);//el hilo escritor sigue vaciando la cola, close espera a que termine
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrumpido esperando sitio en la cola de escritura", e);
+        } finally {
+            cierre.readLock().unlock();
+        }
+    }
+
+    private void escribirPendientes() {
+        while (true) {
+            Pendiente pendiente;
+            try {
+                pendiente = cola.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (pendiente == FIN) {
+                return;
+            }
+            try {
+                long inicio = metricas.inicio(), bytes = metricas.bytesHilo();
+                destino.escribir(pendiente.imagen, pendiente.modo, pendiente.archivo);
+                metricas.registrar(MetricasEtapas.Etapa.CODIFICAR, inicio, bytes);
+            } catch (IOException | RuntimeException e) {
+                if (fallos.getAndIncrement() == 0) {
+                    primerError = e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * imagenes esperando en la cola
+     */
+    public int getPendientes() {
+        return cola.size();
+    }
+
+    /**
+     * imagenes que no se han podido escribir
+     */
+    public int getFallos() {
+        return fallos.get();
+    }
+
+    /**
+     * espera a que se escriban todas las imagenes de la cola y para el hilo
+     *
+     * @throws IOException con el primer error si alguna imagen no se ha podido escribir
+     */
+    @Override
+    public void close() throws IOException {
+        boolean cerrar;
+        cierre.writeLock().lock();//espera a los escribir que ya estan encolando
+        try {
+            cerrar = !cerrado;
+            cerrado = true;
+        } finally {
+            cierre.writeLock().unlock();
+        }
+        if (cerrar) {
+            try {
+                cola.put(FIN);
+                hilo.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrumpido esperando a la cola de escritura", e);
+            }
+        }
+        if (primerError != null) {
+            throw new IOException(fallos.get() + " imagenes no se han podido escribir", primerError);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package pbmt;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * formato en el que se guardan las imagenes de cada etapa
+ * modo 1 es una imagen de grises de 0 a 255 y modo 0 una imagen de blanco y negro con 0 negro y 1 blanco, como en pasarImagenAArchivo
+ * EscritorNetpbm y EscritorPng guardan sin perdidas, EscritorJpeg es el JPEG de ImageIO de siempre y NINGUNO no guarda nada
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public interface EscritorImagen {
+    /**
+     * no escribe nada, para no guardar las etapas intermedias
+     */
+    EscritorImagen NINGUNO = new EscritorImagen() {
+        @Override
+        public String extension(int modo) {
+            return "";
+        }
+
+        @Override
+        public void escribir(FingerprintRaster imagen, int modo, Path archivo) {
+        }
+
+        @Override
+        public boolean escribe() {
+            return false;
+        }
+    };
+
+    /**
+     * extension del archivo sin el punto
+     *
+     * @param modo con el modo, 1 grises, 0 blanco y negro
+     */
+    String extension(int modo);
+
+    /**
+     * guarda la imagen en un archivo
+     *
+     * @param imagen  con el raster
+     * @param modo    con el modo, 1 grises, 0 blanco y negro
+     * @param archivo con la ruta del archivo, con la extension ya puesta
+     * @throws IOException
+     */
+    void escribir(FingerprintRaster imagen, int modo, Path archivo) throws IOException;
+
+    /**
+     * indica si se escribe algo, false solo para NINGUNO
+     */
+    default boolean escribe() {
+        return true;
+    }
+
+    /**
+     * escritor por nombre de formato: png, pnm (PGM y PBM), jpg o no
+     *
+     * @param formato con el nombre
+     * @return escritor
+     * @throws IllegalArgumentException si el formato no existe
+     */
+    static EscritorImagen porNombre(String formato) {
+        switch (formato.toLowerCase()) {
+            case "png":
+                return new EscritorPng();
+            case "pnm":
+            case "pgm":
+            case "pbm":
+                return new EscritorNetpbm();
+            case "jpg":
+            case "jpeg":
+                return new EscritorJpeg();
+            case "no":
+                return NINGUNO;
+            default:
+                throw new IllegalArgumentException("formato de salida desconocido: " + formato + " (png, pnm, jpg o no)");
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package pbmt;
+
+import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * JPEG con ImageIO, la salida original de la practica
+ * es lento y con perdidas: el esqueleto de la opcion 7 sale con artefactos de compresion alrededor de las lineas
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class EscritorJpeg implements EscritorImagen {
+    @Override
+    public String extension(int modo) {
+        return "jpg";
+    }
+
+    @Override
+    public void escribir(FingerprintRaster imagen, int modo, Path archivo) throws IOException {
+        ImageIO.write(ConversorRaster.imagenGrises(imagen, modo), "jpg", archivo.toFile());
+    }
+}
@@ -0,0 +1,162 @@
+package pbmt;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * PGM (P5, un byte por pixel) para las imagenes de grises y PBM (P4, un bit por pixel) para las de blanco y negro
+ * es el formato mas rapido: una cabecera de texto y los pixeles tal cual, sin comprimir y sin perdidas
+ * en PBM un bit a 1 es negro, al reves que en los raster, y cada fila empieza en un byte nuevo con el primer pixel en el bit mas alto
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class EscritorNetpbm implements EscritorImagen {
+    @Override
+    public String extension(int modo) {
+        return modo == 0 ? "pbm" : "pgm";
+    }
+
+    @Override
+    public void escribir(FingerprintRaster imagen, int modo, Path archivo) throws IOException {
+        Files.write(archivo, codificar(imagen, modo));
+    }
+
+    /**
+     * bytes del archivo con cabecera
+     */
+    static byte[] codificar(FingerprintRaster imagen, int modo) {
+        int ancho = imagen.ancho;
+        int alto = imagen.alto;
+        byte[] cabecera = cabecera(ancho, alto, modo);
+        int bytesFila = modo == 0 ? (ancho + 7) >>> 3 : ancho;
+        byte[] salida = new byte[cabecera.length + bytesFila * alto];
+        System.arraycopy(cabecera, 0, salida, 0, cabecera.length);
+        for (int y = 0; y < alto; y++) {
+            int origen = imagen.fila(y);
+            int destino = cabecera.length + y * bytesFila;
+            if (modo == 0) {
+                empaquetarFila(imagen.datos, origen, ancho, salida, destino);
+            } else {
+                System.arraycopy(imagen.datos, origen, salida, destino, ancho);
+            }
+        }
+        return salida;
+    }
+
+    /**
+     * bytes del PBM de una imagen empaquetada, sin pasar por un raster
+     */
+    static byte[] codificar(ImagenBinaria imagen) {
+        byte[] cabecera = cabecera(imagen.ancho, imagen.alto, 0);
+        int bytesFila = (imagen.ancho + 7) >>> 3;
+        byte[] salida = new byte[cabecera.length + bytesFila * imagen.alto];
+        System.arraycopy(cabecera, 0, salida, 0, cabecera.length);
+        for (int y = 0; y < imagen.alto; y++) {
+            empaquetarFila(imagen.bits, y * imagen.palabrasFila, imagen.ancho, salida, cabecera.length + y * bytesFila);
+        }
+        return salida;
+    }
+
+    /**
+     * cabecera P4 o P5 con el tamaño
+     */
+    static byte[] cabecera(int ancho, int alto, int modo) {
+        String texto = modo == 0 ? "P4\n" + ancho + " " + alto + "\n" : "P5\n" + ancho + " " + alto + "\n255\n";
+        return texto.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * empaqueta una fila de 0 y 1 en bits de PBM, 1 para los pixeles negros (0)
+     */
+    static void empaquetarFila(byte[] pixeles, int origen, int ancho, byte[] salida, int destino) {
+        for (int x = 0; x < ancho; x += 8) {
+            int octeto = 0;
+            int fin = Math.min(8, ancho - x);
+            for (int b = 0; b < fin; b++) {
+                octeto |= (pixeles[origen + x + b] == 0 ? 1 : 0) << (7 - b);
+            }
+            salida[destino + (x >>> 3)] = (byte) octeto;
+        }
+    }
+
+    /**
+     * empaqueta una fila de ImagenBinaria (1 blanco, primer pixel en el bit 0 de cada long) en bits de PBM
+     * de 8 en 8 pixeles: se invierten y se da la vuelta a cada byte, los bits de relleno quedan a 0
+     */
+    static void empaquetarFila(long[] bits, int inicio, int ancho, byte[] salida, int destino) {
+        int bytesFila = (ancho + 7) >>> 3;
+        for (int k = 0; k < bytesFila; k++) {
+            int octeto = (int) (~bits[inicio + (k >>> 3)] >>> ((k & 7) << 3)) & 0xFF;//negro a 1
+            salida[destino + k] = (byte) (Integer.reverse(octeto) >>> 24);
+        }
+        if ((ancho & 7) != 0) {
+            salida[destino + bytesFila - 1] &= (byte) (0xFF << (8 - (ancho & 7)));
+        }
+    }
+
+    /**
+     * lee un PGM o PBM binario como los que escribe esta clase
+     *
+     * @param archivo con la ruta
+     * @return raster de grises para PGM o de 0 (negro) y 1 (blanco) para PBM
+     * @throws IOException si no se puede leer o no es P4 o P5 de 8 bits
+     */
+    public static FingerprintRaster leer(Path archivo) throws IOException {
+        byte[] datos = Files.readAllBytes(archivo);
+        int[] posicion = {2};
+        if (datos.length < 2 || datos[0] != 'P' || (datos[1] != '4' && datos[1] != '5')) {
+            throw new IOException("no es un PGM o PBM binario");
+        }
+        boolean bits = datos[1] == '4';
+        int ancho = leerNumero(datos, posicion);
+        int alto = leerNumero(datos, posicion);
+        if (!bits && leerNumero(datos, posicion) != 255) {
+            throw new IOException("solo se leen PGM de 8 bits");
+        }
+        posicion[0]++;//un solo espacio antes de los pixeles
+        int bytesFila = bits ? (ancho + 7) >>> 3 : ancho;
+        if (datos.length < posicion[0] + (long) bytesFila * alto) {
+            throw new IOException("archivo truncado");
+        }
+        FingerprintRaster imagen = new FingerprintRaster(ancho, alto);
+        for (int y = 0; y < alto; y++) {
+            int origen = posicion[0] + y * bytesFila;
+            if (bits) {
+                for (int x = 0; x < ancho; x++) {
+                    imagen.datos[y * ancho + x] = (byte) (1 - ((datos[origen + (x >>> 3)] >>> (7 - (x & 7))) & 1));
+                }
+            } else {
+                System.arraycopy(datos, origen, imagen.datos, y * ancho, ancho);
+            }
+        }
+        return imagen;
+    }
+
+    /**
+     * numero decimal de la cabecera saltando espacios y comentarios
+     */
+    private static int leerNumero(byte[] datos, int[] posicion) throws IOException {
+        int p = posicion[0];
+        while (p < datos.length && (Character.isWhitespace(datos[p]) || datos[p] == '#')) {
+            if (datos[p] == '#') {
+                while (p < datos.length && datos[p] != '\n') {
+                    p++;
+                }
+            } else {
+                p++;
+            }
+        }
+        int valor = 0;
+        int inicio = p;
+        while (p < datos.length && datos[p] >= '0' && datos[p] <= '9') {
+            valor = valor * 10 + (datos[p++] - '0');
+        }
+        if (p == inicio) {
+            throw new IOException("cabecera PGM o PBM no valida");
+        }
+        posicion[0] = p;
+        return valor;
+    }
+}
@@ -0,0 +1,215 @@
+package pbmt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * exporta MetricasEtapas en JSON, en texto de Prometheus o como tabla para la consola
+ * de cada etapa con registros: cuenta, media, p50, p90, p99 y maximo del tiempo y bytes reservados por ejecucion,
+ * de Zhang-Suen los mismos percentiles de pasadas y pixeles borrados por imagen
+ * y de las etapas que los registran los pixeles recorridos frente a los de la imagen
+ * se puede escribir a un archivo (p. ej. para el textfile collector de node_exporter) o servir por HTTP en /metricas
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class ExportadorMetricas {
+    private static final double[] CUANTILES = {0.5, 0.9, 0.99};
+
+    private ExportadorMetricas() {
+    }
+
+    /**
+     * metricas en JSON, tiempos en nanosegundos
+     */
+    public static String aJson(MetricasEtapas metricas) {
+        StringBuilder json = new StringBuilder("{\"etapas\":{");
+        boolean primera = true;
+        for (MetricasEtapas.Etapa etapa : MetricasEtapas.Etapa.values()) {
+            HistogramaMetricas tiempos = metricas.getTiempos(etapa);
+            if (tiempos.getCuenta() == 0) {
+                continue;
+            }
+            json.append(primera ? "" : ",").append('"').append(etapa.getNombre()).append("\":");
+            jsonHistograma(json, tiempos, "_ns");
+            json.setLength(json.length() - 1);
+            json.append(",\"bytes_por_operacion\":").append(metricas.getBytes(etapa) / tiempos.getCuenta());
+            if (metricas.getPixelesTotales(etapa) > 0) {
+                json.append(",\"pixeles_visitados\":").append(metricas.getPixelesVisitados(etapa));
+                json.append(",\"pixeles_totales\":").append(metricas.getPixelesTotales(etapa));
+            }
+            json.append('}');
+            primera = false;
+        }
+        json.append("},\"zhang_suen\":{\"pasadas\":");
+        jsonHistograma(json, metricas.getPasadasZhangSuen(), "");
+        json.append(",\"pixeles_borrados\":");
+        jsonHistograma(json, metricas.getBorradosZhangSuen(), "");
+        return json.append("}}").toString();
+    }
+
+    private static void jsonHistograma(StringBuilder json, HistogramaMetricas histograma, String unidad) {
+        json.append("{\"cuenta\":").append(histograma.getCuenta());
+        json.append(",\"media").append(unidad).append("\":").append(String.format(Locale.ROOT, "%.1f", histograma.getMedia()));
+        for (double q : CUANTILES) {
+            json.append(",\"p").append(Math.round(q * 100)).append(unidad).append("\":").append(histograma.percentil(q));
+        }
+        json.append(",\"max").append(unidad).append("\":").append(histograma.getMaximo()).append('}');
+    }
+
+    /**
+     * metricas en el formato de texto de Prometheus, tiempos en segundos como summary
+     */
+    public static String aPrometheus(MetricasEtapas metricas) {
+        StringBuilder texto = new StringBuilder();
+        texto.append("# HELP pbmt_etapa_segundos duracion de cada etapa del proceso\n");
+        texto.append("# TYPE pbmt_etapa_segundos summary\n");
+        for (MetricasEtapas.Etapa etapa : MetricasEtapas.Etapa.values()) {
+            HistogramaMetricas tiempos = metricas.getTiempos(etapa);
+            if (tiempos.getCuenta() > 0) {
+                prometheusResumen(texto, "pbmt_etapa_segundos", "etapa=\"" + etapa.getNombre() + "\",", tiempos, 1e-9);
+            }
+        }
+        texto.append("# HELP pbmt_etapa_bytes_total bytes reservados por el hilo durante cada etapa\n");
+        texto.append("# TYPE pbmt_etapa_bytes_total counter\n");
+        for (MetricasEtapas.Etapa etapa : MetricasEtapas.Etapa.values()) {
+            if (metricas.getTiempos(etapa).getCuenta() > 0) {
+                texto.append("pbmt_etapa_bytes_total{etapa=\"").append(etapa.getNombre()).append("\"} ")
+                        .append(metricas.getBytes(etapa)).append('\n');
+            }
+        }
+        texto.append("# HELP pbmt_etapa_pixeles_visitados_total pixeles recorridos por cada etapa\n");
+        texto.append("# TYPE pbmt_etapa_pixeles_visitados_total counter\n");
+        for (MetricasEtapas.Etapa etapa : MetricasEtapas.Etapa.values()) {
+            if (metricas.getPixelesTotales(etapa) > 0) {
+                texto.append("pbmt_etapa_pixeles_visitados_total{etapa=\"").append(etapa.getNombre()).append("\"} ")
+                        .append(metricas.getPixelesVisitados(etapa)).append('\n');
+            }
+        }
+        texto.append("# HELP pbmt_etapa_pixeles_total pixeles de las imagenes de las ejecuciones anteriores\n");
+        texto.append("# TYPE pbmt_etapa_pixeles_total counter\n");
+        for (MetricasEtapas.Etapa etapa : MetricasEtapas.Etapa.values()) {
+            if (metricas.getPixelesTotales(etapa) > 0) {
+                texto.append("pbmt_etapa_pixeles_total{etapa=\"").append(etapa.getNombre()).append("\"} ")
+                        .append(metricas.getPixelesTotales(etapa)).append('\n');
+            }
+        }
+        texto.append("# HELP pbmt_zhang_suen_pasadas pasadas de Zhang-Suen por imagen\n");
+        texto.append("# TYPE pbmt_zhang_suen_pasadas summary\n");
+        prometheusResumen(texto, "pbmt_zhang_suen_pasadas", "", metricas.getPasadasZhangSuen(), 1);
+        texto.append("# HELP pbmt_zhang_suen_pixeles_borrados pixeles borrados por Zhang-Suen por imagen\n");
+        texto.append("# TYPE pbmt_zhang_suen_pixeles_borrados summary\n");
+        prometheusResumen(texto, "pbmt_zhang_suen_pixeles_borrados", "", metricas.getBorradosZhangSuen(), 1);
+        return texto.toString();
+    }
+
+    private static void prometheusResumen(StringBuilder texto, String nombre, String etiquetas, HistogramaMetricas histograma, double escala) {
+        for (double q : CUANTILES) {
+            texto.append(nombre).append('{').append(etiquetas).append("quantile=\"").append(q).append("\"} ")
+                    .append(numero(histograma.percentil(q) * escala)).append('\n');
+        }
+        String sinCuantil = etiquetas.isEmpty() ? "" : "{" + etiquetas.substring(0, etiquetas.length() - 1) + "}";
+        texto.append(nombre).append("_sum").append(sinCuantil).append(' ').append(numero(histograma.getSuma() * escala)).append('\n');
+        texto.append(nombre).append("_count").append(sinCuantil).append(' ').append(histograma.getCuenta()).append('\n');
+    }
+
+    private static String numero(double valor) {
+        return valor == Math.rint(valor) && Math.abs(valor) < 1e15 ? Long.toString((long) valor) : String.format(Locale.ROOT, "%.9g", valor);
+    }
+
+    /**
+     * tabla para la consola con los tiempos en milisegundos de cada etapa con registros
+     * y el porcentaje de pixeles recorridos en las etapas que lo registran
+     */
+    public static String aTabla(MetricasEtapas metricas) {
+        StringBuilder tabla = new StringBuilder(String.format(Locale.ROOT, "%-12s %8s %10s %10s %10s %10s %12s %8s%n",
+                "etapa", "cuenta", "p50 ms", "p90 ms", "p99 ms", "max ms", "KB/op", "% pix"));
+        for (MetricasEtapas.Etapa etapa : MetricasEtapas.Etapa.values()) {
+            HistogramaMetricas tiempos = metricas.getTiempos(etapa);
+            if (tiempos.getCuenta() > 0) {
+                long totales = metricas.getPixelesTotales(etapa);
+                tabla.append(String.format(Locale.ROOT, "%-12s %8d %10.3f %10.3f %10.3f %10.3f %12.1f %8s%n", etapa.getNombre(), tiempos.getCuenta(),
+                        tiempos.percentil(0.5) / 1e6, tiempos.percentil(0.9) / 1e6, tiempos.percentil(0.99) / 1e6, tiempos.getMaximo() / 1e6,
+                        metricas.getBytes(etapa) / 1024.0 / tiempos.getCuenta(),
+                        totales > 0 ? String.format(Locale.ROOT, "%.1f", 100.0 * metricas.getPixelesVisitados(etapa) / totales) : "-"));
+            }
+        }
+        HistogramaMetricas pasadas = metricas.getPasadasZhangSuen();
+        if (pasadas.getCuenta() > 0) {
+            tabla.append(String.format(Locale.ROOT, "Zhang-Suen por imagen: %.1f pasadas (p99 %d), %.0f pixeles borrados (p99 %d)%n",
+                    pasadas.getMedia(), pasadas.percentil(0.99), metricas.getBorradosZhangSuen().getMedia(),
+                    metricas.getBorradosZhangSuen().percentil(0.99)));
+        }
+        return tabla.toString();
+    }
+
+    /**
+     * escribe las metricas en un archivo, JSON si termina en .json y Prometheus si no
+     * se escribe a un temporal y se mueve encima, quien lo lea nunca ve un archivo a medias
+     *
+     * @param metricas con las metricas
+     * @param archivo  con la ruta
+     * @throws IOException
+     */
+    public static void escribir(MetricasEtapas metricas, Path archivo) throws IOException {
+        String texto = archivo.toString().endsWith(".json") ? aJson(metricas) : aPrometheus(metricas);
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+        Files.write(temporal, texto.getBytes(StandardCharsets.UTF_8));
+        Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * servidor HTTP con /metricas en texto de Prometheus y /metricas.json en JSON
+     *
+     * @param metricas con las metricas
+     * @param puerto   con el puerto, 0 para uno libre
+     * @return servidor ya arrancado, se para con stop
+     * @throws IOException
+     */
+    public static HttpServer servir(MetricasEtapas metricas, int puerto) throws IOException {
+        HttpServer servidor = crearServidor(new InetSocketAddress(puerto));
+        registrar(servidor, metricas);
+        servidor.start();
+        return servidor;
+    }
+
+    /**
+     * servidor HTTP sin arrancar con TCP_NODELAY: si no, la cabecera y el cuerpo de la respuesta van en dos escrituras
+     * y con una conexion reutilizada el cuerpo espera al ACK retrasado del cliente, unos 40 ms por peticion
+     * la propiedad se lee una sola vez, al crear el primer servidor de la JVM
+     */
+    static HttpServer crearServidor(InetSocketAddress direccion) throws IOException {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        return HttpServer.create(direccion, 0);
+    }
+
+    /**
+     * añade /metricas y /metricas.json a un servidor HTTP ya creado, p. ej. el de ServidorProceso
+     */
+    static void registrar(HttpServer servidor, MetricasEtapas metricas) {
+        servidor.createContext("/metricas", intercambio -> {
+            boolean json = intercambio.getRequestURI().getPath().endsWith(".json");
+            responder(intercambio, json ? aJson(metricas) : aPrometheus(metricas),
+                    json ? "application/json" : "text/plain; version=0.0.4");
+        });
+    }
+
+    private static void responder(HttpExchange intercambio, String texto, String tipo) throws IOException {
+        byte[] cuerpo = texto.getBytes(StandardCharsets.UTF_8);
+        intercambio.getResponseHeaders().set("Content-Type", tipo + "; charset=utf-8");
+        intercambio.sendResponseHeaders(200, cuerpo.length);
+        try (OutputStream salida = intercambio.getResponseBody()) {
+            salida.write(cuerpo);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package pbmt;
+
+import java.util.Arrays;
+
+/**
+ * extraccion de minucias del esqueleto que deja el adelgazamiento de Zhang-Suen (crestas a 0, fondo a 1)
+ * metodo del numero de cruces: CN = numero de transiciones 01 recorriendo los 8 vecinos P2..P9 en circulo,
+ * CN=1 es una terminacion de cresta y CN>=3 una bifurcacion, el CN de cada vecindad se consulta en una tabla de 256 entradas
+ * la imagen se recorre una sola vez: se copia fila a fila a un byte por pixel y cada fila se analiza en cuanto esta copiada la siguiente,
+ * despues solo se siguen unos pocos pixeles de cresta desde cada minucia para
+ * - calcular su direccion: la terminacion apunta desde la cresta hacia el final, la bifurcacion hacia las dos ramas mas cercanas
+ * - quitar espolones y trozos cortos: una terminacion que llega a una bifurcacion u otra terminacion en menos de longitudEspolon
+ *   pixeles se descarta, y en el primer caso tambien esa bifurcacion
+ * - quitar puentes y agujeros: dos bifurcaciones unidas por menos de longitudEspolon pixeles de cresta se descartan las dos
+ * - quitar las minucias a menos de margen pixeles del borde de la huella (primer y ultimo pixel de cresta de su fila y columna),
+ *   donde las crestas se cortan por salir de la zona capturada y no son minucias reales
+ * el marco de un pixel alrededor de la imagen no se lee, ver copiarFila
+ * los buffers se reutilizan entre imagenes, una instancia no debe usarse desde varios hilos a la vez
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class ExtractorMinucias {
+    private static final int[] DX = {-1, -1, 0, 1, 1, 1, 0, -1};//P2..P9 como en Zhang-Suen
+    private static final int[] DY = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final byte[] CRUCES = construirTablaCruces();
+
+    private static final int MOTIVO_LIMITE = 0;//el seguimiento llego a su longitud maxima
+    private static final int MOTIVO_FIN = 1;//llego a una terminacion
+    private static final int MOTIVO_BIFURCACION = 2;//llego a una bifurcacion
+
+    private final int margen;
+    private final int longitudEspolon;
+    private final int longitudDireccion;
+
+    private int ancho = -1, alto = -1, salto;
+    private byte[] cresta = new byte[0];//1 en los pixeles de cresta, con un pixel de margen a 0 alrededor
+    private final int[] desplazamientos = new int[8];
+    private int[] primeraX = new int[0], ultimaX = new int[0];//extension de la huella por filas
+    private int[] primeraY = new int[0], ultimaY = new int[0];//y por columnas
+
+    private int[] posiciones = new int[64];//minucias candidatas en orden de filas
+    private int[] tipos = new int[64];
+    private int[] angulos = new int[64];
+    private boolean[] validas = new boolean[64];
+    private int numero;
+    private final double[] ramas = new double[8];//angulos de las ramas de una bifurcacion
+
+    private int finTrazado, motivoTrazado, pasosTrazado, direccionTrazado;//resultado del ultimo seguimiento
+
+    /**
+     * constructor con los valores para unos 500 dpi
+     */
+    public ExtractorMinucias() {
+        this(12, 10, 8);
+    }
+
+    /**
+     * constructor
+     *
+     * @param margen            con la distancia minima en pixeles al borde de la huella
+     * @param longitudEspolon   con la longitud minima en pixeles de una cresta que acaba en una terminacion
+     * @param longitudDireccion con los pixeles de cresta que se siguen para calcular la direccion
+     */
+    public ExtractorMinucias(int margen, int longitudEspolon, int longitudDireccion) {
+        this.margen = margen;
+        this.longitudEspolon = longitudEspolon;
+        this.longitudDireccion = longitudDireccion;
+    }
+
+    /**
+     * numero de cruces de cada combinacion de los 8 vecinos (P2 en el bit 0 ... P9 en el bit 7)
+     */
+    private static byte[] construirTablaCruces() {
+        byte[] tabla = new byte[256];
+        for (int vecindad = 0; vecindad < 256; vecindad++) {
+            int cruces = 0;
+            for (int i = 0; i < 8; i++) {
+                int actual = (vecindad >>> i) & 1;
+                int siguiente = (vecindad >>> ((i + 1) & 7)) & 1;
+                if (actual == 0 && siguiente == 1) {
+                    cruces++;
+                }
+            }
+            tabla[vecindad] = (byte) cruces;
+        }
+        return tabla;
+    }
+
+    private void prepararBuffers(int ancho, int alto) {
+        if (ancho != this.ancho || alto != this.alto) {
+            this.ancho = ancho;
+            this.alto = alto;
+            salto = ancho + 2;
+            cresta = new byte[salto * (alto + 2)];//el margen queda siempre a 0, solo se escribe el interior
+            for (int k = 0; k < 8; k++) {
+                desplazamientos[k] = DY[k] * salto + DX[k];
+            }
+            primeraX = new int[alto];
+            ultimaX = new int[alto];
+            primeraY = new int[ancho];
+            ultimaY = new int[ancho];
+        }
+        Arrays.fill(primeraX, -1);
+        Arrays.fill(primeraY, -1);
+        numero = 0;
+    }
+
+    /**
+     * extrae las minucias de un esqueleto en un raster de 0 y 1
+     *
+     * @param esqueleto con la imagen adelgazada, crestas a 0
+     * @return plantilla con las minucias
+     */
+    public PlantillaHuella extraer(FingerprintRaster esqueleto) {
+        return extraer(ImagenBinaria.desdeRaster(esqueleto));
+    }
+
+    /**
+     * extrae las minucias de un esqueleto empaquetado
+     *
+     * @param esqueleto con la imagen adelgazada, crestas a 0
+     * @return plantilla con las minucias
+     */
+    public PlantillaHuella extraer(ImagenBinaria esqueleto) {
+        prepararBuffers(esqueleto.ancho, esqueleto.alto);
+        if (alto > 0) {
+            copiarFila(esqueleto, 0);
+        }
+        for (int y = 0; y < alto; y++) {//la fila y se analiza en cuanto estan copiadas sus vecinas
+            if (y + 1 < alto) {
+                copiarFila(esqueleto, y + 1);
+            }
+            detectarFila(y);
+        }
+        for (int i = 0; i < numero; i++) {
+            if (tipos[i] == PlantillaHuella.TERMINACION) {
+                revisarTerminacion(i);
+            }
+        }
+        for (int i = 0; i < numero; i++) {
+            if (validas[i] && tipos[i] == PlantillaHuella.BIFURCACION) {
+                revisarBifurcacion(i);
+            }
+        }
+        int validasFinal = 0;
+        for (int i = 0; i < numero; i++) {
+            if (validas[i] && !cercaDelBorde(posiciones[i])) {
+                validasFinal++;
+            } else {
+                validas[i] = false;
+            }
+        }
+        byte[] registros = new byte[validasFinal * PlantillaHuella.BYTES_MINUCIA];
+        int j = 0;
+        for (int i = 0; i < numero; i++) {
+            if (validas[i]) {
+                PlantillaHuella.escribirMinucia(registros, j++, x(posiciones[i]), y(posiciones[i]), angulos[i], tipos[i]);
+            }
+        }
+        return new PlantillaHuella(ancho, alto, validasFinal, registros);
+    }
+
+    private int x(int posicion) {
+        return posicion % salto - 1;
+    }
+
+    private int y(int posicion) {
+        return posicion / salto - 1;
+    }
+
+    /**
+     * copia la fila y del esqueleto con las crestas a 1 y actualiza la extension de la huella
+     * la primera y la ultima fila y columna se dejan a 0: los filtros y el adelgazamiento no tocan el borde de la imagen,
+     * que queda como un marco negro de un pixel, y si se leyera como cresta la extension de la huella seria siempre
+     * la imagen entera y las crestas que llegan al marco darian bifurcaciones falsas
+     */
+    private void copiarFila(ImagenBinaria esqueleto, int y) {
+        int destino = (y + 1) * salto + 1;
+        if (y == 0 || y == alto - 1) {
+            Arrays.fill(cresta, destino, destino + ancho, (byte) 0);
+            return;
+        }
+        int origen = y * esqueleto.palabrasFila;
+        cresta[destino] = 0;
+        for (int x = 1; x < ancho - 1; x++) {
+            int pixel = (int) (~esqueleto.bits[origen + (x >>> 6)] >>> (x & 63)) & 1;
+            cresta[destino + x] = (byte) pixel;
+            if (pixel != 0) {
+                if (primeraX[y] < 0) {
+                    primeraX[y] = x;
+                }
+                ultimaX[y] = x;
+                if (primeraY[x] < 0) {
+                    primeraY[x] = y;
+                }
+                ultimaY[x] = y;
+            }
+        }
+        cresta[destino + ancho - 1] = 0;
+    }
+
+    /**
+     * byte con los 8 vecinos de un pixel, P2 en el bit 0 ... P9 en el bit 7
+     */
+    private int vecindad(int posicion) {
+        int vecindad = 0;
+        for (int k = 0; k < 8; k++) {
+            vecindad |= cresta[posicion + desplazamientos[k]] << k;
+        }
+        return vecindad;
+    }
+
+    /**
+     * busca terminaciones y bifurcaciones en la fila y, las bifurcaciones a 2 pixeles o menos de otra se cuentan una vez
+     */
+    private void detectarFila(int y) {
+        int inicio = (y + 1) * salto + 1;
+        for (int posicion = inicio; posicion < inicio + ancho; posicion++) {
+            if (cresta[posicion] == 0) {
+                continue;
+            }
+            int cruces = CRUCES[vecindad(posicion)];
+            if (cruces == 1) {
+                agregarMinucia(posicion, PlantillaHuella.TERMINACION);
+            } else if (cruces >= 3 && bifurcacionCercana(posicion, -1) < 0) {
+                agregarMinucia(posicion, PlantillaHuella.BIFURCACION);
+            }
+        }
+    }
+
+    private void agregarMinucia(int posicion, int tipo) {
+        if (numero == posiciones.length) {
+            int capacidad = numero * 2;
+            posiciones = Arrays.copyOf(posiciones, capacidad);
+            tipos = Arrays.copyOf(tipos, capacidad);
+            angulos = Arrays.copyOf(angulos, capacidad);
+            validas = Arrays.copyOf(validas, capacidad);
+        }
+        posiciones[numero] = posicion;
+        tipos[numero] = tipo;
+        angulos[numero] = 0;
+        validas[numero] = true;
+        numero++;
+    }
+
+    /**
+     * indice de una bifurcacion valida a 2 pixeles o menos de la posicion, o -1 si no hay
+     * las minucias estan en orden de filas, asi que se deja de buscar al pasar 2 filas por arriba
+     *
+     * @param posicion con la posicion en el array de cresta
+     * @param desde    con el indice desde el que buscar hacia atras, -1 para buscar desde la ultima
+     */
+    private int bifurcacionCercana(int posicion, int desde) {
+        int x = x(posicion), y = y(posicion);
+        for (int i = desde < 0 ? numero - 1 : desde; i >= 0; i--) {
+            int yi = y(posiciones[i]);
+            if (yi < y - 2) {
+                break;
+            }
+            if (validas[i] && tipos[i] == PlantillaHuella.BIFURCACION && yi <= y + 2 && Math.abs(x(posiciones[i]) - x) <= 2) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * sigue la cresta desde una terminacion: calcula su direccion y la descarta si es un espolon o un trozo corto
+     */
+    private void revisarTerminacion(int i) {
+        int posicion = posiciones[i];
+        trazar(posicion, -1, Math.max(longitudEspolon, longitudDireccion), 0);
+        if (motivoTrazado != MOTIVO_LIMITE && pasosTrazado < longitudEspolon) {
+            validas[i] = false;
+            if (motivoTrazado == MOTIVO_BIFURCACION) {
+                int bifurcacion = bifurcacionCercana(finTrazado, ultimaDeFila(y(finTrazado) + 2));
+                if (bifurcacion >= 0) {
+                    validas[bifurcacion] = false;
+                }
+            }
+            return;
+        }
+        //de la cresta hacia la terminacion
+        angulos[i] = PlantillaHuella.codificarAngulo(Math.atan2(y(posicion) - y(direccionTrazado), x(posicion) - x(direccionTrazado)));
+    }
+
+    /**
+     * indice de la ultima minucia con fila menor o igual que y, para buscar hacia atras desde ahi
+     */
+    private int ultimaDeFila(int y) {
+        int bajo = 0, alto = numero - 1, resultado = -1;
+        while (bajo <= alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (y(posiciones[medio]) <= y) {
+                resultado = medio;
+                bajo = medio + 1;
+            } else {
+                alto = medio - 1;
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * sigue las ramas de una bifurcacion: calcula su direccion y la descarta junto con la otra bifurcacion si una rama
+     * llega a otra en menos de longitudEspolon pixeles, que es un puente entre dos crestas o un agujero en una cresta
+     * la direccion es la media de las dos ramas con menos angulo entre ellas
+     */
+    private void revisarBifurcacion(int i) {
+        int posicion = posiciones[i];
+        int numRamas = 0;
+        int vecindad = vecindad(posicion);
+        for (int k = 0; k < 8 && numRamas < 8; k++) {
+            //cada rama empieza en el primer vecino de cresta de un grupo de vecinos seguidos
+            if (((vecindad >>> k) & 1) == 1 && ((vecindad >>> ((k + 7) & 7)) & 1) == 0) {
+                trazar(posicion + desplazamientos[k], posicion, Math.max(longitudEspolon, longitudDireccion), 2);
+                ramas[numRamas++] = Math.atan2(y(direccionTrazado) - y(posicion), x(direccionTrazado) - x(posicion));
+                if (motivoTrazado == MOTIVO_BIFURCACION && pasosTrazado < longitudEspolon) {
+                    int otra = bifurcacionCercana(finTrazado, ultimaDeFila(y(finTrazado) + 2));
+                    if (otra >= 0 && otra != i) {
+                        validas[otra] = false;
+                        validas[i] = false;
+                        return;
+                    }
+                }
+            }
+        }
+        if (numRamas < 2) {
+            return;
+        }
+        double mejorDiferencia = Double.MAX_VALUE, direccion = 0;
+        for (int a = 0; a < numRamas; a++) {
+            for (int b = a + 1; b < numRamas; b++) {
+                double diferencia = Math.abs(Math.atan2(Math.sin(ramas[a] - ramas[b]), Math.cos(ramas[a] - ramas[b])));
+                if (diferencia < mejorDiferencia) {
+                    mejorDiferencia = diferencia;
+                    direccion = Math.atan2(Math.sin(ramas[a]) + Math.sin(ramas[b]), Math.cos(ramas[a]) + Math.cos(ramas[b]));
+                }
+            }
+        }
+        angulos[i] = PlantillaHuella.codificarAngulo(direccion);
+    }
+
+    /**
+     * sigue la cresta pixel a pixel hasta una terminacion, una bifurcacion o maxPasos pixeles
+     * deja en finTrazado donde para, en motivoTrazado por que, en pasosTrazado cuantos pixeles ha avanzado
+     * y en direccionTrazado el pixel a longitudDireccion pasos (o el ultimo si para antes)
+     *
+     * @param inicio      con el primer pixel
+     * @param anterior    con el pixel del que se viene, o -1
+     * @param maxPasos    con el maximo de pixeles a avanzar
+     * @param sinPararEn  con los primeros pasos en los que no se para en bifurcaciones, para salir de la propia bifurcacion
+     */
+    private void trazar(int inicio, int anterior, int maxPasos, int sinPararEn) {
+        int actual = inicio, previo = anterior, previo2 = -1;
+        direccionTrazado = inicio;
+        motivoTrazado = MOTIVO_LIMITE;
+        pasosTrazado = 0;
+        while (pasosTrazado < maxPasos) {
+            int siguiente = -1;
+            for (int k = 0; k < 8; k++) {
+                int vecino = actual + desplazamientos[k];
+                if (cresta[vecino] == 0 || vecino == previo || vecino == previo2 || vecino == anterior) {
+                    continue;
+                }
+                if (pasosTrazado >= sinPararEn && CRUCES[vecindad(vecino)] >= 3) {
+                    siguiente = vecino;//una bifurcacion al lado tiene preferencia, si no se podria pasar de largo por la diagonal
+                    break;
+                }
+                if (siguiente < 0 || (previo >= 0 && adyacentes(siguiente, previo) && !adyacentes(vecino, previo))) {
+                    siguiente = vecino;//mejor un vecino que no toque al pixel anterior, para no volver en las escaleras
+                }
+            }
+            if (siguiente < 0) {
+                motivoTrazado = MOTIVO_FIN;
+                break;
+            }
+            previo2 = previo;
+            previo = actual;
+            actual = siguiente;
+            pasosTrazado++;
+            if (pasosTrazado <= longitudDireccion) {
+                direccionTrazado = actual;
+            }
+            int cruces = CRUCES[vecindad(actual)];
+            if (cruces >= 3 && pasosTrazado > sinPararEn) {
+                motivoTrazado = MOTIVO_BIFURCACION;
+                break;
+            }
+            if (cruces == 1) {
+                motivoTrazado = MOTIVO_FIN;
+                break;
+            }
+        }
+        finTrazado = actual;
+    }
+
+    private boolean adyacentes(int a, int b) {
+        int d = a - b;
+        return d == 1 || d == -1 || d == salto || d == -salto || d == salto + 1 || d == salto - 1 || d == -salto + 1 || d == -salto - 1;
+    }
+
+    /**
+     * indica si la minucia esta a menos de margen pixeles del primer o ultimo pixel de cresta de su fila o de su columna
+     */
+    private boolean cercaDelBorde(int posicion) {
+        int x = x(posicion), y = y(posicion);
+        return x - primeraX[y] < margen || ultimaX[y] - x < margen || y - primeraY[x] < margen || ultimaY[x] - y < margen;
+    }
+}
@@ -0,0 +1,730 @@
+package pbmt;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.function.Supplier;
+
+/**
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class FingerPrintImage {
+    Scanner opcion;
+    BufferedImage imagenOriginal;//para asignarla al principio al elegir archivo, arrastramos en todos los procesos su tamaño, asi todas las imagenes seran del tamaño de la inicial
+    int umbral;
+    Binarizador binarizador;//metodo de binarizacion, por defecto umbral fijo
+    int anchuraOriginal;
+    int alturaOriginal;
+    EscritorImagen escritor;//formato de las imagenes de cada etapa, EscritorImagen.NINGUNO para no guardarlas
+    MetricasEtapas metricas = MetricasEtapas.global();//tiempo y memoria de cada etapa
+    boolean segmentar;//procesar solo la caja de la huella, ver MascaraSegmentacion
+    MascaraSegmentacion mascara;//de la imagen de grises actual si se ha segmentado, null si no
+    CacheEtapas cache;//resultados de etapas ya calculados, null para calcular siempre
+
+    /**
+     * constructor por defecto, guarda las etapas en PNG desde un hilo escritor
+     */
+    public FingerPrintImage() {
+        this(new EscritorAsincrono(new EscritorPng(), 4));
+    }
+
+    /**
+     * constructor para el menu con el formato de salida de las etapas
+     *
+     * @param escritor con el escritor de las imagenes de cada etapa
+     */
+    public FingerPrintImage(EscritorImagen escritor) {
+        this.opcion = new Scanner(System.in);//scanner para la entrada de opciones
+        this.imagenOriginal = null;
+        this.umbral = 50;//valor por defecto de umbral a 50
+        this.binarizador = Binarizador.fijo(umbral);
+        this.anchuraOriginal = 0;
+        this.alturaOriginal = 0;
+        this.escritor = escritor;
+        this.cache = new CacheEtapas(CacheEtapas.BYTES_DEFECTO);//en el menu se repiten etapas con la misma imagen
+    }
+
+    /**
+     * constructor para procesar una sola imagen sin menu, cada trabajo del modo por lotes crea su propia instancia
+     * para que el estado de la imagen (imagenOriginal, anchura y altura) no se comparta entre hilos
+     *
+     * @param imagen con la imagen original ya leida
+     * @param umbral con el umbral de binarizacion
+     */
+    public FingerPrintImage(BufferedImage imagen, int umbral) {
+        this(imagen, umbral, new EscritorPng());
+    }
+
+    /**
+     * constructor para procesar una sola imagen sin menu con el formato de salida indicado
+     *
+     * @param imagen   con la imagen original ya leida
+     * @param umbral   con el umbral de binarizacion
+     * @param escritor con el escritor de las imagenes resultado, puede ser compartido y asincrono
+     */
+    public FingerPrintImage(BufferedImage imagen, int umbral, EscritorImagen escritor) {
+        this(imagen, Binarizador.fijo(umbral), escritor);
+    }
+
+    /**
+     * constructor para procesar una sola imagen sin menu con el metodo de binarizacion y el formato de salida indicados
+     *
+     * @param imagen      con la imagen original ya leida
+     * @param binarizador con el metodo de binarizacion
+     * @param escritor    con el escritor de las imagenes resultado, puede ser compartido y asincrono
+     */
+    public FingerPrintImage(BufferedImage imagen, Binarizador binarizador, EscritorImagen escritor) {
+        this.opcion = null;//sin menu, no leemos de consola
+        this.imagenOriginal = imagen;
+        this.umbral = binarizador.getUmbral();
+        this.binarizador = binarizador;
+        this.anchuraOriginal = imagen.getWidth();
+        this.alturaOriginal = imagen.getHeight();
+        this.escritor = escritor;
+    }
+
+    /**
+     * metodo para seleccionar la imagen original a usar, debemos leer del fichero y pasarla a BufferedImage para tratarla
+     *
+     * @param imagenSeleccionada con el nombre de la imagen seleccionada en la consola
+     * @return nada
+     * @throws IOException
+     */
+    private void seleccionarArchivo(String imagenSeleccionada) throws IOException {
+        long inicioEtapa = metricas.inicio(), bytesEtapa = metricas.bytesHilo();
+        imagenOriginal = ImageIO.read(new File(imagenSeleccionada));//leemos la imagen seleccionada por el usuario
+        metricas.registrar(MetricasEtapas.Etapa.DECODIFICAR, inicioEtapa, bytesEtapa);
+        System.out.println("\nHa seleccionado la imagen " + imagenSeleccionada + "\n");
+        this.anchuraOriginal = imagenOriginal.getWidth();//obtenemos ancho y alto de la imagen original para futuras imagenes
+        this.alturaOriginal = imagenOriginal.getHeight();
+    }
+
+    /**
+     * metodo para pasar el raster a un archivo para su visualizacion con el escritor elegido
+     * con un EscritorAsincrono solo se deja en su cola y el archivo aparece un poco despues
+     *
+     * @param imagenEntrada con el raster de entrada,
+     * @param nombreBase    con el nombre del nuevo archivo sin extension, la pone el escritor
+     * @param modo          con el modo, 1 grises, 0 blanco y negro
+     * @return nombre del archivo con extension, o null si el escritor es EscritorImagen.NINGUNO
+     * @throws IOException
+     */
+    String pasarImagenAArchivo(FingerprintRaster imagenEntrada, String nombreBase, int modo) throws IOException {
+        if (!escritor.escribe()) {
+            return null;
+        }
+        String nombreArchivo = nombreBase + "." + escritor.extension(modo);
+        long inicioEtapa = metricas.inicio(), bytesEtapa = metricas.bytesHilo();
+        escritor.escribir(imagenEntrada, modo, Paths.get(nombreArchivo));//creamos un archivo nuevo para su comprovacion visual
+        if (!(escritor instanceof EscritorAsincrono)) {//el asincrono registra la codificacion en su hilo
+            metricas.registrar(MetricasEtapas.Etapa.CODIFICAR, inicioEtapa, bytesEtapa);
+        }
+        return nombreArchivo;
+    }
+
+    /**
+     * muestra el archivo generado por pasarImagenAArchivo, si se ha generado
+     */
+    private static void mostrarGenerada(String nombreArchivo) {
+        if (nombreArchivo != null) {
+            System.out.println("\n" + nombreArchivo + " generada\n");
+        }
+    }
+
+    /**
+     * metodo para mostrar por consola las ejecuciones y los percentiles de tiempo de las etapas indicadas
+     *
+     * @param etapas con las etapas que acaba de hacer la opcion del menu
+     */
+    private void mostrarTiempos(MetricasEtapas.Etapa... etapas) {
+        for (MetricasEtapas.Etapa etapa : etapas) {
+            HistogramaMetricas tiempos = metricas.getTiempos(etapa);
+            if (tiempos.getCuenta() > 0) {
+                long totales = metricas.getPixelesTotales(etapa);
+                System.out.printf(Locale.ROOT, "%s: %d ejecuciones, p50 %.3f ms, p99 %.3f ms, %.1f KB/op%s%n", etapa.getNombre(), tiempos.getCuenta(),
+                        tiempos.percentil(0.5) / 1e6, tiempos.percentil(0.99) / 1e6, metricas.getBytes(etapa) / 1024.0 / tiempos.getCuenta(),
+                        totales > 0 ? String.format(Locale.ROOT, ", %.1f%% de los pixeles", 100.0 * metricas.getPixelesVisitados(etapa) / totales) : "");
+            }
+        }
+    }
+
+    /**
+     * metodo para convertir la imagen inicial a un raster de grises de 0 a 255, es el primer paso
+     * se lee el DataBuffer de la imagen directamente con ConversorRaster, un byte por pixel fila a fila
+     *
+     * @param imagenEntrada con la imagen de entrada de tipo BufferedImage
+     * @return imagenSalida con la imagen pasada a raster en escala de grises
+     */
+    FingerprintRaster convertirImagenAGrises(BufferedImage imagenEntrada) {
+        mascara = null;//la mascara anterior era de otra imagen
+        if (cache == null) {
+            return pasarAGrises(imagenEntrada);
+        }
+        return enCache(cache.clave(imagenEntrada), MetricasEtapas.Etapa.GRISES, "", 1, () -> pasarAGrises(imagenEntrada));
+    }
+
+    private FingerprintRaster pasarAGrises(BufferedImage imagenEntrada) {
+        long inicioEtapa = metricas.inicio(), bytesEtapa = metricas.bytesHilo();
+        FingerprintRaster imagenGrises = ConversorRaster.aRaster(imagenEntrada);//este raster ya sera del ancho y alto que la imagen original, lo arrastraremos para los demas pasos
+        metricas.registrar(MetricasEtapas.Etapa.GRISES, inicioEtapa, bytesEtapa);
+        metricas.registrarPixeles(MetricasEtapas.Etapa.GRISES, pixeles(imagenGrises), pixeles(imagenGrises));
+        return imagenGrises;
+    }
+
+    /**
+     * metodo para separar la huella del fondo por bloques de 16x16, ver MascaraSegmentacion
+     * a partir de aqui las etapas solo recorren la caja de la huella y dejan el resto en blanco
+     *
+     * @param imagenGrises con el raster de grises sin ecualizar
+     * @return mascara con los bloques de huella y su caja
+     */
+    MascaraSegmentacion segmentarFondo(FingerprintRaster imagenGrises) {
+        long inicioEtapa = metricas.inicio(), bytesEtapa = metricas.bytesHilo();
+        mascara = MascaraSegmentacion.de(imagenGrises);
+        metricas.registrar(MetricasEtapas.Etapa.SEGMENTAR, inicioEtapa, bytesEtapa);
+        metricas.registrarPixeles(MetricasEtapas.Etapa.SEGMENTAR, pixeles(imagenGrises), pixeles(imagenGrises));
+        return mascara;
+    }
+
+    private static long pixeles(FingerprintRaster imagen) {
+        return (long) imagen.ancho * imagen.alto;
+    }
+
+    /**
+     * pixeles que recorren las etapas desde la binarizacion, la caja si hay mascara o toda la imagen
+     */
+    private long pixelesRecorridos(FingerprintRaster imagen) {
+        return mascara != null ? mascara.getPixelesCaja() : pixeles(imagen);
+    }
+
+    /**
+     * metodo para ecualizar la imagen para aumentar el contraste mediante un histograma
+     *
+     * @param imagenEntrada con el raster de entrada
+     * @return imagenSalida con el raster ecualizado
+     */
+    FingerprintRaster calcularHistograma(FingerprintRaster imagenEntrada) {
+        return enCache(imagenEntrada, MetricasEtapas.Etapa.HISTOGRAMA, "", 1, () -> ecualizar(imagenEntrada));
+    }
+
+    private FingerprintRaster ecualizar(FingerprintRaster imagenEntrada) {
+        long inicioEtapa = metricas.inicio(), bytesEtapa = metricas.bytesHilo();
+        int ancho = imagenEntrada.ancho;
+        int alto = imagenEntrada.alto;
+        FingerprintRaster imagenEcualizada = new FingerprintRaster(ancho, alto);
+        byte[] entrada = imagenEntrada.datos;
+        byte[] salida = imagenEcualizada.datos;
+        int tampixel = ancho * alto;
+        int[] histograma = new int[256];
+        //calculamos la frecuencia de aparicion de los niveles de gris en la imagen, fila a fila
+        if (mascara != null) {//con mascara solo los niveles de la huella, el fondo no cuenta para el contraste
+            mascara.histograma(imagenEntrada, histograma);
+            tampixel = mascara.getPixelesPrimerPlano() > 0 ? (int) mascara.getPixelesPrimerPlano() : tampixel;
+        } else {
+            for (int y = 0; y < alto; y++) {
+                int fila = imagenEntrada.fila(y);
+                for (int x = 0; x < ancho; x++) {
+                    histograma[entrada[fila + x] & 0xFF]++;
+                }
+            }
+        }
+        long suma = 0;//en long para que suma*255 no desborde con imagenes grandes
+
+        //construimos la LUT(lookup table)
+        byte[] LUT = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            suma += histograma[i];
+            float valor = suma * 255 / tampixel;
+            LUT[i] = (byte) (int) valor;
+        }
+        //Transformamos la imagen usando la LUT, con mascara solo la caja y el resto en blanco
+        int x0 = 0, y0 = 0, x1 = ancho, y1 = alto;
+        if (mascara != null) {
+            x0 = mascara.getX0();
+            y0 = mascara.getY0();
+            x1 = mascara.getX1();
+            y1 = mascara.getY1();
+            mascara.rellenarFuera(imagenEcualizada, 255, false);
+        }
+        for (int y = y0; y < y1; y++) {
+            int origen = imagenEntrada.fila(y);
+            int destino = imagenEcualizada.fila(y);
+            for (int x = x0; x < x1; x++) {
+                salida[destino + x] = LUT[entrada[origen + x] & 0xFF];
+            }
+        }
+        metricas.registrar(MetricasEtapas.Etapa.HISTOGRAMA, inicioEtapa, bytesEtapa);
+        metricas.registrarPixeles(MetricasEtapas.Etapa.HISTOGRAMA,
+                mascara != null ? mascara.getPixelesPrimerPlano() + mascara.getPixelesCaja() : 2L * tampixel, 2L * ancho * alto);
+        return imagenEcualizada;
+    }
+
+    /**
+     * metodo para convertir el raster en escala de grises a blanco y negro con un umbral, por defecto es 50
+     *
+     * @param imagenEntrada con el raster de entrada
+     * @param umbral        un entero con el umbral para detectar cuando se pasa a blanco o negro, por defecto si el girs es por debajo de 50 se pasa a negro
+     * @return imagenSalida con el raster pasado a blanco y negro
+     */
+    FingerprintRaster convertirImagenAByN(FingerprintRaster imagenEntrada, int umbral) {
+        return convertirImagenAByN(imagenEntrada, Binarizador.fijo(umbral));
+    }
+
+    /**
+     * metodo para convertir el raster en escala de grises a blanco y negro con el metodo indicado
+     * con umbral fijo u Otsu se compara cada pixel con un solo umbral, con media local o Sauvola cada pixel tiene el suyo
+     *
+     * @param imagenEntrada con el raster de entrada
+     * @param binarizador   con el metodo de binarizacion
+     * @return imagenSalida con el raster pasado a blanco y negro
+     */
+    FingerprintRaster convertirImagenAByN(FingerprintRaster imagenEntrada, Binarizador binarizador) {
+        return enCache(imagenEntrada, MetricasEtapas.Etapa.BINARIZAR, binarizador.getClave(), 0, () -> binarizar(imagenEntrada, binarizador));
+    }
+
+    private FingerprintRaster binarizar(FingerprintRaster imagenEntrada, Binarizador binarizador) {
+        long inicioEtapa = metricas.inicio(), bytesEtapa = metricas.bytesHilo();
+        FingerprintRaster imagenByN = new FingerprintRaster(imagenEntrada.ancho, imagenEntrada.alto);
+        if (mascara != null) {
+            binarizarCaja(imagenEntrada, binarizador, imagenByN);
+        } else if (binarizador.esLocal()) {
+            binarizador.binarizarLocal(imagenEntrada, null, imagenByN);
+        } else {
+            int umbral = binarizador.umbralGlobal(imagenEntrada);
+            NucleosFila nucleos = NucleosFila.activos();
+            for (int y = 0; y < imagenEntrada.alto; y++) {//por debajo del umbral negro, si no blanco
+                nucleos.binarizar(imagenEntrada.datos, imagenEntrada.fila(y), imagenByN.datos, imagenByN.fila(y), imagenEntrada.ancho, umbral);
+            }
+        }
+        metricas.registrar(MetricasEtapas.Etapa.BINARIZAR, inicioEtapa, bytesEtapa);
+        metricas.registrarPixeles(MetricasEtapas.Etapa.BINARIZAR, pixelesRecorridos(imagenEntrada), pixeles(imagenEntrada));
+        return imagenByN;
+    }
+
+    /**
+     * binarizacion solo de la caja de la mascara, con Otsu sobre el histograma de los bloques de huella
+     * y la ventana local sin salir de la caja, los bloques de fondo y lo de fuera de la caja quedan en blanco
+     */
+    private void binarizarCaja(FingerprintRaster imagenEntrada, Binarizador binarizador, FingerprintRaster imagenByN) {
+        int x0 = mascara.getX0(), y0 = mascara.getY0(), x1 = mascara.getX1(), y1 = mascara.getY1();
+        if (binarizador.esLocal()) {
+            if (mascara.getPixelesCaja() > 0) {
+                binarizador.binarizarLocal(imagenEntrada.vista(x0, y0, x1 - x0, y1 - y0), null, imagenByN.vista(x0, y0, x1 - x0, y1 - y0));
+            }
+        } else {
+            int[] histograma = new int[256];
+            mascara.histograma(imagenEntrada, histograma);
+            int umbral = binarizador.umbralGlobal(histograma);
+            NucleosFila nucleos = NucleosFila.activos();
+            for (int y = y0; y < y1; y++) {
+                nucleos.binarizar(imagenEntrada.datos, imagenEntrada.fila(y) + x0, imagenByN.datos, imagenByN.fila(y) + x0, x1 - x0, umbral);
+            }
+        }
+        mascara.blanquearFondo(imagenByN);
+        mascara.rellenarFuera(imagenByN, 1, false);
+    }
+
+    /**
+     * filtrado para rellenar pequeños huecos de un pixel en zonas oscuras y cortes en segmentos rectos
+     * filtro = p+b.g.(d+e)+d.e.(b+g)
+     * se hace con ImagenBinaria, 64 pixeles por palabra con los vecinos x-1 y x+1 por desplazamiento de bits
+     *
+     * @param imagenEntrada con el raster de entrada
+     * @return imagenSalida con el primer filtro binario aplicado
+     */
+    FingerprintRaster filtroBinario1(FingerprintRaster imagenEntrada) {
+        return enCache(imagenEntrada, MetricasEtapas.Etapa.FILTRO1, "", 0, () -> aplicarFiltroBinario(imagenEntrada, MetricasEtapas.Etapa.FILTRO1));
+    }
+
+    /**
+     * filtrado para eliminar los unos aislados y protuberancias en segmentos de lados rectos
+     * filtro = p.[(a+b+d).(e+g+h)+(b+c+e).(d+f+g)]
+     * se hace con ImagenBinaria, como el primero
+     *
+     * @param imagenEntrada con el raster de entrada
+     * @return imagenSalida con el segundo filtro binario aplicado
+     */
+    FingerprintRaster filtroBinario2(FingerprintRaster imagenEntrada) {
+        return enCache(imagenEntrada, MetricasEtapas.Etapa.FILTRO2, "", 0, () -> aplicarFiltroBinario(imagenEntrada, MetricasEtapas.Etapa.FILTRO2));
+    }
+
+    /**
+     * filtro de la etapa FILTRO1 o FILTRO2 sobre la imagen empaquetada, con mascara solo en las palabras de su caja
+     * el borde no se trata, queda a 0, y fuera de la caja queda el fondo blanco filtrado, blanco con el borde a 0
+     */
+    private FingerprintRaster aplicarFiltroBinario(FingerprintRaster imagenEntrada, MetricasEtapas.Etapa etapa) {
+        long inicioEtapa = metricas.inicio(), bytesEtapa = metricas.bytesHilo();
+        ImagenBinaria entrada = ImagenBinaria.desdeRaster(imagenEntrada);
+        ImagenBinaria salida = new ImagenBinaria(entrada.ancho, entrada.alto);
+        int y0 = mascara != null ? mascara.getY0() : 0, y1 = mascara != null ? mascara.getY1() : entrada.alto;
+        int iDesde = mascara != null ? mascara.getPalabraDesde() : 0, iHasta = mascara != null ? mascara.getPalabraHasta() : entrada.palabrasFila;
+        if (etapa == MetricasEtapas.Etapa.FILTRO1) {
+            entrada.filtroBinario1(salida, y0, y1, iDesde, iHasta);
+        } else {
+            entrada.filtroBinario2(salida, y0, y1, iDesde, iHasta);
+        }
+        FingerprintRaster imagenFiltrada = salida.aRaster();
+        if (mascara != null) {
+            mascara.rellenarFuera(imagenFiltrada, 1, true);
+        }
+        metricas.registrar(etapa, inicioEtapa, bytesEtapa);
+        metricas.registrarPixeles(etapa, pixelesRecorridos(imagenEntrada), pixeles(imagenEntrada));
+        return imagenFiltrada;
+    }
+
+    /**
+     * algoritmo de Zhang-Shuen para el adelgazamiento de la imagen, explicado en la documentación externa y pasos en la interna
+     * se hace con ImagenBinaria, 64 pixeles por palabra, que en las medidas de BancoPruebas es mas rapido que recorrer el raster pixel a pixel
+     *
+     * @param imagenEntrada con el raster de entrada
+     * @return imagenSalida con la imagen adelgazada
+     */
+    FingerprintRaster adelgazamientoZhangSuen(FingerprintRaster imagenEntrada) {
+        return enCache(imagenEntrada, MetricasEtapas.Etapa.ZHANG_SUEN, "", 0, () -> adelgazar(imagenEntrada));
+    }
+
+    private FingerprintRaster adelgazar(FingerprintRaster imagenEntrada) {
+        long inicioEtapa = metricas.inicio(), bytesEtapa = metricas.bytesHilo();
+        ImagenBinaria entrada = ImagenBinaria.desdeRaster(imagenEntrada);
+        ImagenBinaria salida = new ImagenBinaria(entrada.ancho, entrada.alto);
+        ImagenBinaria marcas = new ImagenBinaria(entrada.ancho, entrada.alto);
+        int pasadas;
+        if (mascara != null) {//solo la caja, fuera queda igual que la entrada
+            System.arraycopy(entrada.bits, 0, salida.bits, 0, entrada.bits.length);
+            pasadas = entrada.adelgazamientoZhangSuen(salida, marcas, mascara.getY0(), mascara.getY1(), mascara.getPalabraDesde(), mascara.getPalabraHasta());
+        } else {
+            pasadas = entrada.adelgazamientoZhangSuen(salida, marcas);
+        }
+        FingerprintRaster imagenAdelgazada = salida.aRaster();
+        if (mascara != null) {
+            mascara.rellenarFuera(imagenAdelgazada, 1, true);
+        }
+        metricas.registrar(MetricasEtapas.Etapa.ZHANG_SUEN, inicioEtapa, bytesEtapa);
+        metricas.registrarPixeles(MetricasEtapas.Etapa.ZHANG_SUEN, pixelesRecorridos(imagenEntrada), pixeles(imagenEntrada));
+        metricas.registrarZhangSuen(pasadas, salida.contarBlancos() - entrada.contarBlancos());//los negros borrados pasan a blanco
+        return imagenAdelgazada;
+    }
+
+    /**
+     * extraccion de minucias del esqueleto con el metodo del numero de cruces, ver ExtractorMinucias
+     *
+     * @param imagenEntrada con la imagen adelgazada
+     * @return plantilla con las terminaciones y bifurcaciones
+     */
+    PlantillaHuella extraerMinucias(FingerprintRaster imagenEntrada) {
+        long inicioEtapa = metricas.inicio(), bytesEtapa = metricas.bytesHilo();
+        PlantillaHuella plantilla = new ExtractorMinucias().extraer(imagenEntrada);
+        metricas.registrar(MetricasEtapas.Etapa.MINUCIAS, inicioEtapa, bytesEtapa);
+        return plantilla;
+    }
+
+    /**
+     * proceso automatico de la opcion 7 sobre la imagen original de esta instancia
+     * grises->histograma->blanco y negro->filtrado 1 y 2->adelgazamiento, con el binarizador elegido
+     * se hace con el PipelineFusionado del hilo, que reutiliza sus buffers entre imagenes del mismo tamaño
+     * con segmentar solo se procesa la caja de la huella
+     * con cache se guarda el esqueleto con el binarizador como parametro y los grises con la misma clave que la opcion 2,
+     * el pipeline empieza desde esos grises, asi cambiar el umbral no vuelve a convertir la imagen y solo cuenta el histograma
+     * antes de la ecualizacion, que va fusionada con la binarizacion
+     *
+     * @return imagenSalida con la imagen adelgazada
+     */
+    FingerprintRaster procesoAutomatico() {
+        if (cache == null) {
+            return PipelineFusionado.delHilo().procesar(imagenOriginal, binarizador, segmentar).aRaster();
+        }
+        String claveEntrada = cache.clave(imagenOriginal);
+        return enCache(claveEntrada, null, binarizador.getClave() + (segmentar ? ":segmentar" : ""), 0, () -> {
+            FingerprintRaster grises = enCache(claveEntrada, MetricasEtapas.Etapa.GRISES, "", 1, () -> pasarAGrises(imagenOriginal));
+            return PipelineFusionado.delHilo().procesar(grises, binarizador, segmentar).aRaster();
+        });
+    }
+
+    /**
+     * resultado de una etapa desde la cache, con la clave del raster de entrada y la mascara actual como parametro
+     * sin cache se calcula siempre
+     */
+    private FingerprintRaster enCache(FingerprintRaster imagenEntrada, MetricasEtapas.Etapa etapa, String parametros, int modo,
+                                      Supplier<FingerprintRaster> calculo) {
+        if (cache == null) {
+            return calculo.get();
+        }
+        if (mascara != null) {//el resultado depende de la caja y de los bloques de huella, que salen de los grises
+            parametros += String.format(Locale.ROOT, ":caja %d,%d,%d,%d:%d", mascara.getX0(), mascara.getY0(), mascara.getX1(),
+                    mascara.getY1(), mascara.getPixelesPrimerPlano());
+        }
+        return enCache(cache.clave(imagenEntrada), etapa, parametros, modo, calculo);
+    }
+
+    /**
+     * busca en la cache con la clave de la entrada ya calculada, en el menu avisa cuando no hace falta calcular
+     *
+     * @param etapa con la etapa, null para el proceso automatico
+     */
+    private FingerprintRaster enCache(String claveEntrada, MetricasEtapas.Etapa etapa, String parametros, int modo,
+                                      Supplier<FingerprintRaster> calculo) {
+        long aciertos = cache.getAciertos() + cache.getAciertosDisco();
+        FingerprintRaster resultado = cache.calcular(claveEntrada, etapa != null ? etapa.getNombre() : "automatico", parametros, modo, calculo);
+        if (opcion != null && cache.getAciertos() + cache.getAciertosDisco() > aciertos) {
+            System.out.println("\n" + (etapa != null ? etapa.getNombre() : "proceso automatico") + " recuperado de la cache");
+        }
+        return resultado;
+    }
+
+    /**
+     * menu principal de opciones
+     *
+     * @return op, un entero con la opcion seleccionada
+     */
+    public int menuSeleccion() {
+        int op;
+        System.out.println("**********************************************************");
+        System.out.println("Seleccione la funcion que desea realizar, para tratar la imagen debe elegir la opcion 1 primero");
+        System.out.println("0.Salir");
+        System.out.println("1.Seleccionar imagen(debe estar en el mismo directorio que el ejecutable, o indique la ruta completa)");
+        System.out.println("2.Pasar imagen RGB a matriz de grises de tipo byte");
+        System.out.println("3.Calcular histograma de la imagen en escala de grises(Ecualizacion)");
+        System.out.println("4.Convertir imagen de grises a una matriz de blanco y negro de tipo byte(Binarizacion)");
+        System.out.println("5.Eliminar ruido binario(Filtrado)");
+        System.out.println("6.Adelgazamiento de la imagen con algoritmo Zhang-Shuen");
+        System.out.println("7.AUTO: Ecualizacion->Binarizacion->Filtrado->Adelgazamiento(Debe haber seleccionado imagen previamente en opcion 1)");
+        System.out.println("8.Extraer minucias de la imagen adelgazada a una plantilla binaria(despues de la opcion 6 o 7)");
+        System.out.println("9.Elegir metodo de binarizacion para las opciones 4 y 7, ahora " + binarizador);
+        System.out.println("10.Activar o desactivar la segmentacion del fondo para las opciones 2 y 7, ahora " + (segmentar ? "activada" : "desactivada"));
+        op = opcion.nextInt();
+        return op;
+    }
+
+    /**
+     * proceso que maneja las opciones y todas las operaciones a realizar, es el llamado desde el main
+     *
+     * @return nada
+     */
+    public void procesoPrincipal() {
+        FingerprintRaster imagenSalida = new FingerprintRaster(anchuraOriginal, alturaOriginal);
+        int seleccion;
+        boolean enc = false;
+        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+        String imagenSeleccionada = null;
+        boolean esc = false;
+        System.out.println("********** Practica Biometria huellas dactilares *********");
+        while (!esc) {
+            try {
+                seleccion = menuSeleccion();
+                switch (seleccion) {
+                    case 0://salir
+                        esc = true;
+                        if (escritor instanceof EscritorAsincrono) {
+                            ((EscritorAsincrono) escritor).close();//esperamos a que se guarden las imagenes pendientes
+                        }
+                        System.out.print(ExportadorMetricas.aTabla(metricas));
+                        if (cache != null) {
+                            System.out.println(cache);
+                        }
+                        System.out.println("**********************************************************");
+                        System.out.println("*************************** FIN **************************");
+                        break;
+                    case 1://seleccionar imagen
+                        System.out.println("Introduzca el nombre de la imagen que quiere usar con la extension(debe estar en este mismo directorio)");
+                        System.out.print("Imagen: ");
+                        while (!enc) {
+                            imagenSeleccionada = br.readLine();
+                            if (Files.exists(Paths.get(imagenSeleccionada))) {
+                                enc = true;
+                            } else {
+                                System.out.println("ERROR! fichero no encontrado");
+                                System.out.println("Introduzca el nombre de nuevo, asegurese que esta en el mismo directorio");
+                                System.out.print("Imagen: ");
+                            }
+                        }
+                        seleccionarArchivo(imagenSeleccionada);
+                        mostrarTiempos(MetricasEtapas.Etapa.DECODIFICAR);
+                        break;
+                    case 2://pasar a matriz de grises de tipo byte
+                        imagenSalida = convertirImagenAGrises(imagenOriginal);
+                        mostrarGenerada(pasarImagenAArchivo(imagenSalida, "imagenEscalaGrises", 1));
+                        mostrarTiempos(MetricasEtapas.Etapa.GRISES);
+                        if (segmentar) {
+                            MascaraSegmentacion segmentacion = segmentarFondo(imagenSalida);
+                            System.out.printf(Locale.ROOT, "%nHuella en %d de %d bloques, caja (%d,%d)-(%d,%d)%n%n", segmentacion.getBloquesPrimerPlano(),
+                                    segmentacion.getBloquesX() * segmentacion.getBloquesY(), segmentacion.getX0(), segmentacion.getY0(),
+                                    segmentacion.getX1(), segmentacion.getY1());
+                            mostrarTiempos(MetricasEtapas.Etapa.SEGMENTAR);
+                        }
+                        break;
+                    case 3:
+                        imagenSalida = calcularHistograma(imagenSalida);
+                        mostrarGenerada(pasarImagenAArchivo(imagenSalida, "imagenHistograma", 1));
+                        mostrarTiempos(MetricasEtapas.Etapa.HISTOGRAMA);
+                        break;
+                    case 4:
+                        imagenSalida = convertirImagenAByN(imagenSalida, binarizador);
+                        mostrarGenerada(pasarImagenAArchivo(imagenSalida, "imagenByN", 0));
+                        mostrarTiempos(MetricasEtapas.Etapa.BINARIZAR);
+                        break;
+                    case 5:
+                        imagenSalida = filtroBinario1(imagenSalida);
+                        imagenSalida = filtroBinario2(imagenSalida);
+                        mostrarGenerada(pasarImagenAArchivo(imagenSalida, "imagenFiltrada", 0));
+                        mostrarTiempos(MetricasEtapas.Etapa.FILTRO1, MetricasEtapas.Etapa.FILTRO2);
+                        break;
+                    case 6:
+                        imagenSalida = adelgazamientoZhangSuen(imagenSalida);
+                        mostrarGenerada(pasarImagenAArchivo(imagenSalida, "imagenAdelgazadaZS", 0));
+                        mostrarTiempos(MetricasEtapas.Etapa.ZHANG_SUEN);
+                        break;
+                    case 7:
+                        imagenSalida = procesoAutomatico();
+                        mostrarGenerada(pasarImagenAArchivo(imagenSalida, "imagenAUTO", 0));
+                        mostrarTiempos(MetricasEtapas.Etapa.GRISES, MetricasEtapas.Etapa.HISTOGRAMA, MetricasEtapas.Etapa.SEGMENTAR, MetricasEtapas.Etapa.BINARIZAR, MetricasEtapas.Etapa.FILTRO1,
+                                MetricasEtapas.Etapa.FILTRO2, MetricasEtapas.Etapa.ZHANG_SUEN);
+                        break;
+                    case 8:
+                        PlantillaHuella plantilla = extraerMinucias(imagenSalida);
+                        plantilla.escribir(Paths.get("plantilla.min"));
+                        System.out.println("\nplantilla.min generada con " + plantilla.getNumero() + " minucias\n");
+                        mostrarTiempos(MetricasEtapas.Etapa.MINUCIAS);
+                        break;
+                    case 9:
+                        System.out.println("Introduzca un umbral fijo (0-255), otsu, media o sauvola");
+                        System.out.print("Binarizacion: ");
+                        try {
+                            binarizador = Binarizador.porNombre(opcion.next());
+                            System.out.println("\nBinarizacion con " + binarizador + "\n");
+                        } catch (IllegalArgumentException e) {
+                            System.out.println("ERROR! " + e.getMessage());
+                        }
+                        break;
+                    case 10:
+                        segmentar = !segmentar;
+                        mascara = segmentar ? mascara : null;
+                        System.out.println("\nSegmentacion del fondo " + (segmentar ? "activada" : "desactivada") + "\n");
+                        break;
+                    default:
+                        System.out.println("Opcion no valida, vuelva a seleccionar una opcion (0-10)");
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+    }
+
+    /**
+     * main, sin argumentos abre el menu interactivo y guarda las etapas en PNG
+     * con -formato png|pnm|jpg|no abre el menu guardando las etapas en ese formato, no para no guardarlas
+     * con -binarizacion umbral|otsu|media|sauvola abre el menu con ese metodo de binarizacion
+     * con -segmentar abre el menu con la segmentacion del fondo activada
+     * con -cache MB guarda hasta esos megabytes de resultados de etapas (64 por defecto), con -cache directorio ademas
+     * los guarda en disco para las siguientes ejecuciones, y con -cache no calcula siempre todas las etapas
+     * con -metricas archivo escribe las metricas de las etapas al salir, JSON si acaba en .json y Prometheus si no,
+     * y con -metricas puerto las sirve por HTTP en /metricas mientras el menu esta abierto
+     * con -lote procesa un directorio o una lista de imagenes sin menu, ver ProcesadorLotes, y termina con codigo 1 si falla alguna
+     * con -flujo procesa un escaneo muy grande fila a fila hasta el esqueleto en PBM, ver ProcesadorFlujo
+     * con -franjas N mide el proceso automatico de una imagen repartido en 1 a N nucleos, ver ProcesadorFranjas
+     * con -servidor atiende el proceso automatico por HTTP, ver ServidorProceso, y con -carga lo prueba, ver PruebaCarga
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("-lote")) {
+            int codigo = ProcesadorLotes.ejecutar(args);
+            if (codigo != 0) {
+                System.exit(codigo);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-flujo")) {
+            int codigo = ProcesadorFlujo.ejecutar(args);
+            if (codigo != 0) {
+                System.exit(codigo);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-franjas")) {
+            int codigo = ProcesadorFranjas.ejecutar(args);
+            if (codigo != 0) {
+                System.exit(codigo);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-servidor")) {
+            ServidorProceso.ejecutar(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-carga")) {
+            PruebaCarga.ejecutar(args);
+            return;
+        }
+        EscritorImagen escritor = null;
+        Binarizador binarizador = null;
+        String destinoMetricas = null;
+        String destinoCache = null;
+        boolean segmentar = false;
+        for (int i = 0; i < args.length; i += 2) {
+            if (args[i].equals("-segmentar")) {//la unica opcion sin valor
+                segmentar = true;
+                i--;
+            } else if (i + 1 >= args.length) {
+                break;
+            } else if (args[i].equals("-formato")) {
+                try {
+                    escritor = EscritorImagen.porNombre(args[i + 1]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("ERROR! " + e.getMessage());
+                    return;
+                }
+            } else if (args[i].equals("-binarizacion")) {
+                try {
+                    binarizador = Binarizador.porNombre(args[i + 1]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("ERROR! " + e.getMessage());
+                    return;
+                }
+            } else if (args[i].equals("-metricas")) {
+                destinoMetricas = args[i + 1];
+            } else if (args[i].equals("-cache")) {
+                destinoCache = args[i + 1];
+            }
+        }
+        FingerPrintImage fpi;
+        if (escritor != null) {
+            fpi = new FingerPrintImage(escritor.escribe() ? new EscritorAsincrono(escritor, 4) : escritor);
+        } else {
+            fpi = new FingerPrintImage();
+        }
+        if (binarizador != null) {
+            fpi.binarizador = binarizador;
+        }
+        fpi.segmentar = segmentar;
+        if (destinoCache != null) {
+            if (destinoCache.equals("no")) {
+                fpi.cache = null;
+            } else if (destinoCache.matches("\\d+")) {
+                fpi.cache = new CacheEtapas(Long.parseLong(destinoCache) << 20);
+            } else {
+                fpi.cache = new CacheEtapas(CacheEtapas.BYTES_DEFECTO, Paths.get(destinoCache), CacheEtapas.BYTES_DISCO_DEFECTO);
+                System.out.println("Cache de etapas en " + destinoCache);
+            }
+        }
+        HttpServer servidor = null;
+        if (destinoMetricas != null && destinoMetricas.matches("\\d+")) {
+            servidor = ExportadorMetricas.servir(fpi.metricas, Integer.parseInt(destinoMetricas));
+            System.out.println("Metricas en http://localhost:" + servidor.getAddress().getPort() + "/metricas");
+        }
+        fpi.procesoPrincipal();
+        if (servidor != null) {
+            servidor.stop(0);
+        } else if (destinoMetricas != null) {
+            ExportadorMetricas.escribir(fpi.metricas, Paths.get(destinoMetricas));
+            System.out.println("Metricas escritas en " + destinoMetricas);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package pbmt;
+
+import java.util.Arrays;
+
+/**
+ * imagen de un byte por pixel guardada fila a fila en un unico array, la usan todas las etapas en lugar de int[][]
+ * el pixel (x, y) esta en datos[indice(x, y)] = datos[inicio + y*salto + x], asi recorrer una fila es leer memoria seguida
+ * y los vecinos de arriba y abajo estan a -salto y +salto en el mismo array
+ * una vista comparte el array con el raster del que sale y tiene el salto de ese raster
+ * en grises cada pixel vale de 0 a 255, en blanco y negro 0 (negro) o 1 (blanco)
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class FingerprintRaster {
+    final int ancho;
+    final int alto;
+    final int salto;//bytes entre el inicio de una fila y el de la siguiente
+    final int inicio;//posicion del pixel (0,0)
+    final byte[] datos;
+
+    /**
+     * constructor, imagen toda a 0
+     *
+     * @param ancho con la anchura en pixeles
+     * @param alto  con la altura en pixeles
+     */
+    public FingerprintRaster(int ancho, int alto) {
+        this.ancho = ancho;
+        this.alto = alto;
+        this.salto = ancho;
+        this.inicio = 0;
+        this.datos = new byte[ancho * alto];
+    }
+
+    /**
+     * raster sobre un array ya existente, sin copiarlo
+     *
+     * @param datos con los pixeles fila a fila, al menos ancho*alto
+     */
+    public FingerprintRaster(byte[] datos, int ancho, int alto) {
+        this.ancho = ancho;
+        this.alto = alto;
+        this.salto = ancho;
+        this.inicio = 0;
+        this.datos = datos;
+    }
+
+    /**
+     * raster sobre una parte de otro, sin copiarlo
+     */
+    private FingerprintRaster(byte[] datos, int ancho, int alto, int salto, int inicio) {
+        this.ancho = ancho;
+        this.alto = alto;
+        this.salto = salto;
+        this.inicio = inicio;
+        this.datos = datos;
+    }
+
+    /**
+     * vista del rectangulo de ancho x alto con esquina en (x, y), comparte los pixeles con este raster
+     * lo que se escribe en la vista se escribe en este raster, limpiar sobre una vista limpia todo el array
+     */
+    public FingerprintRaster vista(int x, int y, int ancho, int alto) {
+        return new FingerprintRaster(datos, ancho, alto, salto, indice(x, y));
+    }
+
+    public int getAncho() {
+        return ancho;
+    }
+
+    public int getAlto() {
+        return alto;
+    }
+
+    public int getSalto() {
+        return salto;
+    }
+
+    /**
+     * array con todos los pixeles, en una vista tambien los de fuera de ella
+     */
+    public byte[] getDatos() {
+        return datos;
+    }
+
+    /**
+     * posicion en el array del primer pixel de la fila y
+     */
+    public int fila(int y) {
+        return inicio + y * salto;
+    }
+
+    /**
+     * posicion en el array del pixel (x, y)
+     */
+    public int indice(int x, int y) {
+        return inicio + y * salto + x;
+    }
+
+    /**
+     * valor del pixel de 0 a 255
+     */
+    public int get(int x, int y) {
+        return datos[inicio + y * salto + x] & 0xFF;
+    }
+
+    public void set(int x, int y, int valor) {
+        datos[inicio + y * salto + x] = (byte) valor;
+    }
+
+    /**
+     * copia la fila y en el array de destino, ancho valores de 0 a 255
+     */
+    public void leerFila(int y, int[] destino) {
+        int origen = fila(y);
+        for (int x = 0; x < ancho; x++) {
+            destino[x] = datos[origen + x] & 0xFF;
+        }
+    }
+
+    /**
+     * pone todo el array a 0
+     */
+    public void limpiar() {
+        Arrays.fill(datos, (byte) 0);
+    }
+
+    /**
+     * copia de la imagen en un array propio
+     */
+    public FingerprintRaster copia() {
+        FingerprintRaster copia = new FingerprintRaster(ancho, alto);
+        for (int y = 0; y < alto; y++) {
+            System.arraycopy(datos, fila(y), copia.datos, y * ancho, ancho);
+        }
+        return copia;
+    }
+
+    /**
+     * indica si otro raster tiene el mismo tamaño y los mismos pixeles, aunque sean vistas con otro salto
+     */
+    public boolean mismosPixeles(FingerprintRaster otro) {
+        if (otro.ancho != ancho || otro.alto != alto) {
+            return false;
+        }
+        for (int y = 0; y < alto; y++) {
+            int propia = fila(y);
+            int ajena = otro.fila(y);
+            for (int x = 0; x < ancho; x++) {
+                if (datos[propia + x] != otro.datos[ajena + x]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * pasa una matriz [x][y] a raster
+     *
+     * @param matriz con la matriz de entrada
+     * @return raster con los mismos valores
+     */
+    public static FingerprintRaster desdeMatriz(int[][] matriz) {
+        FingerprintRaster raster = new FingerprintRaster(matriz.length, matriz[0].length);
+        for (int x = 0; x < raster.ancho; x++) {
+            for (int y = 0; y < raster.alto; y++) {
+                raster.datos[y * raster.salto + x] = (byte) matriz[x][y];
+            }
+        }
+        return raster;
+    }
+
+    /**
+     * pasa el raster a matriz [x][y], para comparar con las implementaciones de referencia
+     *
+     * @return matriz con los mismos valores
+     */
+    public int[][] aMatriz() {
+        int[][] matriz = new int[ancho][alto];
+        for (int y = 0; y < alto; y++) {
+            int origen = fila(y);
+            for (int x = 0; x < ancho; x++) {
+                matriz[x][y] = datos[origen + x] & 0xFF;
+            }
+        }
+        return matriz;
+    }
+}
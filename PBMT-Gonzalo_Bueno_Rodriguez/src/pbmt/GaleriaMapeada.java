@@ -0,0 +1,360 @@
+package pbmt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * galeria de plantillas en un archivo mapeado en memoria, se abre sin leer ni deserializar las plantillas
+ * y cada plantilla es una vista de PlantillaHuella sobre el propio archivo, asi que arrancar con un millon de plantillas
+ * es leer la cabecera y la memoria de la JVM no crece con el tamaño de la galeria (el sistema carga las paginas al usarlas)
+ * junto a cada plantilla se guardan las claves de sus tripletes, para que MotorIdentificacion arranque leyendolas
+ * en lugar de volver a calcularlas de todas las plantillas
+ * formato (enteros big-endian):
+ * cabecera de 64 bytes: "PBMTGAL1", version (4 bytes), capacidad de la tabla (4), numero (4), 0 (4), fin de los datos (8), ceros
+ * tabla de capacidad enteros con la posicion de cada plantilla en el archivo, BORRADA si se ha eliminado
+ * y a continuacion las plantillas una detras de otra, cada una con el formato de PlantillaHuella.aBytes seguido del numero
+ * de claves de tripletes (4 bytes) y las claves (8 bytes cada una), ver MotorIdentificacion.clavesTripletes
+ * solo se añade al final: primero la plantilla, despues el fin de los datos, su entrada de la tabla y por ultimo el numero
+ * de la cabecera, asi que si el proceso se corta a medias la galeria se abre sin la ultima plantilla y la siguiente
+ * se escribe detras de ella, como mucho se pierden los bytes de esa plantilla
+ * eliminar solo marca la entrada, compactar reescribe el archivo sin las eliminadas
+ * el archivo se mapea entero en un solo MappedByteBuffer, no puede pasar de 2 GB (algo mas de un millon de plantillas
+ * de 50 minucias con sus claves)
+ * se puede leer desde varios hilos mientras otro inscribe, pero no mientras se compacta porque cambian los identificadores,
+ * por eso si hay un MotorIdentificacion abierto sobre la galeria solo se puede compactar con MotorIdentificacion.compactar,
+ * que para las consultas y vuelve a construir su indice
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class GaleriaMapeada implements GaleriaPlantillas, Closeable {
+    static final int BORRADA = -1;
+
+    private static final byte[] MAGICO = "PBMTGAL1".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2;//la 1 no guardaba las claves
+    private static final int BYTES_CABECERA = 64;
+    private static final int POSICION_VERSION = 8;
+    private static final int POSICION_CAPACIDAD = 12;
+    private static final int POSICION_NUMERO = 16;
+    private static final int POSICION_FIN = 24;
+    private static final int CAPACIDAD_INICIAL = 1024;
+    private static final long BYTES_MAXIMOS = Integer.MAX_VALUE;
+
+    private final Path archivo;
+    private FileChannel canal;
+    private volatile MappedByteBuffer mapa;//se cambia al crecer, las vistas ya entregadas siguen sobre el anterior
+    private int capacidad;
+    private volatile int numero;//se escribe el ultimo al inscribir, lo que ve un lector ya esta completo
+    private int finDatos;
+    private MotorIdentificacion motor;//el que indexa la galeria, null si no hay ninguno abierto
+
+    private GaleriaMapeada(Path archivo, FileChannel canal, MappedByteBuffer mapa, int capacidad, int numero, int finDatos) {
+        this.archivo = archivo;
+        this.canal = canal;
+        this.mapa = mapa;
+        this.capacidad = capacidad;
+        this.numero = numero;
+        this.finDatos = finDatos;
+    }
+
+    /**
+     * crea una galeria vacia, si el archivo existe se sobrescribe
+     *
+     * @param archivo   con la ruta del archivo
+     * @param capacidad con el numero de plantillas que caben en la tabla antes de tener que reescribir el archivo
+     * @return galeria abierta
+     * @throws IOException
+     */
+    public static GaleriaMapeada crear(Path archivo, int capacidad) throws IOException {
+        return crear(archivo, capacidad, 1 << 16);
+    }
+
+    /**
+     * crea una galeria vacia con CAPACIDAD_INICIAL entradas en la tabla
+     */
+    public static GaleriaMapeada crear(Path archivo) throws IOException {
+        return crear(archivo, CAPACIDAD_INICIAL);
+    }
+
+    private static GaleriaMapeada crear(Path archivo, int capacidad, long bytesDatos) throws IOException {
+        if (capacidad < 1) {
+            throw new IllegalArgumentException("la capacidad tiene que ser al menos 1");
+        }
+        long inicioDatos = inicioDatos(capacidad);
+        if (inicioDatos + bytesDatos > BYTES_MAXIMOS) {
+            throw new IllegalArgumentException("la galeria no puede pasar de 2 GB");
+        }
+        FileChannel canal = FileChannel.open(archivo, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, inicioDatos + bytesDatos);
+        mapa.put(0, MAGICO);
+        mapa.putInt(POSICION_VERSION, VERSION);
+        mapa.putInt(POSICION_CAPACIDAD, capacidad);
+        mapa.putInt(POSICION_NUMERO, 0);
+        mapa.putLong(POSICION_FIN, inicioDatos);
+        return new GaleriaMapeada(archivo, canal, mapa, capacidad, 0, (int) inicioDatos);
+    }
+
+    /**
+     * abre una galeria existente, solo se lee la cabecera
+     *
+     * @param archivo con la ruta del archivo
+     * @return galeria abierta
+     * @throws IOException si no se puede abrir o no es una galeria valida
+     */
+    public static GaleriaMapeada abrir(Path archivo) throws IOException {
+        FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long tamano = canal.size();
+            if (tamano < BYTES_CABECERA || tamano > BYTES_MAXIMOS) {
+                throw new IOException("no es una galeria de plantillas");
+            }
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamano);
+            byte[] magico = new byte[MAGICO.length];
+            mapa.get(0, magico);
+            if (!Arrays.equals(magico, MAGICO) || mapa.getInt(POSICION_VERSION) != VERSION) {
+                throw new IOException("no es una galeria de plantillas");
+            }
+            int capacidad = mapa.getInt(POSICION_CAPACIDAD);
+            int numero = mapa.getInt(POSICION_NUMERO);
+            long finDatos = mapa.getLong(POSICION_FIN);
+            if (capacidad < 1 || numero < 0 || numero > capacidad || finDatos < inicioDatos(capacidad) || finDatos > tamano) {
+                throw new IOException("cabecera de galeria dañada");
+            }
+            return new GaleriaMapeada(archivo, canal, mapa, capacidad, numero, (int) finDatos);
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    private static long inicioDatos(int capacidad) {
+        return BYTES_CABECERA + 4L * capacidad;
+    }
+
+    @Override
+    public int getNumero() {
+        return numero;
+    }
+
+    @Override
+    public PlantillaHuella getPlantilla(int identificador) {
+        int hasta = numero;//antes que el mapa, para que el mapa sea al menos tan reciente como el numero
+        MappedByteBuffer actual = mapa;
+        if (identificador < 0 || identificador >= hasta) {
+            throw new IndexOutOfBoundsException("identificador " + identificador + " fuera de la galeria");
+        }
+        int posicion = actual.getInt(BYTES_CABECERA + 4 * identificador);
+        return posicion == BORRADA ? null : PlantillaHuella.vista(actual, posicion);
+    }
+
+    @Override
+    public long[] getClaves(int identificador) {
+        int hasta = numero;
+        MappedByteBuffer actual = mapa;
+        if (identificador < 0 || identificador >= hasta) {
+            throw new IndexOutOfBoundsException("identificador " + identificador + " fuera de la galeria");
+        }
+        int posicion = actual.getInt(BYTES_CABECERA + 4 * identificador);
+        if (posicion == BORRADA) {
+            return null;
+        }
+        int inicio = posicion + PlantillaHuella.vista(actual, posicion).getBytes();
+        long[] claves = new long[actual.getInt(inicio)];
+        actual.slice(inicio + 4, 8 * claves.length).asLongBuffer().get(claves);
+        return claves;
+    }
+
+    /**
+     * bytes ocupados por la cabecera, la tabla y las plantillas
+     */
+    public synchronized long getBytes() {
+        return finDatos;
+    }
+
+    /**
+     * añade una plantilla al final del archivo calculando las claves de sus tripletes
+     *
+     * @throws UncheckedIOException si no se puede hacer crecer el archivo
+     */
+    @Override
+    public int agregar(PlantillaHuella plantilla) {
+        return agregar(plantilla, MotorIdentificacion.clavesTripletes(plantilla));
+    }
+
+    /**
+     * añade una plantilla y las claves de sus tripletes al final del archivo
+     * si la tabla esta llena se reescribe el archivo con el doble de capacidad, conservando los identificadores
+     *
+     * @throws UncheckedIOException si no se puede hacer crecer el archivo
+     */
+    @Override
+    public synchronized int agregar(PlantillaHuella plantilla, long[] claves) {
+        try {
+            if (numero == capacidad) {
+                reescribir(capacidad * 2, false);
+            }
+            long fin = (long) finDatos + bytesRegistro(plantilla, claves);
+            if (fin > mapa.capacity()) {
+                crecer(fin);
+            }
+            ByteBuffer destino = mapa.duplicate();
+            destino.position(finDatos);
+            plantilla.escribir(destino);
+            destino.putInt(claves.length);
+            for (long clave : claves) {
+                destino.putLong(clave);
+            }
+            mapa.putLong(POSICION_FIN, fin);//antes que el numero, una plantilla contada nunca queda despues del fin
+            int identificador = anotar(finDatos);
+            finDatos = (int) fin;
+            return identificador;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long bytesRegistro(PlantillaHuella plantilla, long[] claves) {
+        return plantilla.getBytes() + 4 + 8L * claves.length;
+    }
+
+    /**
+     * escribe la entrada de la tabla y confirma la plantilla subiendo el numero
+     */
+    private int anotar(int posicion) {
+        int identificador = numero;
+        mapa.putInt(BYTES_CABECERA + 4 * identificador, posicion);
+        mapa.putInt(POSICION_NUMERO, identificador + 1);
+        numero = identificador + 1;
+        return identificador;
+    }
+
+    /**
+     * vuelve a mapear el archivo con al menos el doble de tamaño
+     */
+    private void crecer(long necesarios) throws IOException {
+        if (necesarios > BYTES_MAXIMOS) {
+            throw new IllegalStateException("la galeria no puede pasar de 2 GB");
+        }
+        long tamano = Math.min(BYTES_MAXIMOS, Math.max(necesarios, 2L * mapa.capacity()));
+        mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamano);
+    }
+
+    /**
+     * marca una plantilla como eliminada, su espacio se recupera al compactar
+     *
+     * @param identificador con la plantilla
+     */
+    public synchronized void eliminar(int identificador) {
+        if (identificador < 0 || identificador >= numero) {
+            throw new IndexOutOfBoundsException("identificador " + identificador + " fuera de la galeria");
+        }
+        mapa.putInt(BYTES_CABECERA + 4 * identificador, BORRADA);
+    }
+
+    /**
+     * reescribe el archivo sin las plantillas eliminadas y sin espacio libre al final
+     * las que quedan se renumeran seguidas en el mismo orden
+     *
+     * @return nuevo identificador de cada identificador antiguo, BORRADA para las eliminadas
+     * @throws IOException
+     * @throws IllegalStateException si hay un MotorIdentificacion abierto sobre la galeria, su indice quedaria con los identificadores antiguos
+     */
+    public synchronized int[] compactar() throws IOException {
+        if (motor != null) {
+            throw new IllegalStateException("hay un MotorIdentificacion abierto sobre la galeria, hay que compactar con MotorIdentificacion.compactar");
+        }
+        return reescribir(capacidad, true);
+    }
+
+    /**
+     * compacta desde el motor que indexa la galeria, que tiene paradas sus consultas y reconstruye su indice despues
+     */
+    synchronized int[] compactar(MotorIdentificacion desde) throws IOException {
+        if (motor != desde) {
+            throw new IllegalStateException("la galeria no esta abierta por ese MotorIdentificacion");
+        }
+        return reescribir(capacidad, true);
+    }
+
+    /**
+     * anota el motor que indexa la galeria, solo puede haber uno porque cada motor solo indexa lo que inscribe el
+     *
+     * @throws IllegalStateException si ya hay otro motor abierto sobre la galeria
+     */
+    synchronized void vincular(MotorIdentificacion motor) {
+        if (this.motor != null && this.motor != motor) {
+            throw new IllegalStateException("ya hay un MotorIdentificacion abierto sobre la galeria");
+        }
+        this.motor = motor;
+    }
+
+    /**
+     * quita el motor al cerrarlo, despues se puede compactar directamente o abrir otro
+     */
+    synchronized void desvincular(MotorIdentificacion motor) {
+        if (this.motor == motor) {
+            this.motor = null;
+        }
+    }
+
+    /**
+     * copia la galeria a un archivo temporal, lo mueve sobre el original y sigue trabajando sobre el nuevo
+     * el canal abierto sobre el temporal sigue valiendo despues de moverlo
+     */
+    private int[] reescribir(int nuevaCapacidad, boolean quitarBorradas) throws IOException {
+        int antiguas = numero;
+        long bytesDatos = 0;
+        for (int i = 0; i < antiguas; i++) {
+            PlantillaHuella plantilla = getPlantilla(i);
+            bytesDatos += plantilla == null ? 0 : bytesRegistro(plantilla, getClaves(i));
+        }
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+        GaleriaMapeada nueva = crear(temporal, Math.max(nuevaCapacidad, 1), bytesDatos);
+        int[] nuevos = new int[antiguas];
+        for (int i = 0; i < antiguas; i++) {
+            PlantillaHuella plantilla = getPlantilla(i);
+            if (plantilla != null) {
+                nuevos[i] = nueva.agregar(plantilla, getClaves(i));
+            } else if (quitarBorradas) {
+                nuevos[i] = BORRADA;
+            } else {
+                nuevos[i] = nueva.anotar(BORRADA);
+            }
+        }
+        nueva.mapa.force();
+        Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        canal.close();
+        canal = nueva.canal;
+        mapa = nueva.mapa;
+        capacidad = nueva.capacidad;
+        finDatos = nueva.finDatos;
+        numero = nueva.numero;
+        return nuevos;
+    }
+
+    /**
+     * escribe en disco los cambios pendientes
+     */
+    public synchronized void sincronizar() {
+        mapa.force();
+    }
+
+    /**
+     * cierra el archivo, las plantillas ya entregadas se pueden seguir leyendo
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        mapa.force();
+        canal.close();
+    }
+}
@@ -0,0 +1,30 @@
+package pbmt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * galeria con las plantillas en una lista en memoria, no admite eliminar
+ * no es segura entre hilos, MotorIdentificacion la protege con su cerrojo
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class GaleriaMemoria implements GaleriaPlantillas {
+    private final List<PlantillaHuella> plantillas = new ArrayList<>();
+
+    @Override
+    public int getNumero() {
+        return plantillas.size();
+    }
+
+    @Override
+    public PlantillaHuella getPlantilla(int identificador) {
+        return plantillas.get(identificador);
+    }
+
+    @Override
+    public int agregar(PlantillaHuella plantilla) {
+        plantillas.add(plantilla);
+        return plantillas.size() - 1;
+    }
+}
@@ -0,0 +1,51 @@
+package pbmt;
+
+/**
+ * almacen de plantillas de una galeria, el identificador de cada plantilla es su posicion
+ * puede estar en memoria (GaleriaMemoria) o en un archivo mapeado (GaleriaMapeada)
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public interface GaleriaPlantillas {
+    /**
+     * numero de posiciones, incluidas las de plantillas eliminadas
+     */
+    int getNumero();
+
+    /**
+     * plantilla de una posicion
+     *
+     * @param identificador con la posicion
+     * @return plantilla, o null si se ha eliminado
+     */
+    PlantillaHuella getPlantilla(int identificador);
+
+    /**
+     * añade una plantilla al final
+     *
+     * @param plantilla con las minucias
+     * @return identificador de la plantilla
+     */
+    int agregar(PlantillaHuella plantilla);
+
+    /**
+     * añade una plantilla con las claves de sus tripletes ya calculadas, las galerias que no las guardan las ignoran
+     *
+     * @param plantilla con las minucias
+     * @param claves    con las claves de MotorIdentificacion.clavesTripletes
+     * @return identificador de la plantilla
+     */
+    default int agregar(PlantillaHuella plantilla, long[] claves) {
+        return agregar(plantilla);
+    }
+
+    /**
+     * claves de tripletes guardadas con la plantilla, para indexar la galeria sin recalcularlas
+     *
+     * @param identificador con la posicion
+     * @return claves, o null si la galeria no las guarda o la plantilla se ha eliminado
+     */
+    default long[] getClaves(int identificador) {
+        return null;
+    }
+}
@@ -0,0 +1,97 @@
+package pbmt;
+
+import java.util.Random;
+
+/**
+ * plantillas de minucias sinteticas para medir la identificacion con galerias grandes sin tener miles de huellas reales
+ * cada dedo es un conjunto aleatorio de minucias separadas entre si, y cada captura de ese dedo
+ * lo gira, lo desplaza, mueve un poco cada minucia, pierde algunas y añade otras falsas, como pasa entre dos capturas reales
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class GaleriaSintetica {
+    static final int ANCHO = 315;//tamaño de una captura a 500 dpi, como HuellaSintetica.aResolucion(500)
+    static final int ALTO = 394;
+    private static final int SEPARACION_MINIMA = 10;
+
+    private GaleriaSintetica() {
+    }
+
+    /**
+     * plantilla aleatoria de un dedo, siempre la misma para la misma semilla
+     *
+     * @param semilla con la semilla del dedo
+     * @return plantilla con entre 35 y 65 minucias
+     */
+    public static PlantillaHuella dedo(long semilla) {
+        Random aleatorio = new Random(semilla);
+        int numero = 35 + aleatorio.nextInt(31);
+        int[] xs = new int[numero], ys = new int[numero];
+        byte[] registros = new byte[numero * PlantillaHuella.BYTES_MINUCIA];
+        int colocadas = 0;
+        for (int intento = 0; colocadas < numero && intento < numero * 50; intento++) {
+            int x = 30 + aleatorio.nextInt(ANCHO - 60), y = 30 + aleatorio.nextInt(ALTO - 60);
+            boolean separada = true;
+            for (int k = 0; k < colocadas && separada; k++) {
+                separada = Math.abs(xs[k] - x) >= SEPARACION_MINIMA || Math.abs(ys[k] - y) >= SEPARACION_MINIMA;
+            }
+            if (separada) {
+                xs[colocadas] = x;
+                ys[colocadas] = y;
+                PlantillaHuella.escribirMinucia(registros, colocadas++, x, y, aleatorio.nextInt(256), aleatorio.nextInt(2));
+            }
+        }
+        return new PlantillaHuella(ANCHO, ALTO, colocadas, registros);
+    }
+
+    /**
+     * otra captura del mismo dedo
+     *
+     * @param dedo      con la plantilla original
+     * @param aleatorio con el generador de la perturbacion
+     * @param grados    con el giro maximo en grados, a cada lado
+     * @param desplazamiento con el desplazamiento maximo en pixeles
+     * @param ruido     con el movimiento maximo de cada minucia en pixeles
+     * @param perdidas  con la fraccion de minucias que se pierden
+     * @param falsas    con la fraccion de minucias falsas que se añaden
+     * @return plantilla de la nueva captura
+     */
+    public static PlantillaHuella captura(PlantillaHuella dedo, Random aleatorio, double grados, int desplazamiento, int ruido,
+                                          double perdidas, double falsas) {
+        double giro = Math.toRadians((aleatorio.nextDouble() * 2 - 1) * grados);
+        int codigoGiro = PlantillaHuella.codificarAngulo(giro);
+        double coseno = Math.cos(giro), seno = Math.sin(giro);
+        int tx = aleatorio.nextInt(2 * desplazamiento + 1) - desplazamiento;
+        int ty = aleatorio.nextInt(2 * desplazamiento + 1) - desplazamiento;
+        double cx = ANCHO / 2.0, cy = ALTO / 2.0;
+        int maximo = dedo.getNumero() + (int) Math.ceil(dedo.getNumero() * falsas);
+        byte[] registros = new byte[maximo * PlantillaHuella.BYTES_MINUCIA];
+        int numero = 0;
+        for (int i = 0; i < dedo.getNumero(); i++) {
+            if (aleatorio.nextDouble() < perdidas) {
+                continue;
+            }
+            double x = dedo.getX(i) - cx, y = dedo.getY(i) - cy;
+            int nx = (int) Math.round(x * coseno - y * seno + cx + tx) + aleatorio.nextInt(2 * ruido + 1) - ruido;
+            int ny = (int) Math.round(x * seno + y * coseno + cy + ty) + aleatorio.nextInt(2 * ruido + 1) - ruido;
+            if (nx < 0 || ny < 0 || nx >= ANCHO || ny >= ALTO) {
+                continue;
+            }
+            int angulo = (dedo.getAngulo(i) + codigoGiro + aleatorio.nextInt(9) - 4) & 0xFF;
+            PlantillaHuella.escribirMinucia(registros, numero++, nx, ny, angulo, dedo.getTipo(i));
+        }
+        int numFalsas = (int) Math.round(dedo.getNumero() * falsas);
+        for (int k = 0; k < numFalsas; k++) {
+            PlantillaHuella.escribirMinucia(registros, numero++, aleatorio.nextInt(ANCHO), aleatorio.nextInt(ALTO),
+                    aleatorio.nextInt(256), aleatorio.nextInt(2));
+        }
+        return new PlantillaHuella(ANCHO, ALTO, numero, registros);
+    }
+
+    /**
+     * captura con la perturbacion tipica entre dos capturas: 20 grados, 30 pixeles, 2 pixeles de ruido, 15% perdidas y 10% falsas
+     */
+    public static PlantillaHuella captura(PlantillaHuella dedo, Random aleatorio) {
+        return captura(dedo, aleatorio, 20, 30, 2, 0.15, 0.10);
+    }
+}
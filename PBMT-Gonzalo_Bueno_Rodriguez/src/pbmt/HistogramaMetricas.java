@@ -0,0 +1,118 @@
+package pbmt;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * histograma de valores enteros no negativos (nanosegundos, pixeles...) que se puede actualizar desde varios hilos sin cerrojos
+ * las cubetas son log-lineales: 8 por cada potencia de 2, asi cualquier valor cae en una cubeta de como mucho un 12.5% de ancho
+ * y 488 cubetas cubren hasta 2^63, registrar es calcular la cubeta e incrementar un contador atomico
+ * los percentiles se calculan al consultar y devuelven el limite superior de la cubeta
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class HistogramaMetricas {
+    private static final int BITS_SUBCUBETA = 3;
+    private static final int SUBCUBETAS = 1 << BITS_SUBCUBETA;
+    private static final int CUBETAS = (64 - BITS_SUBCUBETA) * SUBCUBETAS;
+
+    private final AtomicLongArray cuentas = new AtomicLongArray(CUBETAS);
+    private final LongAdder cuenta = new LongAdder();
+    private final LongAdder suma = new LongAdder();
+    private final AtomicLong maximo = new AtomicLong();
+
+    /**
+     * añade un valor, los negativos cuentan como 0
+     */
+    public void registrar(long valor) {
+        valor = Math.max(valor, 0);
+        cuentas.incrementAndGet(cubeta(valor));
+        cuenta.increment();
+        suma.add(valor);
+        long anterior;
+        while (valor > (anterior = maximo.get()) && !maximo.compareAndSet(anterior, valor)) {
+            //otro hilo ha subido el maximo a la vez, se vuelve a comparar
+        }
+    }
+
+    /**
+     * cubeta de un valor: los menores de SUBCUBETAS cada uno en la suya, el resto por exponente y los 3 bits siguientes
+     */
+    static int cubeta(long valor) {
+        if (valor < SUBCUBETAS) {
+            return (int) valor;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int sub = (int) (valor >>> (exponente - BITS_SUBCUBETA)) & (SUBCUBETAS - 1);
+        return (exponente - BITS_SUBCUBETA + 1) * SUBCUBETAS + sub;
+    }
+
+    /**
+     * menor valor de una cubeta
+     */
+    static long limiteInferior(int cubeta) {
+        if (cubeta < SUBCUBETAS) {
+            return cubeta;
+        }
+        int exponente = cubeta / SUBCUBETAS + BITS_SUBCUBETA - 1;
+        return (long) (SUBCUBETAS + cubeta % SUBCUBETAS) << (exponente - BITS_SUBCUBETA);
+    }
+
+    public long getCuenta() {
+        return cuenta.sum();
+    }
+
+    public long getSuma() {
+        return suma.sum();
+    }
+
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    public double getMedia() {
+        long n = getCuenta();
+        return n == 0 ? 0 : (double) getSuma() / n;
+    }
+
+    /**
+     * valor por debajo del cual queda la fraccion q de los registros
+     *
+     * @param q con la fraccion, de 0 a 1, por ejemplo 0.99 para el p99
+     * @return limite superior de la cubeta del percentil, sin pasar del maximo, o 0 si no hay registros
+     */
+    public long percentil(double q) {
+        long[] copia = new long[CUBETAS];
+        long total = 0;
+        for (int c = 0; c < CUBETAS; c++) {
+            copia[c] = cuentas.get(c);
+            total += copia[c];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(q * total));
+        long acumulado = 0;
+        for (int c = 0; c < CUBETAS; c++) {
+            acumulado += copia[c];
+            if (acumulado >= objetivo) {
+                long superior = c + 1 < CUBETAS ? limiteInferior(c + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(superior, getMaximo());
+            }
+        }
+        return getMaximo();
+    }
+
+    /**
+     * vacia el histograma, no es atomico respecto a registros simultaneos
+     */
+    public void reiniciar() {
+        for (int c = 0; c < CUBETAS; c++) {
+            cuentas.set(c, 0);
+        }
+        cuenta.reset();
+        suma.reset();
+        maximo.set(0);
+    }
+}
@@ -0,0 +1,55 @@
+package pbmt;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+/**
+ * huellas sinteticas en grises con crestas concentricas y algo de ruido, para medir las etapas a distintos tamaños
+ * sin depender de escaneos reales, la misma semilla da siempre la misma imagen
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class HuellaSintetica {
+    private static final double PERIODO_MM = 0.46;//distancia media entre crestas de una huella
+    private static final double ANCHO_MM = 16;//zona de captura tipica de un lector de un dedo
+    private static final double ALTO_MM = 20;
+
+    private HuellaSintetica() {
+    }
+
+    /**
+     * huella sintetica con el tamaño y el periodo de crestas que tendria un escaneo a la resolucion indicada
+     *
+     * @param dpi con la resolucion, por ejemplo 300, 500 o 1000
+     * @return imagen TYPE_BYTE_GRAY
+     */
+    public static BufferedImage aResolucion(int dpi) {
+        double pixelesPorMm = dpi / 25.4;
+        return generar((int) Math.round(ANCHO_MM * pixelesPorMm), (int) Math.round(ALTO_MM * pixelesPorMm), PERIODO_MM * pixelesPorMm);
+    }
+
+    /**
+     * huella sintetica con crestas concentricas alrededor de un nucleo, algo deformadas y con ruido gaussiano
+     *
+     * @param ancho   con la anchura
+     * @param alto    con la altura
+     * @param periodo con la distancia en pixeles entre crestas, unos 9 a 500 dpi
+     * @return imagen TYPE_BYTE_GRAY
+     */
+    public static BufferedImage generar(int ancho, int alto, double periodo) {
+        Random aleatorio = new Random(ancho * 7919L + alto);
+        BufferedImage imagen = new BufferedImage(ancho, alto, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = imagen.getRaster();
+        double cx = ancho / 2.0, cy = alto * 0.4;
+        for (int y = 0; y < alto; y++) {
+            for (int x = 0; x < ancho; x++) {
+                double dx = x - cx, dy = (y - cy) * 1.3;
+                double radio = Math.sqrt(dx * dx + dy * dy) + 3 * Math.sin(x / 40.0) * Math.cos(y / 55.0);
+                int nivel = (int) (128 + 90 * Math.sin(2 * Math.PI * radio / periodo) + aleatorio.nextGaussian() * 20);
+                raster.setSample(x, y, 0, Math.max(0, Math.min(255, nivel)));
+            }
+        }
+        return imagen;
+    }
+}
@@ -0,0 +1,562 @@
+package pbmt;
+
+/**
+ * imagen binaria empaquetada, 64 pixeles por cada long, para las etapas de binarizacion, filtrado y adelgazamiento
+ * se guarda por filas (y) y dentro de cada fila el pixel x esta en el bit x%64 de la palabra x/64
+ * los bits que sobran al final de cada fila siempre valen 0
+ * los filtros y el adelgazamiento trabajan palabra a palabra con desplazamientos, 64 pixeles por operacion,
+ * las palabras interiores de los filtros en NucleosFila, varias palabras por operacion con la Vector API,
+ * y dan exactamente el mismo resultado que las versiones con int[][] de ImplementacionReferencia
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class ImagenBinaria {
+    final int ancho;
+    final int alto;
+    final int palabrasFila;//numero de longs por fila
+    final long[] bits;//todas las filas seguidas, fila y empieza en y*palabrasFila
+
+    /**
+     * constructor, imagen toda a 0
+     *
+     * @param ancho con la anchura en pixeles
+     * @param alto  con la altura en pixeles
+     */
+    public ImagenBinaria(int ancho, int alto) {
+        this.ancho = ancho;
+        this.alto = alto;
+        this.palabrasFila = (ancho + 63) >>> 6;
+        this.bits = new long[palabrasFila * alto];
+    }
+
+    public int getAncho() {
+        return ancho;
+    }
+
+    public int getAlto() {
+        return alto;
+    }
+
+    /**
+     * numero de pixeles a 1 (blancos)
+     */
+    public long contarBlancos() {
+        long blancos = 0;
+        for (long palabra : bits) {
+            blancos += Long.bitCount(palabra);
+        }
+        return blancos;
+    }
+
+    /**
+     * valor de un pixel
+     *
+     * @return 1 o 0
+     */
+    public int get(int x, int y) {
+        return (int) (bits[y * palabrasFila + (x >>> 6)] >>> (x & 63)) & 1;
+    }
+
+    /**
+     * cambia el valor de un pixel
+     *
+     * @param valor con 0 o 1
+     */
+    public void set(int x, int y, int valor) {
+        int i = y * palabrasFila + (x >>> 6);
+        long bit = 1L << (x & 63);
+        if (valor != 0) {
+            bits[i] |= bit;
+        } else {
+            bits[i] &= ~bit;
+        }
+    }
+
+    /**
+     * pasa una matriz binaria [x][y] de 0 y 1 a imagen empaquetada
+     *
+     * @param matriz con la matriz de entrada
+     * @return imagen empaquetada
+     */
+    public static ImagenBinaria desdeMatriz(int[][] matriz) {
+        ImagenBinaria imagen = new ImagenBinaria(matriz.length, matriz[0].length);
+        for (int x = 0; x < imagen.ancho; x++) {
+            for (int y = 0; y < imagen.alto; y++) {
+                if (matriz[x][y] != 0) {
+                    imagen.bits[y * imagen.palabrasFila + (x >>> 6)] |= 1L << (x & 63);
+                }
+            }
+        }
+        return imagen;
+    }
+
+    /**
+     * binariza directamente un raster de grises con un umbral, igual que convertirImagenAByN
+     * por debajo del umbral 0 (negro), si no 1 (blanco)
+     *
+     * @param grises con el raster de grises
+     * @param umbral con el umbral
+     * @return imagen empaquetada
+     */
+    public static ImagenBinaria binarizar(FingerprintRaster grises, int umbral) {
+        ImagenBinaria imagen = new ImagenBinaria(grises.ancho, grises.alto);
+        NucleosFila nucleos = NucleosFila.activos();
+        for (int y = 0; y < imagen.alto; y++) {
+            nucleos.empaquetar(grises.datos, grises.fila(y), imagen.ancho, umbral, imagen.bits, y * imagen.palabrasFila);
+        }
+        return imagen;
+    }
+
+    /**
+     * pasa un raster binario de 0 y 1 a imagen empaquetada
+     *
+     * @param raster con el raster de entrada
+     * @return imagen empaquetada
+     */
+    public static ImagenBinaria desdeRaster(FingerprintRaster raster) {
+        ImagenBinaria imagen = new ImagenBinaria(raster.ancho, raster.alto);
+        NucleosFila nucleos = NucleosFila.activos();
+        for (int y = 0; y < imagen.alto; y++) {
+            nucleos.empaquetarBinario(raster.datos, raster.fila(y), imagen.ancho, imagen.bits, y * imagen.palabrasFila);
+        }
+        return imagen;
+    }
+
+    /**
+     * pasa la imagen empaquetada a un raster de 0 y 1
+     *
+     * @return raster binario
+     */
+    public FingerprintRaster aRaster() {
+        FingerprintRaster raster = new FingerprintRaster(ancho, alto);
+        NucleosFila nucleos = NucleosFila.activos();
+        for (int y = 0; y < alto; y++) {
+            nucleos.desempaquetar(bits, y * palabrasFila, ancho, raster.datos, raster.fila(y));
+        }
+        return raster;
+    }
+
+    /**
+     * pasa la imagen empaquetada a matriz [x][y] de 0 y 1, para escribirla a archivo
+     *
+     * @return matriz binaria
+     */
+    public int[][] aMatriz() {
+        int[][] matriz = new int[ancho][alto];
+        for (int x = 0; x < ancho; x++) {
+            for (int y = 0; y < alto; y++) {
+                matriz[x][y] = get(x, y);
+            }
+        }
+        return matriz;
+    }
+
+    /**
+     * palabra i de la fila que empieza en inicio con cada pixel x sustituido por su vecino x-1
+     */
+    private long izquierda(int inicio, int i) {
+        long palabra = bits[inicio + i] << 1;
+        if (i > 0) {
+            palabra |= bits[inicio + i - 1] >>> 63;//el ultimo pixel de la palabra anterior entra por el bit 0
+        }
+        return palabra;
+    }
+
+    /**
+     * palabra i de la fila que empieza en inicio con cada pixel x sustituido por su vecino x+1
+     */
+    private long derecha(int inicio, int i) {
+        long palabra = bits[inicio + i] >>> 1;
+        if (i + 1 < palabrasFila) {
+            palabra |= bits[inicio + i + 1] << 63;//el primer pixel de la palabra siguiente entra por el bit 63
+        }
+        return palabra;
+    }
+
+    /**
+     * mascara de la palabra i con los pixeles interiores de una fila, x de 1 a ancho-2, los bordes no se tratan
+     */
+    private long mascaraInterior(int i) {
+        long mascara = -1L;
+        if (i == 0) {
+            mascara &= ~1L;//x=0
+        }
+        int ultimo = ancho - 1;//el ultimo pixel tampoco se trata, ni los bits de relleno
+        if (i == ultimo >>> 6) {
+            mascara &= (1L << (ultimo & 63)) - 1;
+        } else if (i > ultimo >>> 6) {
+            mascara = 0;
+        }
+        return mascara;
+    }
+
+    /**
+     * primer filtro binario empaquetado, filtro = p+b.g.(d+e)+d.e.(b+g)
+     * mismo resultado que filtroBinario1 de ImplementacionReferencia, los bordes quedan a 0
+     *
+     * @return nueva imagen con el filtro aplicado
+     */
+    public ImagenBinaria filtroBinario1() {
+        ImagenBinaria salida = new ImagenBinaria(ancho, alto);
+        filtroBinario1(salida);
+        return salida;
+    }
+
+    /**
+     * primer filtro binario empaquetado escribiendo en una imagen ya creada del mismo tamaño
+     *
+     * @param salida con la imagen de salida, no puede ser esta misma
+     */
+    public void filtroBinario1(ImagenBinaria salida) {
+        filtroBinario1(salida, 0, alto);
+    }
+
+    /**
+     * primer filtro binario solo sobre las filas de yDesde a yHasta-1 de la salida, para repartirlo en franjas
+     * solo lee esta imagen, asi que varias franjas pueden ejecutarse a la vez
+     *
+     * @param salida con la imagen de salida, no puede ser esta misma
+     * @param yDesde con la primera fila, incluida
+     * @param yHasta con la ultima fila, excluida
+     */
+    void filtroBinario1(ImagenBinaria salida, int yDesde, int yHasta) {
+        filtroBinario1(salida, yDesde, yHasta, 0, palabrasFila);
+    }
+
+    /**
+     * primer filtro binario solo sobre las palabras de iDesde a iHasta-1 de las filas de yDesde a yHasta-1 de la salida,
+     * para no recorrer el fondo fuera de la caja de una MascaraSegmentacion
+     */
+    void filtroBinario1(ImagenBinaria salida, int yDesde, int yHasta, int iDesde, int iHasta) {
+        NucleosFila nucleos = NucleosFila.activos();//las palabras interiores, las de los bordes aqui
+        for (int y = yDesde; y < yHasta; y++) {
+            int fila = y * palabrasFila;
+            if (y == 0 || y == alto - 1) {//los bordes quedan a 0
+                java.util.Arrays.fill(salida.bits, fila + iDesde, fila + iHasta, 0L);
+                continue;
+            }
+            int desde = Math.max(iDesde, 1), hasta = Math.min(iHasta, palabrasFila - 1);
+            for (int i = iDesde; i < Math.min(desde, iHasta); i++) {
+                salida.bits[fila + i] = filtroBinario1(fila, i);
+            }
+            if (hasta > desde) {
+                nucleos.filtroBinario1(bits, fila + desde, palabrasFila, salida.bits, hasta - desde);
+            }
+            for (int i = Math.max(desde, hasta); i < iHasta; i++) {
+                salida.bits[fila + i] = filtroBinario1(fila, i);
+            }
+        }
+    }
+
+    /**
+     * palabra i del primer filtro de la fila que empieza en fila, con los bordes y los bits de relleno a 0
+     */
+    private long filtroBinario1(int fila, int i) {
+        long p = bits[fila + i];//centro
+        long b = izquierda(fila, i);//x-1
+        long g = derecha(fila, i);//x+1
+        long d = bits[fila - palabrasFila + i];//y-1
+        long e = bits[fila + palabrasFila + i];//y+1
+        return (p | b & g & (d | e) | d & e & (b | g)) & mascaraInterior(i);
+    }
+
+    /**
+     * segundo filtro binario empaquetado, filtro = p.[(a+b+d).(e+g+h)+(b+c+e).(d+f+g)]
+     * mismo resultado que filtroBinario2 de ImplementacionReferencia, los bordes quedan a 0
+     *
+     * @return nueva imagen con el filtro aplicado
+     */
+    public ImagenBinaria filtroBinario2() {
+        ImagenBinaria salida = new ImagenBinaria(ancho, alto);
+        filtroBinario2(salida);
+        return salida;
+    }
+
+    /**
+     * segundo filtro binario empaquetado escribiendo en una imagen ya creada del mismo tamaño
+     *
+     * @param salida con la imagen de salida, no puede ser esta misma
+     */
+    public void filtroBinario2(ImagenBinaria salida) {
+        filtroBinario2(salida, 0, alto);
+    }
+
+    /**
+     * segundo filtro binario solo sobre las filas de yDesde a yHasta-1 de la salida, para repartirlo en franjas
+     *
+     * @param salida con la imagen de salida, no puede ser esta misma
+     * @param yDesde con la primera fila, incluida
+     * @param yHasta con la ultima fila, excluida
+     */
+    void filtroBinario2(ImagenBinaria salida, int yDesde, int yHasta) {
+        filtroBinario2(salida, yDesde, yHasta, 0, palabrasFila);
+    }
+
+    /**
+     * segundo filtro binario solo sobre las palabras de iDesde a iHasta-1 de las filas de yDesde a yHasta-1 de la salida
+     */
+    void filtroBinario2(ImagenBinaria salida, int yDesde, int yHasta, int iDesde, int iHasta) {
+        NucleosFila nucleos = NucleosFila.activos();//las palabras interiores, las de los bordes aqui
+        for (int y = yDesde; y < yHasta; y++) {
+            int fila = y * palabrasFila;
+            if (y == 0 || y == alto - 1) {
+                java.util.Arrays.fill(salida.bits, fila + iDesde, fila + iHasta, 0L);
+                continue;
+            }
+            int desde = Math.max(iDesde, 1), hasta = Math.min(iHasta, palabrasFila - 1);
+            for (int i = iDesde; i < Math.min(desde, iHasta); i++) {
+                salida.bits[fila + i] = filtroBinario2(fila, i);
+            }
+            if (hasta > desde) {
+                nucleos.filtroBinario2(bits, fila + desde, palabrasFila, salida.bits, hasta - desde);
+            }
+            for (int i = Math.max(desde, hasta); i < iHasta; i++) {
+                salida.bits[fila + i] = filtroBinario2(fila, i);
+            }
+        }
+    }
+
+    /**
+     * palabra i del segundo filtro de la fila que empieza en fila, con los bordes y los bits de relleno a 0
+     */
+    private long filtroBinario2(int fila, int i) {
+        int arriba = fila - palabrasFila;
+        int abajo = fila + palabrasFila;
+        long p = bits[fila + i];
+        long b = izquierda(fila, i);//[x-1][y]
+        long g = derecha(fila, i);//[x+1][y]
+        long d = bits[arriba + i];//[x][y-1]
+        long e = bits[abajo + i];//[x][y+1]
+        long a = izquierda(arriba, i);//[x-1][y-1]
+        long f = derecha(arriba, i);//[x+1][y-1]
+        long c = izquierda(abajo, i);//[x-1][y+1]
+        long h = derecha(abajo, i);//[x+1][y+1]
+        return p & ((a | b | d) & (e | g | h) | (b | c | e) & (d | f | g)) & mascaraInterior(i);
+    }
+
+    /**
+     * adelgazamiento de Zhang-Suen empaquetado, mismas 2 sub-iteraciones y condiciones que adelgazamientoZhangSuen
+     * pero evaluando 64 pixeles a la vez con operaciones logicas:
+     * A(P1)==1 es "exactamente una transicion 01", 2<=B(P1)<=6 es "al menos 2 unos y al menos 2 ceros" entre los 8 vecinos
+     *
+     * @return nueva imagen adelgazada
+     */
+    public ImagenBinaria adelgazamientoZhangSuen() {
+        ImagenBinaria salida = new ImagenBinaria(ancho, alto);
+        adelgazamientoZhangSuen(salida, new ImagenBinaria(ancho, alto));
+        return salida;
+    }
+
+    /**
+     * adelgazamiento de Zhang-Suen empaquetado sobre imagenes ya creadas del mismo tamaño
+     *
+     * @param salida  con la imagen de salida, no puede ser esta misma
+     * @param marcas  con la imagen auxiliar para marcar los pixeles a borrar, equivale a pixelesACambiar
+     * @return numero de pasadas completas (las 2 sub-iteraciones) realizadas
+     */
+    public int adelgazamientoZhangSuen(ImagenBinaria salida, ImagenBinaria marcas) {
+        return adelgazamientoZhangSuen(salida, marcas, 0, alto, 0, palabrasFila);
+    }
+
+    /**
+     * adelgazamiento de Zhang-Suen empaquetado solo sobre las palabras de iDesde a iHasta-1 de las filas de yDesde a yHasta-1,
+     * la caja de una MascaraSegmentacion, fuera de la caja la salida no se toca
+     * solo se marcan pixeles negros y los de la caja nunca tocan su borde, que es margen de fondo o borde de la imagen,
+     * asi que da lo mismo que adelgazar toda la imagen
+     *
+     * @param salida con la imagen de salida, no puede ser esta misma
+     * @param marcas con la imagen auxiliar para marcar los pixeles a borrar
+     * @return numero de pasadas completas (las 2 sub-iteraciones) realizadas
+     */
+    public int adelgazamientoZhangSuen(ImagenBinaria salida, ImagenBinaria marcas, int yDesde, int yHasta, int iDesde, int iHasta) {
+        //primero invertimos la imagen de entrada, los 0 a 1 y viceversa, sin tocar los bits de relleno
+        invertir(salida, yDesde, yHasta, iDesde, iHasta);
+        boolean cambiado;
+        int pasadas = 0;
+        do {
+            cambiado = salida.subIteracionZhangSuen(marcas, true, yDesde, yHasta, iDesde, iHasta);
+            cambiado |= salida.subIteracionZhangSuen(marcas, false, yDesde, yHasta, iDesde, iHasta);
+            pasadas++;
+        } while (cambiado);
+        //restauramos la imagen previamente invertida, ahora ya adelgazada
+        salida.invertir(salida, yDesde, yHasta, iDesde, iHasta);
+        return pasadas;
+    }
+
+    /**
+     * escribe en salida las filas de yDesde a yHasta-1 de esta imagen invertidas, sin tocar los bits de relleno
+     * salida puede ser esta misma imagen
+     */
+    void invertir(ImagenBinaria salida, int yDesde, int yHasta) {
+        invertir(salida, yDesde, yHasta, 0, palabrasFila);
+    }
+
+    /**
+     * invierte solo las palabras de iDesde a iHasta-1 de las filas de yDesde a yHasta-1
+     */
+    void invertir(ImagenBinaria salida, int yDesde, int yHasta, int iDesde, int iHasta) {
+        for (int y = yDesde; y < yHasta; y++) {
+            int fila = y * palabrasFila;
+            for (int i = iDesde; i < iHasta; i++) {
+                salida.bits[fila + i] = ~bits[fila + i] & mascaraFila(i);
+            }
+        }
+    }
+
+    /**
+     * mascara de la palabra i con todos los pixeles validos de una fila, sin los bits de relleno
+     */
+    private long mascaraFila(int i) {
+        int sobrantes = palabrasFila * 64 - ancho;
+        return i == palabrasFila - 1 ? -1L >>> sobrantes : -1L;
+    }
+
+    /**
+     * pone en blanco todo lo que queda fuera de las palabras de iDesde a iHasta-1 de las filas de yDesde a yHasta-1
+     * con bordes las filas y columnas del borde de la imagen quedan a 0, que es lo que dejan los filtros sobre un fondo blanco
+     * y lo que el adelgazamiento deja sin tocar
+     */
+    void rellenarFuera(int yDesde, int yHasta, int iDesde, int iHasta, boolean bordes) {
+        for (int y = 0; y < alto; y++) {
+            int fila = y * palabrasFila;
+            boolean dentro = y >= yDesde && y < yHasta && iDesde < iHasta;
+            for (int i = 0; i < palabrasFila; i++) {
+                if (dentro && i == iDesde) {
+                    i = iHasta - 1;
+                    continue;
+                }
+                bits[fila + i] = !bordes ? mascaraFila(i) : y == 0 || y == alto - 1 ? 0 : mascaraInterior(i);
+            }
+        }
+    }
+
+    /**
+     * una sub-iteracion de Zhang-Suen sobre esta imagen (ya invertida), primero marca todos los pixeles y luego los borra
+     *
+     * @param marcas  con la imagen auxiliar de marcas
+     * @param primera true para la primera sub-iteracion (P2.P4.P6=0 y P4.P6.P8=0), false para la segunda (P2.P4.P8=0 y P2.P6.P8=0)
+     * @return true si se ha borrado algun pixel
+     */
+    boolean subIteracionZhangSuen(ImagenBinaria marcas, boolean primera) {
+        return subIteracionZhangSuen(marcas, primera, 0, alto, 0, palabrasFila);
+    }
+
+    /**
+     * una sub-iteracion de Zhang-Suen solo sobre las palabras de iDesde a iHasta-1 de las filas de yDesde a yHasta-1
+     */
+    boolean subIteracionZhangSuen(ImagenBinaria marcas, boolean primera, int yDesde, int yHasta, int iDesde, int iHasta) {
+        if (marcarZhangSuen(marcas, primera, yDesde, yHasta, iDesde, iHasta) == 0) {
+            return false;
+        }
+        borrarMarcas(marcas, yDesde, yHasta, iDesde, iHasta);
+        return true;
+    }
+
+    /**
+     * primera mitad de una sub-iteracion: marca los pixeles a borrar de las filas de yDesde a yHasta-1 sin modificar esta imagen,
+     * asi varias franjas pueden marcarse a la vez leyendo las filas vecinas de las otras
+     *
+     * @param marcas  con la imagen auxiliar de marcas, solo se escriben las filas indicadas
+     * @param primera true para la primera sub-iteracion, false para la segunda
+     * @param yDesde  con la primera fila, incluida
+     * @param yHasta  con la ultima fila, excluida
+     * @return distinto de 0 si se ha marcado algun pixel
+     */
+    long marcarZhangSuen(ImagenBinaria marcas, boolean primera, int yDesde, int yHasta) {
+        return marcarZhangSuen(marcas, primera, yDesde, yHasta, 0, palabrasFila);
+    }
+
+    /**
+     * marca los pixeles a borrar solo en las palabras de iDesde a iHasta-1 de las filas de yDesde a yHasta-1
+     */
+    long marcarZhangSuen(ImagenBinaria marcas, boolean primera, int yDesde, int yHasta, int iDesde, int iHasta) {
+        long hayCambios = 0;
+        for (int y = Math.max(yDesde, 1); y < Math.min(yHasta, alto - 1); y++) {
+            int fila = y * palabrasFila;
+            for (int i = iDesde; i < iHasta; i++) {
+                long borrar = marcarZhangSuen(fila, i, primera) & mascaraInterior(i);
+                marcas.bits[fila + i] = borrar;
+                hayCambios |= borrar;
+            }
+        }
+        return hayCambios;
+    }
+
+    /**
+     * segunda mitad de una sub-iteracion: borra los pixeles marcados de las filas de yDesde a yHasta-1
+     * solo debe llamarse cuando todas las franjas han terminado de marcar
+     */
+    void borrarMarcas(ImagenBinaria marcas, int yDesde, int yHasta) {
+        borrarMarcas(marcas, yDesde, yHasta, 0, palabrasFila);
+    }
+
+    /**
+     * borra los pixeles marcados solo en las palabras de iDesde a iHasta-1 de las filas de yDesde a yHasta-1
+     */
+    void borrarMarcas(ImagenBinaria marcas, int yDesde, int yHasta, int iDesde, int iHasta) {
+        for (int y = Math.max(yDesde, 1); y < Math.min(yHasta, alto - 1); y++) {
+            int fila = y * palabrasFila;
+            for (int i = iDesde; i < iHasta; i++) {
+                bits[fila + i] &= ~marcas.bits[fila + i];
+            }
+        }
+    }
+
+    /**
+     * evalua las condiciones de Zhang-Suen para los 64 pixeles de la palabra i de la fila
+     *
+     * @return palabra con un 1 en los pixeles que hay que borrar
+     */
+    long marcarZhangSuen(int fila, int i, boolean primera) {
+        int arriba = fila - palabrasFila;
+        int abajo = fila + palabrasFila;
+        long P1 = bits[fila + i];
+        long P2 = izquierda(fila, i);//[x-1][y]
+        long P3 = izquierda(abajo, i);//[x-1][y+1]
+        long P4 = bits[abajo + i];//[x][y+1]
+        long P5 = derecha(abajo, i);//[x+1][y+1]
+        long P6 = derecha(fila, i);//[x+1][y]
+        long P7 = derecha(arriba, i);//[x+1][y-1]
+        long P8 = bits[arriba + i];//[x][y-1]
+        long P9 = izquierda(arriba, i);//[x-1][y-1]
+
+        //A(P1)==1: de las 8 transiciones 01 alrededor de P1 hay exactamente una
+        long t1 = ~P2 & P3, t2 = ~P3 & P4, t3 = ~P4 & P5, t4 = ~P5 & P6;
+        long t5 = ~P6 & P7, t6 = ~P7 & P8, t7 = ~P8 & P9, t8 = ~P9 & P2;
+        long Ap1Uno = alMenosUno(t1, t2, t3, t4, t5, t6, t7, t8) & ~alMenosDos(t1, t2, t3, t4, t5, t6, t7, t8);
+        //2<=B(P1)<=6: al menos 2 vecinos a 1 y como mucho 6, es decir, al menos 2 vecinos a 0
+        long Bp1 = alMenosDos(P2, P3, P4, P5, P6, P7, P8, P9) & alMenosDos(~P2, ~P3, ~P4, ~P5, ~P6, ~P7, ~P8, ~P9);
+        long condicion;
+        if (primera) {
+            condicion = ~(P2 & P4 & P6) & ~(P4 & P6 & P8);
+        } else {
+            condicion = ~(P2 & P4 & P8) & ~(P2 & P6 & P8);
+        }
+        return P1 & Ap1Uno & Bp1 & condicion;
+    }
+
+    private static long alMenosUno(long a, long b, long c, long d, long e, long f, long g, long h) {
+        return a | b | c | d | e | f | g | h;
+    }
+
+    /**
+     * bit a 1 donde al menos 2 de las 8 palabras tienen ese bit a 1
+     */
+    private static long alMenosDos(long a, long b, long c, long d, long e, long f, long g, long h) {
+        long uno = a, dos = 0;
+        dos |= uno & b;
+        uno |= b;
+        dos |= uno & c;
+        uno |= c;
+        dos |= uno & d;
+        uno |= d;
+        dos |= uno & e;
+        uno |= e;
+        dos |= uno & f;
+        uno |= f;
+        dos |= uno & g;
+        uno |= g;
+        dos |= uno & h;
+        return dos;
+    }
+}
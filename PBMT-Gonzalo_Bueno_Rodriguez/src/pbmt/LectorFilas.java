@@ -0,0 +1,249 @@
+package pbmt;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * lectura de una imagen fila a fila en niveles de gris sin tenerla entera en memoria, para ProcesadorFlujo
+ * los PGM binarios (P5) se leen directamente del fichero, una fila cada vez y en una sola pasada
+ * el resto de formatos se decodifican por bloques de filas con un ImageReader y setSourceRegion, y cada bloque se pasa a grises
+ * con ConversorRaster igual que la imagen completa; en TIFF por tiras o teselas cada bloque solo decodifica lo suyo,
+ * en JPEG, PNG y el resto el lector descomprime desde el principio hasta el bloque, asi que leer toda la imagen cuesta
+ * del orden del cuadrado del numero de bloques (decodificaDesdeElPrincipio): a mas filas por bloque menos tiempo y mas memoria,
+ * y por eso ProcesadorFlujo solo los lee asi una vez y guarda los grises en un PGM temporal para las demas lecturas
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public abstract class LectorFilas implements Closeable {
+    protected int ancho;
+    protected int alto;
+    protected int fila;//siguiente fila a leer
+
+    /**
+     * abre la imagen, PGM binario o cualquier formato con un ImageReader
+     *
+     * @param archivo     con la ruta de la imagen
+     * @param filasBloque con las filas que se decodifican de una vez con ImageReader
+     * @return lector colocado en la primera fila
+     * @throws IOException si no se puede abrir o el formato no se reconoce
+     */
+    public static LectorFilas abrir(Path archivo, int filasBloque) throws IOException {
+        byte[] firma = new byte[2];
+        try (InputStream entrada = Files.newInputStream(archivo)) {
+            if (entrada.read(firma) == 2 && firma[0] == 'P' && firma[1] == '5') {
+                return new Pgm(archivo);
+            }
+        }
+        return new PorBloques(archivo, filasBloque);
+    }
+
+    public int getAncho() {
+        return ancho;
+    }
+
+    public int getAlto() {
+        return alto;
+    }
+
+    /**
+     * lee la siguiente fila en niveles de gris de 0 a 255
+     *
+     * @param grises con el array de destino, al menos ancho bytes
+     * @throws IOException si no se puede leer o no quedan filas
+     */
+    public abstract void leerFila(byte[] grises) throws IOException;
+
+    /**
+     * bytes que el lector tiene reservados para decodificar
+     */
+    public abstract long getBytesBuffers();
+
+    /**
+     * indica si las filas se leen tal cual del fichero, sin decodificar (PGM)
+     */
+    public abstract boolean leeDirecto();
+
+    /**
+     * indica si cada bloque de filas se decodifica desde el principio de la imagen (todo menos PGM y TIFF)
+     */
+    public abstract boolean decodificaDesdeElPrincipio();
+
+    /**
+     * PGM binario de 8 bits, las muestras son ya los niveles de gris, igual que EscritorNetpbm.leer
+     */
+    private static class Pgm extends LectorFilas {
+        private final InputStream entrada;
+
+        Pgm(Path archivo) throws IOException {
+            entrada = new BufferedInputStream(Files.newInputStream(archivo), 1 << 16);
+            try {
+                entrada.skip(2);
+                ancho = leerNumero();
+                alto = leerNumero();
+                if (leerNumero() != 255) {
+                    throw new IOException("solo se leen PGM de 8 bits");
+                }
+            } catch (IOException e) {
+                entrada.close();
+                throw e;
+            }
+        }
+
+        /**
+         * numero decimal de la cabecera saltando espacios y comentarios, consume el espacio que lo sigue
+         */
+        private int leerNumero() throws IOException {
+            int c = entrada.read();
+            while (c == '#' || Character.isWhitespace(c)) {
+                if (c == '#') {
+                    while (c != '\n' && c != -1) {
+                        c = entrada.read();
+                    }
+                }
+                c = entrada.read();
+            }
+            if (c < '0' || c > '9') {
+                throw new IOException("cabecera PGM no valida");
+            }
+            int valor = 0;
+            while (c >= '0' && c <= '9') {
+                valor = valor * 10 + (c - '0');
+                c = entrada.read();
+            }
+            return valor;
+        }
+
+        @Override
+        public void leerFila(byte[] grises) throws IOException {
+            if (fila++ >= alto) {
+                throw new EOFException("no quedan filas");
+            }
+            int leidos = 0;
+            while (leidos < ancho) {
+                int n = entrada.read(grises, leidos, ancho - leidos);
+                if (n < 0) {
+                    throw new EOFException("archivo truncado");
+                }
+                leidos += n;
+            }
+        }
+
+        @Override
+        public long getBytesBuffers() {
+            return 1 << 16;
+        }
+
+        @Override
+        public boolean leeDirecto() {
+            return true;
+        }
+
+        @Override
+        public boolean decodificaDesdeElPrincipio() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            entrada.close();
+        }
+    }
+
+    /**
+     * cualquier formato de ImageIO por bloques de filas con setSourceRegion
+     */
+    private static class PorBloques extends LectorFilas {
+        private final ImageInputStream flujo;
+        private final ImageReader lector;
+        private final String formato;
+        private final FingerprintRaster bloque;//grises del bloque actual
+        private BufferedImage destino;//se reutiliza entre bloques de la misma altura
+        private int inicioBloque;
+        private int filasEnBloque;
+
+        PorBloques(Path archivo, int filasBloque) throws IOException {
+            flujo = ImageIO.createImageInputStream(archivo.toFile());
+            if (flujo == null) {
+                throw new IOException("no se puede abrir " + archivo);
+            }
+            try {
+                Iterator<ImageReader> lectores = ImageIO.getImageReaders(flujo);
+                if (!lectores.hasNext()) {
+                    throw new IOException("formato de imagen no reconocido");
+                }
+                lector = lectores.next();
+                formato = lector.getFormatName().toLowerCase(Locale.ROOT);
+                lector.setInput(flujo, false, true);//cada bloque vuelve a leer la imagen 0, sin metadatos
+                ancho = lector.getWidth(0);//con la cabecera corrupta lanzan y el flujo no llegaria a close
+                alto = lector.getHeight(0);
+                bloque = new FingerprintRaster(ancho, Math.max(1, Math.min(filasBloque, alto)));
+            } catch (IOException | RuntimeException e) {
+                flujo.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void leerFila(byte[] grises) throws IOException {
+            if (fila >= alto) {
+                throw new EOFException("no quedan filas");
+            }
+            if (fila == inicioBloque + filasEnBloque) {
+                leerBloque();
+            }
+            System.arraycopy(bloque.datos, bloque.fila(fila - inicioBloque), grises, 0, ancho);
+            fila++;
+        }
+
+        private void leerBloque() throws IOException {
+            inicioBloque = fila;
+            filasEnBloque = Math.min(bloque.alto, alto - fila);
+            ImageReadParam parametros = lector.getDefaultReadParam();
+            parametros.setSourceRegion(new Rectangle(0, inicioBloque, ancho, filasEnBloque));
+            if (destino != null && destino.getHeight() == filasEnBloque) {
+                parametros.setDestination(destino);
+            }
+            destino = lector.read(0, parametros);
+            ConversorRaster.aGrises(destino, bloque, null);
+        }
+
+        @Override
+        public long getBytesBuffers() {
+            if (destino == null) {
+                return bloque.datos.length;
+            }
+            DataBuffer datos = destino.getRaster().getDataBuffer();
+            return bloque.datos.length + (long) datos.getSize() * datos.getNumBanks() * DataBuffer.getDataTypeSize(datos.getDataType()) / 8;
+        }
+
+        @Override
+        public boolean leeDirecto() {
+            return false;
+        }
+
+        @Override
+        public boolean decodificaDesdeElPrincipio() {
+            return !formato.equals("tif") && !formato.equals("tiff");
+        }
+
+        @Override
+        public void close() throws IOException {
+            lector.dispose();
+            flujo.close();
+        }
+    }
+}
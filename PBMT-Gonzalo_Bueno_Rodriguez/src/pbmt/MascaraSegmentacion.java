@@ -0,0 +1,326 @@
+package pbmt;
+
+import java.util.Arrays;
+
+/**
+ * mascara de primer plano por bloques de 16x16 para que las etapas siguientes no recorran el fondo de la captura
+ * se calcula sobre la imagen de grises sin ecualizar en una sola pasada que suma niveles y cuadrados de cada bloque:
+ * un bloque es de huella si su varianza llega al umbral (el mayor entre VARIANZA_MINIMA y una fraccion de la varianza media
+ * de los bloques), el fondo liso tiene varianza casi nula y las crestas mucha
+ * despues se quitan los bloques de huella aislados y se rellenan los huecos rodeados de huella
+ * la caja es el rectangulo de los bloques de huella con un bloque mas de margen a cada lado, en x ajustada a palabras de 64
+ * pixeles para ImagenBinaria; como el margen es fondo y queda en blanco, procesar solo la caja da lo mismo que procesar toda
+ * la imagen con el fondo en blanco
+ * los buffers se reutilizan al calcular la mascara de otra imagen del mismo tamaño, una instancia no debe usarse desde
+ * varios hilos a la vez
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class MascaraSegmentacion {
+    public static final int BLOQUE = 16;
+    private static final int BITS_BLOQUE = 4;
+    static final int VARIANZA_MINIMA = 100;//desviacion de 10 niveles, por debajo es ruido del sensor
+    static final double FRACCION_VARIANZA = 0.1;
+
+    private int ancho = -1;
+    private int alto = -1;
+    private int bloquesX;
+    private int bloquesY;
+    private long[] sumas = new long[0];
+    private long[] cuadrados = new long[0];
+    private boolean[] primerPlano = new boolean[0];
+    private boolean[] auxiliar = new boolean[0];
+    private long pixelesPrimerPlano;
+    private int bloquesPrimerPlano;
+    private int x0, y0, x1, y1;//caja, x1 e y1 excluidos
+
+    /**
+     * mascara vacia, se rellena con calcular
+     */
+    public MascaraSegmentacion() {
+    }
+
+    /**
+     * mascara de una imagen
+     *
+     * @param grises con la imagen de grises sin ecualizar
+     * @return mascara nueva
+     */
+    public static MascaraSegmentacion de(FingerprintRaster grises) {
+        MascaraSegmentacion mascara = new MascaraSegmentacion();
+        mascara.calcular(grises);
+        return mascara;
+    }
+
+    /**
+     * calcula la mascara y la caja de una imagen
+     *
+     * @param grises con la imagen de grises sin ecualizar
+     */
+    public void calcular(FingerprintRaster grises) {
+        prepararBuffers(grises.ancho, grises.alto);
+        Arrays.fill(sumas, 0, bloquesX * bloquesY, 0);
+        Arrays.fill(cuadrados, 0, bloquesX * bloquesY, 0);
+        for (int y = 0; y < alto; y++) {
+            int origen = grises.fila(y);
+            int filaBloques = (y >>> BITS_BLOQUE) * bloquesX;
+            for (int bx = 0; bx < bloquesX; bx++) {
+                int fin = Math.min(ancho, (bx + 1) << BITS_BLOQUE);
+                long suma = 0;
+                long sumaCuadrados = 0;
+                for (int x = bx << BITS_BLOQUE; x < fin; x++) {
+                    int valor = grises.datos[origen + x] & 0xFF;
+                    suma += valor;
+                    sumaCuadrados += valor * valor;
+                }
+                sumas[filaBloques + bx] += suma;
+                cuadrados[filaBloques + bx] += sumaCuadrados;
+            }
+        }
+        clasificarBloques();
+        suavizar();
+        calcularCaja();
+    }
+
+    private void prepararBuffers(int ancho, int alto) {
+        if (ancho == this.ancho && alto == this.alto) {
+            return;
+        }
+        this.ancho = ancho;
+        this.alto = alto;
+        bloquesX = (ancho + BLOQUE - 1) >>> BITS_BLOQUE;
+        bloquesY = (alto + BLOQUE - 1) >>> BITS_BLOQUE;
+        int bloques = bloquesX * bloquesY;
+        if (sumas.length < bloques) {
+            sumas = new long[bloques];
+            cuadrados = new long[bloques];
+            primerPlano = new boolean[bloques];
+            auxiliar = new boolean[bloques];
+        }
+    }
+
+    /**
+     * pixeles del bloque, menos de 16x16 en la ultima fila y columna de bloques
+     */
+    private long pixelesBloque(int bx, int by) {
+        return (long) (Math.min(ancho, (bx + 1) << BITS_BLOQUE) - (bx << BITS_BLOQUE))
+                * (Math.min(alto, (by + 1) << BITS_BLOQUE) - (by << BITS_BLOQUE));
+    }
+
+    /**
+     * varianza de cada bloque frente al umbral, se deja la varianza en cuadrados para no recalcularla
+     */
+    private void clasificarBloques() {
+        double sumaVarianzas = 0;
+        for (int by = 0; by < bloquesY; by++) {
+            for (int bx = 0; bx < bloquesX; bx++) {
+                int b = by * bloquesX + bx;
+                long n = pixelesBloque(bx, by);
+                long varianzaN2 = n * cuadrados[b] - sumas[b] * sumas[b];//n^2 por la varianza, sin redondeos
+                cuadrados[b] = varianzaN2 / (n * n);
+                sumaVarianzas += cuadrados[b];
+            }
+        }
+        double umbral = Math.max(VARIANZA_MINIMA, FRACCION_VARIANZA * sumaVarianzas / (bloquesX * bloquesY));
+        for (int b = 0; b < bloquesX * bloquesY; b++) {
+            primerPlano[b] = cuadrados[b] >= umbral;
+        }
+    }
+
+    /**
+     * quita los bloques de huella con como mucho un vecino de huella y rellena los de fondo con al menos 6 de sus 8 vecinos de huella
+     */
+    private void suavizar() {
+        for (int by = 0; by < bloquesY; by++) {
+            for (int bx = 0; bx < bloquesX; bx++) {
+                int vecinos = 0;
+                for (int vy = Math.max(0, by - 1); vy <= Math.min(bloquesY - 1, by + 1); vy++) {
+                    for (int vx = Math.max(0, bx - 1); vx <= Math.min(bloquesX - 1, bx + 1); vx++) {
+                        vecinos += (vx != bx || vy != by) && primerPlano[vy * bloquesX + vx] ? 1 : 0;
+                    }
+                }
+                boolean propio = primerPlano[by * bloquesX + bx];
+                auxiliar[by * bloquesX + bx] = propio ? vecinos > 1 : vecinos >= 6;
+            }
+        }
+        boolean[] suavizada = auxiliar;
+        auxiliar = primerPlano;
+        primerPlano = suavizada;
+    }
+
+    private void calcularCaja() {
+        int bxMin = bloquesX, byMin = bloquesY, bxMax = -1, byMax = -1;
+        pixelesPrimerPlano = 0;
+        bloquesPrimerPlano = 0;
+        for (int by = 0; by < bloquesY; by++) {
+            for (int bx = 0; bx < bloquesX; bx++) {
+                if (primerPlano[by * bloquesX + bx]) {
+                    bxMin = Math.min(bxMin, bx);
+                    bxMax = Math.max(bxMax, bx);
+                    byMin = Math.min(byMin, by);
+                    byMax = Math.max(byMax, by);
+                    pixelesPrimerPlano += pixelesBloque(bx, by);
+                    bloquesPrimerPlano++;
+                }
+            }
+        }
+        if (bxMax < 0) {//todo fondo, caja vacia
+            x0 = y0 = x1 = y1 = 0;
+            return;
+        }
+        y0 = Math.max(0, (byMin - 1) << BITS_BLOQUE);
+        y1 = Math.min(alto, (byMax + 2) << BITS_BLOQUE);
+        x0 = Math.max(0, (bxMin - 1) << BITS_BLOQUE) & ~63;
+        x1 = Math.min(ancho, (((bxMax + 2) << BITS_BLOQUE) + 63) & ~63);
+    }
+
+    public int getBloquesX() {
+        return bloquesX;
+    }
+
+    public int getBloquesY() {
+        return bloquesY;
+    }
+
+    public int getBloquesPrimerPlano() {
+        return bloquesPrimerPlano;
+    }
+
+    /**
+     * indica si el bloque (bx, by) es de huella
+     */
+    public boolean esPrimerPlano(int bx, int by) {
+        return primerPlano[by * bloquesX + bx];
+    }
+
+    /**
+     * pixeles de los bloques de huella
+     */
+    public long getPixelesPrimerPlano() {
+        return pixelesPrimerPlano;
+    }
+
+    public int getX0() {
+        return x0;
+    }
+
+    public int getY0() {
+        return y0;
+    }
+
+    /**
+     * primera columna fuera de la caja
+     */
+    public int getX1() {
+        return x1;
+    }
+
+    /**
+     * primera fila fuera de la caja
+     */
+    public int getY1() {
+        return y1;
+    }
+
+    /**
+     * pixeles de la caja
+     */
+    public long getPixelesCaja() {
+        return (long) (x1 - x0) * (y1 - y0);
+    }
+
+    /**
+     * primera palabra de 64 pixeles de la caja en cada fila de una ImagenBinaria
+     */
+    int getPalabraDesde() {
+        return x0 >>> 6;
+    }
+
+    /**
+     * primera palabra de 64 pixeles fuera de la caja en cada fila de una ImagenBinaria
+     */
+    int getPalabraHasta() {
+        return (x1 + 63) >>> 6;
+    }
+
+    /**
+     * suma al histograma los niveles de los pixeles de los bloques de huella
+     *
+     * @param grises     con la imagen
+     * @param histograma con las 256 frecuencias, no se pone a 0
+     */
+    public void histograma(FingerprintRaster grises, int[] histograma) {
+        for (int by = 0; by < bloquesY; by++) {
+            int yFin = Math.min(alto, (by + 1) << BITS_BLOQUE);
+            for (int bx = 0; bx < bloquesX; bx++) {
+                if (!primerPlano[by * bloquesX + bx]) {
+                    continue;
+                }
+                int xFin = Math.min(ancho, (bx + 1) << BITS_BLOQUE);
+                for (int y = by << BITS_BLOQUE; y < yFin; y++) {
+                    int origen = grises.fila(y);
+                    for (int x = bx << BITS_BLOQUE; x < xFin; x++) {
+                        histograma[grises.datos[origen + x] & 0xFF]++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * pone en blanco los pixeles de los bloques de fondo que hay dentro de la caja
+     */
+    public void blanquearFondo(FingerprintRaster imagen) {
+        for (int y = y0; y < y1; y++) {
+            int fila = imagen.fila(y);
+            int filaBloques = (y >>> BITS_BLOQUE) * bloquesX;
+            for (int bx = x0 >>> BITS_BLOQUE; bx < (x1 + BLOQUE - 1) >>> BITS_BLOQUE; bx++) {
+                if (!primerPlano[filaBloques + bx]) {
+                    Arrays.fill(imagen.datos, fila + (bx << BITS_BLOQUE), fila + Math.min(ancho, (bx + 1) << BITS_BLOQUE), (byte) 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * pone en blanco los pixeles de los bloques de fondo que hay dentro de la caja
+     * los bloques nunca cruzan una palabra porque 64 es multiplo de 16
+     */
+    public void blanquearFondo(ImagenBinaria imagen) {
+        for (int y = y0; y < y1; y++) {
+            int fila = y * imagen.palabrasFila;
+            int filaBloques = (y >>> BITS_BLOQUE) * bloquesX;
+            for (int bx = x0 >>> BITS_BLOQUE; bx < (x1 + BLOQUE - 1) >>> BITS_BLOQUE; bx++) {
+                if (!primerPlano[filaBloques + bx]) {
+                    int x = bx << BITS_BLOQUE;
+                    int pixeles = Math.min(ancho, x + BLOQUE) - x;
+                    imagen.bits[fila + (x >>> 6)] |= ((1L << pixeles) - 1) << (x & 63);
+                }
+            }
+        }
+    }
+
+    /**
+     * rellena lo que queda fuera de la caja con un valor fijo
+     *
+     * @param imagen con la imagen del tamaño de la mascara
+     * @param valor  con el valor de los pixeles de fuera
+     * @param bordes true para dejar a 0 las filas y columnas del borde de la imagen, como hacen los filtros
+     */
+    public void rellenarFuera(FingerprintRaster imagen, int valor, boolean bordes) {
+        for (int y = 0; y < alto; y++) {
+            int fila = imagen.fila(y);
+            boolean borde = bordes && (y == 0 || y == alto - 1);
+            if (y < y0 || y >= y1 || borde) {
+                Arrays.fill(imagen.datos, fila, fila + ancho, (byte) (borde ? 0 : valor));
+            } else {
+                Arrays.fill(imagen.datos, fila, fila + x0, (byte) valor);
+                Arrays.fill(imagen.datos, fila + x1, fila + ancho, (byte) valor);
+            }
+            if (bordes && ancho > 0) {
+                imagen.datos[fila] = 0;
+                imagen.datos[fila + ancho - 1] = 0;
+            }
+        }
+    }
+}
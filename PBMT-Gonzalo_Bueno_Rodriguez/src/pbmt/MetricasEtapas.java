@@ -0,0 +1,201 @@
+package pbmt;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * metricas de cada etapa del proceso: tiempo en nanosegundos en un HistogramaMetricas, bytes reservados por el hilo durante la etapa
+ * pasadas y pixeles borrados de Zhang-Suen por imagen y, con segmentacion, pixeles recorridos frente a los de la imagen en cada etapa
+ * cada etapa se mide con inicio() y bytesHilo() antes y registrar() despues, sin reservar memoria ni cerrojos
+ * los bytes salen de ThreadMXBean.getCurrentThreadAllocatedBytes, si la JVM no lo soporta se quedan a 0
+ * hay un registro global() que usan FingerPrintImage, PipelineFusionado, ProcesadorLotes y EscritorAsincrono,
+ * se exporta con ExportadorMetricas
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class MetricasEtapas {
+    /**
+     * etapas medidas, en el orden del proceso
+     * en PipelineFusionado el histograma se cuenta dentro de GRISES y la ecualizacion se aplica dentro de BINARIZAR
+     */
+    public enum Etapa {
+        DECODIFICAR("decodificar"),
+        GRISES("grises"),
+        SEGMENTAR("segmentar"),
+        HISTOGRAMA("histograma"),
+        BINARIZAR("binarizar"),
+        FILTRO1("filtro1"),
+        FILTRO2("filtro2"),
+        ZHANG_SUEN("zhang_suen"),
+        MINUCIAS("minucias"),
+        CODIFICAR("codificar");
+
+        private final String nombre;
+
+        Etapa(String nombre) {
+            this.nombre = nombre;
+        }
+
+        /**
+         * nombre para exportar
+         */
+        public String getNombre() {
+            return nombre;
+        }
+    }
+
+    private static final MetricasEtapas GLOBAL = new MetricasEtapas();
+    private static final com.sun.management.ThreadMXBean HILOS = bytesPorHilo();
+
+    private final HistogramaMetricas[] tiempos = new HistogramaMetricas[Etapa.values().length];
+    private final LongAdder[] bytes = new LongAdder[Etapa.values().length];
+    private final LongAdder[] pixelesVisitados = new LongAdder[Etapa.values().length];
+    private final LongAdder[] pixelesTotales = new LongAdder[Etapa.values().length];
+    private final HistogramaMetricas pasadasZhangSuen = new HistogramaMetricas();
+    private final HistogramaMetricas borradosZhangSuen = new HistogramaMetricas();
+    private volatile boolean activas = true;
+
+    /**
+     * registro vacio, normalmente se usa global()
+     */
+    public MetricasEtapas() {
+        for (int i = 0; i < tiempos.length; i++) {
+            tiempos[i] = new HistogramaMetricas();
+            bytes[i] = new LongAdder();
+            pixelesVisitados[i] = new LongAdder();
+            pixelesTotales[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * registro comun de todo el proceso
+     */
+    public static MetricasEtapas global() {
+        return GLOBAL;
+    }
+
+    private static com.sun.management.ThreadMXBean bytesPorHilo() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hilos = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (hilos.isThreadAllocatedMemorySupported() && hilos.isThreadAllocatedMemoryEnabled()) {
+                return hilos;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * activa o desactiva el registro, desactivado inicio, bytesHilo y registrar no hacen nada
+     */
+    public void setActivas(boolean activas) {
+        this.activas = activas;
+    }
+
+    /**
+     * instante de inicio de una etapa
+     */
+    public long inicio() {
+        return activas ? System.nanoTime() : 0;
+    }
+
+    /**
+     * bytes reservados hasta ahora por el hilo actual
+     */
+    public long bytesHilo() {
+        return activas && HILOS != null ? HILOS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * registra una etapa terminada
+     *
+     * @param etapa       con la etapa
+     * @param inicio      con el valor de inicio() al empezar
+     * @param bytesInicio con el valor de bytesHilo() al empezar
+     * @return nanosegundos de la etapa, 0 si el registro esta desactivado
+     */
+    public long registrar(Etapa etapa, long inicio, long bytesInicio) {
+        if (!activas) {
+            return 0;
+        }
+        long nanos = System.nanoTime() - inicio;
+        tiempos[etapa.ordinal()].registrar(nanos);
+        if (HILOS != null) {
+            bytes[etapa.ordinal()].add(HILOS.getCurrentThreadAllocatedBytes() - bytesInicio);
+        }
+        return nanos;
+    }
+
+    /**
+     * registra el trabajo de Zhang-Suen de una imagen
+     *
+     * @param pasadas  con las pasadas completas (las 2 sub-iteraciones)
+     * @param borrados con los pixeles borrados
+     */
+    public void registrarZhangSuen(int pasadas, long borrados) {
+        if (activas) {
+            pasadasZhangSuen.registrar(pasadas);
+            borradosZhangSuen.registrar(borrados);
+        }
+    }
+
+    /**
+     * registra cuantos pixeles ha recorrido una etapa de los que tiene la imagen
+     *
+     * @param etapa     con la etapa
+     * @param visitados con los pixeles recorridos
+     * @param total     con los pixeles de la imagen
+     */
+    public void registrarPixeles(Etapa etapa, long visitados, long total) {
+        if (activas) {
+            pixelesVisitados[etapa.ordinal()].add(visitados);
+            pixelesTotales[etapa.ordinal()].add(total);
+        }
+    }
+
+    public HistogramaMetricas getTiempos(Etapa etapa) {
+        return tiempos[etapa.ordinal()];
+    }
+
+    /**
+     * bytes reservados en total durante la etapa
+     */
+    public long getBytes(Etapa etapa) {
+        return bytes[etapa.ordinal()].sum();
+    }
+
+    /**
+     * pixeles recorridos en total por la etapa, solo de las ejecuciones que los registran
+     */
+    public long getPixelesVisitados(Etapa etapa) {
+        return pixelesVisitados[etapa.ordinal()].sum();
+    }
+
+    /**
+     * pixeles de las imagenes de las ejecuciones que registran pixeles recorridos
+     */
+    public long getPixelesTotales(Etapa etapa) {
+        return pixelesTotales[etapa.ordinal()].sum();
+    }
+
+    public HistogramaMetricas getPasadasZhangSuen() {
+        return pasadasZhangSuen;
+    }
+
+    public HistogramaMetricas getBorradosZhangSuen() {
+        return borradosZhangSuen;
+    }
+
+    /**
+     * vacia todas las metricas
+     */
+    public void reiniciar() {
+        for (int i = 0; i < tiempos.length; i++) {
+            tiempos[i].reiniciar();
+            bytes[i].reset();
+            pixelesVisitados[i].reset();
+            pixelesTotales[i].reset();
+        }
+        pasadasZhangSuen.reiniciar();
+        borradosZhangSuen.reiniciar();
+    }
+}
@@ -0,0 +1,419 @@
+package pbmt;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * identificacion 1:N sobre una galeria de plantillas de minucias con un indice de tripletes (hashing geometrico)
+ * de cada minucia se forman tripletes con sus VECINOS minucias mas cercanas, y cada triangulo se resume en una clave de 27 bits
+ * invariante a rotacion y traslacion: longitudes de los 3 lados, angulo de cada minucia respecto a su lado y tipos
+ * inscribir añade las claves de la plantilla a una TablaHashLargos (clave -> identificadores)
+ * identificar busca las claves de la consulta, cuenta votos solo de las plantillas que comparten alguna clave
+ * y solo los candidatos mas votados se puntuan con alineamiento completo (AlineadorMinucias), repartidos entre los nucleos
+ * el trabajo de una consulta depende de las entradas de sus claves, no de recorrer toda la galeria
+ * se pueden hacer varias consultas a la vez desde distintos hilos, inscribir espera a que terminen
+ * las plantillas se guardan en una GaleriaPlantillas, en memoria o en un archivo mapeado (GaleriaMapeada), el indice siempre en memoria
+ * al abrir un motor sobre una galeria el indice se construye con las claves que la galeria guarda junto a cada plantilla,
+ * y solo se calculan las de las galerias que no las guardan
+ * sobre una GaleriaMapeada solo puede haber un motor abierto, que es el unico que la puede compactar (compactar),
+ * al cerrarlo (close) la galeria queda libre
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class MotorIdentificacion implements AutoCloseable {
+    /**
+     * plantilla de la galeria con su puntuacion frente a la consulta
+     */
+    public static class Coincidencia {
+        private final int identificador;
+        private final double puntuacion;
+
+        Coincidencia(int identificador, double puntuacion) {
+            this.identificador = identificador;
+            this.puntuacion = puntuacion;
+        }
+
+        public int getIdentificador() {
+            return identificador;
+        }
+
+        public double getPuntuacion() {
+            return puntuacion;
+        }
+    }
+
+    static final int VECINOS = 3;//vecinas mas cercanas de cada minucia para formar tripletes
+    private static final int LADO_MINIMO = 8;//triangulos mas pequeños son inestables con el ruido
+    private static final int LADO_CELDA = 6;//pixeles por celda de longitud, 5 bits hasta 192 pixeles
+    private static final int CANDIDATOS = 20;
+
+    private static final ThreadLocal<AlineadorMinucias> ALINEADOR = ThreadLocal.withInitial(AlineadorMinucias::new);
+
+    private final GaleriaPlantillas galeria;
+    private TablaHashLargos indice;//se vuelve a construir al compactar, siempre con el cerrojo de escritura
+    private final ProcesadorFranjas franjas;
+    private final int candidatos;
+    private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock();
+    private final ThreadLocal<int[]> votosPorHilo = ThreadLocal.withInitial(() -> new int[0]);
+
+    /**
+     * constructor con el pool fork-join comun y CANDIDATOS candidatos por consulta
+     */
+    public MotorIdentificacion() {
+        this(ProcesadorFranjas.comun(), CANDIDATOS);
+    }
+
+    /**
+     * constructor
+     *
+     * @param franjas     con el procesador que reparte la puntuacion de los candidatos entre los nucleos
+     * @param candidatos  con el numero de plantillas mas votadas que se puntuan con alineamiento completo
+     */
+    public MotorIdentificacion(ProcesadorFranjas franjas, int candidatos) {
+        this(new GaleriaMemoria(), franjas, candidatos);
+    }
+
+    /**
+     * constructor sobre una galeria que ya puede tener plantillas, se indexan todas las que no estan eliminadas
+     *
+     * @param galeria     con las plantillas, lo que se inscriba despues tambien se añade a ella
+     * @param franjas     con el procesador que reparte la puntuacion de los candidatos entre los nucleos
+     * @param candidatos  con el numero de plantillas mas votadas que se puntuan con alineamiento completo
+     * @throws IllegalStateException si la galeria es una GaleriaMapeada que ya tiene otro motor abierto
+     */
+    public MotorIdentificacion(GaleriaPlantillas galeria, ProcesadorFranjas franjas, int candidatos) {
+        this.galeria = galeria;
+        this.franjas = franjas;
+        this.candidatos = candidatos;
+        if (galeria instanceof GaleriaMapeada) {
+            ((GaleriaMapeada) galeria).vincular(this);
+        }
+        indexar();
+    }
+
+    /**
+     * constructor sobre una galeria con el pool fork-join comun y CANDIDATOS candidatos por consulta
+     */
+    public MotorIdentificacion(GaleriaPlantillas galeria) {
+        this(galeria, ProcesadorFranjas.comun(), CANDIDATOS);
+    }
+
+    /**
+     * construye el indice con las claves guardadas en la galeria, o calculandolas si no las guarda
+     */
+    private void indexar() {
+        indice = new TablaHashLargos(1 << 16);
+        for (int identificador = 0; identificador < galeria.getNumero(); identificador++) {
+            long[] claves = galeria.getClaves(identificador);
+            if (claves == null) {
+                PlantillaHuella plantilla = galeria.getPlantilla(identificador);
+                claves = plantilla == null ? new long[0] : clavesTripletes(plantilla);
+            }
+            for (long clave : claves) {
+                indice.agregar(clave, identificador);
+            }
+        }
+    }
+
+    /**
+     * numero de plantillas inscritas
+     */
+    public int getNumero() {
+        cerrojo.readLock().lock();
+        try {
+            return galeria.getNumero();
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    public PlantillaHuella getPlantilla(int identificador) {
+        cerrojo.readLock().lock();
+        try {
+            return galeria.getPlantilla(identificador);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * tabla del indice, para consultar su tamaño
+     */
+    TablaHashLargos getIndice() {
+        return indice;
+    }
+
+    /**
+     * inscribe una plantilla en la galeria
+     *
+     * @param plantilla con las minucias
+     * @return identificador de la plantilla, su posicion en la galeria
+     */
+    public int inscribir(PlantillaHuella plantilla) {
+        long[] claves = clavesTripletes(plantilla);
+        cerrojo.writeLock().lock();
+        try {
+            int identificador = galeria.agregar(plantilla, claves);
+            for (long clave : claves) {
+                indice.agregar(clave, identificador);
+            }
+            return identificador;
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    /**
+     * inscribe una imagen pasandola por el proceso automatico y la extraccion de minucias
+     *
+     * @param imagen con la imagen de la huella
+     * @param umbral con el umbral de binarizacion
+     * @return identificador de la plantilla
+     */
+    public int inscribir(BufferedImage imagen, int umbral) {
+        return inscribir(PipelineFusionado.delHilo().procesarPlantilla(imagen, umbral));
+    }
+
+    /**
+     * busca la consulta en la galeria
+     *
+     * @param consulta con la plantilla a identificar
+     * @param maximo   con el numero maximo de resultados
+     * @return coincidencias ordenadas de mayor a menor puntuacion
+     */
+    public Coincidencia[] identificar(PlantillaHuella consulta, int maximo) {
+        long[] claves = clavesTripletes(consulta);
+        cerrojo.readLock().lock();
+        try {
+            int[] elegidas = candidatosMasVotados(claves);
+            double[] puntuaciones = new double[elegidas.length];
+            franjas.enFranjas(elegidas.length, (desde, hasta) -> {
+                AlineadorMinucias alineador = ALINEADOR.get();
+                for (int k = desde; k < hasta; k++) {
+                    PlantillaHuella candidata = galeria.getPlantilla(elegidas[k]);
+                    puntuaciones[k] = candidata == null ? -1 : alineador.puntuar(consulta, candidata);//eliminada, sigue en el indice
+                }
+                return 0;
+            });
+            Integer[] orden = new Integer[elegidas.length];
+            int validas = 0;
+            for (int k = 0; k < orden.length; k++) {
+                orden[k] = k;
+                validas += puntuaciones[k] >= 0 ? 1 : 0;
+            }
+            Arrays.sort(orden, (a, b) -> Double.compare(puntuaciones[b], puntuaciones[a]));
+            Coincidencia[] resultado = new Coincidencia[Math.min(maximo, validas)];
+            for (int k = 0; k < resultado.length; k++) {
+                resultado[k] = new Coincidencia(elegidas[orden[k]], puntuaciones[orden[k]]);
+            }
+            return resultado;
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * compacta la GaleriaMapeada del motor sin las plantillas eliminadas y vuelve a construir el indice con los nuevos identificadores
+     * las consultas y las inscripciones esperan a que termine
+     *
+     * @return nuevo identificador de cada identificador antiguo, GaleriaMapeada.BORRADA para las eliminadas
+     * @throws IOException
+     * @throws UnsupportedOperationException si la galeria no es una GaleriaMapeada
+     */
+    public int[] compactar() throws IOException {
+        if (!(galeria instanceof GaleriaMapeada)) {
+            throw new UnsupportedOperationException("solo se puede compactar una GaleriaMapeada");
+        }
+        cerrojo.writeLock().lock();
+        try {
+            int[] nuevos = ((GaleriaMapeada) galeria).compactar(this);
+            indexar();
+            return nuevos;
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    /**
+     * cierra el motor, si la galeria es una GaleriaMapeada queda libre para compactarla o abrir otro motor
+     * la galeria no se cierra
+     */
+    @Override
+    public void close() {
+        if (galeria instanceof GaleriaMapeada) {
+            ((GaleriaMapeada) galeria).desvincular(this);
+        }
+    }
+
+    /**
+     * votos de cada plantilla que comparte claves con la consulta y los candidatos con mas votos
+     * el array de votos es del hilo y solo se limpian las posiciones tocadas
+     */
+    private int[] candidatosMasVotados(long[] claves) {
+        int[] votos = votosPorHilo.get();
+        if (votos.length < galeria.getNumero()) {
+            votos = new int[Math.max(galeria.getNumero(), votos.length * 2)];
+            votosPorHilo.set(votos);
+        }
+        int[] tocadas = new int[64];
+        int numTocadas = 0;
+        for (long clave : claves) {
+            for (int e = indice.primera(clave); e >= 0; e = indice.siguiente(e)) {
+                int identificador = indice.valor(e);
+                if (votos[identificador]++ == 0) {
+                    if (numTocadas == tocadas.length) {
+                        tocadas = Arrays.copyOf(tocadas, numTocadas * 2);
+                    }
+                    tocadas[numTocadas++] = identificador;
+                }
+            }
+        }
+        //monticulo de minimos con los candidatos mas votados
+        int capacidad = Math.min(candidatos, numTocadas);
+        int[] monticulo = new int[capacidad];
+        int enMonticulo = 0;
+        for (int k = 0; k < numTocadas; k++) {
+            int identificador = tocadas[k];
+            if (enMonticulo < capacidad) {
+                monticulo[enMonticulo] = identificador;
+                subir(monticulo, enMonticulo++, votos);
+            } else if (votos[identificador] > votos[monticulo[0]]) {
+                monticulo[0] = identificador;
+                bajar(monticulo, capacidad, votos);
+            }
+        }
+        for (int k = 0; k < numTocadas; k++) {
+            votos[tocadas[k]] = 0;
+        }
+        return monticulo;
+    }
+
+    private static void subir(int[] monticulo, int posicion, int[] votos) {
+        while (posicion > 0) {
+            int padre = (posicion - 1) >>> 1;
+            if (votos[monticulo[padre]] <= votos[monticulo[posicion]]) {
+                return;
+            }
+            int temporal = monticulo[padre];
+            monticulo[padre] = monticulo[posicion];
+            monticulo[posicion] = temporal;
+            posicion = padre;
+        }
+    }
+
+    private static void bajar(int[] monticulo, int ocupados, int[] votos) {
+        int posicion = 0;
+        while (true) {
+            int menor = posicion, izquierdo = 2 * posicion + 1, derecho = izquierdo + 1;
+            if (izquierdo < ocupados && votos[monticulo[izquierdo]] < votos[monticulo[menor]]) {
+                menor = izquierdo;
+            }
+            if (derecho < ocupados && votos[monticulo[derecho]] < votos[monticulo[menor]]) {
+                menor = derecho;
+            }
+            if (menor == posicion) {
+                return;
+            }
+            int temporal = monticulo[menor];
+            monticulo[menor] = monticulo[posicion];
+            monticulo[posicion] = temporal;
+            posicion = menor;
+        }
+    }
+
+    /**
+     * claves distintas de todos los tripletes de la plantilla
+     *
+     * @param plantilla con las minucias
+     * @return claves ordenadas y sin repetir
+     */
+    static long[] clavesTripletes(PlantillaHuella plantilla) {
+        int n = plantilla.getNumero();
+        long[] claves = new long[n * VECINOS * (VECINOS - 1) / 2];
+        int numClaves = 0;
+        int[] vecinas = new int[VECINOS];
+        long[] distancias = new long[VECINOS];
+        for (int i = 0; i < n; i++) {
+            int numVecinas = 0;
+            for (int j = 0; j < n; j++) {//las VECINOS mas cercanas, por insercion
+                if (j == i) {
+                    continue;
+                }
+                long dx = plantilla.getX(j) - plantilla.getX(i), dy = plantilla.getY(j) - plantilla.getY(i);
+                long distancia = dx * dx + dy * dy;
+                if (numVecinas < VECINOS || distancia < distancias[numVecinas - 1]) {
+                    int k = Math.min(numVecinas, VECINOS - 1);
+                    while (k > 0 && distancias[k - 1] > distancia) {
+                        distancias[k] = distancias[k - 1];
+                        vecinas[k] = vecinas[k - 1];
+                        k--;
+                    }
+                    distancias[k] = distancia;
+                    vecinas[k] = j;
+                    numVecinas = Math.min(numVecinas + 1, VECINOS);
+                }
+            }
+            for (int a = 0; a < numVecinas; a++) {
+                for (int b = a + 1; b < numVecinas; b++) {
+                    long clave = claveTriplete(plantilla, i, vecinas[a], vecinas[b]);
+                    if (clave >= 0) {
+                        claves[numClaves++] = clave;
+                    }
+                }
+            }
+        }
+        Arrays.sort(claves, 0, numClaves);
+        int distintas = 0;
+        for (int k = 0; k < numClaves; k++) {
+            if (distintas == 0 || claves[distintas - 1] != claves[k]) {
+                claves[distintas++] = claves[k];
+            }
+        }
+        return Arrays.copyOf(claves, distintas);
+    }
+
+    /**
+     * clave invariante a rotacion y traslacion de un triangulo de minucias
+     * los vertices se ordenan por la longitud del lado opuesto, de mayor a menor, y la clave lleva
+     * las 3 longitudes (5 bits cada una), el angulo de cada minucia respecto al lado hacia el siguiente vertice (3 bits)
+     * y el tipo de cada minucia (1 bit)
+     *
+     * @return clave, o -1 si el triangulo es demasiado pequeño o grande para ser fiable
+     */
+    static long claveTriplete(PlantillaHuella plantilla, int i, int j, int k) {
+        int[] v = {i, j, k};
+        double[] opuesto = {distancia(plantilla, j, k), distancia(plantilla, k, i), distancia(plantilla, i, j)};
+        for (int a = 0; a < 2; a++) {//ordenar los 3 vertices por lado opuesto descendente
+            for (int b = 0; b < 2 - a; b++) {
+                if (opuesto[b] < opuesto[b + 1]) {
+                    double d = opuesto[b];
+                    opuesto[b] = opuesto[b + 1];
+                    opuesto[b + 1] = d;
+                    int t = v[b];
+                    v[b] = v[b + 1];
+                    v[b + 1] = t;
+                }
+            }
+        }
+        if (opuesto[2] < LADO_MINIMO || opuesto[0] >= 32 * LADO_CELDA) {
+            return -1;
+        }
+        long clave = 0;
+        for (int a = 0; a < 3; a++) {
+            clave |= (long) ((int) (opuesto[a] / LADO_CELDA)) << (5 * a);
+            int siguiente = v[(a + 1) % 3];
+            double lado = Math.atan2(plantilla.getY(siguiente) - plantilla.getY(v[a]), plantilla.getX(siguiente) - plantilla.getX(v[a]));
+            int relativo = (plantilla.getAngulo(v[a]) - PlantillaHuella.codificarAngulo(lado) + 16) & 0xFF;//redondeo a la celda mas cercana
+            clave |= (long) (relativo >>> 5) << (15 + 3 * a);
+            clave |= (long) (plantilla.getTipo(v[a]) & 1) << (24 + a);
+        }
+        return clave;
+    }
+
+    private static double distancia(PlantillaHuella plantilla, int a, int b) {
+        double dx = plantilla.getX(a) - plantilla.getX(b), dy = plantilla.getY(a) - plantilla.getY(b);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,296 @@
+package pbmt;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * bucles internos de las etapas punto a punto y de los filtros binarios sobre tramos seguidos de una fila,
+ * los que recorren mas pixeles por imagen y son paralelos por datos: la media R+G+B de los grises, la comparacion
+ * con el umbral (a bytes de 0 y 1 o empaquetada en bits) y los dos filtros binarios, en raster de bytes y empaquetados
+ * hay dos versiones con el mismo resultado: la escalar de esta clase y NucleosFilaVector con la Vector API
+ * (jdk.incubator.vector), que solo se usa si la JVM se arranca con --add-modules jdk.incubator.vector y tiene
+ * vectores de al menos 128 bits; si no, se queda la escalar sin que cambie nada mas
+ * con -Dpbmt.vector=no se fuerza la escalar
+ * el paso de bytes de 0 y 1 a bits y de bits a bytes, con el que las etapas sueltas del menu usan ImagenBinaria,
+ * va de 8 en 8 pixeles con largos leidos y escritos sobre el array de bytes en las dos versiones
+ * la LUT de la ecualizacion y la tabla de grises de TYPE_BYTE_GRAY son consultas a tablas de 256 entradas, que no tienen
+ * equivalente vectorial en AVX2, y siguen en sus bucles; en el pipeline fusionado la LUT y el umbral se reducen a comparar
+ * con el primer nivel que queda en blanco (la LUT es creciente), y esa comparacion si va vectorizada
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class NucleosFila {
+    private static final NucleosFila ESCALAR = new NucleosFila();
+    private static final NucleosFila VECTORIAL = cargarVectorial();
+    private static final NucleosFila ACTIVOS = !"no".equals(System.getProperty("pbmt.vector")) && VECTORIAL != null ? VECTORIAL : ESCALAR;
+    private static final VarHandle OCHO_BYTES = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long[] EXPANDIR = construirExpandir();//byte j a 1 si el bit j del indice esta a 1
+
+    NucleosFila() {
+    }
+
+    private static long[] construirExpandir() {
+        long[] tabla = new long[256];
+        for (int i = 0; i < 256; i++) {
+            for (int j = 0; j < 8; j++) {
+                tabla[i] |= (long) ((i >>> j) & 1) << (j << 3);
+            }
+        }
+        return tabla;
+    }
+
+    /**
+     * NucleosFilaVector por reflexion, para que esta clase cargue aunque el modulo no este
+     */
+    private static NucleosFila cargarVectorial() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            NucleosFila vectorial = (NucleosFila) Class.forName("pbmt.NucleosFilaVector").getDeclaredConstructor().newInstance();
+            return vectorial.getBitsVector() >= 128 ? vectorial : null;//por debajo la Vector API se emula y es mas lenta
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * nucleos que usan las etapas, los vectoriales si estan disponibles
+     */
+    public static NucleosFila activos() {
+        return ACTIVOS;
+    }
+
+    /**
+     * version escalar, siempre disponible
+     */
+    public static NucleosFila escalar() {
+        return ESCALAR;
+    }
+
+    /**
+     * version con la Vector API
+     *
+     * @return nucleos vectoriales, o null si la JVM no tiene el modulo jdk.incubator.vector o no tiene vectores
+     */
+    public static NucleosFila vectorial() {
+        return VECTORIAL;
+    }
+
+    public String getNombre() {
+        return "escalar";
+    }
+
+    /**
+     * bits de los vectores que se usan, 0 en la escalar
+     */
+    public int getBitsVector() {
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return getBitsVector() > 0 ? getNombre() + " de " + getBitsVector() + " bits" : getNombre();
+    }
+
+    /**
+     * nivel de gris (R+G+B)/3 de n pixeles RGB empaquetados en enteros, como ConversorRaster
+     *
+     * @param pixeles con los pixeles 0xAARRGGBB
+     * @param origen  con la posicion del primero
+     * @param grises  con el array de salida
+     * @param destino con la posicion del primero en la salida
+     * @param n       con el numero de pixeles
+     */
+    public void grisesRGB(int[] pixeles, int origen, byte[] grises, int destino, int n) {
+        for (int x = 0; x < n; x++) {
+            int rgb = pixeles[origen + x];
+            grises[destino + x] = (byte) ((((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3);
+        }
+    }
+
+    /**
+     * binarizacion de n niveles de gris, 0 (negro) por debajo del umbral y 1 (blanco) si no
+     *
+     * @param niveles con los niveles de 0 a 255
+     * @param origen  con la posicion del primero
+     * @param salida  con el array de salida
+     * @param destino con la posicion del primero en la salida
+     * @param n       con el numero de pixeles
+     * @param umbral  con el umbral, de 0 (todo blanco) a 256 (todo negro)
+     */
+    public void binarizar(byte[] niveles, int origen, byte[] salida, int destino, int n, int umbral) {
+        for (int x = 0; x < n; x++) {
+            salida[destino + x] = (byte) ((niveles[origen + x] & 0xFF) < umbral ? 0 : 1);
+        }
+    }
+
+    /**
+     * binarizacion de n niveles de gris empaquetada como en ImagenBinaria, el pixel j en el bit j%64 de la palabra j/64
+     * los bits que sobran en la ultima palabra quedan a 0
+     *
+     * @param niveles con los niveles de 0 a 255
+     * @param origen  con la posicion del primero, el bit 0 de la primera palabra
+     * @param n       con el numero de pixeles
+     * @param umbral  con el umbral, de 0 (todo blanco) a 256 (todo negro); con bytes de 0 y 1 y umbral 1 solo empaqueta
+     * @param bits    con las palabras de salida
+     * @param destino con la primera palabra de salida
+     */
+    public void empaquetar(byte[] niveles, int origen, int n, int umbral, long[] bits, int destino) {
+        for (int inicio = 0; inicio < n; inicio += 64) {
+            long palabra = 0;
+            int fin = Math.min(64, n - inicio);
+            for (int j = 0; j < fin; j++) {
+                palabra |= (long) (((niveles[origen + inicio + j] & 0xFF) - umbral) >>> 31 ^ 1) << j;//1 si nivel >= umbral
+            }
+            bits[destino + (inicio >>> 6)] = palabra;
+        }
+    }
+
+    /**
+     * empaquetado de n pixeles que ya son bytes de 0 y 1, como empaquetar con umbral 1
+     * los 8 bytes de cada largo leido se juntan en 8 bits con una multiplicacion, cada byte cae en un bit distinto del byte alto
+     *
+     * @param ceroUno con los pixeles de 0 y 1, otros valores dan un resultado sin sentido
+     * @param origen  con la posicion del primero, el bit 0 de la primera palabra
+     * @param n       con el numero de pixeles
+     * @param bits    con las palabras de salida
+     * @param destino con la primera palabra de salida
+     */
+    public final void empaquetarBinario(byte[] ceroUno, int origen, int n, long[] bits, int destino) {
+        int completas = n >>> 6;
+        for (int i = 0; i < completas; i++) {
+            int inicio = origen + (i << 6);
+            long palabra = 0;
+            for (int k = 0; k < 8; k++) {
+                long ocho = (long) OCHO_BYTES.get(ceroUno, inicio + (k << 3));
+                palabra |= (ocho * 0x0102040810204080L >>> 56) << (k << 3);
+            }
+            bits[destino + i] = palabra;
+        }
+        if ((n & 63) != 0) {
+            empaquetar(ceroUno, origen + (completas << 6), n & 63, 1, bits, destino + completas);
+        }
+    }
+
+    /**
+     * paso de n pixeles empaquetados como en ImagenBinaria a bytes de 0 y 1, 8 pixeles por consulta a una tabla de 256 largos
+     *
+     * @param bits    con las palabras de entrada
+     * @param origen  con la primera palabra, el pixel 0 en su bit 0
+     * @param n       con el numero de pixeles
+     * @param salida  con el array de salida
+     * @param destino con la posicion del primero en la salida
+     */
+    public final void desempaquetar(long[] bits, int origen, int n, byte[] salida, int destino) {
+        int completas = n >>> 6;
+        for (int i = 0; i < completas; i++) {
+            long palabra = bits[origen + i];
+            int inicio = destino + (i << 6);
+            for (int k = 0; k < 8; k++) {
+                OCHO_BYTES.set(salida, inicio + (k << 3), EXPANDIR[(int) (palabra >>> (k << 3)) & 0xFF]);
+            }
+        }
+        for (int x = completas << 6; x < n; x++) {
+            salida[destino + x] = (byte) ((bits[origen + (x >>> 6)] >>> (x & 63)) & 1);
+        }
+    }
+
+    /**
+     * primer filtro binario, p+b.g.(d+e)+d.e.(b+g), de n pixeles de 0 y 1 seguidos de una fila
+     * los vecinos de todos ellos tienen que existir, el borde de la imagen lo trata quien llama
+     *
+     * @param entrada con el raster de entrada
+     * @param origen  con la posicion del primer pixel
+     * @param salto   con la distancia entre filas
+     * @param salida  con el raster de salida
+     * @param destino con la posicion del primer pixel en la salida
+     * @param n       con el numero de pixeles
+     */
+    public void filtroBinario1(byte[] entrada, int origen, int salto, byte[] salida, int destino, int n) {
+        for (int x = 0; x < n; x++) {
+            int i = origen + x;
+            int p = entrada[i];//centro
+            int b = entrada[i - 1];//[x-1][y]
+            int g = entrada[i + 1];//[x+1][y]
+            int d = entrada[i - salto];//[x][y-1]
+            int e = entrada[i + salto];//[x][y+1]
+            salida[destino + x] = (byte) (p | b & g & (d | e) | d & e & (b | g));
+        }
+    }
+
+    /**
+     * segundo filtro binario, p.[(a+b+d).(e+g+h)+(b+c+e).(d+f+g)], de n pixeles de 0 y 1 seguidos de una fila
+     *
+     * @param entrada con el raster de entrada
+     * @param origen  con la posicion del primer pixel
+     * @param salto   con la distancia entre filas
+     * @param salida  con el raster de salida
+     * @param destino con la posicion del primer pixel en la salida
+     * @param n       con el numero de pixeles
+     */
+    public void filtroBinario2(byte[] entrada, int origen, int salto, byte[] salida, int destino, int n) {
+        for (int x = 0; x < n; x++) {
+            int i = origen + x;
+            int p = entrada[i];
+            int b = entrada[i - 1];//[x-1][y]
+            int g = entrada[i + 1];//[x+1][y]
+            int d = entrada[i - salto];//[x][y-1]
+            int e = entrada[i + salto];//[x][y+1]
+            int a = entrada[i - salto - 1];//[x-1][y-1]
+            int f = entrada[i - salto + 1];//[x+1][y-1]
+            int c = entrada[i + salto - 1];//[x-1][y+1]
+            int h = entrada[i + salto + 1];//[x+1][y+1]
+            salida[destino + x] = (byte) (p & ((a | b | d) & (e | g | h) | (b | c | e) & (d | f | g)));
+        }
+    }
+
+    /**
+     * primer filtro binario empaquetado de n palabras seguidas de una fila de ImagenBinaria
+     * tienen que existir la palabra anterior y la siguiente de la fila y las de las filas de arriba y abajo,
+     * las palabras de los bordes y la mascara de los bits de relleno las trata quien llama
+     *
+     * @param bits    con las palabras de entrada
+     * @param origen  con la primera palabra
+     * @param salto   con las palabras por fila
+     * @param salida  con las palabras de salida, en la misma posicion
+     * @param n       con el numero de palabras
+     */
+    public void filtroBinario1(long[] bits, int origen, int salto, long[] salida, int n) {
+        for (int i = origen; i < origen + n; i++) {
+            long p = bits[i];
+            long b = p << 1 | bits[i - 1] >>> 63;//x-1, el ultimo pixel de la palabra anterior entra por el bit 0
+            long g = p >>> 1 | bits[i + 1] << 63;//x+1, el primer pixel de la palabra siguiente entra por el bit 63
+            long d = bits[i - salto];//y-1
+            long e = bits[i + salto];//y+1
+            salida[i] = p | b & g & (d | e) | d & e & (b | g);
+        }
+    }
+
+    /**
+     * segundo filtro binario empaquetado de n palabras seguidas de una fila de ImagenBinaria, con las mismas condiciones
+     *
+     * @param bits    con las palabras de entrada
+     * @param origen  con la primera palabra
+     * @param salto   con las palabras por fila
+     * @param salida  con las palabras de salida, en la misma posicion
+     * @param n       con el numero de palabras
+     */
+    public void filtroBinario2(long[] bits, int origen, int salto, long[] salida, int n) {
+        for (int i = origen; i < origen + n; i++) {
+            int arriba = i - salto;
+            int abajo = i + salto;
+            long p = bits[i];
+            long b = p << 1 | bits[i - 1] >>> 63;//[x-1][y]
+            long g = p >>> 1 | bits[i + 1] << 63;//[x+1][y]
+            long d = bits[arriba];//[x][y-1]
+            long e = bits[abajo];//[x][y+1]
+            long a = d << 1 | bits[arriba - 1] >>> 63;//[x-1][y-1]
+            long f = d >>> 1 | bits[arriba + 1] << 63;//[x+1][y-1]
+            long c = e << 1 | bits[abajo - 1] >>> 63;//[x-1][y+1]
+            long h = e >>> 1 | bits[abajo + 1] << 63;//[x+1][y+1]
+            salida[i] = p & ((a | b | d) & (e | g | h) | (b | c | e) & (d | f | g));
+        }
+    }
+}
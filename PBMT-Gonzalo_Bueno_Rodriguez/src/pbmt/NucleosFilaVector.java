@@ -0,0 +1,177 @@
+package pbmt;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * NucleosFila con la Vector API, con el tamaño de vector preferido de la maquina (256 bits con AVX2, 512 con AVX-512)
+ * cada bucle procesa los vectores completos que caben en el tramo y deja el resto a la version escalar, con el mismo resultado
+ * solo se carga por reflexion desde NucleosFila cuando el modulo jdk.incubator.vector esta en la JVM
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+class NucleosFilaVector extends NucleosFila {
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LARGOS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> ENTEROS = IntVector.SPECIES_PREFERRED;
+    private static final LongVector DESPLAZAMIENTOS = LongVector.zero(LARGOS).addIndex(8);//0, 8, 16... para colocar el byte de cada largo
+    private static final VectorSpecies<Byte> BYTES_DE_ENTEROS = VectorSpecies.of(byte.class, VectorShape.forBitSize(ENTEROS.length() * 8));//un byte por entero
+
+    @Override
+    public String getNombre() {
+        return "vector";
+    }
+
+    @Override
+    public int getBitsVector() {
+        return BYTES.vectorBitSize();
+    }
+
+    @Override
+    public void grisesRGB(int[] pixeles, int origen, byte[] grises, int destino, int n) {
+        int x = 0;
+        for (int fin = ENTEROS.loopBound(n); x < fin; x += ENTEROS.length()) {
+            IntVector rgb = IntVector.fromArray(ENTEROS, pixeles, origen + x);
+            IntVector suma = rgb.lanewise(VectorOperators.LSHR, 16).and(0xFF)
+                    .add(rgb.lanewise(VectorOperators.LSHR, 8).and(0xFF))
+                    .add(rgb.and(0xFF));
+            //suma/3 sin division, exacto para suma < 2^16
+            suma.mul(0xAAAB).lanewise(VectorOperators.LSHR, 17).castShape(BYTES_DE_ENTEROS, 0).reinterpretAsBytes().intoArray(grises, destino + x);
+        }
+        super.grisesRGB(pixeles, origen + x, grises, destino + x, n - x);
+    }
+
+    @Override
+    public void binarizar(byte[] niveles, int origen, byte[] salida, int destino, int n, int umbral) {
+        if (umbral <= 0 || umbral > 255) {
+            Arrays.fill(salida, destino, destino + n, (byte) (umbral <= 0 ? 1 : 0));
+            return;
+        }
+        ByteVector ceros = ByteVector.zero(BYTES);
+        int x = 0;
+        for (int fin = BYTES.loopBound(n); x < fin; x += BYTES.length()) {
+            VectorMask<Byte> blancos = ByteVector.fromArray(BYTES, niveles, origen + x).compare(VectorOperators.UNSIGNED_GE, (byte) umbral);
+            ceros.blend((byte) 1, blancos).intoArray(salida, destino + x);
+        }
+        super.binarizar(niveles, origen + x, salida, destino + x, n - x, umbral);
+    }
+
+    @Override
+    public void empaquetar(byte[] niveles, int origen, int n, int umbral, long[] bits, int destino) {
+        if (umbral <= 0 || umbral > 255) {
+            super.empaquetar(niveles, origen, n, umbral, bits, destino);
+            return;
+        }
+        int completas = n >>> 6;
+        ByteVector ceros = ByteVector.zero(BYTES);
+        for (int i = 0; i < completas; i++) {
+            long palabra = 0;
+            for (int j = 0; j < 64; j += BYTES.length()) {
+                //bytes de 0 y 1, cada largo junta sus 8 bytes en su byte bajo y los largos se colocan uno tras otro
+                LongVector ochos = ceros.blend((byte) 1, ByteVector.fromArray(BYTES, niveles, origen + (i << 6) + j)
+                        .compare(VectorOperators.UNSIGNED_GE, (byte) umbral)).reinterpretAsLongs();
+                ochos = ochos.or(ochos.lanewise(VectorOperators.LSHR, 7));
+                ochos = ochos.or(ochos.lanewise(VectorOperators.LSHR, 14));
+                ochos = ochos.or(ochos.lanewise(VectorOperators.LSHR, 28));
+                palabra |= ochos.and(0xFF).lanewise(VectorOperators.LSHL, DESPLAZAMIENTOS).reduceLanes(VectorOperators.OR) << j;
+            }
+            bits[destino + i] = palabra;
+        }
+        if ((n & 63) != 0) {
+            super.empaquetar(niveles, origen + (completas << 6), n & 63, umbral, bits, destino + completas);
+        }
+    }
+
+    @Override
+    public void filtroBinario1(byte[] entrada, int origen, int salto, byte[] salida, int destino, int n) {
+        int x = 0;
+        for (int fin = BYTES.loopBound(n); x < fin; x += BYTES.length()) {
+            int i = origen + x;
+            ByteVector p = ByteVector.fromArray(BYTES, entrada, i);
+            ByteVector b = ByteVector.fromArray(BYTES, entrada, i - 1);
+            ByteVector g = ByteVector.fromArray(BYTES, entrada, i + 1);
+            ByteVector d = ByteVector.fromArray(BYTES, entrada, i - salto);
+            ByteVector e = ByteVector.fromArray(BYTES, entrada, i + salto);
+            p.or(b.and(g).and(d.or(e))).or(d.and(e).and(b.or(g))).intoArray(salida, destino + x);
+        }
+        super.filtroBinario1(entrada, origen + x, salto, salida, destino + x, n - x);
+    }
+
+    @Override
+    public void filtroBinario2(byte[] entrada, int origen, int salto, byte[] salida, int destino, int n) {
+        int x = 0;
+        for (int fin = BYTES.loopBound(n); x < fin; x += BYTES.length()) {
+            int i = origen + x;
+            ByteVector p = ByteVector.fromArray(BYTES, entrada, i);
+            ByteVector b = ByteVector.fromArray(BYTES, entrada, i - 1);
+            ByteVector g = ByteVector.fromArray(BYTES, entrada, i + 1);
+            ByteVector d = ByteVector.fromArray(BYTES, entrada, i - salto);
+            ByteVector e = ByteVector.fromArray(BYTES, entrada, i + salto);
+            ByteVector a = ByteVector.fromArray(BYTES, entrada, i - salto - 1);
+            ByteVector f = ByteVector.fromArray(BYTES, entrada, i - salto + 1);
+            ByteVector c = ByteVector.fromArray(BYTES, entrada, i + salto - 1);
+            ByteVector h = ByteVector.fromArray(BYTES, entrada, i + salto + 1);
+            ByteVector primerTermino = a.or(b).or(d).and(e.or(g).or(h));
+            ByteVector segundoTermino = b.or(c).or(e).and(d.or(f).or(g));
+            p.and(primerTermino.or(segundoTermino)).intoArray(salida, destino + x);
+        }
+        super.filtroBinario2(entrada, origen + x, salto, salida, destino + x, n - x);
+    }
+
+    /**
+     * palabras con cada pixel x sustituido por su vecino x-1, el ultimo bit de la palabra anterior entra por el bit 0
+     */
+    private static LongVector izquierda(long[] bits, int i, LongVector palabras) {
+        return palabras.lanewise(VectorOperators.LSHL, 1).or(LongVector.fromArray(LARGOS, bits, i - 1).lanewise(VectorOperators.LSHR, 63));
+    }
+
+    /**
+     * palabras con cada pixel x sustituido por su vecino x+1, el primer bit de la palabra siguiente entra por el bit 63
+     */
+    private static LongVector derecha(long[] bits, int i, LongVector palabras) {
+        return palabras.lanewise(VectorOperators.LSHR, 1).or(LongVector.fromArray(LARGOS, bits, i + 1).lanewise(VectorOperators.LSHL, 63));
+    }
+
+    @Override
+    public void filtroBinario1(long[] bits, int origen, int salto, long[] salida, int n) {
+        int k = 0;
+        for (int fin = LARGOS.loopBound(n); k < fin; k += LARGOS.length()) {
+            int i = origen + k;
+            LongVector p = LongVector.fromArray(LARGOS, bits, i);
+            LongVector b = izquierda(bits, i, p);
+            LongVector g = derecha(bits, i, p);
+            LongVector d = LongVector.fromArray(LARGOS, bits, i - salto);
+            LongVector e = LongVector.fromArray(LARGOS, bits, i + salto);
+            p.or(b.and(g).and(d.or(e))).or(d.and(e).and(b.or(g))).intoArray(salida, i);
+        }
+        super.filtroBinario1(bits, origen + k, salto, salida, n - k);
+    }
+
+    @Override
+    public void filtroBinario2(long[] bits, int origen, int salto, long[] salida, int n) {
+        int k = 0;
+        for (int fin = LARGOS.loopBound(n); k < fin; k += LARGOS.length()) {
+            int i = origen + k;
+            LongVector p = LongVector.fromArray(LARGOS, bits, i);
+            LongVector d = LongVector.fromArray(LARGOS, bits, i - salto);
+            LongVector e = LongVector.fromArray(LARGOS, bits, i + salto);
+            LongVector b = izquierda(bits, i, p);
+            LongVector g = derecha(bits, i, p);
+            LongVector a = izquierda(bits, i - salto, d);
+            LongVector f = derecha(bits, i - salto, d);
+            LongVector c = izquierda(bits, i + salto, e);
+            LongVector h = derecha(bits, i + salto, e);
+            LongVector primerTermino = a.or(b).or(d).and(e.or(g).or(h));
+            LongVector segundoTermino = b.or(c).or(e).and(d.or(f).or(g));
+            p.and(primerTermino.or(segundoTermino)).intoArray(salida, i);
+        }
+        super.filtroBinario2(bits, origen + k, salto, salida, n - k);
+    }
+}
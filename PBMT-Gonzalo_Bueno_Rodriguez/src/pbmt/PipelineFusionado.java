@@ -0,0 +1,454 @@
+package pbmt;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * proceso automatico (opcion 7) sin reservar memoria por imagen una vez calentado
+ * las etapas punto a punto van fusionadas: una pasada para grises e histograma y otra para aplicar la LUT y binarizar,
+ * que como la LUT es creciente se reduce a comparar cada nivel de gris con uno solo, con NucleosFila,
+ * los filtros y el adelgazamiento empaquetado de Zhang-Suen alternan entre dos ImagenBinaria ya reservadas
+ * cada hilo tiene su propio pipeline (delHilo) y sus buffers se reutilizan mientras las imagenes sean del mismo tamaño
+ * el resultado es el mismo que procesoAutomatico de FingerPrintImage
+ * con un ProcesadorFranjas la binarizacion, los filtros y el adelgazamiento de cada imagen se reparten entre varios nucleos,
+ * para bajar la latencia de una sola huella grande en lugar de procesar muchas a la vez
+ * cada etapa se registra en MetricasEtapas.global(), el histograma va dentro de GRISES y la ecualizacion dentro de BINARIZAR
+ * con un Binarizador local (media o Sauvola) la binarizacion aplica la LUT de la ecualizacion al leer cada pixel
+ * y se hace en el hilo que llama tambien en el modo por franjas
+ * con segmentacion se calcula una MascaraSegmentacion tras los grises, la ecualizacion usa solo el histograma de la huella
+ * y de la binarizacion en adelante solo se recorre la caja de la mascara, el resto queda en blanco
+ * se registran los pixeles recorridos por cada etapa frente a los de la imagen
+ * tambien puede empezar desde unos grises ya calculados, asi FingerPrintImage reutiliza los de la cache al cambiar el binarizador
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class PipelineFusionado {
+    private static final ThreadLocal<PipelineFusionado> POR_HILO = ThreadLocal.withInitial(PipelineFusionado::new);
+
+    private int ancho = -1;
+    private int alto = -1;
+    private FingerprintRaster grises;//niveles de gris fila a fila, los propios o los que se pasan ya calculados
+    private FingerprintRaster grisesPropios;
+    private final int[] histograma = new int[256];
+    private final int[] lut = new int[256];//nivel de gris ecualizado
+    private final int[] histogramaEcualizado = new int[256];//para Otsu
+    private int nivelBlanco;//primer nivel de gris que ecualizado queda en blanco
+    private ImagenBinaria imagenA;//buffers que se alternan entre etapas
+    private ImagenBinaria imagenB;
+    private ImagenBinaria marcas;//marcas del adelgazamiento
+    private int pasadas;//del adelgazamiento de la ultima imagen
+    private long pixelesBorrados;
+    private final ExtractorMinucias extractor = new ExtractorMinucias();
+    private final ProcesadorFranjas franjas;//null para procesar todo en el hilo que llama
+    private final MetricasEtapas metricas = MetricasEtapas.global();
+    private long inicioEtapa, bytesEtapa;//de la etapa en curso
+    private final MascaraSegmentacion mascara = new MascaraSegmentacion();
+
+    /**
+     * constructor, todas las etapas en el hilo que llama
+     */
+    public PipelineFusionado() {
+        this(null);
+    }
+
+    /**
+     * constructor para el modo de baja latencia
+     *
+     * @param franjas con el procesador que reparte cada etapa en franjas, o null para no repartir
+     */
+    public PipelineFusionado(ProcesadorFranjas franjas) {
+        this.franjas = franjas;
+    }
+
+    /**
+     * pipeline del hilo actual, se crea la primera vez que se pide
+     *
+     * @return el pipeline de este hilo
+     */
+    public static PipelineFusionado delHilo() {
+        return POR_HILO.get();
+    }
+
+    /**
+     * numero de pasadas completas del adelgazamiento de la ultima imagen
+     */
+    public int getPasadas() {
+        return pasadas;
+    }
+
+    /**
+     * numero de pixeles negros que el adelgazamiento de la ultima imagen ha pasado a blanco
+     */
+    public long getPixelesBorrados() {
+        return pixelesBorrados;
+    }
+
+    /**
+     * mascara de la ultima imagen procesada con segmentacion
+     */
+    public MascaraSegmentacion getMascara() {
+        return mascara;
+    }
+
+    /**
+     * reserva los buffers solo si cambia el tamaño de imagen
+     */
+    private void prepararBuffers(int ancho, int alto) {
+        if (ancho == this.ancho && alto == this.alto) {
+            return;
+        }
+        this.ancho = ancho;
+        this.alto = alto;
+        grisesPropios = new FingerprintRaster(ancho, alto);
+        imagenA = new ImagenBinaria(ancho, alto);
+        imagenB = new ImagenBinaria(ancho, alto);
+        marcas = new ImagenBinaria(ancho, alto);
+    }
+
+    /**
+     * proceso completo grises->histograma->blanco y negro->filtrado 1 y 2->adelgazamiento
+     *
+     * @param imagen con la imagen original
+     * @param umbral con el umbral de binarizacion
+     * @return imagen adelgazada, es un buffer interno que se sobrescribe en la siguiente llamada desde este hilo
+     */
+    public ImagenBinaria procesar(BufferedImage imagen, int umbral) {
+        return procesar(imagen, Binarizador.fijo(umbral));
+    }
+
+    /**
+     * proceso completo con el metodo de binarizacion indicado
+     *
+     * @param imagen      con la imagen original
+     * @param binarizador con el metodo de binarizacion
+     * @return imagen adelgazada, es un buffer interno que se sobrescribe en la siguiente llamada desde este hilo
+     */
+    public ImagenBinaria procesar(BufferedImage imagen, Binarizador binarizador) {
+        return procesar(imagen, binarizador, false);
+    }
+
+    /**
+     * proceso completo con el metodo de binarizacion indicado, con o sin segmentacion del fondo
+     *
+     * @param imagen      con la imagen original
+     * @param binarizador con el metodo de binarizacion
+     * @param segmentar   true para procesar solo la caja de la huella, ver MascaraSegmentacion
+     * @return imagen adelgazada, es un buffer interno que se sobrescribe en la siguiente llamada desde este hilo
+     */
+    public ImagenBinaria procesar(BufferedImage imagen, Binarizador binarizador, boolean segmentar) {
+        empezarEtapa();
+        prepararBuffers(imagen.getWidth(), imagen.getHeight());
+        grises = grisesPropios;
+        grisesEHistograma(imagen);
+        long total = (long) ancho * alto;
+        terminarEtapa(MetricasEtapas.Etapa.GRISES, total, total);
+        return procesarDesdeGrises(binarizador, segmentar);
+    }
+
+    /**
+     * proceso completo a partir de los grises ya calculados, por ejemplo los de la CacheEtapas, sin volver a leer la imagen
+     * solo se cuenta el histograma, que se registra en HISTOGRAMA, y el resultado es el mismo que con la imagen original
+     *
+     * @param imagenGrises con los grises como los de convertirImagenAGrises, no se modifican
+     * @param binarizador  con el metodo de binarizacion
+     * @param segmentar    true para procesar solo la caja de la huella
+     * @return imagen adelgazada, es un buffer interno que se sobrescribe en la siguiente llamada desde este hilo
+     */
+    public ImagenBinaria procesar(FingerprintRaster imagenGrises, Binarizador binarizador, boolean segmentar) {
+        empezarEtapa();
+        prepararBuffers(imagenGrises.ancho, imagenGrises.alto);
+        grises = imagenGrises;
+        try {
+            contarHistograma();
+            long total = (long) ancho * alto;
+            terminarEtapa(MetricasEtapas.Etapa.HISTOGRAMA, total, total);
+            return procesarDesdeGrises(binarizador, segmentar);
+        } finally {
+            grises = grisesPropios;//no se guarda el raster de fuera entre llamadas
+        }
+    }
+
+    /**
+     * de la ecualizacion al adelgazamiento con los grises y el histograma ya calculados, deja el resultado en imagenB
+     */
+    private ImagenBinaria procesarDesdeGrises(Binarizador binarizador, boolean segmentar) {
+        long total = (long) ancho * alto;
+        if (segmentar) {
+            procesarCaja(binarizador, total);
+            return imagenB;
+        }
+        calcularLUT(ancho * alto);
+        if (binarizador.esLocal()) {
+            binarizador.binarizarLocal(grises, lut, imagenA);
+        } else if (franjas == null) {
+            ecualizarYBinarizar(umbralGlobal(binarizador), imagenA);
+        } else {
+            calcularTablaBlanco(umbralGlobal(binarizador));
+            franjas.enFranjas(alto, (yDesde, yHasta) -> {
+                binarizarFilas(imagenA, yDesde, yHasta, 0, imagenA.palabrasFila);
+                return 0;
+            });
+        }
+        terminarEtapa(MetricasEtapas.Etapa.BINARIZAR, total, total);
+        if (franjas == null) {
+            imagenA.filtroBinario1(imagenB);
+            terminarEtapa(MetricasEtapas.Etapa.FILTRO1, total, total);
+            imagenB.filtroBinario2(imagenA);
+            terminarEtapa(MetricasEtapas.Etapa.FILTRO2, total, total);
+            pasadas = imagenA.adelgazamientoZhangSuen(imagenB, marcas);
+        } else {
+            franjas.filtroBinario1(imagenA, imagenB);
+            terminarEtapa(MetricasEtapas.Etapa.FILTRO1, total, total);
+            franjas.filtroBinario2(imagenB, imagenA);
+            terminarEtapa(MetricasEtapas.Etapa.FILTRO2, total, total);
+            pasadas = franjas.adelgazamientoZhangSuen(imagenA, imagenB, marcas);
+        }
+        terminarAdelgazamiento(total);
+        return imagenB;
+    }
+
+    /**
+     * de la segmentacion al adelgazamiento solo sobre la caja de la mascara, deja el resultado en imagenB
+     * fuera de la caja la binarizacion deja blanco y los filtros blanco con el borde de la imagen a 0, que es lo que
+     * darian procesando toda la imagen con el fondo en blanco, y el adelgazamiento no lo cambia
+     *
+     * @param total con los pixeles de la imagen
+     */
+    private void procesarCaja(Binarizador binarizador, long total) {
+        mascara.calcular(grises);
+        Arrays.fill(histograma, 0);//la ecualizacion solo con los niveles de la huella
+        mascara.histograma(grises, histograma);
+        long primerPlano = mascara.getPixelesPrimerPlano();
+        terminarEtapa(MetricasEtapas.Etapa.SEGMENTAR, total + primerPlano, total);
+        int y0 = mascara.getY0(), y1 = mascara.getY1(), x0 = mascara.getX0(), x1 = mascara.getX1();
+        int iDesde = mascara.getPalabraDesde(), iHasta = mascara.getPalabraHasta();
+        long caja = mascara.getPixelesCaja();
+        calcularLUT(primerPlano > 0 ? (int) primerPlano : ancho * alto);
+        if (binarizador.esLocal()) {
+            if (caja > 0) {
+                binarizador.binarizarLocal(grises.vista(x0, y0, x1 - x0, y1 - y0), lut, imagenA, x0, y0);
+            }
+        } else {
+            calcularTablaBlanco(umbralGlobal(binarizador));
+            if (franjas == null) {
+                binarizarFilas(imagenA, y0, y1, iDesde, iHasta);
+            } else {
+                franjas.enFranjas(y0, y1, (yDesde, yHasta) -> {
+                    binarizarFilas(imagenA, yDesde, yHasta, iDesde, iHasta);
+                    return 0;
+                });
+            }
+        }
+        mascara.blanquearFondo(imagenA);
+        imagenA.rellenarFuera(y0, y1, iDesde, iHasta, false);
+        terminarEtapa(MetricasEtapas.Etapa.BINARIZAR, caja, total);
+        if (franjas == null) {
+            imagenA.filtroBinario1(imagenB, y0, y1, iDesde, iHasta);
+            imagenB.rellenarFuera(y0, y1, iDesde, iHasta, true);
+            terminarEtapa(MetricasEtapas.Etapa.FILTRO1, caja, total);
+            imagenB.filtroBinario2(imagenA, y0, y1, iDesde, iHasta);
+            imagenA.rellenarFuera(y0, y1, iDesde, iHasta, true);
+            terminarEtapa(MetricasEtapas.Etapa.FILTRO2, caja, total);
+            pasadas = imagenA.adelgazamientoZhangSuen(imagenB, marcas, y0, y1, iDesde, iHasta);
+        } else {
+            franjas.filtroBinario1(imagenA, imagenB, mascara);
+            imagenB.rellenarFuera(y0, y1, iDesde, iHasta, true);
+            terminarEtapa(MetricasEtapas.Etapa.FILTRO1, caja, total);
+            franjas.filtroBinario2(imagenB, imagenA, mascara);
+            imagenA.rellenarFuera(y0, y1, iDesde, iHasta, true);
+            terminarEtapa(MetricasEtapas.Etapa.FILTRO2, caja, total);
+            pasadas = franjas.adelgazamientoZhangSuen(imagenA, imagenB, marcas, mascara);
+        }
+        imagenB.rellenarFuera(y0, y1, iDesde, iHasta, true);
+        terminarAdelgazamiento(caja);
+    }
+
+    /**
+     * registra el adelgazamiento que acaba de terminar, con imagenA filtrada e imagenB adelgazada
+     *
+     * @param visitados con los pixeles recorridos por cada pasada
+     */
+    private void terminarAdelgazamiento(long visitados) {
+        long total = (long) ancho * alto;
+        pixelesBorrados = imagenB.contarBlancos() - imagenA.contarBlancos();//los pixeles negros borrados pasan a blanco
+        terminarEtapa(MetricasEtapas.Etapa.ZHANG_SUEN, visitados, total);
+        metricas.registrarZhangSuen(pasadas, pixelesBorrados);
+    }
+
+    /**
+     * anota el inicio de la siguiente etapa para MetricasEtapas
+     */
+    private void empezarEtapa() {
+        inicioEtapa = metricas.inicio();
+        bytesEtapa = metricas.bytesHilo();
+    }
+
+    /**
+     * registra la etapa que acaba de terminar y empieza la siguiente
+     */
+    private void terminarEtapa(MetricasEtapas.Etapa etapa) {
+        metricas.registrar(etapa, inicioEtapa, bytesEtapa);
+        empezarEtapa();
+    }
+
+    /**
+     * registra la etapa que acaba de terminar con los pixeles que ha recorrido y empieza la siguiente
+     */
+    private void terminarEtapa(MetricasEtapas.Etapa etapa, long visitados, long total) {
+        metricas.registrarPixeles(etapa, visitados, total);
+        terminarEtapa(etapa);
+    }
+
+    /**
+     * proceso completo y extraccion de minucias del esqueleto
+     *
+     * @param imagen con la imagen original
+     * @param umbral con el umbral de binarizacion
+     * @return plantilla con las minucias, a diferencia de procesar es un objeto nuevo en cada llamada
+     */
+    public PlantillaHuella procesarPlantilla(BufferedImage imagen, int umbral) {
+        return procesarPlantilla(imagen, Binarizador.fijo(umbral));
+    }
+
+    /**
+     * proceso completo con el metodo de binarizacion indicado y extraccion de minucias del esqueleto
+     *
+     * @param imagen      con la imagen original
+     * @param binarizador con el metodo de binarizacion
+     * @return plantilla con las minucias, a diferencia de procesar es un objeto nuevo en cada llamada
+     */
+    public PlantillaHuella procesarPlantilla(BufferedImage imagen, Binarizador binarizador) {
+        return procesarPlantilla(imagen, binarizador, false);
+    }
+
+    /**
+     * proceso completo con o sin segmentacion del fondo y extraccion de minucias del esqueleto
+     *
+     * @param imagen      con la imagen original
+     * @param binarizador con el metodo de binarizacion
+     * @param segmentar   true para procesar solo la caja de la huella
+     * @return plantilla con las minucias, a diferencia de procesar es un objeto nuevo en cada llamada
+     */
+    public PlantillaHuella procesarPlantilla(BufferedImage imagen, Binarizador binarizador, boolean segmentar) {
+        procesar(imagen, binarizador, segmentar);
+        PlantillaHuella plantilla = extractor.extraer(imagenB);
+        terminarEtapa(MetricasEtapas.Etapa.MINUCIAS);
+        return plantilla;
+    }
+
+    /**
+     * primera pasada: grises como convertirImagenAGrises y frecuencia de cada nivel como calcularHistograma
+     * se lee el raster directamente con ConversorRaster
+     */
+    private void grisesEHistograma(BufferedImage imagen) {
+        Arrays.fill(histograma, 0);
+        ConversorRaster.aGrises(imagen, grises, histograma);
+    }
+
+    /**
+     * frecuencia de cada nivel de unos grises ya calculados, como la primera pasada sin la conversion
+     */
+    private void contarHistograma() {
+        Arrays.fill(histograma, 0);
+        byte[] datos = grises.datos;
+        for (int y = 0; y < alto; y++) {
+            for (int i = grises.fila(y), fin = i + ancho; i < fin; i++) {
+                histograma[datos[i] & 0xFF]++;
+            }
+        }
+    }
+
+    /**
+     * segunda pasada: LUT de la ecualizacion y umbral juntos en un solo nivel de gris, y escritura directa de los bits
+     *
+     * @param umbral con el umbral de binarizacion
+     * @param salida con la imagen binaria de salida
+     */
+    private void ecualizarYBinarizar(int umbral, ImagenBinaria salida) {
+        calcularTablaBlanco(umbral);
+        binarizarFilas(salida, 0, alto, 0, salida.palabrasFila);
+    }
+
+    /**
+     * LUT de la ecualizacion a partir del histograma
+     *
+     * @param tampixel con los pixeles contados en el histograma
+     */
+    private void calcularLUT(int tampixel) {
+        calcularLUT(histograma, tampixel, lut);
+    }
+
+    /**
+     * LUT de la ecualizacion, la suma va en long para que no desborde con imagenes de mas de 8 millones de pixeles
+     *
+     * @param histograma con la frecuencia de cada nivel
+     * @param tampixel   con los pixeles contados en el histograma
+     * @param lut        con la tabla de salida de 256 niveles
+     */
+    static void calcularLUT(int[] histograma, long tampixel, int[] lut) {
+        long suma = 0;
+        for (int i = 0; i < 256; i++) {
+            suma += histograma[i];
+            float valorLUT = suma * 255 / tampixel;//misma aritmetica entera que calcularHistograma
+            lut[i] = (int) valorLUT;
+        }
+    }
+
+    /**
+     * umbral del binarizador global, Otsu sobre el histograma de la imagen ya ecualizada sin recorrerla otra vez
+     */
+    private int umbralGlobal(Binarizador binarizador) {
+        return umbralGlobal(binarizador, histograma, lut, histogramaEcualizado);
+    }
+
+    /**
+     * umbral del binarizador global con el histograma sin ecualizar y la LUT
+     *
+     * @param histogramaEcualizado con un array de 256 donde se deja el histograma ecualizado para Otsu
+     */
+    static int umbralGlobal(Binarizador binarizador, int[] histograma, int[] lut, int[] histogramaEcualizado) {
+        if (binarizador.getMetodo() != Binarizador.Metodo.OTSU) {
+            return binarizador.getUmbral();
+        }
+        Arrays.fill(histogramaEcualizado, 0);
+        for (int i = 0; i < 256; i++) {
+            histogramaEcualizado[lut[i]] += histograma[i];
+        }
+        return binarizador.umbralGlobal(histogramaEcualizado);
+    }
+
+    /**
+     * LUT de la ecualizacion y umbral juntos
+     */
+    private void calcularTablaBlanco(int umbral) {
+        nivelBlanco = nivelBlanco(lut, umbral);
+    }
+
+    /**
+     * primer nivel de gris sin ecualizar que ecualizado llega al umbral; la LUT es una suma acumulada, asi que nunca baja,
+     * y lut[nivel] >= umbral es lo mismo que nivel >= nivelBlanco
+     *
+     * @param lut    con la LUT de la ecualizacion
+     * @param umbral con el umbral sobre los niveles ecualizados
+     * @return nivel de 0 a 255, o 256 si ninguno llega
+     */
+    static int nivelBlanco(int[] lut, int umbral) {
+        int nivel = 0;
+        while (nivel < 256 && lut[nivel] < umbral) {
+            nivel++;
+        }
+        return nivel;
+    }
+
+    /**
+     * escritura directa de los bits de las palabras de iDesde a iHasta-1 de las filas de yDesde a yHasta-1 con el nivel ya calculado
+     */
+    private void binarizarFilas(ImagenBinaria salida, int yDesde, int yHasta, int iDesde, int iHasta) {
+        NucleosFila nucleos = NucleosFila.activos();
+        int desde = iDesde << 6;
+        int n = Math.min(iHasta << 6, ancho) - desde;
+        for (int y = yDesde; y < yHasta && n > 0; y++) {
+            nucleos.empaquetar(grises.datos, grises.fila(y) + desde, n, nivelBlanco, salida.bits, y * salida.palabrasFila + iDesde);
+        }
+    }
+}
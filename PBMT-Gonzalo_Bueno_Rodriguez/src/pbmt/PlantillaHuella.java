@@ -0,0 +1,211 @@
+package pbmt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * plantilla binaria con las minucias de una huella, lo que se guarda y se compara en lugar de la imagen
+ * formato (enteros big-endian):
+ * cabecera de 10 bytes: 'P' 'H', version, 0, ancho (2 bytes), alto (2 bytes), numero de minucias (2 bytes)
+ * y 6 bytes por minucia: x (2 bytes), y (2 bytes), angulo (1 byte, 256 pasos por vuelta), tipo (1 byte)
+ * una huella de 50 minucias ocupa 310 bytes frente a los cientos de KB de la imagen
+ * los registros se leen de un ByteBuffer, que puede ser un array propio o una vista de un archivo mapeado (GaleriaMapeada)
+ * sin copiar nada a la memoria de la JVM
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class PlantillaHuella {
+    public static final int TERMINACION = 0;
+    public static final int BIFURCACION = 1;
+
+    static final int BYTES_CABECERA = 10;
+    static final int BYTES_MINUCIA = 6;
+    private static final byte VERSION = 1;
+
+    private final int ancho;
+    private final int alto;
+    private final int numero;
+    private final ByteBuffer registros;//numero*BYTES_MINUCIA bytes con el formato de arriba a partir de base
+    private final int base;
+
+    /**
+     * constructor sobre los registros ya codificados, no los copia
+     */
+    PlantillaHuella(int ancho, int alto, int numero, byte[] registros) {
+        this(ancho, alto, numero, ByteBuffer.wrap(registros), 0);
+    }
+
+    /**
+     * constructor sobre registros dentro de un buffer, no los copia, solo se usan lecturas absolutas
+     *
+     * @param registros con el buffer, big-endian
+     * @param base      con la posicion del primer registro en el buffer
+     */
+    PlantillaHuella(int ancho, int alto, int numero, ByteBuffer registros, int base) {
+        this.ancho = ancho;
+        this.alto = alto;
+        this.numero = numero;
+        this.registros = registros;
+        this.base = base;
+    }
+
+    /**
+     * plantilla guardada con aBytes dentro de un buffer, sin copiarla
+     *
+     * @param datos    con el buffer
+     * @param posicion con la posicion de la cabecera en el buffer
+     * @return plantilla que lee directamente del buffer
+     * @throws IllegalArgumentException si no hay una plantilla valida en esa posicion
+     */
+    static PlantillaHuella vista(ByteBuffer datos, int posicion) {
+        if (datos.get(posicion) != 'P' || datos.get(posicion + 1) != 'H' || datos.get(posicion + 2) != VERSION) {
+            throw new IllegalArgumentException("no es una plantilla de huella");
+        }
+        int ancho = datos.getShort(posicion + 4) & 0xFFFF;
+        int alto = datos.getShort(posicion + 6) & 0xFFFF;
+        int numero = datos.getShort(posicion + 8) & 0xFFFF;
+        return new PlantillaHuella(ancho, alto, numero, datos, posicion + BYTES_CABECERA);
+    }
+
+    /**
+     * bytes que ocupa la plantilla guardada con aBytes
+     */
+    public int getBytes() {
+        return BYTES_CABECERA + numero * BYTES_MINUCIA;
+    }
+
+    public int getAncho() {
+        return ancho;
+    }
+
+    public int getAlto() {
+        return alto;
+    }
+
+    /**
+     * numero de minucias
+     */
+    public int getNumero() {
+        return numero;
+    }
+
+    public int getX(int i) {
+        return registros.getShort(base + i * BYTES_MINUCIA) & 0xFFFF;
+    }
+
+    public int getY(int i) {
+        return registros.getShort(base + i * BYTES_MINUCIA + 2) & 0xFFFF;
+    }
+
+    /**
+     * angulo codificado de 0 a 255, 0 apunta a x creciente y 64 a y creciente (hacia abajo en la imagen)
+     */
+    public int getAngulo(int i) {
+        return registros.get(base + i * BYTES_MINUCIA + 4) & 0xFF;
+    }
+
+    /**
+     * angulo en radianes de 0 a 2*PI
+     */
+    public double getAnguloRadianes(int i) {
+        return getAngulo(i) * Math.PI / 128;
+    }
+
+    /**
+     * TERMINACION o BIFURCACION
+     */
+    public int getTipo(int i) {
+        return registros.get(base + i * BYTES_MINUCIA + 5);
+    }
+
+    /**
+     * codifica un angulo en radianes en un byte
+     */
+    static int codificarAngulo(double angulo) {
+        return (int) Math.round(angulo * 128 / Math.PI) & 0xFF;
+    }
+
+    /**
+     * escribe una minucia en el array de registros
+     */
+    static void escribirMinucia(byte[] registros, int i, int x, int y, int angulo, int tipo) {
+        int posicion = i * BYTES_MINUCIA;
+        registros[posicion] = (byte) (x >>> 8);
+        registros[posicion + 1] = (byte) x;
+        registros[posicion + 2] = (byte) (y >>> 8);
+        registros[posicion + 3] = (byte) y;
+        registros[posicion + 4] = (byte) angulo;
+        registros[posicion + 5] = (byte) tipo;
+    }
+
+    /**
+     * plantilla con cabecera lista para guardar
+     *
+     * @return bytes de la plantilla
+     */
+    public byte[] aBytes() {
+        ByteBuffer salida = ByteBuffer.allocate(getBytes());
+        escribir(salida);
+        return salida.array();
+    }
+
+    /**
+     * escribe la plantilla con cabecera en la posicion actual del buffer, igual que aBytes
+     */
+    public void escribir(ByteBuffer salida) {
+        salida.put((byte) 'P').put((byte) 'H').put(VERSION).put((byte) 0);
+        salida.putShort((short) ancho).putShort((short) alto).putShort((short) numero);
+        for (int k = 0; k < numero * BYTES_MINUCIA; k++) {
+            salida.put(registros.get(base + k));
+        }
+    }
+
+    /**
+     * lee una plantilla guardada con aBytes
+     *
+     * @param datos con los bytes de la plantilla
+     * @return plantilla
+     * @throws IllegalArgumentException si no es una plantilla valida
+     */
+    public static PlantillaHuella desdeBytes(byte[] datos) {
+        if (datos.length < BYTES_CABECERA || datos[0] != 'P' || datos[1] != 'H' || datos[2] != VERSION) {
+            throw new IllegalArgumentException("no es una plantilla de huella");
+        }
+        int numero = ((datos[8] & 0xFF) << 8) | (datos[9] & 0xFF);
+        if (datos.length != BYTES_CABECERA + numero * BYTES_MINUCIA) {
+            throw new IllegalArgumentException("plantilla de huella truncada");
+        }
+        return vista(ByteBuffer.wrap(datos.clone()), 0);
+    }
+
+    /**
+     * guarda la plantilla en un archivo
+     */
+    public void escribir(Path archivo) throws IOException {
+        Files.write(archivo, aBytes());
+    }
+
+    /**
+     * lee una plantilla de un archivo
+     */
+    public static PlantillaHuella leer(Path archivo) throws IOException {
+        return desdeBytes(Files.readAllBytes(archivo));
+    }
+
+    /**
+     * indica si otra plantilla tiene las mismas minucias en el mismo orden
+     */
+    public boolean mismasMinucias(PlantillaHuella otra) {
+        if (numero != otra.numero || ancho != otra.ancho || alto != otra.alto) {
+            return false;
+        }
+        for (int k = 0; k < numero * BYTES_MINUCIA; k++) {
+            if (registros.get(base + k) != otra.registros.get(otra.base + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,537 @@
+package pbmt;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * modo en flujo para escaneos muy grandes (fichas decadactilares o palmas a 1000 dpi): nunca hay una imagen completa en memoria
+ * la imagen se lee fila a fila con LectorFilas dos veces: la primera solo para el histograma de la ecualizacion
+ * (y Otsu), la segunda para binarizar cada fila y empujarla por una cadena de etapas
+ * si no es PGM, la primera lectura deja ademas los grises en un PGM temporal (un byte por pixel en disco) y las siguientes leen de el,
+ * para no volver a decodificar; en JPEG y PNG la primera lectura sigue costando del orden del cuadrado del numero de bloques
+ * (ver LectorFilas), y si hay mas de un bloque se avisa de que es mejor convertir antes a PGM o TIFF
+ * cada etapa guarda una ventana de tres filas (anterior, actual y siguiente) y entrega su fila actual en cuanto recibe la siguiente:
+ * los dos filtros, y despues una etapa por cada sub-iteracion de Zhang-Suen, con el mismo codigo empaquetado de ImagenBinaria
+ * las sub-iteraciones van en cascada, la sub-iteracion k de la fila y se hace en cuanto la k-1 tiene las filas y-1, y e y+1,
+ * que es lo mismo que procesar la imagen por franjas de una fila intercambiando el halo con las vecinas
+ * como no se sabe cuantas pasadas hacen falta hasta el final, se encadenan pasadasMaximas y al terminar se comprueba que la ultima
+ * no ha borrado nada: el esqueleto ya no cambia y es el mismo que en memoria; si no, se repite la segunda lectura con el doble
+ * la memoria es la del bloque de decodificacion mas unas pocas filas empaquetadas por etapa, no depende del alto de la imagen
+ * solo admite binarizacion global (umbral fijo u Otsu), las locales necesitan una ventana de filas mayor
+ * el esqueleto se escribe en PBM fila a fila
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class ProcesadorFlujo {
+    public static final int FILAS_BLOQUE = 256;
+    public static final int PASADAS_INICIALES = 16;
+
+    /**
+     * destino de las filas del esqueleto, en orden de arriba abajo
+     */
+    interface DestinoFilas {
+        /**
+         * empieza una imagen, puede llamarse otra vez si hay que repetir con mas pasadas
+         */
+        void empezar(int ancho, int alto) throws IOException;
+
+        /**
+         * fila empaquetada como en ImagenBinaria, 1 blanco
+         */
+        void fila(long[] bits, int inicio) throws IOException;
+    }
+
+    /**
+     * eslabon de la cadena, recibe las filas empaquetadas de arriba abajo y entrega las suyas al siguiente
+     */
+    private interface Eslabon {
+        /**
+         * recibe la fila siguiente
+         */
+        void recibir(long[] bits, int inicio) throws IOException;
+
+        /**
+         * ya no hay mas filas, entrega las que tenga pendientes y termina el siguiente
+         */
+        void terminar() throws IOException;
+
+        /**
+         * bytes reservados por el eslabon
+         */
+        long getBytes();
+    }
+
+    /**
+     * ultimo eslabon, pasa las filas al destino
+     */
+    private static class HaciaDestino implements Eslabon {
+        final DestinoFilas destino;
+
+        HaciaDestino(DestinoFilas destino) {
+            this.destino = destino;
+        }
+
+        @Override
+        public void recibir(long[] bits, int inicio) throws IOException {
+            destino.fila(bits, inicio);
+        }
+
+        @Override
+        public void terminar() {
+        }
+
+        @Override
+        public long getBytes() {
+            return 0;
+        }
+    }
+
+    /**
+     * etapa de la cadena con su ventana de tres filas, la del medio es la que se calcula
+     */
+    private abstract static class Etapa implements Eslabon {
+        final ImagenBinaria ventana;
+        final ImagenBinaria salida;
+        final int palabras;
+        final int alto;
+        final Eslabon siguiente;
+        int recibidas;
+
+        Etapa(int ancho, int alto, Eslabon siguiente) {
+            this.ventana = new ImagenBinaria(ancho, 3);
+            this.salida = new ImagenBinaria(ancho, 3);
+            this.palabras = ventana.palabrasFila;
+            this.alto = alto;
+            this.siguiente = siguiente;
+        }
+
+        void reiniciar() {
+            recibidas = 0;
+        }
+
+        /**
+         * recibe la fila siguiente, con la fila 0 entrega el borde de arriba y con las demas la fila anterior
+         */
+        @Override
+        public void recibir(long[] bits, int inicio) throws IOException {
+            System.arraycopy(ventana.bits, palabras, ventana.bits, 0, 2 * palabras);
+            System.arraycopy(bits, inicio, ventana.bits, 2 * palabras, palabras);
+            if (recibidas++ == 0) {
+                siguiente.recibir(borde(2 * palabras), 2 * palabras);
+            } else if (recibidas > 2) {
+                calcular();
+                siguiente.recibir(salida.bits, palabras);
+            }
+        }
+
+        /**
+         * entrega el borde de abajo, que es la ultima fila recibida
+         */
+        @Override
+        public void terminar() throws IOException {
+            if (alto > 1) {
+                siguiente.recibir(borde(2 * palabras), 2 * palabras);
+            }
+            siguiente.terminar();
+        }
+
+        /**
+         * fila de la imagen del borde (0 o alto-1) a partir de la fila de la ventana que empieza en inicio
+         */
+        abstract long[] borde(int inicio);
+
+        /**
+         * calcula la fila del medio de la ventana en la fila del medio de salida
+         */
+        abstract void calcular();
+
+        @Override
+        public long getBytes() {
+            return 8L * (ventana.bits.length + salida.bits.length);
+        }
+    }
+
+    /**
+     * filtroBinario1 o filtroBinario2 de ImagenBinaria, los bordes quedan a 0
+     */
+    private static class Filtro extends Etapa {
+        final boolean primero;
+
+        Filtro(int ancho, int alto, boolean primero, Eslabon siguiente) {
+            super(ancho, alto, siguiente);
+            this.primero = primero;
+        }
+
+        @Override
+        long[] borde(int inicio) {
+            Arrays.fill(salida.bits, 0L);
+            return salida.bits;
+        }
+
+        @Override
+        void calcular() {
+            if (primero) {
+                ventana.filtroBinario1(salida, 1, 2);
+            } else {
+                ventana.filtroBinario2(salida, 1, 2);
+            }
+        }
+    }
+
+    /**
+     * una sub-iteracion de Zhang-Suen sobre la imagen invertida, marca con la ventana sin tocar y borra en la salida
+     * los bordes no se evaluan y pasan tal cual
+     */
+    private static class SubIteracion extends Etapa {
+        final boolean primera;
+        final ImagenBinaria marcas;
+        long borrados;
+
+        SubIteracion(int ancho, int alto, boolean primera, Eslabon siguiente) {
+            super(ancho, alto, siguiente);
+            this.primera = primera;
+            this.marcas = new ImagenBinaria(ancho, 3);
+        }
+
+        @Override
+        void reiniciar() {
+            super.reiniciar();
+            borrados = 0;
+        }
+
+        @Override
+        long[] borde(int inicio) {
+            return ventana.bits;
+        }
+
+        @Override
+        void calcular() {
+            ventana.marcarZhangSuen(marcas, primera, 1, 2);
+            for (int i = palabras; i < 2 * palabras; i++) {
+                salida.bits[i] = ventana.bits[i] & ~marcas.bits[i];
+                borrados += Long.bitCount(marcas.bits[i]);
+            }
+        }
+
+        @Override
+        public long getBytes() {
+            return super.getBytes() + 8L * marcas.bits.length;
+        }
+    }
+
+    /**
+     * invierte cada fila sin ventana, para entrar y salir de Zhang-Suen
+     */
+    private static class Inversion implements Eslabon {
+        final ImagenBinaria fila;
+        final Eslabon siguiente;
+
+        Inversion(int ancho, Eslabon siguiente) {
+            this.fila = new ImagenBinaria(ancho, 1);
+            this.siguiente = siguiente;
+        }
+
+        @Override
+        public void recibir(long[] bits, int inicio) throws IOException {
+            System.arraycopy(bits, inicio, fila.bits, 0, fila.palabrasFila);
+            fila.invertir(fila, 0, 1);
+            siguiente.recibir(fila.bits, 0);
+        }
+
+        @Override
+        public void terminar() throws IOException {
+            siguiente.terminar();
+        }
+
+        @Override
+        public long getBytes() {
+            return 8L * fila.bits.length;
+        }
+    }
+
+    private final Binarizador binarizador;
+    private final int filasBloque;
+    private final MetricasEtapas metricas = MetricasEtapas.global();
+    private int pasadas;
+    private long pixelesBorrados;
+    private long bytesMemoria;
+
+    /**
+     * constructor con el bloque de decodificacion por defecto
+     *
+     * @param binarizador con umbral fijo u Otsu
+     */
+    public ProcesadorFlujo(Binarizador binarizador) {
+        this(binarizador, FILAS_BLOQUE);
+    }
+
+    /**
+     * constructor
+     *
+     * @param binarizador con umbral fijo u Otsu
+     * @param filasBloque con las filas que se decodifican de una vez en los formatos que no son PGM
+     */
+    public ProcesadorFlujo(Binarizador binarizador, int filasBloque) {
+        if (binarizador.esLocal()) {
+            throw new IllegalArgumentException("el modo en flujo solo admite umbral fijo u otsu");
+        }
+        if (filasBloque < 1) {
+            throw new IllegalArgumentException("filasBloque tiene que ser al menos 1");
+        }
+        this.binarizador = binarizador;
+        this.filasBloque = filasBloque;
+    }
+
+    /**
+     * pasadas completas de Zhang-Suen de la ultima imagen, como el do-while de ImagenBinaria
+     */
+    public int getPasadas() {
+        return pasadas;
+    }
+
+    public long getPixelesBorrados() {
+        return pixelesBorrados;
+    }
+
+    /**
+     * bytes reservados por el lector y la cadena de etapas en la ultima imagen, lo que ocupa el modo en flujo
+     */
+    public long getBytesMemoria() {
+        return bytesMemoria;
+    }
+
+    /**
+     * procesa la imagen y escribe el esqueleto en PBM, a un temporal que al terminar se mueve encima
+     *
+     * @param entrada con la imagen, PGM binario o cualquier formato de ImageIO
+     * @param salida  con el PBM de salida
+     * @throws IOException
+     */
+    public void procesar(Path entrada, Path salida) throws IOException {
+        Path temporal = salida.resolveSibling(salida.getFileName() + ".tmp");
+        try (EscritorFilasPbm escritor = new EscritorFilasPbm(temporal)) {
+            procesar(entrada, escritor);
+        }
+        Files.move(temporal, salida, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * procesa la imagen y devuelve el esqueleto en memoria, para comprobar el resultado frente al proceso en memoria
+     *
+     * @param entrada con la imagen
+     * @return esqueleto
+     * @throws IOException
+     */
+    public ImagenBinaria procesar(Path entrada) throws IOException {
+        ImagenBinaria[] resultado = new ImagenBinaria[1];
+        procesar(entrada, new DestinoFilas() {
+            int y;
+
+            @Override
+            public void empezar(int ancho, int alto) {
+                resultado[0] = new ImagenBinaria(ancho, alto);
+                y = 0;
+            }
+
+            @Override
+            public void fila(long[] bits, int inicio) {
+                ImagenBinaria imagen = resultado[0];
+                System.arraycopy(bits, inicio, imagen.bits, y++ * imagen.palabrasFila, imagen.palabrasFila);
+            }
+        });
+        return resultado[0];
+    }
+
+    /**
+     * las dos lecturas, repitiendo la segunda con el doble de pasadas mientras la ultima siga borrando
+     */
+    void procesar(Path entrada, DestinoFilas destino) throws IOException {
+        int[] histograma = new int[256];
+        int ancho, alto;
+        long bytesPrimeraLectura;
+        Path grises = null;//PGM temporal con los grises si la entrada hay que decodificarla
+        try {
+            long inicio = metricas.inicio(), bytes = metricas.bytesHilo();
+            try (LectorFilas lector = LectorFilas.abrir(entrada, filasBloque)) {
+                ancho = lector.getAncho();
+                alto = lector.getAlto();
+                if (lector.decodificaDesdeElPrincipio() && alto > filasBloque) {
+                    System.out.println("AVISO! " + entrada + " se decodifica desde el principio en cada bloque de " + filasBloque
+                            + " filas, la lectura crece con el cuadrado de los bloques; mejor en PGM o TIFF, o con mas filas por bloque");
+                }
+                if (!lector.leeDirecto()) {
+                    grises = Files.createTempFile("flujo", ".pgm");
+                }
+                try (OutputStream copia = grises == null ? null : new BufferedOutputStream(Files.newOutputStream(grises), 1 << 16)) {
+                    if (copia != null) {
+                        copia.write(EscritorNetpbm.cabecera(ancho, alto, 1));
+                    }
+                    byte[] fila = new byte[ancho];
+                    for (int y = 0; y < alto; y++) {
+                        lector.leerFila(fila);
+                        for (int x = 0; x < ancho; x++) {
+                            histograma[fila[x] & 0xFF]++;
+                        }
+                        if (copia != null) {
+                            copia.write(fila);
+                        }
+                    }
+                }
+                bytesPrimeraLectura = lector.getBytesBuffers() + ancho;
+            }
+            metricas.registrar(MetricasEtapas.Etapa.HISTOGRAMA, inicio, bytes);
+            int[] lut = new int[256];
+            PipelineFusionado.calcularLUT(histograma, (long) ancho * alto, lut);
+            int umbral = PipelineFusionado.umbralGlobal(binarizador, histograma, lut, new int[256]);
+            int nivelBlanco = PipelineFusionado.nivelBlanco(lut, umbral);
+            Path filas = grises != null ? grises : entrada;
+            for (int pasadasMaximas = PASADAS_INICIALES; ; pasadasMaximas *= 2) {
+                if (binarizarYAdelgazar(filas, nivelBlanco, ancho, alto, pasadasMaximas, destino)) {
+                    bytesMemoria = Math.max(bytesMemoria, bytesPrimeraLectura);
+                    return;
+                }
+            }
+        } finally {
+            if (grises != null) {
+                Files.deleteIfExists(grises);
+            }
+        }
+    }
+
+    /**
+     * segunda lectura: binariza cada fila y la empuja por la cadena
+     *
+     * @return true si la ultima pasada no ha borrado nada, es decir, si el esqueleto es el definitivo
+     */
+    private boolean binarizarYAdelgazar(Path entrada, int nivelBlanco, int ancho, int alto, int pasadasMaximas, DestinoFilas destino) throws IOException {
+        long inicio = metricas.inicio(), bytes = metricas.bytesHilo();
+        //la cadena se construye desde el final, cada eslabon con el siguiente
+        List<Eslabon> cadena = new ArrayList<>();
+        cadena.add(new Inversion(ancho, new HaciaDestino(destino)));
+        SubIteracion[] subIteraciones = new SubIteracion[2 * pasadasMaximas];
+        for (int k = subIteraciones.length - 1; k >= 0; k--) {
+            subIteraciones[k] = new SubIteracion(ancho, alto, k % 2 == 0, cadena.get(cadena.size() - 1));
+            cadena.add(subIteraciones[k]);
+        }
+        cadena.add(new Inversion(ancho, cadena.get(cadena.size() - 1)));
+        cadena.add(new Filtro(ancho, alto, false, cadena.get(cadena.size() - 1)));
+        cadena.add(new Filtro(ancho, alto, true, cadena.get(cadena.size() - 1)));
+        Eslabon primero = cadena.get(cadena.size() - 1);
+        destino.empezar(ancho, alto);
+        ImagenBinaria fila = new ImagenBinaria(ancho, 1);
+        bytesMemoria = 8L * fila.bits.length + ancho;
+        for (Eslabon eslabon : cadena) {
+            bytesMemoria += eslabon.getBytes();
+        }
+        try (LectorFilas lector = LectorFilas.abrir(entrada, filasBloque)) {
+            byte[] grises = new byte[ancho];
+            NucleosFila nucleos = NucleosFila.activos();
+            for (int y = 0; y < alto; y++) {
+                lector.leerFila(grises);
+                nucleos.empaquetar(grises, 0, ancho, nivelBlanco, fila.bits, 0);
+                primero.recibir(fila.bits, 0);
+            }
+            bytesMemoria += lector.getBytesBuffers();
+        }
+        primero.terminar();
+        pasadas = 0;
+        pixelesBorrados = 0;
+        for (int p = 0; p < pasadasMaximas && pasadas == 0; p++) {
+            long borradosPasada = subIteraciones[2 * p].borrados + subIteraciones[2 * p + 1].borrados;
+            pixelesBorrados += borradosPasada;
+            if (borradosPasada == 0) {
+                pasadas = p + 1;
+            }
+        }
+        metricas.registrar(MetricasEtapas.Etapa.ZHANG_SUEN, inicio, bytes);
+        if (pasadas == 0) {
+            return false;
+        }
+        metricas.registrarZhangSuen(pasadas, pixelesBorrados);
+        return true;
+    }
+
+    /**
+     * PBM escrito fila a fila, en PBM el bit a 1 es negro y el primer pixel va en el bit mas alto de cada byte
+     */
+    private static class EscritorFilasPbm implements DestinoFilas, AutoCloseable {
+        private final Path archivo;
+        private OutputStream salida;
+        private byte[] filaPbm;
+        private int ancho;
+
+        EscritorFilasPbm(Path archivo) {
+            this.archivo = archivo;
+        }
+
+        @Override
+        public void empezar(int ancho, int alto) throws IOException {
+            close();//si se repite, se vuelve a escribir desde el principio
+            this.ancho = ancho;
+            this.filaPbm = new byte[(ancho + 7) >>> 3];
+            salida = new BufferedOutputStream(Files.newOutputStream(archivo), 1 << 16);
+            salida.write(EscritorNetpbm.cabecera(ancho, alto, 0));
+        }
+
+        @Override
+        public void fila(long[] bits, int inicio) throws IOException {
+            EscritorNetpbm.empaquetarFila(bits, inicio, ancho, filaPbm, 0);
+            salida.write(filaPbm);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (salida != null) {
+                salida.close();
+                salida = null;
+            }
+        }
+    }
+
+    /**
+     * punto de entrada del modo en flujo desde el main de FingerPrintImage
+     *
+     * @param args con -flujo entrada salida.pbm [umbral|otsu] [filasBloque]
+     * @return 0 si se ha generado la salida, 2 si los argumentos no son validos o no se puede leer la entrada o escribir la salida
+     */
+    public static int ejecutar(String[] args) {
+        String uso = "uso: -flujo entrada salida.pbm [umbral|otsu] [filasBloque]";
+        if (args.length < 3) {
+            System.out.println(uso);
+            return 2;
+        }
+        Path entrada = Paths.get(args[1]);
+        if (!Files.exists(entrada)) {
+            System.out.println("ERROR! no existe " + entrada);
+            return 2;
+        }
+        ProcesadorFlujo procesador;
+        try {
+            procesador = new ProcesadorFlujo(Binarizador.porNombre(args.length > 3 ? args[3] : "fijo"),
+                    args.length > 4 ? Integer.parseInt(args[4]) : FILAS_BLOQUE);
+        } catch (IllegalArgumentException e) {
+            System.out.println("ERROR! " + e.getMessage());
+            System.out.println(uso);
+            return 2;
+        }
+        long inicio = System.nanoTime();
+        try {
+            procesador.procesar(entrada, Paths.get(args[2]));
+        } catch (IOException e) {//entrada corrupta o en un formato sin lector, o fallo del PGM temporal o de la salida
+            System.out.println("ERROR! no se puede procesar " + entrada + " a " + args[2] + ": " + e);
+            System.out.println(uso);
+            return 2;
+        }
+        System.out.printf("%s generada en %.2f s, %d pasadas de Zhang-Suen, %.1f KB de buffers%n", args[2],
+                (System.nanoTime() - inicio) / 1e9, procesador.getPasadas(), procesador.getBytesMemoria() / 1024.0);
+        return 0;
+    }
+}
@@ -0,0 +1,346 @@
+package pbmt;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * ejecucion en varios nucleos de los filtros y del adelgazamiento de una sola imagen, para bajar la latencia de cada huella
+ * la imagen se reparte en franjas horizontales de filas y cada franja se procesa en un hilo del ejecutor
+ * cada etapa solo lee el estado anterior (los filtros la imagen de entrada, el marcado de Zhang-Suen la imagen sin modificar)
+ * y cada franja solo escribe sus propias filas, asi que las filas vecinas de otras franjas hacen de halo sin copiarlas
+ * entre el marcado y el borrado de cada sub-iteracion de Zhang-Suen se espera a que terminen todas las franjas,
+ * por eso el resultado es determinista y exactamente el mismo que el de ImagenBinaria en un solo hilo
+ * desde el main de FingerPrintImage, -franjas N procesa una imagen con el PipelineFusionado en 1 a N franjas y muestra la aceleracion
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class ProcesadorFranjas {
+    /**
+     * trabajo sobre las filas de yDesde a yHasta-1, devuelve bits que se combinan con OR entre todas las franjas
+     */
+    interface TareaFranja {
+        long ejecutar(int yDesde, int yHasta);
+    }
+
+    private static final int FILAS_MINIMAS = 32;//por debajo no compensa repartir, el coste de sincronizar supera al trabajo
+
+    private final ExecutorService ejecutor;
+    private final int franjas;
+    private final int filasMinimas;
+
+    /**
+     * constructor
+     *
+     * @param ejecutor     con el ejecutor donde se lanzan las franjas, no puede ser el mismo que ejecuta a quien llama
+     *                     si es de tamaño fijo, porque la espera a las franjas podria bloquear todos sus hilos
+     * @param franjas      con el numero maximo de franjas por etapa, normalmente el numero de nucleos
+     * @param filasMinimas con el numero minimo de filas por franja
+     */
+    public ProcesadorFranjas(ExecutorService ejecutor, int franjas, int filasMinimas) {
+        if (franjas < 1 || filasMinimas < 1) {
+            throw new IllegalArgumentException("franjas y filasMinimas tienen que ser al menos 1");
+        }
+        this.ejecutor = ejecutor;
+        this.franjas = franjas;
+        this.filasMinimas = filasMinimas;
+    }
+
+    /**
+     * constructor con un ejecutor y el numero de franjas, con el minimo de filas por franja por defecto
+     */
+    public ProcesadorFranjas(ExecutorService ejecutor, int franjas) {
+        this(ejecutor, franjas, FILAS_MINIMAS);
+    }
+
+    /**
+     * procesador sobre el pool fork-join comun con una franja por nucleo
+     *
+     * @return procesador por defecto
+     */
+    public static ProcesadorFranjas comun() {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        return new ProcesadorFranjas(pool, pool.getParallelism());
+    }
+
+    public int getFranjas() {
+        return franjas;
+    }
+
+    /**
+     * ejecuta la tarea repartiendo las filas de 0 a alto-1 en franjas y espera a que terminen todas (barrera)
+     * la ultima franja la ejecuta el propio hilo que llama en lugar de quedarse esperando
+     *
+     * @param alto  con el numero de filas de la imagen
+     * @param tarea con el trabajo de cada franja
+     * @return OR de lo que devuelven todas las franjas
+     */
+    long enFranjas(int alto, TareaFranja tarea) {
+        return enFranjas(0, alto, tarea);
+    }
+
+    /**
+     * ejecuta la tarea repartiendo en franjas solo las filas de desde a hasta-1, para la caja de una MascaraSegmentacion
+     *
+     * @param desde con la primera fila
+     * @param hasta con la primera fila que no se procesa
+     * @param tarea con el trabajo de cada franja
+     * @return OR de lo que devuelven todas las franjas
+     */
+    long enFranjas(int desde, int hasta, TareaFranja tarea) {
+        int filas = hasta - desde;
+        int numero = Math.max(1, Math.min(franjas, filas / filasMinimas));
+        if (numero == 1) {
+            return filas > 0 ? tarea.ejecutar(desde, hasta) : 0;
+        }
+        List<Future<Long>> pendientes = new ArrayList<>(numero - 1);
+        for (int k = 0; k < numero - 1; k++) {
+            int yDesde = desde + (int) ((long) filas * k / numero);
+            int yHasta = desde + (int) ((long) filas * (k + 1) / numero);
+            pendientes.add(ejecutor.submit(() -> tarea.ejecutar(yDesde, yHasta)));
+        }
+        long resultado = tarea.ejecutar(desde + (int) ((long) filas * (numero - 1) / numero), hasta);
+        try {
+            for (Future<Long> pendiente : pendientes) {
+                resultado |= pendiente.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrumpido esperando a las franjas", e);
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof RuntimeException) {
+                throw (RuntimeException) causa;
+            }
+            if (causa instanceof Error) {
+                throw (Error) causa;
+            }
+            throw new IllegalStateException(causa);
+        }
+        return resultado;
+    }
+
+    /**
+     * primer filtro binario repartido en franjas, mismo resultado que entrada.filtroBinario1(salida)
+     *
+     * @param entrada con la imagen de entrada
+     * @param salida  con la imagen de salida del mismo tamaño, distinta de la entrada
+     */
+    public void filtroBinario1(ImagenBinaria entrada, ImagenBinaria salida) {
+        enFranjas(entrada.alto, (yDesde, yHasta) -> {
+            entrada.filtroBinario1(salida, yDesde, yHasta);
+            return 0;
+        });
+    }
+
+    /**
+     * segundo filtro binario repartido en franjas, mismo resultado que entrada.filtroBinario2(salida)
+     *
+     * @param entrada con la imagen de entrada
+     * @param salida  con la imagen de salida del mismo tamaño, distinta de la entrada
+     */
+    public void filtroBinario2(ImagenBinaria entrada, ImagenBinaria salida) {
+        enFranjas(entrada.alto, (yDesde, yHasta) -> {
+            entrada.filtroBinario2(salida, yDesde, yHasta);
+            return 0;
+        });
+    }
+
+    /**
+     * primer filtro binario repartido en franjas solo dentro de la caja de la mascara, fuera la salida no se toca
+     *
+     * @param entrada con la imagen de entrada
+     * @param salida  con la imagen de salida del mismo tamaño, distinta de la entrada
+     * @param mascara con la caja a procesar
+     */
+    public void filtroBinario1(ImagenBinaria entrada, ImagenBinaria salida, MascaraSegmentacion mascara) {
+        int iDesde = mascara.getPalabraDesde(), iHasta = mascara.getPalabraHasta();
+        enFranjas(mascara.getY0(), mascara.getY1(), (yDesde, yHasta) -> {
+            entrada.filtroBinario1(salida, yDesde, yHasta, iDesde, iHasta);
+            return 0;
+        });
+    }
+
+    /**
+     * segundo filtro binario repartido en franjas solo dentro de la caja de la mascara, fuera la salida no se toca
+     *
+     * @param entrada con la imagen de entrada
+     * @param salida  con la imagen de salida del mismo tamaño, distinta de la entrada
+     * @param mascara con la caja a procesar
+     */
+    public void filtroBinario2(ImagenBinaria entrada, ImagenBinaria salida, MascaraSegmentacion mascara) {
+        int iDesde = mascara.getPalabraDesde(), iHasta = mascara.getPalabraHasta();
+        enFranjas(mascara.getY0(), mascara.getY1(), (yDesde, yHasta) -> {
+            entrada.filtroBinario2(salida, yDesde, yHasta, iDesde, iHasta);
+            return 0;
+        });
+    }
+
+    /**
+     * adelgazamiento de Zhang-Suen repartido en franjas, mismo resultado que entrada.adelgazamientoZhangSuen(salida, marcas)
+     * cada sub-iteracion tiene dos barreras: todas las franjas marcan sobre la imagen sin tocar y despues todas borran
+     *
+     * @param entrada con la imagen de entrada
+     * @param salida  con la imagen de salida del mismo tamaño, distinta de la entrada
+     * @param marcas  con la imagen auxiliar para marcar los pixeles a borrar
+     * @return numero de pasadas completas (las 2 sub-iteraciones) realizadas
+     */
+    public int adelgazamientoZhangSuen(ImagenBinaria entrada, ImagenBinaria salida, ImagenBinaria marcas) {
+        int alto = entrada.alto;
+        enFranjas(alto, (yDesde, yHasta) -> {
+            entrada.invertir(salida, yDesde, yHasta);
+            return 0;
+        });
+        boolean cambiado;
+        int pasadas = 0;
+        do {
+            cambiado = subIteracionZhangSuen(salida, marcas, true);
+            cambiado |= subIteracionZhangSuen(salida, marcas, false);
+            pasadas++;
+        } while (cambiado);
+        enFranjas(alto, (yDesde, yHasta) -> {
+            salida.invertir(salida, yDesde, yHasta);
+            return 0;
+        });
+        return pasadas;
+    }
+
+    /**
+     * adelgazamiento de Zhang-Suen repartido en franjas solo dentro de la caja de la mascara, fuera la salida no se toca
+     * solo se marcan pixeles negros y los de la caja nunca tocan su borde, que es margen de fondo o borde de la imagen,
+     * asi que lo que haya fuera de la caja no cambia ninguna marca
+     *
+     * @param entrada con la imagen de entrada
+     * @param salida  con la imagen de salida del mismo tamaño, distinta de la entrada
+     * @param marcas  con la imagen auxiliar para marcar los pixeles a borrar
+     * @param mascara con la caja a procesar
+     * @return numero de pasadas completas (las 2 sub-iteraciones) realizadas
+     */
+    public int adelgazamientoZhangSuen(ImagenBinaria entrada, ImagenBinaria salida, ImagenBinaria marcas, MascaraSegmentacion mascara) {
+        int y0 = mascara.getY0(), y1 = mascara.getY1();
+        int iDesde = mascara.getPalabraDesde(), iHasta = mascara.getPalabraHasta();
+        enFranjas(y0, y1, (yDesde, yHasta) -> {
+            entrada.invertir(salida, yDesde, yHasta, iDesde, iHasta);
+            return 0;
+        });
+        boolean cambiado;
+        int pasadas = 0;
+        do {
+            cambiado = subIteracionZhangSuen(salida, marcas, true, y0, y1, iDesde, iHasta);
+            cambiado |= subIteracionZhangSuen(salida, marcas, false, y0, y1, iDesde, iHasta);
+            pasadas++;
+        } while (cambiado);
+        enFranjas(y0, y1, (yDesde, yHasta) -> {
+            salida.invertir(salida, yDesde, yHasta, iDesde, iHasta);
+            return 0;
+        });
+        return pasadas;
+    }
+
+    private boolean subIteracionZhangSuen(ImagenBinaria imagen, ImagenBinaria marcas, boolean primera) {
+        return subIteracionZhangSuen(imagen, marcas, primera, 0, imagen.alto, 0, imagen.palabrasFila);
+    }
+
+    private boolean subIteracionZhangSuen(ImagenBinaria imagen, ImagenBinaria marcas, boolean primera, int y0, int y1, int iDesde, int iHasta) {
+        if (enFranjas(y0, y1, (yDesde, yHasta) -> imagen.marcarZhangSuen(marcas, primera, yDesde, yHasta, iDesde, iHasta)) == 0) {
+            return false;
+        }
+        enFranjas(y0, y1, (yDesde, yHasta) -> {
+            imagen.borrarMarcas(marcas, yDesde, yHasta, iDesde, iHasta);
+            return 0;
+        });
+        return true;
+    }
+
+    /**
+     * punto de entrada del modo por franjas desde el main de FingerPrintImage
+     * procesa la imagen con el PipelineFusionado sin franjas y con 1 a N franjas, comprueba que el esqueleto es siempre el mismo
+     * y muestra la mediana de tiempo de cada numero de franjas y su aceleracion frente al pipeline sin franjas
+     *
+     * @param args con -franjas N [imagen|dpi] [binarizacion] [repeticiones] [-segmentar], la imagen puede ser un fichero
+     *             o una resolucion como 1000dpi para una HuellaSintetica, imagen.jpg por defecto
+     * @return codigo de salida del proceso, 0 si todos los esqueletos coinciden, 1 si alguno no y 2 si los argumentos no valen
+     * @throws IOException
+     */
+    public static int ejecutar(String[] args) throws IOException {
+        boolean segmentar = Arrays.asList(args).contains("-segmentar");
+        args = Arrays.stream(args).filter(arg -> !arg.equals("-segmentar")).toArray(String[]::new);
+        int maximo, repeticiones;
+        Binarizador binarizador;
+        BufferedImage imagen;
+        String nombre = args.length > 2 ? args[2] : "imagen.jpg";
+        String uso = "uso: -franjas N [imagen|dpi] [umbral|otsu|media|sauvola] [repeticiones] [-segmentar]";
+        try {
+            maximo = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            binarizador = Binarizador.porNombre(args.length > 3 ? args[3] : "fijo");
+            repeticiones = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+            if (maximo < 1 || repeticiones < 1) {
+                throw new IllegalArgumentException("N y repeticiones tienen que ser al menos 1");
+            }
+            imagen = nombre.toLowerCase().endsWith("dpi")
+                    ? HuellaSintetica.aResolucion(Integer.parseInt(nombre.substring(0, nombre.length() - 3)))
+                    : ImageIO.read(new File(nombre));
+        } catch (IllegalArgumentException e) {
+            System.out.println(uso);
+            return 2;
+        } catch (IOException e) {//no existe, no se puede leer o esta corrupta
+            System.out.println("ERROR! no se puede leer " + nombre + ": " + e.getMessage());
+            System.out.println(uso);
+            return 2;
+        }
+        if (imagen == null) {
+            System.out.println("ERROR! formato de imagen no reconocido: " + nombre);
+            return 2;
+        }
+        System.out.println(nombre + " (" + imagen.getWidth() + "x" + imagen.getHeight() + ") con " + binarizador
+                + (segmentar ? " y segmentacion del fondo" : "") + ", " + Runtime.getRuntime().availableProcessors() + " nucleos");
+        long[] referencia = new PipelineFusionado().procesar(imagen, binarizador, segmentar).bits.clone();
+        double base = 0;
+        int distintos = 0;
+        ExecutorService ejecutor = Executors.newFixedThreadPool(Math.max(1, maximo - 1));//la ultima franja la hace el hilo que llama
+        try {
+            for (int numero = 0; numero <= maximo; numero++) {
+                PipelineFusionado pipeline = new PipelineFusionado(numero == 0 ? null : new ProcesadorFranjas(ejecutor, numero));
+                double ms = medianaMs(pipeline, imagen, binarizador, segmentar, repeticiones);
+                boolean igual = Arrays.equals(referencia, pipeline.procesar(imagen, binarizador, segmentar).bits);
+                if (numero == 0) {
+                    base = ms;
+                }
+                if (!igual) {
+                    distintos++;
+                }
+                System.out.printf("%-12s %9.3f ms  x%.2f%s%n", numero == 0 ? "sin franjas" : numero + " franjas", ms, base / ms,
+                        igual ? "" : "  ERROR! esqueleto distinto");
+            }
+        } finally {
+            ejecutor.shutdown();
+        }
+        return distintos > 0 ? 1 : 0;
+    }
+
+    /**
+     * mediana en milisegundos de varias ejecuciones del pipeline sobre la misma imagen, tras otras tantas de calentamiento
+     */
+    private static double medianaMs(PipelineFusionado pipeline, BufferedImage imagen, Binarizador binarizador, boolean segmentar, int repeticiones) {
+        for (int i = 0; i < repeticiones; i++) {
+            pipeline.procesar(imagen, binarizador, segmentar);
+        }
+        long[] tiempos = new long[repeticiones];
+        for (int i = 0; i < repeticiones; i++) {
+            long inicio = System.nanoTime();
+            pipeline.procesar(imagen, binarizador, segmentar);
+            tiempos[i] = System.nanoTime() - inicio;
+        }
+        Arrays.sort(tiempos);
+        return tiempos[repeticiones / 2] / 1e6;
+    }
+}
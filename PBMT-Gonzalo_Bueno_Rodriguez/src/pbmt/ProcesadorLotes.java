@@ -0,0 +1,299 @@
+package pbmt;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * modo por lotes sin menu, aplica el proceso automatico (opcion 7) a muchas imagenes a la vez
+ * uso: -lote entrada [directorioSalida] [hilos] [binarizacion] [formato] [-segmentar]
+ * binarizacion es un umbral fijo (50 por defecto) u otsu, media o sauvola, ver Binarizador
+ * -segmentar, en cualquier posicion tras la entrada, procesa solo la caja de la huella de cada imagen, ver MascaraSegmentacion
+ * entrada puede ser un directorio (se procesan sus .jpg, .jpeg, .png, .bmp y .gif) o un fichero de texto con una ruta por linea
+ * de cada imagen se guarda el esqueleto (_AUTO con la extension del formato, png por defecto) y la plantilla de minucias (.min)
+ * con el nombre completo de la imagen, extension incluida, y su ruta relativa a la carpeta comun de todas las entradas,
+ * para que a.jpg y a.png o dos a.jpg de carpetas distintas no se pisen
+ * con formato no solo se guardan las plantillas
+ * los esqueletos los codifica y guarda un EscritorAsincrono comun, los trabajadores solo los dejan en su cola
+ * al terminar se muestran los tiempos de cada etapa y se guardan en metricas.json y metricas.prom del directorio de salida
+ * el proceso termina con codigo 1 si alguna imagen falla y con 2 si los argumentos no son validos
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class ProcesadorLotes {
+    private final Path directorioSalida;
+    private final int hilos;
+    private final Binarizador binarizador;
+    private final EscritorImagen formato;
+    private boolean segmentar;
+    private Path base;//carpeta comun de las imagenes del lote, las salidas repiten las rutas relativas a ella
+
+    /**
+     * constructor
+     *
+     * @param directorioSalida con el directorio donde se dejan las imagenes resultado
+     * @param hilos            con el numero de hilos trabajadores, es el maximo de imagenes procesandose a la vez
+     * @param umbral           con el umbral de binarizacion para todas las imagenes
+     */
+    public ProcesadorLotes(Path directorioSalida, int hilos, int umbral) {
+        this(directorioSalida, hilos, umbral, new EscritorPng());
+    }
+
+    /**
+     * constructor con el formato de los esqueletos
+     *
+     * @param directorioSalida con el directorio donde se dejan las imagenes resultado
+     * @param hilos            con el numero de hilos trabajadores, es el maximo de imagenes procesandose a la vez
+     * @param umbral           con el umbral de binarizacion para todas las imagenes
+     * @param formato          con el escritor de los esqueletos, EscritorImagen.NINGUNO para no guardarlos
+     */
+    public ProcesadorLotes(Path directorioSalida, int hilos, int umbral, EscritorImagen formato) {
+        this(directorioSalida, hilos, Binarizador.fijo(umbral), formato);
+    }
+
+    /**
+     * constructor con el metodo de binarizacion y el formato de los esqueletos
+     *
+     * @param directorioSalida con el directorio donde se dejan las imagenes resultado
+     * @param hilos            con el numero de hilos trabajadores, es el maximo de imagenes procesandose a la vez, al menos 1
+     * @param binarizador      con el metodo de binarizacion para todas las imagenes
+     * @param formato          con el escritor de los esqueletos, EscritorImagen.NINGUNO para no guardarlos
+     */
+    public ProcesadorLotes(Path directorioSalida, int hilos, Binarizador binarizador, EscritorImagen formato) {
+        if (hilos < 1) {
+            throw new IllegalArgumentException("hilos tiene que ser al menos 1");
+        }
+        this.directorioSalida = directorioSalida;
+        this.hilos = hilos;
+        this.binarizador = binarizador;
+        this.formato = formato;
+    }
+
+    /**
+     * activa la segmentacion del fondo para todas las imagenes, se llama antes de procesar
+     */
+    public void setSegmentar(boolean segmentar) {
+        this.segmentar = segmentar;
+    }
+
+    /**
+     * metodo para obtener la lista de imagenes a procesar
+     *
+     * @param entrada con un directorio o un fichero de texto con una ruta por linea
+     * @return lista con las rutas de las imagenes
+     * @throws IOException
+     */
+    static List<Path> listarImagenes(Path entrada) throws IOException {
+        List<Path> imagenes = new ArrayList<>();
+        if (Files.isDirectory(entrada)) {
+            try (Stream<Path> ficheros = Files.list(entrada)) {
+                ficheros.filter(ProcesadorLotes::esImagen).sorted().forEach(imagenes::add);
+            }
+        } else {
+            for (String linea : Files.readAllLines(entrada, StandardCharsets.UTF_8)) {
+                linea = linea.trim();
+                if (!linea.isEmpty() && !linea.startsWith("#")) {//ignoramos lineas vacias y comentarios
+                    imagenes.add(Paths.get(linea));
+                }
+            }
+        }
+        return imagenes;
+    }
+
+    private static boolean esImagen(Path fichero) {
+        String nombre = fichero.getFileName().toString().toLowerCase();
+        return nombre.endsWith(".jpg") || nombre.endsWith(".jpeg") || nombre.endsWith(".png")
+                || nombre.endsWith(".bmp") || nombre.endsWith(".gif");
+    }
+
+    /**
+     * metodo para obtener la carpeta comun de todas las imagenes, la mas profunda que las contiene a todas
+     *
+     * @param imagenes con las rutas de las imagenes
+     * @return carpeta comun, o null si no hay imagenes o no comparten raiz
+     */
+    static Path carpetaComun(List<Path> imagenes) {
+        Path comun = null;
+        for (Path imagen : imagenes) {
+            Path carpeta = imagen.toAbsolutePath().normalize().getParent();
+            if (comun == null) {
+                comun = carpeta;
+            }
+            while (comun != null && !carpeta.startsWith(comun)) {
+                comun = comun.getParent();
+            }
+            if (comun == null) {
+                return null;
+            }
+        }
+        return comun;
+    }
+
+    /**
+     * ruta de la imagen relativa a la carpeta comun del lote, con la extension
+     */
+    private Path rutaRelativa(Path imagen) {
+        Path absoluta = imagen.toAbsolutePath().normalize();
+        if (base != null && absoluta.startsWith(base)) {
+            return base.relativize(absoluta);
+        }
+        return absoluta.getRoot() != null ? absoluta.getRoot().relativize(absoluta) : absoluta;
+    }
+
+    /**
+     * nombre del fichero de salida para cada imagen sin extension, nombre original con su extension seguido de _AUTO,
+     * en la misma ruta relativa que la imagen dentro del directorio de salida
+     * la extension la pone el escritor
+     *
+     * @param imagen con la ruta de la imagen de entrada
+     * @return ruta del fichero de salida sin extension
+     */
+    Path nombreSalida(Path imagen) {
+        return directorioSalida.resolve(rutaRelativa(imagen) + "_AUTO");
+    }
+
+    /**
+     * nombre del fichero de la plantilla de minucias, nombre original con su extension seguido de .min
+     */
+    Path nombrePlantilla(Path imagen) {
+        return directorioSalida.resolve(rutaRelativa(imagen) + ".min");
+    }
+
+    /**
+     * procesa una sola imagen, cada llamada tiene su propia instancia de FingerPrintImage y por tanto su propio estado
+     *
+     * @param imagen   con la ruta de la imagen
+     * @param escritor con el escritor de los esqueletos
+     * @throws IOException
+     */
+    void procesarImagen(Path imagen, EscritorImagen escritor) throws IOException {
+        MetricasEtapas metricas = MetricasEtapas.global();
+        long inicio = metricas.inicio(), bytes = metricas.bytesHilo();
+        BufferedImage original = ImageIO.read(imagen.toFile());
+        metricas.registrar(MetricasEtapas.Etapa.DECODIFICAR, inicio, bytes);
+        if (original == null) {
+            throw new IOException("formato de imagen no reconocido");
+        }
+        Files.createDirectories(nombrePlantilla(imagen).getParent());
+        FingerPrintImage trabajo = new FingerPrintImage(original, binarizador, escritor);
+        trabajo.segmentar = segmentar;
+        FingerprintRaster imagenSalida = trabajo.procesoAutomatico();
+        trabajo.pasarImagenAArchivo(imagenSalida, nombreSalida(imagen).toString(), 0);
+        trabajo.extraerMinucias(imagenSalida).escribir(nombrePlantilla(imagen));
+    }
+
+    /**
+     * procesa todas las imagenes en un pool de hilos de tamaño fijo y muestra el resumen al terminar
+     *
+     * @param imagenes con la lista de imagenes
+     * @return numero de imagenes que han fallado
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public int procesar(List<Path> imagenes) throws IOException, InterruptedException {
+        Files.createDirectories(directorioSalida);
+        base = carpetaComun(imagenes);
+        AtomicInteger correctas = new AtomicInteger();
+        AtomicInteger fallidas = new AtomicInteger();
+        EscritorImagen escritor = formato.escribe() ? new EscritorAsincrono(formato, 2 * hilos) : formato;
+        ExecutorService pool = Executors.newFixedThreadPool(hilos);
+        long inicio = System.nanoTime();
+        for (Path imagen : imagenes) {
+            pool.execute(() -> {
+                try {
+                    procesarImagen(imagen, escritor);
+                    correctas.incrementAndGet();
+                } catch (Exception e) {//un fallo en una imagen no para el lote
+                    fallidas.incrementAndGet();
+                    System.out.println("ERROR! " + imagen + ": " + e.getMessage());
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        double segundosProceso = (System.nanoTime() - inicio) / 1e9;
+        if (escritor instanceof EscritorAsincrono) {
+            try {
+                ((EscritorAsincrono) escritor).close();//esperamos a que se guarden los esqueletos pendientes
+            } catch (IOException e) {
+                correctas.addAndGet(-((EscritorAsincrono) escritor).getFallos());
+                fallidas.addAndGet(((EscritorAsincrono) escritor).getFallos());
+                System.out.println("ERROR! " + e.getMessage() + (e.getCause() != null ? ": " + e.getCause().getMessage() : ""));
+            }
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        System.out.println("**********************************************************");
+        System.out.println("Imagenes procesadas: " + correctas.get() + ", con error: " + fallidas.get());
+        System.out.println("Hilos: " + hilos);
+        System.out.printf("Tiempo total: %.2f s (%.2f s procesando, el resto terminando de guardar)%n", segundos, segundosProceso);
+        System.out.printf("Rendimiento: %.2f imagenes/s%n", segundos > 0 ? correctas.get() / segundos : 0.0);
+        MetricasEtapas metricas = MetricasEtapas.global();
+        System.out.print(ExportadorMetricas.aTabla(metricas));
+        ExportadorMetricas.escribir(metricas, directorioSalida.resolve("metricas.json"));
+        ExportadorMetricas.escribir(metricas, directorioSalida.resolve("metricas.prom"));
+        return fallidas.get();
+    }
+
+    /**
+     * punto de entrada del modo por lotes desde el main de FingerPrintImage
+     *
+     * @param args con -lote entrada [directorioSalida] [hilos] [binarizacion] [formato] [-segmentar]
+     * @return codigo de salida del proceso, 0 si todas las imagenes se han procesado, 1 si alguna ha fallado y 2 si los argumentos no valen
+     * @throws Exception
+     */
+    public static int ejecutar(String[] args) throws Exception {
+        boolean segmentar = Arrays.asList(args).contains("-segmentar");
+        args = Arrays.stream(args).filter(arg -> !arg.equals("-segmentar")).toArray(String[]::new);
+        String uso = "uso: -lote entrada [directorioSalida] [hilos] [umbral|otsu|media|sauvola] [png|pnm|jpg|no] [-segmentar]";
+        if (args.length < 2) {
+            System.out.println(uso);
+            return 2;
+        }
+        Path entrada = Paths.get(args[1]);
+        Path salida = Paths.get(args.length > 2 ? args[2] : "salida");
+        int hilos;
+        try {
+            hilos = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        } catch (NumberFormatException e) {
+            hilos = 0;
+        }
+        if (hilos < 1) {
+            System.out.println("ERROR! hilos tiene que ser un entero de al menos 1");
+            System.out.println(uso);
+            return 2;
+        }
+        Binarizador binarizador;
+        EscritorImagen formato;
+        try {
+            binarizador = Binarizador.porNombre(args.length > 4 ? args[4] : "fijo");//mismo umbral por defecto que el menu
+            formato = EscritorImagen.porNombre(args.length > 5 ? args[5] : "png");
+        } catch (IllegalArgumentException e) {
+            System.out.println("ERROR! " + e.getMessage());
+            return 2;
+        }
+        if (!Files.exists(entrada)) {
+            System.out.println("ERROR! no existe " + entrada);
+            return 2;
+        }
+        List<Path> imagenes = listarImagenes(entrada);
+        System.out.println(imagenes.size() + " imagenes a procesar desde " + entrada + " hacia " + salida + File.separator + " con " + binarizador
+                + (segmentar ? " y segmentacion del fondo" : ""));
+        ProcesadorLotes procesador = new ProcesadorLotes(salida, hilos, binarizador, formato);
+        procesador.setSegmentar(segmentar);
+        return procesador.procesar(imagenes) > 0 ? 1 : 0;
+    }
+}
@@ -0,0 +1,145 @@
+package pbmt;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * prueba de carga contra un ServidorProceso: varios clientes mandan la misma imagen en bucle, cada uno espera su respuesta
+ * antes de mandar la siguiente, durante un tiempo fijo despues de un calentamiento que no se mide
+ * da las peticiones por segundo correctas y los percentiles de latencia de extremo a extremo, y cuenta aparte los 503
+ * uso: -carga url imagen [clientes] [segundos]
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class PruebaCarga {
+    private final HttpClient cliente = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final HttpRequest peticion;
+    private final HistogramaMetricas latencias = new HistogramaMetricas();
+    private final LongAdder correctas = new LongAdder();
+    private final LongAdder rechazadas = new LongAdder();
+    private final LongAdder erroneas = new LongAdder();
+    private volatile boolean midiendo;
+    private double segundos;
+
+    /**
+     * constructor
+     *
+     * @param uri    con la url de /procesar, con los parametros que se quieran
+     * @param imagen con los bytes de la imagen
+     */
+    public PruebaCarga(URI uri, byte[] imagen) {
+        this.peticion = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofByteArray(imagen)).build();
+    }
+
+    /**
+     * lanza los clientes y espera a que terminen
+     *
+     * @param clientes       con las peticiones en vuelo a la vez
+     * @param calentamiento  con el tiempo inicial que no se mide
+     * @param duracion       con el tiempo medido
+     * @return esta prueba, con los resultados
+     * @throws InterruptedException
+     */
+    public PruebaCarga ejecutar(int clientes, Duration calentamiento, Duration duracion) throws InterruptedException {
+        long inicio = System.nanoTime();
+        long inicioMedida = inicio + calentamiento.toNanos();
+        long fin = inicioMedida + duracion.toNanos();
+        ExecutorService hilos = Executors.newFixedThreadPool(clientes);
+        for (int i = 0; i < clientes; i++) {
+            hilos.execute(() -> {
+                long ahora;
+                while ((ahora = System.nanoTime()) < fin) {
+                    boolean medir = ahora >= inicioMedida;
+                    int codigo;
+                    try {
+                        codigo = cliente.send(peticion, HttpResponse.BodyHandlers.ofByteArray()).statusCode();
+                    } catch (IOException e) {
+                        codigo = -1;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (!medir) {
+                        continue;
+                    }
+                    if (codigo == 200) {
+                        latencias.registrar(System.nanoTime() - ahora);
+                        correctas.increment();
+                    } else if (codigo == 503) {
+                        rechazadas.increment();
+                    } else {
+                        erroneas.increment();
+                    }
+                }
+            });
+        }
+        hilos.shutdown();
+        hilos.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        segundos = (System.nanoTime() - inicioMedida) / 1e9;
+        return this;
+    }
+
+    public long getCorrectas() {
+        return correctas.sum();
+    }
+
+    public long getRechazadas() {
+        return rechazadas.sum();
+    }
+
+    public long getErroneas() {
+        return erroneas.sum();
+    }
+
+    public HistogramaMetricas getLatencias() {
+        return latencias;
+    }
+
+    /**
+     * peticiones correctas por segundo en el tiempo medido
+     */
+    public double getPeticionesPorSegundo() {
+        return segundos > 0 ? correctas.sum() / segundos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%.1f peticiones/s, latencia p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms (%d correctas, %d 503, %d errores)",
+                getPeticionesPorSegundo(), latencias.percentil(0.5) / 1e6, latencias.percentil(0.9) / 1e6, latencias.percentil(0.99) / 1e6,
+                latencias.getMaximo() / 1e6, getCorrectas(), getRechazadas(), getErroneas());
+    }
+
+    /**
+     * punto de entrada de la prueba de carga desde el main de FingerPrintImage
+     *
+     * @param args con -carga url imagen [clientes] [segundos]
+     * @throws Exception
+     */
+    public static void ejecutar(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("uso: -carga http://localhost:8080/procesar imagen [clientes] [segundos]");
+            return;
+        }
+        Path imagen = Paths.get(args[2]);
+        if (!Files.exists(imagen)) {
+            System.out.println("ERROR! no existe " + imagen);
+            return;
+        }
+        int clientes = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int segundos = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        System.out.println(clientes + " clientes contra " + args[1] + " durante " + segundos + " s tras 2 s de calentamiento");
+        PruebaCarga prueba = new PruebaCarga(URI.create(args[1]), Files.readAllBytes(imagen));
+        System.out.println(prueba.ejecutar(clientes, Duration.ofSeconds(2), Duration.ofSeconds(segundos)));
+    }
+}
@@ -0,0 +1,455 @@
+package pbmt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * servidor HTTP local con el proceso automatico (opcion 7), para no pagar el arranque de la JVM y el calentamiento del JIT
+ * en cada huella: POST /procesar con los bytes de la imagen (cualquier formato de ImageIO) en el cuerpo
+ * parametros: binarizacion (umbral fijo, otsu, media o sauvola, 50 por defecto), segmentar (true o 1) y
+ * salida: plantilla (por defecto, los bytes de PlantillaHuella.aBytes), esqueleto (PBM) o ambos (la plantilla seguida del PBM,
+ * con la longitud de la plantilla en la cabecera X-Bytes-Plantilla)
+ * GET /salud da el estado y las latencias en JSON y /metricas las de las etapas como ExportadorMetricas
+ * cada peticion va en un hilo virtual si la JVM los tiene (Java 21) o en un pool de hilos normal si no; el proceso es de CPU,
+ * asi que como mucho se procesan a la vez tantas imagenes como trabajadores (un PipelineFusionado cada uno), y la peticion
+ * que no consigue uno en la espera maxima recibe 503 con Retry-After en lugar de acumularse
+ * el trabajador se reserva antes de leer el cuerpo, asi una peticion rechazada no llega a ocupar memoria con la imagen
+ * (su cuerpo se descarta tras responder) y una imagen que ImageIO no puede leer, desconocida o corrupta, recibe 400
+ * y como mucho hay tantos cuerpos leidos (de hasta BYTES_MAXIMOS) como trabajadores
+ * antes de abrir el servidor se procesan unas huellas sinteticas para que el JIT compile el camino completo antes de la primera
+ * peticion, asi ninguna peticion compite con el calentamiento ni se pierden sus metricas al vaciarlas tras el
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class ServidorProceso implements Closeable {
+    public static final int PUERTO_DEFECTO = 8080;
+    public static final long ESPERA_DEFECTO_MS = 100;
+    public static final int BYTES_MAXIMOS = 64 << 20;//imagen mas grande que se acepta
+    public static final int IMAGENES_CALENTAMIENTO = 200;
+
+    /**
+     * pipeline y extractor reutilizados entre peticiones, solo los usa un hilo a la vez
+     */
+    private static class Trabajador {
+        final PipelineFusionado pipeline = new PipelineFusionado();
+        final ExtractorMinucias extractor = new ExtractorMinucias();
+    }
+
+    /**
+     * parametros de una peticion
+     */
+    private static class Peticion {
+        Binarizador binarizador = Binarizador.fijo(Binarizador.UMBRAL_DEFECTO);
+        boolean segmentar;
+        boolean esqueleto;
+        boolean plantilla = true;
+    }
+
+    private final HttpServer servidor;
+    private final ExecutorService hilos;
+    private final boolean hilosVirtuales;
+    private final ArrayBlockingQueue<Trabajador> libres;//hace de semaforo, sacar uno es el permiso para procesar
+    private final int concurrentes;
+    private final long esperaMaxima;
+    private final MetricasEtapas metricas = MetricasEtapas.global();
+    private final HistogramaMetricas latencias = new HistogramaMetricas();//de las peticiones procesadas, en ns
+    private final AtomicLong correctas = new AtomicLong();
+    private final AtomicLong rechazadas = new AtomicLong();
+    private final AtomicLong erroneas = new AtomicLong();
+    private final long msCalentamiento;
+
+    /**
+     * constructor, arranca el servidor sin calentar
+     *
+     * @param puerto        con el puerto, 0 para uno libre
+     * @param concurrentes  con las imagenes que se procesan a la vez como mucho, normalmente los nucleos
+     * @param esperaMaximaMs con los milisegundos que una peticion espera un trabajador antes de recibir 503
+     * @throws IOException si no se puede abrir el puerto
+     */
+    public ServidorProceso(int puerto, int concurrentes, long esperaMaximaMs) throws IOException {
+        this(puerto, concurrentes, esperaMaximaMs, 0);
+    }
+
+    /**
+     * constructor, calienta con los trabajadores y arranca el servidor despues, con las metricas ya vacias
+     *
+     * @param puerto                con el puerto, 0 para uno libre
+     * @param concurrentes          con las imagenes que se procesan a la vez como mucho, normalmente los nucleos
+     * @param esperaMaximaMs        con los milisegundos que una peticion espera un trabajador antes de recibir 503
+     * @param imagenesCalentamiento con las huellas sinteticas que se procesan antes de aceptar peticiones, 0 para no calentar
+     * @throws IOException si no se puede abrir el puerto o falla el calentamiento
+     */
+    public ServidorProceso(int puerto, int concurrentes, long esperaMaximaMs, int imagenesCalentamiento) throws IOException {
+        if (concurrentes < 1) {
+            throw new IllegalArgumentException("concurrentes tiene que ser al menos 1");
+        }
+        this.concurrentes = concurrentes;
+        this.esperaMaxima = TimeUnit.MILLISECONDS.toNanos(esperaMaximaMs);
+        this.libres = new ArrayBlockingQueue<>(concurrentes);
+        for (int i = 0; i < concurrentes; i++) {
+            libres.add(new Trabajador());
+        }
+        ExecutorService virtuales = hilosVirtuales();
+        this.hilosVirtuales = virtuales != null;
+        this.hilos = virtuales != null ? virtuales : Executors.newCachedThreadPool();
+        this.servidor = ExportadorMetricas.crearServidor(new InetSocketAddress("localhost", puerto));
+        servidor.setExecutor(hilos);
+        servidor.createContext("/procesar", this::atenderProceso);
+        servidor.createContext("/salud", intercambio -> responder(intercambio, 200, "application/json",
+                estado().getBytes(StandardCharsets.UTF_8)));
+        ExportadorMetricas.registrar(servidor, metricas);
+        try {
+            msCalentamiento = imagenesCalentamiento > 0 ? calentar(imagenesCalentamiento) : 0;
+        } catch (IOException e) {
+            servidor.stop(0);//el puerto ya estaba reservado
+            hilos.shutdown();
+            throw e;
+        }
+        servidor.start();
+    }
+
+    /**
+     * un hilo virtual por tarea si la JVM los tiene, por reflexion para seguir compilando y funcionando con Java 17
+     *
+     * @return ejecutor o null si no hay hilos virtuales
+     */
+    static ExecutorService hilosVirtuales() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {//antes de Java 21, o 19 y 20 sin --enable-preview
+            return null;
+        }
+    }
+
+    public int getPuerto() {
+        return servidor.getAddress().getPort();
+    }
+
+    public boolean usaHilosVirtuales() {
+        return hilosVirtuales;
+    }
+
+    public long getCorrectas() {
+        return correctas.get();
+    }
+
+    public long getRechazadas() {
+        return rechazadas.get();
+    }
+
+    public long getErroneas() {
+        return erroneas.get();
+    }
+
+    public HistogramaMetricas getLatencias() {
+        return latencias;
+    }
+
+    /**
+     * milisegundos que ha tardado el calentamiento del constructor
+     */
+    public long getMsCalentamiento() {
+        return msCalentamiento;
+    }
+
+    /**
+     * procesa huellas sinteticas de 500 dpi en JPEG y PNG por el mismo camino que las peticiones, con todos los trabajadores
+     * a la vez, y despues vacia las metricas para que no cuenten en las de las peticiones
+     * solo desde el constructor, antes de arrancar el servidor
+     *
+     * @param imagenes con el numero de imagenes a procesar
+     * @return milisegundos del calentamiento
+     * @throws IOException
+     */
+    private long calentar(int imagenes) throws IOException {
+        long inicio = System.nanoTime();
+        BufferedImage huella = HuellaSintetica.aResolucion(500);
+        byte[][] codificadas = {codificar(huella, "jpg"), codificar(huella, "png")};
+        Peticion peticion = new Peticion();
+        peticion.esqueleto = true;
+        ExecutorService calentamiento = Executors.newFixedThreadPool(concurrentes);
+        try {
+            Future<?>[] tareas = new Future<?>[imagenes];
+            for (int i = 0; i < imagenes; i++) {
+                byte[] datos = codificadas[i % codificadas.length];
+                tareas[i] = calentamiento.submit(() -> {
+                    Trabajador trabajador = libres.take();
+                    try {
+                        return procesar(trabajador, datos, peticion);
+                    } finally {
+                        libres.add(trabajador);
+                    }
+                });
+            }
+            for (Future<?> tarea : tareas) {
+                tarea.get();
+            }
+        } catch (Exception e) {
+            throw new IOException("fallo en el calentamiento", e);
+        } finally {
+            calentamiento.shutdown();
+        }
+        metricas.reiniciar();
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+    }
+
+    private static byte[] codificar(BufferedImage imagen, String formato) throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        ImageIO.write(imagen, formato, salida);
+        return salida.toByteArray();
+    }
+
+    /**
+     * POST /procesar, en el hilo de la peticion
+     */
+    private void atenderProceso(HttpExchange intercambio) throws IOException {
+        long inicio = System.nanoTime();
+        try {
+            if (!intercambio.getRequestMethod().equals("POST")) {
+                intercambio.getResponseHeaders().set("Allow", "POST");
+                error(intercambio, 405, "solo POST con la imagen en el cuerpo");
+                return;
+            }
+            Peticion peticion;
+            try {
+                peticion = leerParametros(intercambio.getRequestURI().getRawQuery());
+            } catch (IllegalArgumentException e) {
+                error(intercambio, 400, e.getMessage());
+                return;
+            }
+            String longitud = intercambio.getRequestHeaders().getFirst("Content-Length");
+            if (longitud != null && longitud.matches("\\d{1,18}") && Long.parseLong(longitud) > BYTES_MAXIMOS) {
+                error(intercambio, 413, "imagen de mas de " + (BYTES_MAXIMOS >> 20) + " MB");
+                return;
+            }
+            //el trabajador se reserva antes de leer el cuerpo, asi como mucho hay concurrentes cuerpos en memoria
+            Trabajador trabajador = libres.poll(esperaMaxima, TimeUnit.NANOSECONDS);
+            if (trabajador == null) {//todos ocupados: se rechaza ya, sin leer la imagen, en lugar de encolar sin limite
+                rechazadas.incrementAndGet();
+                intercambio.getResponseHeaders().set("Retry-After", "1");
+                rechazarSinGuardar(intercambio, "todos los trabajadores ocupados");
+                return;
+            }
+            byte[][] resultado;
+            try {
+                byte[] datos;
+                try (InputStream cuerpo = intercambio.getRequestBody()) {
+                    datos = cuerpo.readNBytes(BYTES_MAXIMOS + 1);
+                }
+                if (datos.length > BYTES_MAXIMOS) {//sin Content-Length, o con uno que no era cierto
+                    error(intercambio, 413, "imagen de mas de " + (BYTES_MAXIMOS >> 20) + " MB");
+                    return;
+                }
+                resultado = procesar(trabajador, datos, peticion);
+            } finally {
+                libres.add(trabajador);
+            }
+            if (resultado == null) {
+                error(intercambio, 400, "formato de imagen no reconocido");
+                return;
+            }
+            byte[] plantilla = resultado[0], esqueleto = resultado[1];
+            byte[] cuerpo;
+            String tipo;
+            if (plantilla != null && esqueleto != null) {
+                intercambio.getResponseHeaders().set("X-Bytes-Plantilla", Integer.toString(plantilla.length));
+                cuerpo = new byte[plantilla.length + esqueleto.length];
+                System.arraycopy(plantilla, 0, cuerpo, 0, plantilla.length);
+                System.arraycopy(esqueleto, 0, cuerpo, plantilla.length, esqueleto.length);
+                tipo = "application/octet-stream";
+            } else if (plantilla != null) {
+                cuerpo = plantilla;
+                tipo = "application/octet-stream";
+            } else {
+                cuerpo = esqueleto;
+                tipo = "image/x-portable-bitmap";
+            }
+            responder(intercambio, 200, tipo, cuerpo);
+            correctas.incrementAndGet();
+            latencias.registrar(System.nanoTime() - inicio);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error(intercambio, 503, "servidor parando");
+        } catch (RuntimeException e) {//un fallo en una imagen no tira el servidor
+            error(intercambio, 500, e.toString());
+        }
+    }
+
+    /**
+     * decodifica y procesa una imagen con un trabajador ya reservado
+     *
+     * @return plantilla y esqueleto en PBM, null los que no se han pedido, o null si la imagen no se puede leer
+     */
+    private byte[][] procesar(Trabajador trabajador, byte[] datos, Peticion peticion) {
+        long inicio = metricas.inicio(), bytes = metricas.bytesHilo();
+        BufferedImage imagen;
+        try {
+            imagen = ImageIO.read(new ByteArrayInputStream(datos));
+        } catch (IOException e) {//imagen truncada o corrupta con la cabecera de un formato conocido, igual que uno desconocido
+            imagen = null;
+        }
+        metricas.registrar(MetricasEtapas.Etapa.DECODIFICAR, inicio, bytes);
+        if (imagen == null) {
+            return null;
+        }
+        ImagenBinaria esqueleto = trabajador.pipeline.procesar(imagen, peticion.binarizador, peticion.segmentar);
+        byte[][] resultado = new byte[2][];
+        if (peticion.plantilla) {
+            inicio = metricas.inicio();
+            bytes = metricas.bytesHilo();
+            resultado[0] = trabajador.extractor.extraer(esqueleto).aBytes();
+            metricas.registrar(MetricasEtapas.Etapa.MINUCIAS, inicio, bytes);
+        }
+        if (peticion.esqueleto) {
+            inicio = metricas.inicio();
+            bytes = metricas.bytesHilo();
+            resultado[1] = EscritorNetpbm.codificar(esqueleto);//antes de devolver el trabajador, es un buffer del pipeline
+            metricas.registrar(MetricasEtapas.Etapa.CODIFICAR, inicio, bytes);
+        }
+        return resultado;
+    }
+
+    /**
+     * parametros de la consulta, los desconocidos se ignoran
+     *
+     * @throws IllegalArgumentException si algun valor no es valido
+     */
+    static Peticion leerParametros(String consulta) {
+        Map<String, String> parametros = new HashMap<>();
+        if (consulta != null && !consulta.isEmpty()) {
+            for (String par : consulta.split("&")) {
+                int igual = par.indexOf('=');
+                String clave = URLDecoder.decode(igual < 0 ? par : par.substring(0, igual), StandardCharsets.UTF_8);
+                parametros.put(clave, igual < 0 ? "" : URLDecoder.decode(par.substring(igual + 1), StandardCharsets.UTF_8));
+            }
+        }
+        Peticion peticion = new Peticion();
+        if (parametros.containsKey("binarizacion")) {
+            peticion.binarizador = Binarizador.porNombre(parametros.get("binarizacion"));
+        }
+        String segmentar = parametros.getOrDefault("segmentar", "false");
+        peticion.segmentar = segmentar.equals("true") || segmentar.equals("1") || segmentar.isEmpty();
+        switch (parametros.getOrDefault("salida", "plantilla")) {
+            case "plantilla":
+                break;
+            case "esqueleto":
+                peticion.plantilla = false;
+                peticion.esqueleto = true;
+                break;
+            case "ambos":
+                peticion.esqueleto = true;
+                break;
+            default:
+                throw new IllegalArgumentException("salida tiene que ser plantilla, esqueleto o ambos");
+        }
+        return peticion;
+    }
+
+    /**
+     * estado del servidor y percentiles de latencia de las peticiones procesadas
+     */
+    String estado() {
+        return String.format(Locale.ROOT, "{\"hilos\":\"%s\",\"concurrentes\":%d,\"libres\":%d,\"correctas\":%d,\"rechazadas\":%d,\"erroneas\":%d,"
+                        + "\"latencia\":{\"p50_ns\":%d,\"p99_ns\":%d,\"max_ns\":%d}}", hilosVirtuales ? "virtuales" : "plataforma", concurrentes,
+                libres.size(), correctas.get(), rechazadas.get(), erroneas.get(), latencias.percentil(0.5), latencias.percentil(0.99),
+                latencias.getMaximo());
+    }
+
+    /**
+     * 503 sin haber leido el cuerpo, que despues se descarta a trozos sin guardarlo: si se cerrase la conexion con el cuerpo
+     * a medias, el cliente que aun lo esta mandando recibiria un reset en lugar de la respuesta
+     */
+    private void rechazarSinGuardar(HttpExchange intercambio, String mensaje) throws IOException {
+        byte[] cuerpo = ("ERROR! " + mensaje + "\n").getBytes(StandardCharsets.UTF_8);
+        intercambio.getResponseHeaders().set("Content-Type", "text/plain");
+        intercambio.getResponseHeaders().set("Connection", "close");
+        intercambio.sendResponseHeaders(503, cuerpo.length);
+        OutputStream salida = intercambio.getResponseBody();
+        salida.write(cuerpo);
+        salida.flush();
+        try (InputStream entrada = intercambio.getRequestBody()) {
+            entrada.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {//el cliente ha cerrado sin mandar el cuerpo, ya tiene la respuesta
+        } finally {
+            try {
+                salida.close();
+            } catch (IOException e) {//la conexion ya estaba cerrada
+            }
+        }
+    }
+
+    private void error(HttpExchange intercambio, int codigo, String mensaje) throws IOException {
+        if (codigo != 503) {
+            erroneas.incrementAndGet();
+        }
+        responder(intercambio, codigo, "text/plain", ("ERROR! " + mensaje + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void responder(HttpExchange intercambio, int codigo, String tipo, byte[] cuerpo) throws IOException {
+        intercambio.getResponseHeaders().set("Content-Type", tipo);
+        intercambio.sendResponseHeaders(codigo, cuerpo.length);
+        try (OutputStream salida = intercambio.getResponseBody()) {
+            salida.write(cuerpo);
+        }
+    }
+
+    /**
+     * para el servidor dejando un segundo a las peticiones en curso
+     */
+    @Override
+    public void close() {
+        servidor.stop(1);
+        hilos.shutdown();
+    }
+
+    /**
+     * punto de entrada del modo servidor desde el main de FingerPrintImage, sigue hasta que se para la JVM (Ctrl+C)
+     *
+     * @param args con -servidor [puerto] [concurrentes] [esperaMs]
+     * @throws IOException
+     */
+    public static void ejecutar(String[] args) throws IOException {
+        int puerto, concurrentes;
+        long espera;
+        try {
+            puerto = args.length > 1 ? Integer.parseInt(args[1]) : PUERTO_DEFECTO;
+            concurrentes = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            espera = args.length > 3 ? Long.parseLong(args[3]) : ESPERA_DEFECTO_MS;
+        } catch (NumberFormatException e) {
+            System.out.println("uso: -servidor [puerto] [concurrentes] [esperaMs]");
+            return;
+        }
+        ServidorProceso servidor;
+        System.out.println("Calentando con " + IMAGENES_CALENTAMIENTO + " huellas sinteticas...");
+        try {
+            servidor = new ServidorProceso(puerto, concurrentes, espera, IMAGENES_CALENTAMIENTO);
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println("ERROR! " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(servidor::close));
+        System.out.printf("Servidor en http://localhost:%d/procesar (%d a la vez, hilos %s), calentado en %d ms%n", servidor.getPuerto(),
+                concurrentes, servidor.usaHilosVirtuales() ? "virtuales" : "de plataforma", servidor.getMsCalentamiento());
+    }
+}
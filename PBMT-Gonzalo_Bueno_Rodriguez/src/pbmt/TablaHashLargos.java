@@ -0,0 +1,139 @@
+package pbmt;
+
+import java.util.Arrays;
+
+/**
+ * tabla hash de claves long a listas de enteros, sin objetos por entrada (ni Long ni Integer ni nodos)
+ * direccionamiento abierto con sondeo lineal para las claves, y cada clave apunta a una lista enlazada de valores
+ * guardada en dos arrays de enteros: la ultima entrada añadida va primero
+ * recorrido: for (int e = tabla.primera(clave); e >= 0; e = tabla.siguiente(e)) { tabla.valor(e) }
+ * no se pueden borrar claves, las tablas se reconstruyen enteras cuando hace falta
+ *
+ * @author Gonzalo Bueno Rodriguez
+ */
+public class TablaHashLargos {
+    private long[] claves;
+    private int[] primeras;//primera entrada de cada clave, -1 si la posicion esta libre
+    private int numClaves;
+    private int mascara;
+
+    private int[] siguientes = new int[64];//siguiente entrada de la misma clave, -1 al final
+    private int[] valores = new int[64];
+    private int numEntradas;
+
+    /**
+     * constructor
+     *
+     * @param capacidadClaves con el numero de claves distintas esperado, la tabla crece si se supera
+     */
+    public TablaHashLargos(int capacidadClaves) {
+        int capacidad = Integer.highestOneBit(Math.max(16, capacidadClaves * 2 - 1)) << 1;//factor de carga maximo 0.5
+        claves = new long[capacidad];
+        primeras = new int[capacidad];
+        Arrays.fill(primeras, -1);
+        mascara = capacidad - 1;
+    }
+
+    /**
+     * mezcla los bits de la clave para repartir bien claves parecidas (final de MurmurHash3)
+     */
+    private static int posicionInicial(long clave, int mascara) {
+        clave ^= clave >>> 33;
+        clave *= 0xff51afd7ed558ccdL;
+        clave ^= clave >>> 33;
+        clave *= 0xc4ceb9fe1a85ec53L;
+        clave ^= clave >>> 33;
+        return (int) clave & mascara;
+    }
+
+    /**
+     * añade un valor a la lista de la clave
+     */
+    public void agregar(long clave, int valor) {
+        if (numClaves * 2 >= claves.length) {
+            crecer();
+        }
+        int posicion = posicionInicial(clave, mascara);
+        while (primeras[posicion] >= 0 && claves[posicion] != clave) {
+            posicion = (posicion + 1) & mascara;
+        }
+        if (primeras[posicion] < 0) {
+            claves[posicion] = clave;
+            numClaves++;
+        }
+        if (numEntradas == valores.length) {
+            siguientes = Arrays.copyOf(siguientes, numEntradas * 2);
+            valores = Arrays.copyOf(valores, numEntradas * 2);
+        }
+        siguientes[numEntradas] = primeras[posicion];
+        valores[numEntradas] = valor;
+        primeras[posicion] = numEntradas++;
+    }
+
+    private void crecer() {
+        long[] clavesAnteriores = claves;
+        int[] primerasAnteriores = primeras;
+        claves = new long[clavesAnteriores.length * 2];
+        primeras = new int[clavesAnteriores.length * 2];
+        Arrays.fill(primeras, -1);
+        mascara = claves.length - 1;
+        for (int i = 0; i < clavesAnteriores.length; i++) {
+            if (primerasAnteriores[i] >= 0) {
+                int posicion = posicionInicial(clavesAnteriores[i], mascara);
+                while (primeras[posicion] >= 0) {
+                    posicion = (posicion + 1) & mascara;
+                }
+                claves[posicion] = clavesAnteriores[i];
+                primeras[posicion] = primerasAnteriores[i];
+            }
+        }
+    }
+
+    /**
+     * primera entrada de la clave
+     *
+     * @return indice de la entrada o -1 si la clave no esta
+     */
+    public int primera(long clave) {
+        int posicion = posicionInicial(clave, mascara);
+        while (primeras[posicion] >= 0) {
+            if (claves[posicion] == clave) {
+                return primeras[posicion];
+            }
+            posicion = (posicion + 1) & mascara;
+        }
+        return -1;
+    }
+
+    /**
+     * siguiente entrada de la misma clave, o -1 si era la ultima
+     */
+    public int siguiente(int entrada) {
+        return siguientes[entrada];
+    }
+
+    public int valor(int entrada) {
+        return valores[entrada];
+    }
+
+    /**
+     * numero de claves distintas
+     */
+    public int getNumClaves() {
+        return numClaves;
+    }
+
+    /**
+     * numero total de valores añadidos
+     */
+    public int getNumEntradas() {
+        return numEntradas;
+    }
+
+    /**
+     * bytes de los arrays de la tabla, para comparar con otras estructuras
+     */
+    public long getBytes() {
+        return claves.length * 8L + primeras.length * 4L + siguientes.length * 4L + valores.length * 4L;
+    }
+}